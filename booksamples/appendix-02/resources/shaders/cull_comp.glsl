@@ -0,0 +1,90 @@
+#version 450
+
+// Camera frustum plus one per shadow cascade, defined from CullBuffers.NUM_VIEWS when compiled by the engine
+#ifndef NUM_VIEWS
+#define NUM_VIEWS 4
+#endif
+
+struct InstanceData {
+    vec4 posScale;
+    uvec2 rotation;
+    uint matIdx;
+    uint padding;
+};
+
+struct DrawCommand {
+    uint indexCount;
+    uint instanceCount;
+    uint firstIndex;
+    int vertexOffset;
+    uint firstInstance;
+};
+
+layout(set = 0, binding = 0) uniform FrustumUniform {
+    vec4 planes[NUM_VIEWS * 6];
+} frustum;
+
+layout(push_constant) uniform PushConstants {
+    uint viewIdx;
+} push;
+
+layout(std430, set = 1, binding = 0) readonly buffer SrcInstancesBuf {
+    InstanceData data[];
+} srcInstances;
+
+layout(std430, set = 2, binding = 0) readonly buffer SrcCommandsBuf {
+    DrawCommand data[];
+} srcCommands;
+
+layout(std430, set = 3, binding = 0) readonly buffer BoundingSpheresBuf {
+    vec4 data[];
+} boundingSpheres;
+
+layout(std430, set = 4, binding = 0) writeonly buffer DstInstancesBuf {
+    InstanceData data[];
+} dstInstances;
+
+layout(std430, set = 5, binding = 0) buffer DstCommandsBuf {
+    DrawCommand data[];
+} dstCommands;
+
+layout(local_size_x = 64, local_size_y = 1, local_size_z = 1) in;
+
+vec3 rotate(vec4 q, vec3 v) {
+    vec3 t = 2.0 * cross(q.xyz, v);
+    return v + q.w * t + cross(q.xyz, t);
+}
+
+void main()
+{
+    // One row of work groups per draw command, one invocation per instance slot
+    uint cmdIdx = gl_WorkGroupID.y;
+    uint localIdx = gl_GlobalInvocationID.x;
+    DrawCommand srcCommand = srcCommands.data[cmdIdx];
+    if (localIdx == 0) {
+        // The instance count has been cleared before the dispatch and is only updated atomically
+        dstCommands.data[cmdIdx].indexCount = srcCommand.indexCount;
+        dstCommands.data[cmdIdx].firstIndex = srcCommand.firstIndex;
+        dstCommands.data[cmdIdx].vertexOffset = srcCommand.vertexOffset;
+        dstCommands.data[cmdIdx].firstInstance = srcCommand.firstInstance;
+    }
+    if (localIdx >= srcCommand.instanceCount) {
+        return;
+    }
+
+    InstanceData instance = srcInstances.data[srcCommand.firstInstance + localIdx];
+    vec4 q = normalize(vec4(unpackSnorm2x16(instance.rotation.x), unpackSnorm2x16(instance.rotation.y)));
+    vec4 sphere = boundingSpheres.data[cmdIdx];
+    float scale = instance.posScale.w;
+    vec3 center = instance.posScale.xyz + rotate(q, sphere.xyz * scale);
+    float radius = sphere.w * abs(scale);
+    for (int i = 0; i < 6; i++) {
+        vec4 plane = frustum.planes[push.viewIdx * 6 + i];
+        if (dot(plane.xyz, center) + plane.w < -radius) {
+            return;
+        }
+    }
+
+    uint dstIdx = atomicAdd(dstCommands.data[cmdIdx].instanceCount, 1);
+    dstInstances.data[srcCommand.firstInstance + dstIdx] = instance;
+}
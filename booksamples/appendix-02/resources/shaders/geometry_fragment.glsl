@@ -1,7 +1,23 @@
 #version 450
 
-// Keep in sync manually with Java code
-const int MAX_TEXTURES = 100;
+// Variants without alpha testing define it as 0
+#ifndef ALPHA_TEST
+#define ALPHA_TEST 1
+#endif
+
+// Bindless variants use a runtime sized array, indices are not uniform across draws
+#ifdef BINDLESS
+#extension GL_EXT_nonuniform_qualifier : require
+#define TEXTURES_SIZE
+#define TEXTURE_IDX(idx) nonuniformEXT(idx)
+#else
+// Set by the Java code to the size of the texture descriptor set
+#ifndef MAX_TEXTURES
+#define MAX_TEXTURES 100
+#endif
+#define TEXTURES_SIZE MAX_TEXTURES
+#define TEXTURE_IDX(idx) idx
+#endif
 
 layout(location = 0) in vec3 inNormal;
 layout(location = 1) in vec3 inTangent;
@@ -25,12 +41,12 @@ struct Material {
 layout (std430, set=2, binding=0) readonly buffer srcBuf {
     Material data[];
 } materialsBuf;
-layout(set = 3, binding = 0) uniform sampler2D textSampler[MAX_TEXTURES];
+layout(set = 3, binding = 0) uniform sampler2D textSampler[TEXTURES_SIZE];
 
 vec4 calcAlbedo(Material material) {
     outAlbedo = material.diffuseColor;
     if (material.textureIdx >= 0) {
-        outAlbedo = texture(textSampler[material.textureIdx], inTextCoords);
+        outAlbedo = texture(textSampler[TEXTURE_IDX(material.textureIdx)], inTextCoords);
     }
     return outAlbedo;
 }
@@ -38,7 +54,7 @@ vec4 calcAlbedo(Material material) {
 vec3 calcNormal(Material material, vec3 normal, vec2 textCoords, mat3 TBN) {
     vec3 newNormal = normal;
     if (material.normalMapIdx >= 0) {
-        newNormal = texture(textSampler[material.normalMapIdx], textCoords).rgb;
+        newNormal = texture(textSampler[TEXTURE_IDX(material.normalMapIdx)], textCoords).rgb;
         newNormal = normalize(newNormal * 2.0 - 1.0);
         newNormal = normalize(TBN * newNormal);
     }
@@ -49,7 +65,7 @@ vec2 calcRoughnessMetallicFactor(Material material, vec2 textCoords) {
     float roughnessFactor = 0.0f;
     float metallicFactor = 0.0f;
     if (material.metalRoughMapIdx >= 0) {
-        vec4 metRoughValue = texture(textSampler[material.metalRoughMapIdx], textCoords);
+        vec4 metRoughValue = texture(textSampler[TEXTURE_IDX(material.metalRoughMapIdx)], textCoords);
         roughnessFactor = metRoughValue.g;
         metallicFactor = metRoughValue.b;
     } else {
@@ -65,10 +81,12 @@ void main()
     Material material = materialsBuf.data[inMatIdx];
     outAlbedo = calcAlbedo(material);
 
+#if ALPHA_TEST
     // Hack to avoid transparent PBR artifacts
     if (outAlbedo.a < 0.5) {
         discard;
     }
+#endif
 
     mat3 TBN = mat3(inTangent, inBitangent, inNormal);
     vec3 newNormal = calcNormal(material, inNormal, inTextCoords, TBN);
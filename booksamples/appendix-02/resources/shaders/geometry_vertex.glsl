@@ -7,8 +7,9 @@ layout(location = 3) in vec3 entityBitangent;
 layout(location = 4) in vec2 entityTextCoords;
 
 // Instanced attributes
-layout (location = 5) in mat4 entityModelMatrix;
-layout (location = 9) in uint entityMatIdx;
+layout (location = 5) in vec4 entityPosScale;
+layout (location = 6) in vec4 entityRotation;
+layout (location = 7) in uint entityMatIdx;
 
 layout(location = 0) out vec3 outNormal;
 layout(location = 1) out vec3 outTangent;
@@ -28,8 +29,29 @@ layout(set = 1, binding = 0) uniform ViewUniform {
     mat4 viewMatrix;
 } viewUniform;
 
+mat4 buildModelMatrix(vec4 posScale, vec4 rotation) {
+    vec4 q = normalize(rotation);
+    vec3 q2 = q.xyz + q.xyz;
+    float xx = q.x * q2.x;
+    float yy = q.y * q2.y;
+    float zz = q.z * q2.z;
+    float xy = q.x * q2.y;
+    float xz = q.x * q2.z;
+    float yz = q.y * q2.z;
+    float wx = q.w * q2.x;
+    float wy = q.w * q2.y;
+    float wz = q.w * q2.z;
+    float s = posScale.w;
+    return mat4(
+        vec4(s * (1.0 - yy - zz), s * (xy + wz), s * (xz - wy), 0.0),
+        vec4(s * (xy - wz), s * (1.0 - xx - zz), s * (yz + wx), 0.0),
+        vec4(s * (xz + wy), s * (yz - wx), s * (1.0 - xx - yy), 0.0),
+        vec4(posScale.xyz, 1.0));
+}
+
 void main()
 {
+    mat4 entityModelMatrix = buildModelMatrix(entityPosScale, entityRotation);
     mat4 modelViewMatrix = viewUniform.viewMatrix * entityModelMatrix;
     outNormal     = normalize(modelViewMatrix * vec4(entityNormal, 0)).xyz;
     outTangent    = normalize(modelViewMatrix * vec4(entityTangent, 0)).xyz;
@@ -25,6 +25,7 @@ struct CascadeShadow {
 };
 
 layout(location = 0) in vec2 inTextCoord;
+layout(location = 1) in vec2 inSampleCoord;
 layout(location = 0) out vec4 outFragColor;
 
 layout(set = 0, binding = 0) uniform sampler2D albedoSampler;
@@ -193,15 +194,15 @@ float calcShadow(vec4 worldPosition, uint cascadeIndex)
 }
 
 void main() {
-    vec3 albedo = texture(albedoSampler, inTextCoord).rgb;
-    vec3 normal = normalize(2.0 * texture(normalsSampler, inTextCoord).rgb  - 1.0);
-    vec3 pbrSampledValue = texture(pbrSampler, inTextCoord).rgb;
+    vec3 albedo = texture(albedoSampler, inSampleCoord).rgb;
+    vec3 normal = normalize(2.0 * texture(normalsSampler, inSampleCoord).rgb  - 1.0);
+    vec3 pbrSampledValue = texture(pbrSampler, inSampleCoord).rgb;
     float ao = 1.0;
     float roughness = pbrSampledValue.g;
     float metallic = pbrSampledValue.b;
 
     // Retrieve position from depth
-    vec4 clip       = vec4(inTextCoord.x * 2.0 - 1.0, inTextCoord.y * -2.0 + 1.0, texture(depthSampler, inTextCoord).x, 1.0);
+    vec4 clip       = vec4(inTextCoord.x * 2.0 - 1.0, inTextCoord.y * -2.0 + 1.0, texture(depthSampler, inSampleCoord).x, 1.0);
     vec4 view_w     = projUniform.invProjectionMatrix * clip;
     vec3 view_pos   = view_w.xyz / view_w.w;
     vec4 world_pos    = projUniform.invViewMatrix * vec4(view_pos, 1);
@@ -1,9 +1,16 @@
 #version 450
 
+// Region of the attachments covered when rendering at a lower resolution
+layout(push_constant) uniform PushConstants {
+    vec2 uvScale;
+} pushConstants;
+
 layout(location = 0) out vec2 outTextCoord;
+layout(location = 1) out vec2 outSampleCoord;
 
 void main()
 {
     outTextCoord = vec2((gl_VertexIndex << 1) & 2, gl_VertexIndex & 2);
+    outSampleCoord = outTextCoord * pushConstants.uvScale;
     gl_Position = vec4(outTextCoord.x * 2.0f - 1.0f, outTextCoord.y * -2.0f + 1.0f, 0.0f, 1.0f);
 }
\ No newline at end of file
@@ -1,7 +1,23 @@
 #version 450
 
-// Keep in sync manually with Java code
-const int MAX_TEXTURES = 100;
+// Variants without alpha testing define it as 0
+#ifndef ALPHA_TEST
+#define ALPHA_TEST 1
+#endif
+
+// Bindless variants use a runtime sized array, indices are not uniform across draws
+#ifdef BINDLESS
+#extension GL_EXT_nonuniform_qualifier : require
+#define TEXTURES_SIZE
+#define TEXTURE_IDX(idx) nonuniformEXT(idx)
+#else
+// Set by the Java code to the size of the texture descriptor set
+#ifndef MAX_TEXTURES
+#define MAX_TEXTURES 100
+#endif
+#define TEXTURES_SIZE MAX_TEXTURES
+#define TEXTURE_IDX(idx) idx
+#endif
 
 struct Material {
     vec4 diffuseColor;
@@ -12,7 +28,7 @@ struct Material {
     float metallicFactor;
 };
 
-layout (set = 1, binding = 0) uniform sampler2D textSampler[MAX_TEXTURES];
+layout (set = 1, binding = 0) uniform sampler2D textSampler[TEXTURES_SIZE];
 layout (std430, set=2, binding=0) readonly buffer srcBuf {
     Material data[];
 } materialsBuf;
@@ -22,8 +38,10 @@ layout (location = 1) in flat uint intMatIdx;
 void main()
 {
     Material material = materialsBuf.data[intMatIdx];
-    float alpha = texture(textSampler[material.textureIdx], inTextCoords).a;
+    float alpha = texture(textSampler[TEXTURE_IDX(material.textureIdx)], inTextCoords).a;
+#if ALPHA_TEST
     if (alpha < 0.5) {
         discard;
     }
+#endif
 }
\ No newline at end of file
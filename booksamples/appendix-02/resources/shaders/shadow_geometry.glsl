@@ -8,6 +8,7 @@ layout (triangle_strip, max_vertices = 3) out;
 
 layout (location = 0) in vec2 inTextCoords[];
 layout (location = 1) in uint intMatIdx[];
+layout (location = 2) in uint inCascadeMask[];
 
 layout (location = 0) out vec2 outTextCoords;
 layout (location = 1) out flat uint outMatIdx;
@@ -19,6 +20,10 @@ layout(set = 0, binding = 0) uniform ProjUniforms {
 
 void main()
 {
+    // Draws culled against a single cascade only rasterize into its layer
+    if ((inCascadeMask[0] & (1u << gl_InvocationID)) == 0u) {
+        return;
+    }
     for (int i = 0; i < 3; i++)
     {
         outTextCoords = inTextCoords[i];
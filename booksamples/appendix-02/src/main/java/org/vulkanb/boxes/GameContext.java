@@ -1,5 +1,6 @@
 package org.vulkanb.boxes;
 
+import org.vulkanb.eng.graph.Render;
 import org.vulkanb.eng.scene.Scene;
 import org.vulkanb.eng.sound.SoundManager;
 
@@ -13,6 +14,7 @@ public class GameContext {
     private final LevelsLoader levelsLoader;
     private final SoundManager soundManager;
     private GameLevel gameLevel;
+    private Render render;
 
     public GameContext() {
         boxList = new ArrayList<>();
@@ -47,6 +49,10 @@ public class GameContext {
         return levelsLoader;
     }
 
+    public Render getRender() {
+        return render;
+    }
+
     public SoundManager getSoundManager() {
         return soundManager;
     }
@@ -104,7 +110,11 @@ public class GameContext {
         boxList.clear();
     }
 
-    public void updateBoxes(Scene scene, long diffTimeMills) {
+    public void setRender(Render render) {
+        this.render = render;
+    }
+
+    public void updateBoxes(Scene scene, float diffTimeMills) {
         MovableItem boxToRemove = null;
         for (MovableItem box : boxList) {
             box.update(diffTimeMills);
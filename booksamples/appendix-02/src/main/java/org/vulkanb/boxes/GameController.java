@@ -44,7 +44,9 @@ public class GameController implements IAppLogic {
         ModelData boxModel = ModelLoader.loadModel(GameUtils.BOX_MODEl_ID, "resources/models/box/box.gltf",
                 "resources/models/box", false);
         modelDataList.add(boxModel);
+        modelDataList.forEach(scene::addModelBounds);
         render.loadModels(modelDataList);
+        gameContext.setRender(render);
 
         gameState = new MainMenuGameState(window, scene, gameContext);
 
@@ -66,7 +68,7 @@ public class GameController implements IAppLogic {
     }
 
     @Override
-    public void update(Window window, Scene scene, long diffTimeMillis) {
+    public void update(Window window, Scene scene, float diffTimeMillis) {
         animationController.update(scene);
         if (gameState != null) {
             gameState.update(scene, gameContext, diffTimeMillis);
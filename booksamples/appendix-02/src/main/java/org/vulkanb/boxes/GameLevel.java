@@ -63,6 +63,7 @@ public class GameLevel {
                         }
                     }
                     Entity entity = new Entity("map_entity_" + row + "_" + col, tileModelId, new Vector3f(col, 0.0f, row));
+                    entity.setStaticEntity(true);
                     scene.addEntity(entity);
                     tileTypes.add(tileType);
                 }
@@ -7,5 +7,5 @@ public interface IGameState {
 
     IGameState processInput(Window window, Scene scene, GameContext gameContext, long diffTimeMillis);
 
-    void update(Scene scene, GameContext gameContext, long diffTimeMillis);
+    void update(Scene scene, GameContext gameContext, float diffTimeMillis);
 }
@@ -64,7 +64,7 @@ public class MovableItem {
         this.speed = speed;
     }
 
-    public void update(long diffMillis) {
+    public void update(float diffMillis) {
         if (moveDir == MoveDir.NONE) {
             return;
         }
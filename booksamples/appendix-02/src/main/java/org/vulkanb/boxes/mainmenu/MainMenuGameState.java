@@ -41,7 +41,7 @@ public class MainMenuGameState implements IGameState {
     }
 
     @Override
-    public void update(Scene scene, GameContext gameContext, long diffTimeMillis) {
+    public void update(Scene scene, GameContext gameContext, float diffTimeMillis) {
         // Nothing to be done here
     }
 }
@@ -77,7 +77,7 @@ public class PlayerController {
         }
     }
 
-    public void update(long diffTimeMillis) {
+    public void update(float diffTimeMillis) {
         if (!playerMoving) {
             return;
         }
@@ -40,7 +40,7 @@ public class RunLevelGameState implements IGameState {
         cameraController = new CameraController();
         playerController = new PlayerController(player);
         nextGui = new NextLevelGui(window);
-        runLevelGui = new RunLevelGui(window, gameLevel);
+        runLevelGui = new RunLevelGui(window, gameLevel, gameContext.getRender());
         scene.setGuiInstance(runLevelGui);
     }
 
@@ -72,7 +72,7 @@ public class RunLevelGameState implements IGameState {
     }
 
     @Override
-    public void update(Scene scene, GameContext gameContext, long diffTimeMillis) {
+    public void update(Scene scene, GameContext gameContext, float diffTimeMillis) {
         playerController.update(diffTimeMillis);
         gameContext.updateBoxes(scene, diffTimeMillis);
     }
@@ -3,8 +3,9 @@ package org.vulkanb.boxes.runlevel;
 import imgui.*;
 import imgui.flag.*;
 import org.vulkanb.boxes.GameLevel;
-import org.vulkanb.eng.Window;
-import org.vulkanb.eng.graph.gui.FontsManager;
+import org.vulkanb.eng.*;
+import org.vulkanb.eng.graph.Render;
+import org.vulkanb.eng.graph.gui.*;
 import org.vulkanb.eng.scene.IGuiInstance;
 
 import static org.vulkanb.boxes.GameUtils.*;
@@ -13,12 +14,14 @@ public class RunLevelGui implements IGuiInstance {
 
     private static final String TXT_BACK = "BACK";
     private final GameLevel gameLevel;
+    private final Render render;
     private final Window window;
     private boolean backPressed = false;
 
-    public RunLevelGui(Window window, GameLevel gameLevel) {
+    public RunLevelGui(Window window, GameLevel gameLevel, Render render) {
         this.window = window;
         this.gameLevel = gameLevel;
+        this.render = render;
     }
 
     @Override
@@ -61,6 +64,10 @@ public class RunLevelGui implements IGuiInstance {
         ImGui.popFont();
         ImGui.end();
 
+        if (EngineProperties.getInstance().isMemoryStatsOverlay()) {
+            MemoryStatsGui.drawPanel(render.getMemoryStats(), 0.0f, windowHeight);
+        }
+
         ImGui.endFrame();
         ImGui.render();
 
@@ -29,7 +29,7 @@ public class SelectLevelGameState implements IGameState {
     }
 
     @Override
-    public void update(Scene scene, GameContext gameContext, long diffTimeMillis) {
+    public void update(Scene scene, GameContext gameContext, float diffTimeMillis) {
         // Nothing to be done here
     }
 }
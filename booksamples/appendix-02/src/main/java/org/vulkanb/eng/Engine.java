@@ -2,6 +2,7 @@ package org.vulkanb.eng;
 
 import imgui.*;
 import org.joml.Vector2f;
+import org.tinylog.Logger;
 import org.vulkanb.eng.graph.Render;
 import org.vulkanb.eng.graph.gui.GuiRenderActivity;
 import org.vulkanb.eng.scene.Scene;
@@ -9,13 +10,18 @@ import org.vulkanb.eng.scene.Scene;
 public class Engine {
 
     private final IAppLogic appLogic;
+    private final FramePacer framePacer;
     private final Render render;
     private final Scene scene;
     private final Window window;
+    private long frameStatsTimeStamp;
     private boolean running;
 
     public Engine(String windowTitle, IAppLogic appLogic) {
         this.appLogic = appLogic;
+        EngineProperties engineProperties = EngineProperties.getInstance();
+        framePacer = new FramePacer(System::nanoTime, engineProperties.getTargetFps(),
+                engineProperties.getFrameStatsFrames());
         window = new Window(windowTitle, new GuiRenderActivity.KeyCallback(), new GuiRenderActivity.CharCallBack());
         scene = new Scene(window);
         render = new Render(window, scene);
@@ -28,6 +34,10 @@ public class Engine {
         window.cleanup();
     }
 
+    public FramePacer getFramePacer() {
+        return framePacer;
+    }
+
     private boolean handleInputGui() {
         ImGuiIO imGuiIO = ImGui.getIO();
         MouseInput mouseInput = window.getMouseInput();
@@ -39,33 +49,41 @@ public class Engine {
         return imGuiIO.getWantCaptureMouse() || imGuiIO.getWantCaptureKeyboard();
     }
 
+    private void logFrameStats() {
+        int frameStatsInterval = EngineProperties.getInstance().getFrameStatsInterval();
+        long now = System.currentTimeMillis();
+        if (frameStatsInterval > 0 && now - frameStatsTimeStamp >= frameStatsInterval * 1000L) {
+            frameStatsTimeStamp = now;
+            Logger.info("Frame times: {}", framePacer.getFrameTimeStats().summary());
+        }
+    }
+
     public void run() {
         EngineProperties engineProperties = EngineProperties.getInstance();
-        long initialTime = System.currentTimeMillis();
-        float timeU = 1000.0f / engineProperties.getUps();
-        double deltaUpdate = 0;
+        GameLoop gameLoop = new GameLoop(System::nanoTime, engineProperties.getUps(),
+                engineProperties.getMaxUpdateSteps());
 
-        long updateTime = initialTime;
-        while (running && !window.shouldClose()) {
+        // Headless runs can be limited to a number of frames, for benchmarks and automated checks
+        int maxFrames = engineProperties.isHeadless() ? engineProperties.getHeadlessFrames() : 0;
+        long numFrames = 0;
+        while (running && !window.shouldClose() && (maxFrames <= 0 || numFrames < maxFrames)) {
             scene.getCamera().setHasMoved(false);
             window.pollEvents();
 
-            long now = System.currentTimeMillis();
-            deltaUpdate += (now - initialTime) / timeU;
+            long diffTimeMillis = gameLoop.nextFrame() / 1_000_000L;
 
             boolean inputConsumed = handleInputGui();
-            appLogic.input(window, scene, now - initialTime, inputConsumed);
+            appLogic.input(window, scene, diffTimeMillis, inputConsumed);
 
-            if (deltaUpdate >= 1) {
-                long diffTimeMilis = now - updateTime;
-                appLogic.update(window, scene, diffTimeMilis);
-                updateTime = now;
-                deltaUpdate--;
+            for (int i = 0; i < gameLoop.getUpdateSteps(); i++) {
+                scene.storePreviousTransforms();
+                appLogic.update(window, scene, gameLoop.getStepMillis());
             }
 
-            render.render(window, scene);
-
-            initialTime = now;
+            render.render(window, scene, gameLoop.getAlpha());
+            framePacer.endFrame();
+            numFrames++;
+            logFrameStats();
         }
 
         cleanup();
@@ -6,13 +6,22 @@ import java.io.*;
 import java.util.Properties;
 
 public class EngineProperties {
+    private static final float DEFAULT_DYNAMIC_RESOLUTION_TARGET = 16.6f;
     private static final float DEFAULT_FOV = 60.0f;
+    private static final int DEFAULT_FRAMES_IN_FLIGHT = 2;
+    private static final int DEFAULT_FRAME_STATS_FRAMES = 600;
+    private static final int DEFAULT_HEADLESS_HEIGHT = 1080;
+    private static final int DEFAULT_HEADLESS_WIDTH = 1920;
     private static final int DEFAULT_JOINT_MATRICES_BUF = 2000000;
     private static final int DEFAULT_MAX_ANIM_WEIGHTS_BUF = 100000;
+    private static final int DEFAULT_MAX_BINDLESS_TEXTURES = 16384;
     private static final int DEFAULT_MAX_INDICES_BUF = 5000000;
     private static final int DEFAULT_MAX_JOINTS_MATRICES_LISTS = 100;
     private static final int DEFAULT_MAX_MATERIALS = 500;
+    private static final int DEFAULT_MAX_UPDATE_STEPS = 5;
     private static final int DEFAULT_MAX_VERTICES_BUF = 20000000;
+    private static final float DEFAULT_MIN_RENDER_SCALE = 0.5f;
+    private static final int DEFAULT_RECORDING_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
     private static final int DEFAULT_REQUESTED_IMAGES = 3;
     private static final float DEFAULT_SHADOW_BIAS = 0.00005f;
     private static final int DEFAULT_SHADOW_MAP_SIZE = 2048;
@@ -21,23 +30,49 @@ public class EngineProperties {
     private static final float DEFAULT_Z_NEAR = 1.0f;
     private static final String FILENAME = "eng.properties";
     private static EngineProperties instance;
+    private boolean alphaTest;
+    private boolean bindlessTextures;
     private String defaultTexturePath;
+    private boolean dynamicResolution;
+    private float dynamicResolutionTarget;
     private boolean enableCheckPoints = false;
     private float fov;
+    private int framesInFlight;
+    private int frameStatsFrames;
+    private int frameStatsInterval;
+    private boolean frustumCulling;
+    private boolean headless;
+    private int headlessFrames;
+    private int headlessHeight;
+    private int headlessWidth;
     private int maxAnimWeightsBuffer;
+    private int maxBindlessTextures;
     private int maxIndicesBuffer;
     private int maxJointMatricesBuffer;
     private int maxJointsMatricesLists;
     private int maxMaterials;
     private int maxTextures;
+    private int maxUpdateSteps;
     private int maxVerticesBuffer;
+    private int memoryStatsInterval;
+    private boolean memoryStatsOverlay;
+    private float minRenderScale;
     private String physDeviceName;
+    private String pipelineCachePath;
+    private int pipelineThreads;
+    private String presentMode;
+    private int readbackInterval;
+    private String readbackPath;
+    private int recordingThreads;
     private int requestedImages;
+    private String shaderCachePath;
     private boolean shaderRecompilation;
     private float shadowBias;
+    private boolean shadowCaching;
     private boolean shadowDebug;
     private int shadowMapSize;
     private boolean shadowPcf;
+    private int targetFps;
     private int ups;
     private boolean vSync;
     private boolean validate;
@@ -51,10 +86,16 @@ public class EngineProperties {
         try (InputStream stream = EngineProperties.class.getResourceAsStream("/" + FILENAME)) {
             props.load(stream);
             ups = Integer.parseInt(props.getOrDefault("ups", DEFAULT_UPS).toString());
+            maxUpdateSteps = Integer.parseInt(props.getOrDefault("maxUpdateSteps", DEFAULT_MAX_UPDATE_STEPS).toString());
             validate = Boolean.parseBoolean(props.getOrDefault("vkValidate", false).toString());
             physDeviceName = props.getProperty("physDeviceName");
             requestedImages = Integer.parseInt(props.getOrDefault("requestedImages", DEFAULT_REQUESTED_IMAGES).toString());
+            framesInFlight = Integer.parseInt(props.getOrDefault("framesInFlight", DEFAULT_FRAMES_IN_FLIGHT).toString());
             vSync = Boolean.parseBoolean(props.getOrDefault("vsync", true).toString());
+            presentMode = props.getProperty("presentMode");
+            targetFps = Integer.parseInt(props.getOrDefault("targetFps", 0).toString());
+            frameStatsFrames = Integer.parseInt(props.getOrDefault("frameStatsFrames", DEFAULT_FRAME_STATS_FRAMES).toString());
+            frameStatsInterval = Integer.parseInt(props.getOrDefault("frameStatsInterval", 0).toString());
             shaderRecompilation = Boolean.parseBoolean(props.getOrDefault("shaderRecompilation", false).toString());
             fov = (float) Math.toRadians(Float.parseFloat(props.getOrDefault("fov", DEFAULT_FOV).toString()));
             zNear = Float.parseFloat(props.getOrDefault("zNear", DEFAULT_Z_NEAR).toString());
@@ -71,6 +112,29 @@ public class EngineProperties {
             maxAnimWeightsBuffer = Integer.parseInt(props.getOrDefault("maxAnimWeightsBuffer", DEFAULT_MAX_ANIM_WEIGHTS_BUF).toString());
             maxJointMatricesBuffer = Integer.parseInt(props.getOrDefault("maxJointMatricesBuffer", DEFAULT_JOINT_MATRICES_BUF).toString());
             maxJointsMatricesLists = Integer.parseInt(props.getOrDefault("maxJointsMatricesLists", DEFAULT_MAX_JOINTS_MATRICES_LISTS).toString());
+            memoryStatsInterval = Integer.parseInt(props.getOrDefault("memoryStatsInterval", 0).toString());
+            recordingThreads = Integer.parseInt(props.getOrDefault("recordingThreads", DEFAULT_RECORDING_THREADS).toString());
+            frustumCulling = Boolean.parseBoolean(props.getOrDefault("frustumCulling", true).toString());
+            shadowCaching = Boolean.parseBoolean(props.getOrDefault("shadowCaching", true).toString());
+            headless = Boolean.parseBoolean(props.getOrDefault("headless", false).toString());
+            headlessWidth = Integer.parseInt(props.getOrDefault("headlessWidth", DEFAULT_HEADLESS_WIDTH).toString());
+            headlessHeight = Integer.parseInt(props.getOrDefault("headlessHeight", DEFAULT_HEADLESS_HEIGHT).toString());
+            headlessFrames = Integer.parseInt(props.getOrDefault("headlessFrames", 0).toString());
+            readbackInterval = Integer.parseInt(props.getOrDefault("readbackInterval", 0).toString());
+            readbackPath = props.getOrDefault("readbackPath", "readback").toString();
+            pipelineCachePath = props.getOrDefault("pipelineCachePath", "cache").toString();
+            shaderCachePath = props.getOrDefault("shaderCachePath", "cache/shaders").toString();
+            alphaTest = Boolean.parseBoolean(props.getOrDefault("alphaTest", true).toString());
+            bindlessTextures = Boolean.parseBoolean(props.getOrDefault("bindlessTextures", true).toString());
+            maxBindlessTextures = Integer.parseInt(props.getOrDefault("maxBindlessTextures",
+                    DEFAULT_MAX_BINDLESS_TEXTURES).toString());
+            pipelineThreads = Integer.parseInt(props.getOrDefault("pipelineThreads",
+                    Runtime.getRuntime().availableProcessors()).toString());
+            memoryStatsOverlay = Boolean.parseBoolean(props.getOrDefault("memoryStatsOverlay", false).toString());
+            dynamicResolution = Boolean.parseBoolean(props.getOrDefault("dynamicResolution", false).toString());
+            dynamicResolutionTarget = Float.parseFloat(props.getOrDefault("dynamicResolutionTarget",
+                    DEFAULT_DYNAMIC_RESOLUTION_TARGET).toString());
+            minRenderScale = Float.parseFloat(props.getOrDefault("minRenderScale", DEFAULT_MIN_RENDER_SCALE).toString());
         } catch (IOException excp) {
             Logger.error("Could not read [{}] properties file", FILENAME, excp);
         }
@@ -87,14 +151,46 @@ public class EngineProperties {
         return defaultTexturePath;
     }
 
+    public float getDynamicResolutionTarget() {
+        return dynamicResolutionTarget;
+    }
+
     public float getFov() {
         return fov;
     }
 
+    public int getFrameStatsFrames() {
+        return frameStatsFrames;
+    }
+
+    public int getFrameStatsInterval() {
+        return frameStatsInterval;
+    }
+
+    public int getFramesInFlight() {
+        return framesInFlight;
+    }
+
+    public int getHeadlessFrames() {
+        return headlessFrames;
+    }
+
+    public int getHeadlessHeight() {
+        return headlessHeight;
+    }
+
+    public int getHeadlessWidth() {
+        return headlessWidth;
+    }
+
     public int getMaxAnimWeightsBuffer() {
         return maxAnimWeightsBuffer;
     }
 
+    public int getMaxBindlessTextures() {
+        return maxBindlessTextures;
+    }
+
     public int getMaxIndicesBuffer() {
         return maxIndicesBuffer;
     }
@@ -115,18 +211,58 @@ public class EngineProperties {
         return maxTextures;
     }
 
+    public int getMaxUpdateSteps() {
+        return maxUpdateSteps;
+    }
+
     public int getMaxVerticesBuffer() {
         return maxVerticesBuffer;
     }
 
+    public int getMemoryStatsInterval() {
+        return memoryStatsInterval;
+    }
+
+    public float getMinRenderScale() {
+        return minRenderScale;
+    }
+
     public String getPhysDeviceName() {
         return physDeviceName;
     }
 
+    public String getPipelineCachePath() {
+        return pipelineCachePath;
+    }
+
+    public int getPipelineThreads() {
+        return pipelineThreads;
+    }
+
+    public String getPresentMode() {
+        return presentMode;
+    }
+
+    public int getReadbackInterval() {
+        return readbackInterval;
+    }
+
+    public String getReadbackPath() {
+        return readbackPath;
+    }
+
+    public int getRecordingThreads() {
+        return recordingThreads;
+    }
+
     public int getRequestedImages() {
         return requestedImages;
     }
 
+    public String getShaderCachePath() {
+        return shaderCachePath;
+    }
+
     public float getShadowBias() {
         return shadowBias;
     }
@@ -135,6 +271,10 @@ public class EngineProperties {
         return shadowMapSize;
     }
 
+    public int getTargetFps() {
+        return targetFps;
+    }
+
     public int getUps() {
         return ups;
     }
@@ -147,14 +287,42 @@ public class EngineProperties {
         return zNear;
     }
 
+    public boolean isAlphaTest() {
+        return alphaTest;
+    }
+
+    public boolean isBindlessTextures() {
+        return bindlessTextures;
+    }
+
+    public boolean isDynamicResolution() {
+        return dynamicResolution;
+    }
+
     public boolean isEnableCheckPoints() {
         return enableCheckPoints;
     }
 
+    public boolean isFrustumCulling() {
+        return frustumCulling;
+    }
+
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    public boolean isMemoryStatsOverlay() {
+        return memoryStatsOverlay;
+    }
+
     public boolean isShaderRecompilation() {
         return shaderRecompilation;
     }
 
+    public boolean isShadowCaching() {
+        return shadowCaching;
+    }
+
     public boolean isShadowDebug() {
         return shadowDebug;
     }
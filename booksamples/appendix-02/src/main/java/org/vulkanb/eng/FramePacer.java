@@ -0,0 +1,90 @@
+package org.vulkanb.eng;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.*;
+
+// Caps the frame rate and keeps a window of the latest frame times to compute percentiles
+public class FramePacer {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // Sleep granularity is coarse, the last part of the wait is spent spinning
+    private static final long SPIN_THRESHOLD_NANOS = 2 * NANOS_PER_MILLI;
+
+    private final LongSupplier clock;
+    private final long[] frameTimes;
+    private final LongConsumer parker;
+    private final long targetFrameNanos;
+    private long frameStart;
+    private int frameTimesPos;
+    private long nextFrameTime;
+    private int numFrameTimes;
+
+    public FramePacer(LongSupplier clock, int targetFps, int numFrameTimes) {
+        this(clock, LockSupport::parkNanos, targetFps, numFrameTimes);
+    }
+
+    // Parking is injected along with the clock, so waits can be checked without sleeping
+    FramePacer(LongSupplier clock, LongConsumer parker, int targetFps, int numFrameTimes) {
+        this.clock = clock;
+        this.parker = parker;
+        targetFrameNanos = targetFps > 0 ? NANOS_PER_SECOND / targetFps : 0;
+        frameTimes = new long[numFrameTimes];
+        frameStart = clock.getAsLong();
+        nextFrameTime = frameStart;
+    }
+
+    // Waits, if there is a frame rate cap, until the next frame is due and records the frame time
+    public void endFrame() {
+        if (targetFrameNanos > 0) {
+            nextFrameTime += targetFrameNanos;
+            long now = clock.getAsLong();
+            if (now - nextFrameTime > targetFrameNanos) {
+                // Fell more than a frame behind, restart the schedule instead of rushing the missed frames
+                nextFrameTime = now;
+            }
+            waitUntil(nextFrameTime);
+        }
+
+        long now = clock.getAsLong();
+        frameTimes[frameTimesPos] = now - frameStart;
+        frameTimesPos = (frameTimesPos + 1) % frameTimes.length;
+        numFrameTimes = Math.min(numFrameTimes + 1, frameTimes.length);
+        frameStart = now;
+    }
+
+    public FrameTimeStats getFrameTimeStats() {
+        if (numFrameTimes == 0) {
+            return new FrameTimeStats(0, 0, 0, 0);
+        }
+        long[] sorted = Arrays.copyOf(frameTimes, numFrameTimes);
+        Arrays.sort(sorted);
+        return new FrameTimeStats(numFrameTimes, percentile(sorted, 50), percentile(sorted, 95),
+                percentile(sorted, 99));
+    }
+
+    // Nearest rank percentile, in milliseconds
+    private static double percentile(long[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return (double) sorted[Math.max(0, rank - 1)] / NANOS_PER_MILLI;
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - clock.getAsLong()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                parker.accept(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public record FrameTimeStats(int numFrames, double p50Millis, double p95Millis, double p99Millis) {
+        public String summary() {
+            return String.format("frames [%d], p50 [%.2f ms], p95 [%.2f ms], p99 [%.2f ms]", numFrames, p50Millis,
+                    p95Millis, p99Millis);
+        }
+    }
+}
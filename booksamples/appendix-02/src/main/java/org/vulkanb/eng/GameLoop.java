@@ -0,0 +1,57 @@
+package org.vulkanb.eng;
+
+import java.util.function.LongSupplier;
+
+// Fixed timestep scheduling, the clock is injected so the timing can be driven without a window
+public class GameLoop {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final LongSupplier clock;
+    private final int maxUpdateSteps;
+    private final long stepNanos;
+    private long accumulator;
+    private long lastTime;
+    private int updateSteps;
+
+    public GameLoop(LongSupplier clock, int ups, int maxUpdateSteps) {
+        if (ups <= 0 || maxUpdateSteps <= 0) {
+            throw new RuntimeException("Invalid game loop settings, ups [" + ups + "], max update steps [" +
+                    maxUpdateSteps + "]");
+        }
+        this.clock = clock;
+        this.maxUpdateSteps = maxUpdateSteps;
+        stepNanos = NANOS_PER_SECOND / ups;
+        lastTime = clock.getAsLong();
+    }
+
+    // Fraction of a step elapsed since the last update, used to blend the previous and current states
+    public float getAlpha() {
+        return (float) ((double) accumulator / stepNanos);
+    }
+
+    // Not rounded to whole milliseconds, which would slow simulations down, e.g. 33 instead of 33.33 at 30 ups
+    public float getStepMillis() {
+        return (float) (stepNanos / 1_000_000.0);
+    }
+
+    public int getUpdateSteps() {
+        return updateSteps;
+    }
+
+    // Samples the clock and returns the elapsed time since the previous frame, in nanoseconds
+    public long nextFrame() {
+        long now = clock.getAsLong();
+        long elapsed = Math.max(0, now - lastTime);
+        lastTime = now;
+
+        accumulator += elapsed;
+        updateSteps = (int) Math.min(accumulator / stepNanos, maxUpdateSteps);
+        accumulator -= updateSteps * stepNanos;
+        if (accumulator >= stepNanos) {
+            // Too far behind to catch up, drop the backlog instead of falling further behind every frame
+            accumulator %= stepNanos;
+        }
+        return elapsed;
+    }
+}
@@ -11,5 +11,5 @@ public interface IAppLogic {
 
     void input(Window window, Scene scene, long diffTimeMillis, boolean inputConsumed);
 
-    void update(Window window, Scene scene, long diffTimeMillis);
+    void update(Window window, Scene scene, float diffTimeMillis);
 }
\ No newline at end of file
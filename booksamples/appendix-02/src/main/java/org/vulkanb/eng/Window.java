@@ -20,17 +20,28 @@ public class Window {
     }
 
     public Window(String title, GLFWKeyCallbackI keyCallback, GLFWCharCallbackI charCallback) {
+        EngineProperties engineProperties = EngineProperties.getInstance();
+        boolean headless = engineProperties.isHeadless();
+        if (headless) {
+            // No display is needed, the window only provides input state and its size
+            glfwInitHint(GLFW_PLATFORM, GLFW_PLATFORM_NULL);
+        }
         if (!glfwInit()) {
             throw new IllegalStateException("Unable to initialize GLFW");
         }
 
-        if (!glfwVulkanSupported()) {
-            throw new IllegalStateException("Cannot find a compatible Vulkan installable client driver (ICD)");
-        }
+        if (headless) {
+            width = engineProperties.getHeadlessWidth();
+            height = engineProperties.getHeadlessHeight();
+        } else {
+            if (!glfwVulkanSupported()) {
+                throw new IllegalStateException("Cannot find a compatible Vulkan installable client driver (ICD)");
+            }
 
-        GLFWVidMode vidMode = glfwGetVideoMode(glfwGetPrimaryMonitor());
-        width = vidMode.width();
-        height = vidMode.height();
+            GLFWVidMode vidMode = glfwGetVideoMode(glfwGetPrimaryMonitor());
+            width = vidMode.width();
+            height = vidMode.height();
+        }
 
         glfwDefaultWindowHints();
         glfwWindowHint(GLFW_CLIENT_API, GLFW_NO_API);
@@ -0,0 +1,87 @@
+package org.vulkanb.eng.graph;
+
+import org.tinylog.Logger;
+
+// Picks the scale the scene is rendered at from the measured GPU frame time. Times are smoothed and the scale only
+// changes once they stay out of a band around the target for several frames, and not again until a cooldown has
+// passed, so it does not oscillate around the target. It does not depend on Vulkan, timings can be synthetic
+public class DynamicResolution {
+
+    private static final int COOLDOWN_FRAMES = 30;
+    private static final int DECREASE_FRAMES = 5;
+    // Scale only grows when there is enough room below the target for the larger resolution
+    private static final double INCREASE_HEADROOM = 0.8;
+    private static final int INCREASE_FRAMES = 60;
+    private static final float SCALE_STEP = 0.05f;
+    private static final double SMOOTHING = 0.1;
+
+    private final int maxSteps;
+    private final int minSteps;
+    private final double targetMs;
+    private int cooldown;
+    private int overFrames;
+    private double smoothedMs;
+    private int steps;
+    private int underFrames;
+
+    public DynamicResolution(double targetMs, float minScale, float maxScale) {
+        if (targetMs <= 0 || minScale <= 0 || minScale > maxScale) {
+            throw new RuntimeException("Invalid dynamic resolution settings, target [" + targetMs + "] ms, scale [" +
+                    minScale + ", " + maxScale + "]");
+        }
+        this.targetMs = targetMs;
+        minSteps = Math.max(1, Math.round(minScale / SCALE_STEP));
+        maxSteps = Math.max(minSteps, Math.round(maxScale / SCALE_STEP));
+        steps = maxSteps;
+    }
+
+    // Size of a render target dimension at the given scale, all the passes use it so their extents match
+    public static int scaleSize(int size, float scale) {
+        return Math.max(1, Math.min(size, Math.round(size * scale)));
+    }
+
+    public float getScale() {
+        return steps * SCALE_STEP;
+    }
+
+    public float update(double gpuFrameMs) {
+        smoothedMs = smoothedMs > 0 ? smoothedMs + (gpuFrameMs - smoothedMs) * SMOOTHING : gpuFrameMs;
+        if (cooldown > 0) {
+            cooldown--;
+            return getScale();
+        }
+
+        if (smoothedMs > targetMs) {
+            overFrames++;
+            underFrames = 0;
+        } else if (smoothedMs < targetMs * INCREASE_HEADROOM) {
+            underFrames++;
+            overFrames = 0;
+        } else {
+            overFrames = 0;
+            underFrames = 0;
+        }
+
+        int newSteps;
+        if (overFrames >= DECREASE_FRAMES) {
+            // Cost is roughly proportional to the number of pixels, so large overshoots drop several steps at once
+            float estimate = getScale() * (float) Math.sqrt(targetMs / smoothedMs);
+            newSteps = Math.min(steps - 1, (int) Math.floor(estimate / SCALE_STEP));
+        } else if (underFrames >= INCREASE_FRAMES) {
+            newSteps = steps + 1;
+        } else {
+            return getScale();
+        }
+        overFrames = 0;
+        underFrames = 0;
+
+        newSteps = Math.max(minSteps, Math.min(maxSteps, newSteps));
+        if (newSteps != steps) {
+            Logger.debug("Render scale [{}] -> [{}], GPU frame time [{}] ms", getScale(), newSteps * SCALE_STEP,
+                    String.format("%.2f", smoothedMs));
+            steps = newSteps;
+            cooldown = COOLDOWN_FRAMES;
+        }
+        return getScale();
+    }
+}
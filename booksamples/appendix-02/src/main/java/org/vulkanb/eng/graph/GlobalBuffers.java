@@ -1,23 +1,25 @@
 package org.vulkanb.eng.graph;
 
-import org.joml.Matrix4f;
+import org.joml.*;
 import org.lwjgl.system.*;
 import org.lwjgl.vulkan.*;
 import org.tinylog.Logger;
 import org.vulkanb.eng.EngineProperties;
-import org.vulkanb.eng.graph.vk.Queue;
+import org.vulkanb.eng.graph.culling.*;
 import org.vulkanb.eng.graph.vk.*;
 import org.vulkanb.eng.scene.*;
 
+import java.lang.Math;
 import java.nio.*;
 import java.util.*;
-import java.util.function.Predicate;
 
 import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.GraphConstants.*;
 
 public class GlobalBuffers {
     public static final int IND_COMMAND_STRIDE = VkDrawIndexedIndirectCommand.SIZEOF;
+    private static final int INSTANCE_DATA_SIZE = InstanceData.SIZE_IN_BYTES;
+    private static final int MIN_BATCH_SPARE_INSTANCES = 4;
     // Handle std430 alignment
     private static final int MATERIAL_PADDING = FLOAT_LENGTH * 3;
     private static final int MATERIAL_SIZE = VEC4_SIZE + INT_LENGTH * 3 + FLOAT_LENGTH * 2 + MATERIAL_PADDING;
@@ -28,30 +30,101 @@ public class GlobalBuffers {
     private final VulkanBuffer verticesBuffer;
     private VulkanBuffer animIndirectBuffer;
     private VulkanBuffer[] animInstanceDataBuffers;
-    private VulkanBuffer animVerticesBuffer;
+    private InstanceSlots animInstanceSlots;
+    private VulkanBuffer[] animVerticesBuffers;
+    private CullBuffers cullBuffers;
     private VulkanBuffer indirectBuffer;
+    private Map<String, InstanceBatch> instanceBatches;
     private VulkanBuffer[] instanceDataBuffers;
+    private InstanceSlots instanceSlots;
     private int numAnimIndirectCommands;
     private int numIndirectCommands;
+    private int numStaticIndirectCommands;
+    private CullBuffers staticCullBuffers;
+    private long staticGeneration;
+    private VulkanBuffer staticIndirectBuffer;
+    private VulkanBuffer staticInstanceDataBuffer;
+    private InstanceSlots staticInstanceSlots;
     private List<VulkanAnimEntity> vulkanAnimEntityList;
 
     public GlobalBuffers(Device device) {
         Logger.debug("Creating global buffers");
         EngineProperties engProps = EngineProperties.getInstance();
         verticesBuffer = new VulkanBuffer(device, engProps.getMaxVerticesBuffer(), VK_BUFFER_USAGE_VERTEX_BUFFER_BIT |
-                VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+                VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0,
+                MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
         indicesBuffer = new VulkanBuffer(device, engProps.getMaxIndicesBuffer(), VK_BUFFER_USAGE_INDEX_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
         int maxMaterials = engProps.getMaxMaterials();
         materialsBuffer = new VulkanBuffer(device, (long) maxMaterials * MATERIAL_SIZE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
         animJointMatricesBuffer = new VulkanBuffer(device, engProps.getMaxJointMatricesBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
         animWeightsBuffer = new VulkanBuffer(device, engProps.getMaxAnimWeightsBuffer(), VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
         numIndirectCommands = 0;
     }
 
+    private boolean addBatchEntity(Entity entity, String modelId, Set<InstanceBatch> updatedBatches) {
+        InstanceBatch batch = instanceBatches.get(modelId);
+        if (entity.isStaticEntity() || entity.hasAnimation() || batch == null || batch.isFull()) {
+            return false;
+        }
+        if (!batch.positions.containsKey(entity.getId())) {
+            int pos = batch.entities.size();
+            batch.entities.add(entity);
+            batch.positions.put(entity.getId(), pos);
+            for (int i = 0; i < batch.numMeshes; i++) {
+                instanceSlots.setSlot(batch.getSlot(i, pos), entity);
+            }
+            updatedBatches.add(batch);
+        }
+        return true;
+    }
+
+    private List<VkDrawIndexedIndirectCommand> buildIndirectCommands(MemoryStack stack, List<VulkanModel> vulkanModelList,
+                                                                     Scene scene, boolean staticEntities,
+                                                                     List<Entity> slotEntities, List<Integer> slotMaterials,
+                                                                     List<Vector4f> boundingSpheres,
+                                                                     Map<String, InstanceBatch> batches) {
+        List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList = new ArrayList<>();
+        int firstInstance = 0;
+        for (VulkanModel vulkanModel : vulkanModelList) {
+            List<Entity> modelEntities = scene.getEntitiesByModelId(vulkanModel.getModelId());
+            if (modelEntities == null || vulkanModel.hasAnimations()) {
+                continue;
+            }
+            List<Entity> entities = modelEntities.stream().filter(e -> e.isStaticEntity() == staticEntities).toList();
+            if (entities.isEmpty()) {
+                continue;
+            }
+            int numEntities = entities.size();
+            int capacity = numEntities;
+            if (batches != null) {
+                // Leave room to add entities later on without rebuilding the buffers
+                capacity += Math.max(MIN_BATCH_SPARE_INSTANCES, numEntities / 2);
+                batches.put(vulkanModel.getModelId(), new InstanceBatch(indexedIndirectCommandList.size(),
+                        vulkanModel.getVulkanMeshList().size(), firstInstance, capacity, entities));
+            }
+            for (VulkanModel.VulkanMesh vulkanMesh : vulkanModel.getVulkanMeshList()) {
+                VkDrawIndexedIndirectCommand indexedIndirectCommand = VkDrawIndexedIndirectCommand.calloc(stack);
+                indexedIndirectCommand.indexCount(vulkanMesh.numIndices());
+                indexedIndirectCommand.firstIndex(vulkanMesh.indicesOffset() / INT_LENGTH);
+                indexedIndirectCommand.instanceCount(numEntities);
+                indexedIndirectCommand.vertexOffset(vulkanMesh.verticesOffset() / VertexBufferStructure.SIZE_IN_BYTES);
+                indexedIndirectCommand.firstInstance(firstInstance);
+                indexedIndirectCommandList.add(indexedIndirectCommand);
+                boundingSpheres.add(vulkanMesh.boundingSphere());
+                for (int i = 0; i < capacity; i++) {
+                    slotEntities.add(i < numEntities ? entities.get(i) : null);
+                    slotMaterials.add(vulkanMesh.globalMaterialIdx());
+                }
+                firstInstance += capacity;
+            }
+        }
+        return indexedIndirectCommandList;
+    }
+
     public void cleanup() {
         Logger.debug("Destroying global buffers");
         verticesBuffer.cleanup();
@@ -59,12 +132,24 @@ public class GlobalBuffers {
         if (indirectBuffer != null) {
             indirectBuffer.cleanup();
         }
-        if (animVerticesBuffer != null) {
-            animVerticesBuffer.cleanup();
+        if (animVerticesBuffers != null) {
+            Arrays.asList(animVerticesBuffers).forEach(VulkanBuffer::cleanup);
         }
         if (animIndirectBuffer != null) {
             animIndirectBuffer.cleanup();
         }
+        if (staticIndirectBuffer != null) {
+            staticIndirectBuffer.cleanup();
+        }
+        if (staticInstanceDataBuffer != null) {
+            staticInstanceDataBuffer.cleanup();
+        }
+        if (staticCullBuffers != null) {
+            staticCullBuffers.cleanup();
+        }
+        if (cullBuffers != null) {
+            cullBuffers.cleanup();
+        }
         materialsBuffer.cleanup();
         animJointMatricesBuffer.cleanup();
         animWeightsBuffer.cleanup();
@@ -76,6 +161,15 @@ public class GlobalBuffers {
         }
     }
 
+    private CullBuffers createCullBuffers(UploadTransaction uploadTransaction,
+                                          List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList,
+                                          List<Vector4f> boundingSpheres, int numSlots, int framesInFlight) {
+        if (!EngineProperties.getInstance().isFrustumCulling()) {
+            return null;
+        }
+        return new CullBuffers(uploadTransaction, indexedIndirectCommandList, boundingSpheres, numSlots, framesInFlight);
+    }
+
     public VulkanBuffer getAnimIndirectBuffer() {
         return animIndirectBuffer;
     }
@@ -88,14 +182,18 @@ public class GlobalBuffers {
         return animJointMatricesBuffer;
     }
 
-    public VulkanBuffer getAnimVerticesBuffer() {
-        return animVerticesBuffer;
+    public VulkanBuffer[] getAnimVerticesBuffers() {
+        return animVerticesBuffers;
     }
 
     public VulkanBuffer getAnimWeightsBuffer() {
         return animWeightsBuffer;
     }
 
+    public CullBuffers getCullBuffers() {
+        return cullBuffers;
+    }
+
     public VulkanBuffer getIndicesBuffer() {
         return indicesBuffer;
     }
@@ -120,6 +218,26 @@ public class GlobalBuffers {
         return numIndirectCommands;
     }
 
+    public int getNumStaticIndirectCommands() {
+        return numStaticIndirectCommands;
+    }
+
+    public CullBuffers getStaticCullBuffers() {
+        return staticCullBuffers;
+    }
+
+    public long getStaticGeneration() {
+        return staticGeneration;
+    }
+
+    public VulkanBuffer getStaticIndirectBuffer() {
+        return staticIndirectBuffer;
+    }
+
+    public VulkanBuffer getStaticInstanceDataBuffer() {
+        return staticInstanceDataBuffer;
+    }
+
     public VulkanBuffer getVerticesBuffer() {
         return verticesBuffer;
     }
@@ -128,23 +246,26 @@ public class GlobalBuffers {
         return vulkanAnimEntityList;
     }
 
-    private void loadAnimEntities(List<VulkanModel> vulkanModelList, Scene scene, CommandPool commandPool,
-                                  Queue queue, int numSwapChainImages) {
+    private void loadAnimEntities(List<VulkanModel> vulkanModelList, Scene scene, UploadTransaction uploadTransaction,
+                                  int framesInFlight) {
         vulkanAnimEntityList = new ArrayList<>();
         numAnimIndirectCommands = 0;
+        animInstanceSlots = null;
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            if (animVerticesBuffer != null) {
-                animVerticesBuffer.cleanup();
+            if (animVerticesBuffers != null) {
+                Arrays.asList(animVerticesBuffers).forEach(uploadTransaction::retire);
             }
-            Device device = commandPool.getDevice();
-            CommandBuffer cmd = new CommandBuffer(commandPool, true, true);
+            animVerticesBuffers = null;
+            Device device = uploadTransaction.getDevice();
 
             int bufferOffset = 0;
             int firstInstance = 0;
             List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList = new ArrayList<>();
+            List<Entity> slotEntities = new ArrayList<>();
+            List<Integer> slotMaterials = new ArrayList<>();
             for (VulkanModel vulkanModel : vulkanModelList) {
                 List<Entity> entities = scene.getEntitiesByModelId(vulkanModel.getModelId());
-                if (entities.isEmpty()) {
+                if (entities == null || entities.isEmpty()) {
                     continue;
                 }
                 for (Entity entity : entities) {
@@ -164,6 +285,8 @@ public class GlobalBuffers {
                         indexedIndirectCommandList.add(indexedIndirectCommand);
 
                         vulkanAnimMeshList.add(new VulkanAnimEntity.VulkanAnimMesh(bufferOffset, vulkanMesh));
+                        slotEntities.add(entity);
+                        slotMaterials.add(vulkanMesh.globalMaterialIdx());
                         bufferOffset += vulkanMesh.verticesSize();
                         firstInstance++;
                     }
@@ -172,41 +295,30 @@ public class GlobalBuffers {
             if (bufferOffset == 0) {
                 return;
             }
-            animVerticesBuffer = new VulkanBuffer(device, bufferOffset, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT |
-                    VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
+            // One per frame in flight, so skinning for a frame does not wait for the previous one to be drawn
+            animVerticesBuffers = new VulkanBuffer[framesInFlight];
+            for (int i = 0; i < framesInFlight; i++) {
+                animVerticesBuffers[i] = new VulkanBuffer(device, bufferOffset, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT |
+                        VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0,
+                        MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+            }
 
             numAnimIndirectCommands = indexedIndirectCommandList.size();
             if (numAnimIndirectCommands > 0) {
-                cmd.beginRecording();
-
-                StgByteBuffer indirectStgBuffer = new StgByteBuffer(device, (long) IND_COMMAND_STRIDE * numAnimIndirectCommands);
-                if (animIndirectBuffer != null) {
-                    animIndirectBuffer.cleanup();
-                }
-                animIndirectBuffer = new VulkanBuffer(device, indirectStgBuffer.stgVulkanBuffer.getRequestedSize(),
-                        VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                        VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
-                ByteBuffer dataBuffer = indirectStgBuffer.getDataBuffer();
-                VkDrawIndexedIndirectCommand.Buffer indCommandBuffer = new VkDrawIndexedIndirectCommand.Buffer(dataBuffer);
-
-                indexedIndirectCommandList.forEach(indCommandBuffer::put);
+                uploadTransaction.retire(animIndirectBuffer);
+                animIndirectBuffer = loadIndirectBuffer(uploadTransaction, indexedIndirectCommandList);
 
                 if (animInstanceDataBuffers != null) {
-                    Arrays.asList(animInstanceDataBuffers).forEach(VulkanBuffer::cleanup);
+                    Arrays.asList(animInstanceDataBuffers).forEach(uploadTransaction::retire);
                 }
-                animInstanceDataBuffers = new VulkanBuffer[numSwapChainImages];
-                for (int i = 0; i < numSwapChainImages; i++) {
+                animInstanceDataBuffers = new VulkanBuffer[framesInFlight];
+                for (int i = 0; i < framesInFlight; i++) {
                     animInstanceDataBuffers[i] = new VulkanBuffer(device,
-                            (long) numAnimIndirectCommands * (MAT4X4_SIZE + INT_LENGTH),
-                            VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
+                            (long) numAnimIndirectCommands * INSTANCE_DATA_SIZE,
+                            VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0,
+                            MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
                 }
-
-                indirectStgBuffer.recordTransferCommand(cmd, animIndirectBuffer);
-
-                cmd.endRecording();
-                cmd.submitAndWait(device, queue);
-                cmd.cleanup();
-                indirectStgBuffer.cleanup();
+                animInstanceSlots = new InstanceSlots(slotEntities, slotMaterials, framesInFlight);
             }
         }
     }
@@ -231,44 +343,88 @@ public class GlobalBuffers {
         }
     }
 
-    public void loadEntities(List<VulkanModel> vulkanModelList, Scene scene, CommandPool commandPool,
-                             Queue queue, int numSwapChainImages) {
-        loadStaticEntities(vulkanModelList, scene, commandPool, queue, numSwapChainImages);
-        loadAnimEntities(vulkanModelList, scene, commandPool, queue, numSwapChainImages);
-    }
+    private void loadDynamicEntities(List<VulkanModel> vulkanModelList, Scene scene, UploadTransaction uploadTransaction,
+                                     int framesInFlight) {
+        numIndirectCommands = 0;
+        instanceSlots = null;
+        instanceBatches = new HashMap<>();
+        retireCullBuffers(cullBuffers, uploadTransaction);
+        cullBuffers = null;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            Device device = uploadTransaction.getDevice();
+            List<Entity> slotEntities = new ArrayList<>();
+            List<Integer> slotMaterials = new ArrayList<>();
+            List<Vector4f> boundingSpheres = new ArrayList<>();
+            List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList = buildIndirectCommands(stack, vulkanModelList,
+                    scene, false, slotEntities, slotMaterials, boundingSpheres, instanceBatches);
+            numIndirectCommands = indexedIndirectCommandList.size();
+            if (numIndirectCommands > 0) {
+                uploadTransaction.retire(indirectBuffer);
+                indirectBuffer = loadIndirectBuffer(uploadTransaction, indexedIndirectCommandList);
 
-    public void loadInstanceData(Scene scene, List<VulkanModel> vulkanModels, int currentSwapChainIdx) {
-        Predicate<VulkanModel> excludeAnimatedEntitiesPredicate = VulkanModel::hasAnimations;
-        loadInstanceData(scene, vulkanModels, instanceDataBuffers[currentSwapChainIdx], excludeAnimatedEntitiesPredicate);
-        Predicate<VulkanModel> excludedStaticEntitiesPredicate = v -> !v.hasAnimations();
-        if (animInstanceDataBuffers != null) {
-            loadInstanceData(scene, vulkanModels, animInstanceDataBuffers[currentSwapChainIdx], excludedStaticEntitiesPredicate);
+                if (instanceDataBuffers != null) {
+                    Arrays.asList(instanceDataBuffers).forEach(uploadTransaction::retire);
+                }
+                instanceDataBuffers = new VulkanBuffer[framesInFlight];
+                for (int i = 0; i < framesInFlight; i++) {
+                    instanceDataBuffers[i] = new VulkanBuffer(device, (long) slotEntities.size() * INSTANCE_DATA_SIZE,
+                            VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT,
+                            VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+                }
+                instanceSlots = new InstanceSlots(slotEntities, slotMaterials, framesInFlight);
+                cullBuffers = createCullBuffers(uploadTransaction, indexedIndirectCommandList, boundingSpheres,
+                        slotEntities.size(), framesInFlight);
+            }
         }
     }
 
-    private void loadInstanceData(Scene scene, List<VulkanModel> vulkanModels, VulkanBuffer instanceBuffer,
-                                  Predicate<VulkanModel> excludedEntitiesPredicate) {
-        if (instanceBuffer == null) {
-            return;
+    public void loadEntities(List<VulkanModel> vulkanModelList, Scene scene, UploadTransaction uploadTransaction,
+                             int framesInFlight) {
+        loadStaticEntities(vulkanModelList, scene, uploadTransaction, framesInFlight);
+        loadDynamicEntities(vulkanModelList, scene, uploadTransaction, framesInFlight);
+        loadAnimEntities(vulkanModelList, scene, uploadTransaction, framesInFlight);
+    }
+
+    private VulkanBuffer loadIndirectBuffer(UploadTransaction uploadTransaction,
+                                            List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList) {
+        long size = (long) IND_COMMAND_STRIDE * indexedIndirectCommandList.size();
+        VulkanBuffer vulkanBuffer = new VulkanBuffer(uploadTransaction.getDevice(), size,
+                VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+        ByteBuffer dataBuffer = uploadTransaction.writeBuffer(vulkanBuffer, 0, size);
+        VkDrawIndexedIndirectCommand.Buffer indCommandBuffer = new VkDrawIndexedIndirectCommand.Buffer(dataBuffer);
+        indexedIndirectCommandList.forEach(indCommandBuffer::put);
+        return vulkanBuffer;
+    }
+
+    public void loadInstanceData(Scene scene, UploadTransaction uploadTransaction, int frameIdx, float alpha) {
+        // Only the slots of the entities which changed since the last frame are visited. Blends change with alpha, so
+        // moving entities are written every frame, except static ones which are always rendered as they are
+        Set<Entity> dirtyEntities = scene.getDirtyEntities();
+        Set<Entity> movingEntities = scene.getMovingEntities();
+        if (staticInstanceSlots != null) {
+            staticInstanceSlots.markDirtySlots(dirtyEntities);
         }
-        long mappedMemory = instanceBuffer.map();
-        ByteBuffer dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) instanceBuffer.getRequestedSize());
-        int pos = 0;
-        for (VulkanModel vulkanModel : vulkanModels) {
-            List<Entity> entities = scene.getEntitiesByModelId(vulkanModel.getModelId());
-            if (entities.isEmpty() || excludedEntitiesPredicate.test(vulkanModel)) {
-                continue;
-            }
-            for (VulkanModel.VulkanMesh vulkanMesh : vulkanModel.getVulkanMeshList()) {
-                for (Entity entity : entities) {
-                    entity.getModelMatrix().get(pos, dataBuffer);
-                    pos += MAT4X4_SIZE;
-                    dataBuffer.putInt(pos, vulkanMesh.globalMaterialIdx());
-                    pos += INT_LENGTH;
-                }
-            }
+        if (instanceSlots != null) {
+            instanceSlots.markDirtySlots(dirtyEntities);
+            instanceSlots.markDirtySlots(movingEntities);
+        }
+        if (animInstanceSlots != null) {
+            animInstanceSlots.markDirtySlots(dirtyEntities);
+            animInstanceSlots.markDirtySlots(movingEntities);
+        }
+        scene.resetDirtyEntities();
+
+        if (staticInstanceSlots != null && staticInstanceSlots.uploadDirtySlots(uploadTransaction,
+                staticInstanceDataBuffer)) {
+            staticGeneration++;
+        }
+        if (instanceSlots != null) {
+            instanceSlots.writeDirtySlots(instanceDataBuffers[frameIdx], frameIdx, alpha);
+        }
+        if (animInstanceSlots != null) {
+            animInstanceSlots.writeDirtySlots(animInstanceDataBuffers[frameIdx], frameIdx, alpha);
         }
-        instanceBuffer.unMap();
     }
 
     private void loadMatIntoIntBuffer(Matrix4f m, IntBuffer buffer) {
@@ -360,7 +516,8 @@ public class GlobalBuffers {
             }
             vulkanModel.addVulkanMesh(new VulkanModel.VulkanMesh(verticesSize, indices.length,
                     verticesData.position() * INT_LENGTH, indicesData.position() * INT_LENGTH,
-                    globalMaterialIdx, animWeightsStgBuffer.getDataBuffer().position() * INT_LENGTH));
+                    globalMaterialIdx, animWeightsStgBuffer.getDataBuffer().position() * INT_LENGTH,
+                    FrustumCuller.computeBoundingSphere(positions)));
 
             int rows = positions.length / 3;
             for (int row = 0; row < rows; row++) {
@@ -389,13 +546,12 @@ public class GlobalBuffers {
         }
     }
 
-    public List<VulkanModel> loadModels(List<ModelData> modelDataList, TextureCache textureCache, CommandPool
-            commandPool, Queue queue) {
+    public List<VulkanModel> loadModels(List<ModelData> modelDataList, TextureCache textureCache,
+                                        UploadTransaction uploadTransaction) {
         List<VulkanModel> vulkanModelList = new ArrayList<>();
         List<Texture> textureList = new ArrayList<>();
 
-        Device device = commandPool.getDevice();
-        CommandBuffer cmd = new CommandBuffer(commandPool, true, true);
+        Device device = uploadTransaction.getDevice();
 
         StgIntBuffer verticesStgBuffer = new StgIntBuffer(device, verticesBuffer.getRequestedSize());
         StgIntBuffer indicesStgBuffer = new StgIntBuffer(device, indicesBuffer.getRequestedSize());
@@ -403,8 +559,6 @@ public class GlobalBuffers {
         StgIntBuffer animJointMatricesStgBuffer = new StgIntBuffer(device, animJointMatricesBuffer.getRequestedSize());
         StgIntBuffer animWeightsStgBuffer = new StgIntBuffer(device, animWeightsBuffer.getRequestedSize());
 
-        cmd.beginRecording();
-
         // Load a default material
         List<ModelData.Material> defaultMaterialList = Collections.singletonList(new ModelData.Material());
         loadMaterials(device, textureCache, materialsStgBuffer, defaultMaterialList, textureList);
@@ -427,86 +581,51 @@ public class GlobalBuffers {
             textureList.add(defaultTexture);
         }
 
+        CommandBuffer cmd = uploadTransaction.getCommandBuffer();
         materialsStgBuffer.recordTransferCommand(cmd, materialsBuffer);
         verticesStgBuffer.recordTransferCommand(cmd, verticesBuffer);
         indicesStgBuffer.recordTransferCommand(cmd, indicesBuffer);
         animJointMatricesStgBuffer.recordTransferCommand(cmd, animJointMatricesBuffer);
         animWeightsStgBuffer.recordTransferCommand(cmd, animWeightsBuffer);
-        textureList.forEach(t -> t.recordTextureTransition(cmd));
-        cmd.endRecording();
-
-        cmd.submitAndWait(device, queue);
-        cmd.cleanup();
+        textureList.forEach(uploadTransaction::recordTextureTransition);
 
-        verticesStgBuffer.cleanup();
-        indicesStgBuffer.cleanup();
-        materialsStgBuffer.cleanup();
-        animJointMatricesStgBuffer.cleanup();
-        animWeightsStgBuffer.cleanup();
-        textureList.forEach(Texture::cleanupStgBuffer);
+        uploadTransaction.addCompletionTask(verticesStgBuffer::cleanup);
+        uploadTransaction.addCompletionTask(indicesStgBuffer::cleanup);
+        uploadTransaction.addCompletionTask(materialsStgBuffer::cleanup);
+        uploadTransaction.addCompletionTask(animJointMatricesStgBuffer::cleanup);
+        uploadTransaction.addCompletionTask(animWeightsStgBuffer::cleanup);
 
         return vulkanModelList;
     }
 
-    private void loadStaticEntities(List<VulkanModel> vulkanModelList, Scene scene, CommandPool commandPool,
-                                    Queue queue, int numSwapChainImages) {
-        numIndirectCommands = 0;
+    private void loadStaticEntities(List<VulkanModel> vulkanModelList, Scene scene, UploadTransaction uploadTransaction,
+                                    int framesInFlight) {
+        numStaticIndirectCommands = 0;
+        staticInstanceSlots = null;
+        staticGeneration++;
+        retireCullBuffers(staticCullBuffers, uploadTransaction);
+        staticCullBuffers = null;
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            Device device = commandPool.getDevice();
-            CommandBuffer cmd = new CommandBuffer(commandPool, true, true);
-
-            List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList = new ArrayList<>();
-            int numInstances = 0;
-            int firstInstance = 0;
-            for (VulkanModel vulkanModel : vulkanModelList) {
-                List<Entity> entities = scene.getEntitiesByModelId(vulkanModel.getModelId());
-                if (entities.isEmpty() || vulkanModel.hasAnimations()) {
-                    continue;
-                }
-                for (VulkanModel.VulkanMesh vulkanMesh : vulkanModel.getVulkanMeshList()) {
-                    VkDrawIndexedIndirectCommand indexedIndirectCommand = VkDrawIndexedIndirectCommand.calloc(stack);
-                    indexedIndirectCommand.indexCount(vulkanMesh.numIndices());
-                    indexedIndirectCommand.firstIndex(vulkanMesh.indicesOffset() / INT_LENGTH);
-                    indexedIndirectCommand.instanceCount(entities.size());
-                    indexedIndirectCommand.vertexOffset(vulkanMesh.verticesOffset() / VertexBufferStructure.SIZE_IN_BYTES);
-                    indexedIndirectCommand.firstInstance(firstInstance);
-                    indexedIndirectCommandList.add(indexedIndirectCommand);
-
-                    numIndirectCommands++;
-                    firstInstance += entities.size();
-                    numInstances += entities.size();
-                }
-            }
-            if (numIndirectCommands > 0) {
-                cmd.beginRecording();
-
-                StgByteBuffer indirectStgBuffer = new StgByteBuffer(device, (long) IND_COMMAND_STRIDE * numIndirectCommands);
-                if (indirectBuffer != null) {
-                    indirectBuffer.cleanup();
-                }
-                indirectBuffer = new VulkanBuffer(device, indirectStgBuffer.stgVulkanBuffer.getRequestedSize(),
-                        VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
-                        VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0);
-                ByteBuffer dataBuffer = indirectStgBuffer.getDataBuffer();
-                VkDrawIndexedIndirectCommand.Buffer indCommandBuffer = new VkDrawIndexedIndirectCommand.Buffer(dataBuffer);
-
-                indexedIndirectCommandList.forEach(indCommandBuffer::put);
-
-                if (instanceDataBuffers != null) {
-                    Arrays.asList(instanceDataBuffers).forEach(VulkanBuffer::cleanup);
-                }
-                instanceDataBuffers = new VulkanBuffer[numSwapChainImages];
-                for (int i = 0; i < numSwapChainImages; i++) {
-                    instanceDataBuffers[i] = new VulkanBuffer(device, (long) numInstances * (MAT4X4_SIZE + INT_LENGTH),
-                            VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
-                }
-
-                indirectStgBuffer.recordTransferCommand(cmd, indirectBuffer);
-
-                cmd.endRecording();
-                cmd.submitAndWait(device, queue);
-                cmd.cleanup();
-                indirectStgBuffer.cleanup();
+            List<Entity> slotEntities = new ArrayList<>();
+            List<Integer> slotMaterials = new ArrayList<>();
+            List<Vector4f> boundingSpheres = new ArrayList<>();
+            List<VkDrawIndexedIndirectCommand> indexedIndirectCommandList = buildIndirectCommands(stack, vulkanModelList,
+                    scene, true, slotEntities, slotMaterials, boundingSpheres, null);
+            numStaticIndirectCommands = indexedIndirectCommandList.size();
+            if (numStaticIndirectCommands > 0) {
+                uploadTransaction.retire(staticIndirectBuffer);
+                staticIndirectBuffer = loadIndirectBuffer(uploadTransaction, indexedIndirectCommandList);
+
+                uploadTransaction.retire(staticInstanceDataBuffer);
+                staticInstanceDataBuffer = new VulkanBuffer(uploadTransaction.getDevice(),
+                        (long) slotEntities.size() * INSTANCE_DATA_SIZE,
+                        VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT |
+                                VK_BUFFER_USAGE_TRANSFER_DST_BIT,
+                        VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+                // Uploaded by the next call to loadInstanceData, since all the slots start dirty
+                staticInstanceSlots = new InstanceSlots(slotEntities, slotMaterials, 1);
+                staticCullBuffers = createCullBuffers(uploadTransaction, indexedIndirectCommandList, boundingSpheres,
+                        slotEntities.size(), framesInFlight);
             }
         }
     }
@@ -537,11 +656,269 @@ public class GlobalBuffers {
         }
     }
 
+    private boolean removeBatchEntity(Entity entity, String modelId, Set<InstanceBatch> updatedBatches) {
+        InstanceBatch batch = instanceBatches.get(modelId);
+        Integer pos = batch != null ? batch.positions.remove(entity.getId()) : null;
+        if (pos == null) {
+            return false;
+        }
+        // Swap remove: the last entity of the batch takes the place of the removed one
+        int lastPos = batch.entities.size() - 1;
+        Entity lastEntity = batch.entities.remove(lastPos);
+        if (pos != lastPos) {
+            batch.entities.set(pos, lastEntity);
+            batch.positions.put(lastEntity.getId(), pos);
+        }
+        for (int i = 0; i < batch.numMeshes; i++) {
+            if (pos != lastPos) {
+                instanceSlots.setSlot(batch.getSlot(i, pos), lastEntity);
+            }
+            instanceSlots.setSlot(batch.getSlot(i, lastPos), null);
+        }
+        updatedBatches.add(batch);
+        return true;
+    }
+
+    private void retireCullBuffers(CullBuffers buffers, UploadTransaction uploadTransaction) {
+        if (buffers != null) {
+            buffers.retire(uploadTransaction);
+        }
+    }
+
+    public boolean updateEntities(List<Scene.EntityEvent> entityEvents, UploadTransaction uploadTransaction) {
+        if (instanceSlots == null) {
+            return false;
+        }
+        Set<InstanceBatch> updatedBatches = new LinkedHashSet<>();
+        for (Scene.EntityEvent entityEvent : entityEvents) {
+            Entity entity = entityEvent.entity();
+            boolean applied = switch (entityEvent.type()) {
+                case ADDED -> addBatchEntity(entity, entity.getModelId(), updatedBatches);
+                case REMOVED -> removeBatchEntity(entity, entityEvent.prevModelId(), updatedBatches);
+                case MODEL_CHANGED -> removeBatchEntity(entity, entityEvent.prevModelId(), updatedBatches) &&
+                        addBatchEntity(entity, entity.getModelId(), updatedBatches);
+            };
+            if (!applied) {
+                return false;
+            }
+        }
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            for (InstanceBatch batch : updatedBatches) {
+                // Only the instance count of each mesh command changes
+                VkBufferCopy.Buffer copyRegions = VkBufferCopy.calloc(batch.numMeshes, stack);
+                for (int i = 0; i < batch.numMeshes; i++) {
+                    copyRegions.get(i)
+                            .srcOffset((long) i * INT_LENGTH)
+                            .dstOffset((long) (batch.firstCommand + i) * IND_COMMAND_STRIDE +
+                                    VkDrawIndexedIndirectCommand.INSTANCECOUNT)
+                            .size(INT_LENGTH);
+                }
+                ByteBuffer dataBuffer = uploadTransaction.writeBuffer(indirectBuffer,
+                        (long) batch.numMeshes * INT_LENGTH, copyRegions);
+                for (int i = 0; i < batch.numMeshes; i++) {
+                    dataBuffer.putInt(i * INT_LENGTH, batch.entities.size());
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class InstanceBatch {
+        private final int capacity;
+        private final List<Entity> entities;
+        private final int firstCommand;
+        private final int firstInstance;
+        private final int numMeshes;
+        private final Map<String, Integer> positions;
+
+        public InstanceBatch(int firstCommand, int numMeshes, int firstInstance, int capacity, List<Entity> entities) {
+            this.firstCommand = firstCommand;
+            this.numMeshes = numMeshes;
+            this.firstInstance = firstInstance;
+            this.capacity = capacity;
+            this.entities = new ArrayList<>(entities);
+            positions = new HashMap<>();
+            for (int i = 0; i < entities.size(); i++) {
+                positions.put(entities.get(i).getId(), i);
+            }
+        }
+
+        public int getSlot(int meshIdx, int pos) {
+            return firstInstance + meshIdx * capacity + pos;
+        }
+
+        public boolean isFull() {
+            return entities.size() >= capacity;
+        }
+    }
+
+    static class InstanceSlots {
+        private static final int FULL_SCAN_DIVISOR = 3;
+
+        private final BitSet[] dirtySlots;
+        // Slots referencing each entity, one per mesh of its model
+        private final Map<Entity, int[]> entitySlots;
+        private final Entity[] entities;
+        private final int[] materials;
+        private final Vector3f position = new Vector3f();
+        private final Quaternionf rotation = new Quaternionf();
+
+        public InstanceSlots(List<Entity> slotEntities, List<Integer> slotMaterials, int numBuffers) {
+            int numSlots = slotEntities.size();
+            entities = slotEntities.toArray(new Entity[0]);
+            materials = slotMaterials.stream().mapToInt(Integer::intValue).toArray();
+            entitySlots = new IdentityHashMap<>();
+            for (int i = 0; i < numSlots; i++) {
+                if (entities[i] != null) {
+                    addEntitySlot(entities[i], i);
+                }
+            }
+            dirtySlots = new BitSet[numBuffers];
+            for (int i = 0; i < numBuffers; i++) {
+                dirtySlots[i] = new BitSet(numSlots);
+                dirtySlots[i].set(0, numSlots);
+            }
+        }
+
+        private void addEntitySlot(Entity entity, int slot) {
+            int[] slots = entitySlots.get(entity);
+            if (slots == null) {
+                slots = new int[]{slot};
+            } else {
+                slots = Arrays.copyOf(slots, slots.length + 1);
+                slots[slots.length - 1] = slot;
+            }
+            entitySlots.put(entity, slots);
+        }
+
+        private void markDirty(int slot) {
+            for (BitSet bitSet : dirtySlots) {
+                bitSet.set(slot);
+            }
+        }
+
+        void markAllSlots() {
+            for (BitSet bitSet : dirtySlots) {
+                bitSet.set(0, entities.length);
+            }
+        }
+
+        public void markDirtySlots(Collection<Entity> dirtyEntities) {
+            // Past this many dirty entities, rewriting every slot in order costs less than the lookups and the
+            // scattered writes
+            int fullScanThreshold = entitySlots.size() / FULL_SCAN_DIVISOR;
+            int numDirty = 0;
+            for (Entity entity : dirtyEntities) {
+                int[] slots = entitySlots.get(entity);
+                if (slots == null) {
+                    // Rendered through other slots, or not at all
+                    continue;
+                }
+                if (++numDirty > fullScanThreshold) {
+                    markAllSlots();
+                    return;
+                }
+                for (int slot : slots) {
+                    markDirty(slot);
+                }
+            }
+        }
+
+        private void removeEntitySlot(Entity entity, int slot) {
+            int[] slots = Arrays.stream(entitySlots.get(entity)).filter(s -> s != slot).toArray();
+            if (slots.length > 0) {
+                entitySlots.put(entity, slots);
+            } else {
+                entitySlots.remove(entity);
+            }
+        }
+
+        public void setSlot(int slot, Entity entity) {
+            if (entities[slot] != null) {
+                removeEntitySlot(entities[slot], slot);
+            }
+            entities[slot] = entity;
+            if (entity != null) {
+                addEntitySlot(entity, slot);
+            }
+            markDirty(slot);
+        }
+
+        public boolean uploadDirtySlots(UploadTransaction uploadTransaction, VulkanBuffer dstBuffer) {
+            BitSet dirty = dirtySlots[0];
+            if (dirty.isEmpty()) {
+                return false;
+            }
+            int numRuns = 0;
+            for (int start = dirty.nextSetBit(0); start >= 0; start = dirty.nextSetBit(dirty.nextClearBit(start))) {
+                numRuns++;
+            }
+
+            VkBufferCopy.Buffer copyRegions = VkBufferCopy.calloc(numRuns);
+            int pos = 0;
+            for (int start = dirty.nextSetBit(0); start >= 0; start = dirty.nextSetBit(dirty.nextClearBit(start))) {
+                int end = dirty.nextClearBit(start);
+                copyRegions.get()
+                        .srcOffset(pos)
+                        .dstOffset((long) start * INSTANCE_DATA_SIZE)
+                        .size((long) (end - start) * INSTANCE_DATA_SIZE);
+                pos += (end - start) * INSTANCE_DATA_SIZE;
+            }
+            copyRegions.flip();
+
+            ByteBuffer dataBuffer = uploadTransaction.writeBuffer(dstBuffer, pos, copyRegions);
+            copyRegions.free();
+            pos = 0;
+            for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+                writeSlot(slot, dataBuffer, pos, 1.0f);
+                pos += INSTANCE_DATA_SIZE;
+            }
+            dirty.clear();
+            return true;
+        }
+
+        public void writeDirtySlots(VulkanBuffer instanceBuffer, int bufferIdx, float alpha) {
+            if (dirtySlots[bufferIdx].isEmpty()) {
+                return;
+            }
+            long mappedMemory = instanceBuffer.map();
+            writeDirtySlots(MemoryUtil.memByteBuffer(mappedMemory, (int) instanceBuffer.getRequestedSize()), bufferIdx,
+                    alpha);
+            instanceBuffer.unMap();
+        }
+
+        void writeDirtySlots(ByteBuffer dataBuffer, int bufferIdx, float alpha) {
+            BitSet dirty = dirtySlots[bufferIdx];
+            for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+                writeSlot(slot, dataBuffer, slot * INSTANCE_DATA_SIZE, alpha);
+            }
+            dirty.clear();
+        }
+
+        private void writeSlot(int slot, ByteBuffer dataBuffer, int pos, float alpha) {
+            Entity entity = entities[slot];
+            if (entity == null) {
+                // Spare slot, not referenced by any draw command
+                return;
+            }
+            if (alpha >= 1.0f || !entity.isInterpolating()) {
+                InstanceData.pack(entity.getPosition(), entity.getRotation(), entity.getScale(), materials[slot],
+                        dataBuffer, pos);
+            } else {
+                InstanceData.pack(entity.getInterpolatedPosition(alpha, position),
+                        entity.getInterpolatedRotation(alpha, rotation), entity.getInterpolatedScale(alpha),
+                        materials[slot], dataBuffer, pos);
+            }
+        }
+    }
+
     private static abstract class StgBuffer {
         protected final VulkanBuffer stgVulkanBuffer;
 
         public StgBuffer(Device device, long size) {
-            stgVulkanBuffer = new VulkanBuffer(device, size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+            stgVulkanBuffer = new VulkanBuffer(device, size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT,
+                    VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, MemoryAllocator.MemoryCategory.STAGING);
         }
 
         public void cleanup() {
@@ -558,20 +935,6 @@ public class GlobalBuffers {
         }
     }
 
-    private static class StgByteBuffer extends StgBuffer {
-        private final ByteBuffer dataBuffer;
-
-        public StgByteBuffer(Device device, long size) {
-            super(device, size);
-            long mappedMemory = stgVulkanBuffer.map();
-            dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) stgVulkanBuffer.getRequestedSize());
-        }
-
-        public ByteBuffer getDataBuffer() {
-            return dataBuffer;
-        }
-    }
-
     private static class StgIntBuffer extends StgBuffer {
         private final IntBuffer dataBuffer;
 
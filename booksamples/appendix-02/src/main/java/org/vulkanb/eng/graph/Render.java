@@ -1,206 +1,543 @@
 package org.vulkanb.eng.graph;
 
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkExtent2D;
 import org.tinylog.Logger;
 import org.vulkanb.eng.*;
 import org.vulkanb.eng.graph.animation.AnimationComputeActivity;
+import org.vulkanb.eng.graph.culling.*;
 import org.vulkanb.eng.graph.geometry.GeometryRenderActivity;
 import org.vulkanb.eng.graph.gui.GuiRenderActivity;
 import org.vulkanb.eng.graph.lighting.LightingRenderActivity;
+import org.vulkanb.eng.graph.rendergraph.*;
 import org.vulkanb.eng.graph.shadows.ShadowRenderActivity;
 import org.vulkanb.eng.graph.vk.Queue;
 import org.vulkanb.eng.graph.vk.*;
 import org.vulkanb.eng.scene.*;
 
 import java.util.*;
+import java.util.function.Consumer;
 
-import static org.lwjgl.vulkan.VK11.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT;
+import static org.lwjgl.vulkan.VK11.*;
 
 public class Render {
 
+    // Timestamps written each frame, used to measure the GPU time spent on it
+    private static final int NUM_TIMESTAMPS = 2;
+    // Transient image lighting is rendered into when the output is scaled
+    private static final String SCALED_OUTPUT = "scaledOutput";
+    private static final int SCENE_END = 1;
+    private static final int SCENE_START = 0;
+
     private final AnimationComputeActivity animationComputeActivity;
     private final CommandPool commandPool;
+    private final CullComputeActivity cullComputeActivity;
     private final Device device;
+    private final DynamicResolution dynamicResolution;
     private final GeometryRenderActivity geometryRenderActivity;
     private final GlobalBuffers globalBuffers;
+    private final GpuTimer gpuTimer;
+    private final double[] gpuTimes;
+    private final TimelineSemaphore graphicsTimeline;
     private final Queue.GraphicsQueue graphQueue;
     private final GuiRenderActivity guiRenderActivity;
     private final Instance instance;
     private final LightingRenderActivity lightingRenderActivity;
+    // Drawn by the overlay pass, set every frame
+    private final List<Consumer<CommandBuffer>> overlayTasks;
+    private final ParallelRecorder parallelRecorder;
+    private final List<UploadTransaction> pendingUploads;
     private final PhysicalDevice physicalDevice;
     private final PipelineCache pipelineCache;
     private final Queue.PresentQueue presentQueue;
+    private final ShaderVariantRegistry shaderVariants;
     private final ShadowRenderActivity shadowRenderActivity;
     private final Surface surface;
     private final TextureCache textureCache;
+    private final TransientImages transientImages;
     private final List<VulkanModel> vulkanModels;
-    private CommandBuffer[] commandBuffers;
+    private int commandsGeneration;
+    private int currentFrame;
     private long entitiesLoadedTimeStamp;
-    private Fence[] fences;
+    private FrameContext[] frameContexts;
+    private CompiledGraph[] frameGraphs;
+    private long memoryStatsTimeStamp;
+    private int[] recordedGenerations;
+    private float[] recordedScales;
+    private float renderScale;
     private SwapChain swapChain;
 
     public Render(Window window, Scene scene) {
         EngineProperties engProps = EngineProperties.getInstance();
-        instance = new Instance(engProps.isValidate());
-        physicalDevice = PhysicalDevice.createPhysicalDevice(instance, engProps.getPhysDeviceName());
+        boolean headless = engProps.isHeadless();
+        instance = new Instance(engProps.isValidate(), headless);
+        physicalDevice = PhysicalDevice.createPhysicalDevice(instance, engProps.getPhysDeviceName(), !headless);
         device = new Device(instance, physicalDevice);
-        surface = new Surface(physicalDevice, window.getWindowHandle());
         graphQueue = new Queue.GraphicsQueue(device, 0);
-        presentQueue = new Queue.PresentQueue(device, surface, 0);
-        swapChain = new SwapChain(device, surface, window, engProps.getRequestedImages(), engProps.isvSync(),
-                presentQueue, new Queue[]{graphQueue});
+        // Headless rendering has no surface, frames are released on the graphics queue
+        surface = headless ? null : new Surface(physicalDevice, window.getWindowHandle());
+        presentQueue = headless ? null : new Queue.PresentQueue(device, surface, 0);
+        // Resolution is only scaled when it can be driven by measured GPU times, otherwise lighting is rendered
+        // straight into the swap chain images
+        boolean timestamps = GpuTimer.isSupported(device, graphQueue.getQueueFamilyIndex());
+        if (engProps.isDynamicResolution() && !timestamps) {
+            Logger.warn("Timestamp queries not supported, dynamic resolution disabled");
+        }
+        if (engProps.isDynamicResolution() && timestamps) {
+            gpuTimer = new GpuTimer(device, graphQueue.getQueueFamilyIndex(), engProps.getFramesInFlight(),
+                    NUM_TIMESTAMPS);
+            dynamicResolution = new DynamicResolution(engProps.getDynamicResolutionTarget(),
+                    engProps.getMinRenderScale(), 1.0f);
+        } else {
+            gpuTimer = null;
+            dynamicResolution = null;
+        }
+        swapChain = createSwapChain(window);
         commandPool = new CommandPool(device, graphQueue.getQueueFamilyIndex());
-        pipelineCache = new PipelineCache(device);
+        graphicsTimeline = new TimelineSemaphore(device);
+        pipelineCache = new PipelineCache(device, engProps.getPipelineCachePath());
+        shaderVariants = new ShaderVariantRegistry();
+        PipelineBuilder pipelineBuilder = new PipelineBuilder(pipelineCache, shaderVariants,
+                engProps.getPipelineThreads());
         vulkanModels = new ArrayList<>();
+        pendingUploads = new ArrayList<>();
         textureCache = new TextureCache();
         globalBuffers = new GlobalBuffers(device);
-        geometryRenderActivity = new GeometryRenderActivity(swapChain, pipelineCache, scene, globalBuffers);
-        shadowRenderActivity = new ShadowRenderActivity(swapChain, pipelineCache, scene, globalBuffers);
+        parallelRecorder = new ParallelRecorder(device, graphQueue.getQueueFamilyIndex(), engProps.getRecordingThreads());
+        geometryRenderActivity = new GeometryRenderActivity(swapChain, pipelineBuilder, scene, globalBuffers,
+                parallelRecorder);
+        shadowRenderActivity = new ShadowRenderActivity(swapChain, pipelineBuilder, scene, globalBuffers,
+                parallelRecorder);
         List<Attachment> attachments = new ArrayList<>(geometryRenderActivity.getAttachments());
         attachments.add(shadowRenderActivity.getDepthAttachment());
-        lightingRenderActivity = new LightingRenderActivity(swapChain, commandPool, pipelineCache, attachments, scene);
-        animationComputeActivity = new AnimationComputeActivity(commandPool, pipelineCache);
-        guiRenderActivity = new GuiRenderActivity(swapChain, commandPool, graphQueue, pipelineCache,
-                lightingRenderActivity.getLightingFrameBuffer().getLightingRenderPass().getVkRenderPass());
+        lightingRenderActivity = new LightingRenderActivity(swapChain, pipelineBuilder, attachments, scene,
+                parallelRecorder, dynamicResolution != null);
+        animationComputeActivity = new AnimationComputeActivity(graphQueue, pipelineBuilder);
+        cullComputeActivity = new CullComputeActivity(pipelineBuilder, scene);
+        transientImages = new TransientImages(device);
+        guiRenderActivity = new GuiRenderActivity(swapChain, commandPool, graphQueue, pipelineBuilder,
+                lightingRenderActivity.getLightingFrameBuffer().getOverlayRenderPass().getVkRenderPass());
+        // Activities are only usable once their pipelines, created by the builder workers, are ready
+        pipelineBuilder.waitAll();
         entitiesLoadedTimeStamp = 0;
-        createCommandBuffers();
-    }
-
-    private CommandBuffer acquireCurrentCommandBuffer() {
-        int idx = swapChain.getCurrentFrame();
 
-        Fence fence = fences[idx];
-        CommandBuffer commandBuffer = commandBuffers[idx];
-
-        fence.fenceWait();
-        fence.reset();
+        overlayTasks = new ArrayList<>();
+        gpuTimes = new double[NUM_TIMESTAMPS];
+        renderScale = 1.0f;
+        createFrameContexts();
+    }
 
-        return commandBuffer;
+    // Attachments are cleared and transitioned by the render passes, then sampled by the lighting pass
+    private static void addSampledAttachment(RenderGraph renderGraph, RenderGraph.Pass pass,
+                                             RenderGraph.Pass lightingPass, Attachment attachment) {
+        RenderGraph.Resource resource = renderGraph.importImage("attachment", attachment, VK_IMAGE_LAYOUT_UNDEFINED);
+        int layout = attachment.isDepthAttachment() ? VK_IMAGE_LAYOUT_DEPTH_STENCIL_READ_ONLY_OPTIMAL :
+                VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL;
+        pass.write(resource, attachment.isDepthAttachment() ? ResourceAccess.DEPTH_ATTACHMENT_CLEAR :
+                ResourceAccess.COLOR_ATTACHMENT_CLEAR).finalLayout(resource, layout);
+        lightingPass.read(resource, new ResourceAccess(VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT,
+                VK_ACCESS_SHADER_READ_BIT, layout));
     }
 
     public void cleanup() {
-        presentQueue.waitIdle();
+        if (presentQueue != null) {
+            presentQueue.waitIdle();
+        }
         graphQueue.waitIdle();
         device.waitIdle();
+        pendingUploads.forEach(UploadTransaction::cleanup);
         textureCache.cleanup();
         pipelineCache.cleanup();
+        shaderVariants.cleanup();
+        ShaderCompiler.cleanup();
         guiRenderActivity.cleanup();
         lightingRenderActivity.cleanup();
+        transientImages.cleanup();
         animationComputeActivity.cleanup();
+        cullComputeActivity.cleanup();
         shadowRenderActivity.cleanup();
         geometryRenderActivity.cleanup();
-        Arrays.asList(commandBuffers).forEach(CommandBuffer::cleanup);
-        Arrays.asList(fences).forEach(Fence::cleanup);
+        parallelRecorder.cleanup();
+        Arrays.asList(frameContexts).forEach(FrameContext::cleanup);
+        if (gpuTimer != null) {
+            gpuTimer.cleanup();
+        }
+        graphicsTimeline.cleanup();
         commandPool.cleanup();
         swapChain.cleanup();
-        surface.cleanup();
+        if (surface != null) {
+            surface.cleanup();
+        }
         globalBuffers.cleanup();
         device.cleanup();
         physicalDevice.cleanup();
         instance.cleanup();
     }
 
-    private void createCommandBuffers() {
-        int numImages = swapChain.getNumImages();
-        commandBuffers = new CommandBuffer[numImages];
-        fences = new Fence[numImages];
+    // The whole frame: skinning on the compute queue, culling, the geometry and shadow passes, lighting and the
+    // overlays drawn over the swap chain image. Barriers, the batches the passes are submitted in and the waits between
+    // them are derived from the declared accesses
+    private RenderGraph createFrameGraph(int idx) {
+        RenderGraph renderGraph = new RenderGraph();
+        VulkanBuffer[] animVerticesBuffers = globalBuffers.getAnimVerticesBuffers();
+        RenderGraph.Pass animationPass = null;
+        if (animVerticesBuffers != null) {
+            animationPass = renderGraph.addPass("animation", RenderGraph.QueueType.COMPUTE,
+                    cmd -> animationComputeActivity.recordCommandBuffer(cmd, globalBuffers, idx));
+        }
+        RenderGraph.Pass cullPass = renderGraph.addPass("cull",
+                cmd -> cullComputeActivity.recordCommandBuffer(cmd, idx));
+        RenderGraph.Pass geometryPass = renderGraph.addPass("geometry", cmd -> {
+            animationComputeActivity.recordAcquire(cmd, globalBuffers, idx);
+            geometryRenderActivity.recordCommandBuffer(cmd, globalBuffers, idx);
+        });
+        RenderGraph.Pass shadowPass = renderGraph.addPass("shadows",
+                cmd -> shadowRenderActivity.recordCommandBuffer(cmd, globalBuffers, idx));
+        RenderGraph.Pass lightingPass = renderGraph.addPass("lighting",
+                cmd -> lightingRenderActivity.recordCommandBuffer(cmd, idx));
 
-        for (int i = 0; i < numImages; i++) {
-            commandBuffers[i] = new CommandBuffer(commandPool, true, false);
-            fences[i] = new Fence(device, true);
+        if (animationPass != null) {
+            RenderGraph.Resource animVertices = renderGraph.importBuffer("animVertices", animVerticesBuffers[idx]);
+            animationPass.write(animVertices, ResourceAccess.COMPUTE_WRITE);
+            geometryPass.read(animVertices, ResourceAccess.VERTEX_READ);
+            shadowPass.read(animVertices, ResourceAccess.VERTEX_READ);
+        }
+        for (CullBuffers cullBuffers : new CullBuffers[]{globalBuffers.getStaticCullBuffers(),
+                globalBuffers.getCullBuffers()}) {
+            if (cullBuffers == null) {
+                continue;
+            }
+            for (int view = 0; view < CullBuffers.NUM_VIEWS; view++) {
+                RenderGraph.Resource indirect = renderGraph.importBuffer("culledIndirect" + view,
+                        cullBuffers.getCulledIndirectBuffers(view)[idx]);
+                RenderGraph.Resource instances = renderGraph.importBuffer("culledInstances" + view,
+                        cullBuffers.getCulledInstanceDataBuffers(view)[idx]);
+                cullPass.write(indirect, ResourceAccess.COMPUTE_WRITE).write(instances, ResourceAccess.COMPUTE_WRITE);
+                RenderGraph.Pass consumer = view == CullBuffers.CAMERA_VIEW ? geometryPass : shadowPass;
+                consumer.read(indirect, ResourceAccess.INDIRECT_READ).read(instances, ResourceAccess.VERTEX_READ);
+            }
         }
+        for (Attachment attachment : geometryRenderActivity.getAttachments()) {
+            addSampledAttachment(renderGraph, geometryPass, lightingPass, attachment);
+        }
+        addSampledAttachment(renderGraph, shadowPass, lightingPass, shadowRenderActivity.getDepthAttachment());
+
+        // The work before the first pass using the swap chain image does not wait for its acquisition
+        RenderGraph.Resource swapChainImage = renderGraph.importImage("swapChainImage", () -> swapChain.getVkImage(),
+                VK_IMAGE_ASPECT_COLOR_BIT, VK_IMAGE_LAYOUT_UNDEFINED).markAcquired().markOutput();
+        int overlayLayout;
+        if (lightingRenderActivity.getLightingFrameBuffer().isScaled()) {
+            VkExtent2D extent = swapChain.getSwapChainExtent();
+            Image.ImageData imageData = new Image.ImageData().width(extent.width()).height(extent.height())
+                    .format(swapChain.getSurfaceFormat().imageFormat())
+                    .usage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK_IMAGE_USAGE_TRANSFER_SRC_BIT)
+                    .category(MemoryAllocator.MemoryCategory.ATTACHMENTS);
+            RenderGraph.Resource scaledOutput = renderGraph.createTransientImage(SCALED_OUTPUT, imageData);
+            lightingPass.write(scaledOutput, ResourceAccess.COLOR_ATTACHMENT_CLEAR)
+                    .finalLayout(scaledOutput, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+            renderGraph.addPass("blit", lightingRenderActivity::recordBlit)
+                    .read(scaledOutput, ResourceAccess.TRANSFER_READ)
+                    .write(swapChainImage, ResourceAccess.TRANSFER_WRITE);
+            overlayLayout = VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL;
+        } else {
+            lightingPass.write(swapChainImage, ResourceAccess.COLOR_ATTACHMENT_CLEAR)
+                    .finalLayout(swapChainImage, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+            overlayLayout = VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL;
+        }
+        // The overlays of the frame are set before the frame batch is recorded
+        renderGraph.addPass("overlay", cmd -> lightingRenderActivity.recordOverlay(cmd, idx, overlayTasks))
+                .write(swapChainImage, new ResourceAccess(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT,
+                        VK_ACCESS_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT, overlayLayout))
+                .finalLayout(swapChainImage, swapChain.getFinalLayout())
+                .sideEffects();
+        return renderGraph;
+    }
+
+    private SwapChain createSwapChain(Window window) {
+        EngineProperties engProps = EngineProperties.getInstance();
+        if (engProps.isHeadless()) {
+            // Images are reused in order, so there must be at least one per frame in flight
+            int numImages = Math.max(engProps.getRequestedImages(), engProps.getFramesInFlight());
+            return new SwapChain(device, graphQueue, window.getWidth(), window.getHeight(), numImages,
+                    dynamicResolution != null);
+        }
+        return new SwapChain(device, surface, window, engProps.getRequestedImages(),
+                SwapChain.PresentMode.fromProperties(engProps.getPresentMode(), engProps.isvSync()),
+                presentQueue, new Queue[]{graphQueue}, dynamicResolution != null);
+    }
+
+    private void createFrameContexts() {
+        int framesInFlight = EngineProperties.getInstance().getFramesInFlight();
+        frameContexts = new FrameContext[framesInFlight];
+        frameGraphs = new CompiledGraph[framesInFlight];
+        recordedGenerations = new int[framesInFlight];
+        recordedScales = new float[framesInFlight];
+        Arrays.fill(recordedScales, renderScale);
+        for (int i = 0; i < framesInFlight; i++) {
+            frameContexts[i] = new FrameContext(commandPool, i);
+        }
+        currentFrame = 0;
+    }
+
+    public MemoryAllocator.MemoryStats getMemoryStats() {
+        return device.getMemoryAllocator().getMemoryStats();
+    }
+
+    private void loadEntities(Scene scene, UploadTransaction uploadTransaction) {
+        // Buffers replaced here are released once the upload completes, frames in flight keep using them
+        globalBuffers.loadEntities(vulkanModels, scene, uploadTransaction, frameContexts.length);
+        animationComputeActivity.onAnimatedEntitiesLoaded(globalBuffers);
+        cullComputeActivity.onEntitiesLoaded(globalBuffers, uploadTransaction);
+        commandsGeneration++;
     }
 
     public void loadModels(List<ModelData> modelDataList) {
         Logger.debug("Loading {} model(s)", modelDataList.size());
-        vulkanModels.addAll(globalBuffers.loadModels(modelDataList, textureCache, commandPool, graphQueue));
+        UploadTransaction uploadTransaction = new UploadTransaction(commandPool);
+        vulkanModels.addAll(globalBuffers.loadModels(modelDataList, textureCache, uploadTransaction));
+        uploadTransaction.submit(graphQueue, graphicsTimeline);
+        uploadTransaction.waitComplete();
+        uploadTransaction.cleanup();
         Logger.debug("Loaded {} model(s)", modelDataList.size());
 
         geometryRenderActivity.loadModels(textureCache);
         shadowRenderActivity.loadModels(textureCache);
     }
 
-    private void recordCommands() {
-        int idx = 0;
-        for (CommandBuffer commandBuffer : commandBuffers) {
-            commandBuffer.reset();
-            commandBuffer.beginRecording();
-            geometryRenderActivity.recordCommandBuffer(commandBuffer, globalBuffers, idx);
-            shadowRenderActivity.recordCommandBuffer(commandBuffer, globalBuffers, idx);
-            commandBuffer.endRecording();
-            idx++;
+    private void logMemoryStats() {
+        int memoryStatsInterval = EngineProperties.getInstance().getMemoryStatsInterval();
+        long now = System.currentTimeMillis();
+        if (memoryStatsInterval > 0 && now - memoryStatsTimeStamp >= memoryStatsInterval * 1000L) {
+            memoryStatsTimeStamp = now;
+            Logger.info("Memory: {}", getMemoryStats().summary());
         }
     }
 
-    public void render(Window window, Scene scene) {
-        if (entitiesLoadedTimeStamp < scene.getEntitiesLoadedTimeStamp()) {
-            entitiesLoadedTimeStamp = scene.getEntitiesLoadedTimeStamp();
-            device.waitIdle();
-            globalBuffers.loadEntities(vulkanModels, scene, commandPool, graphQueue, swapChain.getNumImages());
-            animationComputeActivity.onAnimatedEntitiesLoaded(globalBuffers);
-            recordCommands();
+    // Graphics work is split in the scene batch, which does not use the swap chain image and is kept recorded, and the
+    // frame batch, which waits for its acquisition and is recorded every frame
+    private static int findSceneBatch(CompiledGraph frameGraph) {
+        int sceneBatch = -1;
+        List<CompiledGraph.Batch> batches = frameGraph.batches();
+        for (int i = 0; i < batches.size(); i++) {
+            CompiledGraph.Batch batch = batches.get(i);
+            if (batch.queueType() == RenderGraph.QueueType.GRAPHICS && batch.acquireStageMask() == 0) {
+                if (sceneBatch >= 0) {
+                    throw new RuntimeException("Frame graph has more than one scene batch");
+                }
+                sceneBatch = i;
+            }
+        }
+        return sceneBatch;
+    }
+
+    private static void recordBatch(CommandBuffer commandBuffer, CompiledGraph frameGraph, int batchIdx) {
+        commandBuffer.reset();
+        commandBuffer.beginRecording();
+        frameGraph.record(commandBuffer, batchIdx);
+        commandBuffer.endRecording();
+    }
+
+    private void recordCommandBuffer(FrameContext frameContext) {
+        int idx = frameContext.getFrameIdx();
+        CompiledGraph frameGraph = createFrameGraph(idx).compile();
+        frameGraphs[idx] = frameGraph;
+        transientImages.bind(frameGraph);
+        Attachment scaledOutput = transientImages.getAttachment(SCALED_OUTPUT);
+        if (scaledOutput != null) {
+            lightingRenderActivity.setScaledOutput(scaledOutput);
+        }
+
+        CommandBuffer commandBuffer = frameContext.getSceneCommandBuffer();
+        commandBuffer.reset();
+        commandBuffer.beginRecording();
+        if (gpuTimer != null) {
+            gpuTimer.write(commandBuffer, idx, SCENE_START, VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT);
+        }
+        int sceneBatch = findSceneBatch(frameGraph);
+        if (sceneBatch >= 0) {
+            frameGraph.record(commandBuffer, sceneBatch);
+        }
+        if (gpuTimer != null) {
+            gpuTimer.write(commandBuffer, idx, SCENE_END, VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT);
+        }
+        commandBuffer.endRecording();
+        recordedGenerations[idx] = commandsGeneration;
+        recordedScales[idx] = renderScale;
+    }
+
+    private void recordCommands() {
+        Arrays.asList(frameContexts).forEach(this::recordCommandBuffer);
+    }
+
+    private void releaseCompletedUploads() {
+        Iterator<UploadTransaction> it = pendingUploads.iterator();
+        while (it.hasNext()) {
+            UploadTransaction uploadTransaction = it.next();
+            if (uploadTransaction.isComplete()) {
+                uploadTransaction.cleanup();
+                it.remove();
+            }
         }
+    }
+
+    public void render(Window window, Scene scene, float alpha) {
         if (window.getWidth() <= 0 && window.getHeight() <= 0) {
             return;
         }
-        if (window.isResized() || swapChain.acquireNextImage()) {
+        FrameContext frameContext = frameContexts[currentFrame];
+        int frameIdx = frameContext.getFrameIdx();
+        // Everything the frame context uses is free once its last submission has completed
+        graphicsTimeline.waitValue(frameContext.getCompletionValue());
+        updateRenderScale(frameIdx);
+
+        releaseCompletedUploads();
+        UploadTransaction uploadTransaction = new UploadTransaction(commandPool);
+        List<Scene.EntityEvent> entityEvents = scene.pollEntityEvents();
+        if (entitiesLoadedTimeStamp < scene.getEntitiesLoadedTimeStamp()) {
+            entitiesLoadedTimeStamp = scene.getEntitiesLoadedTimeStamp();
+            loadEntities(scene, uploadTransaction);
+        } else if (!entityEvents.isEmpty() && !globalBuffers.updateEntities(entityEvents, uploadTransaction)) {
+            Logger.debug("Entity changes cannot be applied in place, reloading entities");
+            loadEntities(scene, uploadTransaction);
+        }
+        if (window.isResized() || swapChain.acquireNextImage(frameContext.getImgAcquisitionSemaphore())) {
             window.resetResized();
             resize(window);
             scene.getProjection().resize(window.getWidth(), window.getHeight());
-            swapChain.acquireNextImage();
+            swapChain.acquireNextImage(frameContext.getImgAcquisitionSemaphore());
         }
 
-        globalBuffers.loadInstanceData(scene, vulkanModels, swapChain.getCurrentFrame());
-
-        if (globalBuffers.getAnimVerticesBuffer() != null) {
-            animationComputeActivity.recordCommandBuffer(globalBuffers);
-            animationComputeActivity.submit();
+        globalBuffers.loadInstanceData(scene, uploadTransaction, frameIdx, alpha);
+        shadowRenderActivity.render(frameIdx, globalBuffers);
+        if (frameGraphs[frameIdx] == null || recordedGenerations[frameIdx] != commandsGeneration ||
+                recordedScales[frameIdx] != renderScale || shadowRenderActivity.isRecordingStale(frameIdx)) {
+            recordCommandBuffer(frameContext);
         }
+        submitUploads(uploadTransaction);
 
-        CommandBuffer commandBuffer = acquireCurrentCommandBuffer();
-        geometryRenderActivity.render();
-        shadowRenderActivity.render();
-        submitSceneCommand(graphQueue, commandBuffer);
-
-        commandBuffer = lightingRenderActivity.beginRecording(shadowRenderActivity.getShadowCascades());
-        lightingRenderActivity.recordCommandBuffer(commandBuffer);
-        guiRenderActivity.recordCommandBuffer(scene, commandBuffer);
-        lightingRenderActivity.endRecording(commandBuffer);
-        lightingRenderActivity.submit(graphQueue);
+        geometryRenderActivity.render(frameIdx);
+        cullComputeActivity.render(frameIdx, shadowRenderActivity.getShadowCascades());
+        lightingRenderActivity.update(frameIdx, shadowRenderActivity.getShadowCascades());
+        overlayTasks.clear();
+        if (guiRenderActivity.prepareFrame(scene, frameIdx)) {
+            overlayTasks.add(cmd -> guiRenderActivity.recordCommandBuffer(cmd, frameIdx));
+        }
+        submitFrame(frameContext);
 
         if (swapChain.presentImage(presentQueue)) {
             window.setResized(true);
         }
+        currentFrame = (currentFrame + 1) % frameContexts.length;
+
+        logMemoryStats();
     }
 
     private void resize(Window window) {
-        EngineProperties engProps = EngineProperties.getInstance();
-
         device.waitIdle();
         graphQueue.waitIdle();
 
         swapChain.cleanup();
 
-        swapChain = new SwapChain(device, surface, window, engProps.getRequestedImages(), engProps.isvSync(),
-                presentQueue, new Queue[]{graphQueue});
+        swapChain = createSwapChain(window);
+        transientImages.cleanup();
         geometryRenderActivity.resize(swapChain);
         shadowRenderActivity.resize(swapChain);
-        recordCommands();
         List<Attachment> attachments = new ArrayList<>(geometryRenderActivity.getAttachments());
         attachments.add(shadowRenderActivity.getDepthAttachment());
         lightingRenderActivity.resize(swapChain, attachments);
         guiRenderActivity.resize(swapChain);
+        recordCommands();
+    }
+
+    private void submitUploads(UploadTransaction uploadTransaction) {
+        if (uploadTransaction.isEmpty()) {
+            uploadTransaction.cleanup();
+            return;
+        }
+        uploadTransaction.submit(graphQueue, graphicsTimeline);
+        pendingUploads.add(uploadTransaction);
     }
 
-    public void submitSceneCommand(Queue queue, CommandBuffer commandBuffer) {
+    // Batches are submitted in order, each one signals the timeline of its queue and waits on the values of the batches
+    // it depends on. The compute batch goes to the compute queue, the graphics ones are submitted together
+    private void submitFrame(FrameContext frameContext) {
+        int idx = frameContext.getFrameIdx();
+        CompiledGraph frameGraph = frameGraphs[idx];
+        List<CompiledGraph.Batch> batches = frameGraph.batches();
+        int sceneBatch = findSceneBatch(frameGraph);
+        long[] batchValues = new long[batches.size()];
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            int idx = swapChain.getCurrentFrame();
-            Fence currentFence = fences[idx];
-            SwapChain.SyncSemaphores syncSemaphores = swapChain.getSyncSemaphoresList()[idx];
-            queue.submit(stack.pointers(commandBuffer.getVkCommandBuffer()),
-                    stack.longs(syncSemaphores.imgAcquisitionSemaphore().getVkSemaphore()),
-                    stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT),
-                    stack.longs(syncSemaphores.geometryCompleteSemaphore().getVkSemaphore()), currentFence);
+            List<Queue.Submission> submissions = new ArrayList<>();
+            boolean frameBatch = false;
+            for (int i = 0; i < batches.size(); i++) {
+                CompiledGraph.Batch batch = batches.get(i);
+                if (batch.queueType() == RenderGraph.QueueType.COMPUTE) {
+                    if (!batch.waits().isEmpty()) {
+                        throw new RuntimeException("Compute batches cannot wait for other batches");
+                    }
+                    recordBatch(animationComputeActivity.getCommandBuffer(idx), frameGraph, i);
+                    batchValues[i] = animationComputeActivity.submit(idx);
+                    continue;
+                }
+                CommandBuffer commandBuffer = frameContext.getSceneCommandBuffer();
+                if (i != sceneBatch) {
+                    if (frameBatch) {
+                        throw new RuntimeException("Frame graph has more than one frame batch");
+                    }
+                    frameBatch = true;
+                    commandBuffer = frameContext.getFrameCommandBuffer();
+                    recordBatch(commandBuffer, frameGraph, i);
+                }
+
+                int numWaits = batch.waits().size() + (batch.acquireStageMask() != 0 ? 1 : 0);
+                long[] waitSemaphores = new long[numWaits];
+                int[] dstStageMasks = new int[numWaits];
+                long[] waitValues = new long[numWaits];
+                for (int j = 0; j < batch.waits().size(); j++) {
+                    CompiledGraph.BatchWait wait = batch.waits().get(j);
+                    TimelineSemaphore timeline = batches.get(wait.batchIdx()).queueType() ==
+                            RenderGraph.QueueType.COMPUTE ? animationComputeActivity.getComputeTimeline() :
+                            graphicsTimeline;
+                    waitSemaphores[j] = timeline.getVkSemaphore();
+                    dstStageMasks[j] = wait.dstStageMask();
+                    waitValues[j] = batchValues[wait.batchIdx()];
+                }
+                if (batch.acquireStageMask() != 0) {
+                    waitSemaphores[numWaits - 1] = frameContext.getImgAcquisitionSemaphore().getVkSemaphore();
+                    dstStageMasks[numWaits - 1] = batch.acquireStageMask();
+                }
+
+                batchValues[i] = graphicsTimeline.nextValue();
+                // The frame batch draws the overlays, last, and signals the image can be presented
+                long[] signalSemaphores = i != sceneBatch ? new long[]{graphicsTimeline.getVkSemaphore(),
+                        swapChain.getRenderCompleteSemaphore().getVkSemaphore()} :
+                        new long[]{graphicsTimeline.getVkSemaphore()};
+                long[] signalValues = i != sceneBatch ? new long[]{batchValues[i], 0} : new long[]{batchValues[i]};
+                submissions.add(new Queue.Submission(stack.pointers(commandBuffer.getVkCommandBuffer()),
+                        numWaits > 0 ? stack.longs(waitSemaphores) : null,
+                        numWaits > 0 ? stack.ints(dstStageMasks) : null,
+                        numWaits > 0 ? stack.longs(waitValues) : null,
+                        stack.longs(signalSemaphores), stack.longs(signalValues)));
+                frameContext.setCompletionValue(batchValues[i]);
+            }
+            graphQueue.submit(submissions);
+        }
+    }
+
+    // Scale for the next frames, driven by the GPU time of the last one rendered with this frame context
+    private void updateRenderScale(int frameIdx) {
+        if (dynamicResolution == null || !gpuTimer.read(frameIdx, gpuTimes)) {
+            return;
+        }
+        if (gpuTimes[SCENE_END] < gpuTimes[SCENE_START]) {
+            // Timestamp counter wrapped around
+            return;
         }
+        // Lighting is in the scene batch when the output is scaled. The upscale and the overlays, which wait for the
+        // swap chain image, are left out
+        double gpuFrameMs = gpuTimes[SCENE_END] - gpuTimes[SCENE_START];
+        renderScale = dynamicResolution.update(gpuFrameMs);
+        geometryRenderActivity.setRenderScale(renderScale);
+        lightingRenderActivity.setRenderScale(renderScale);
     }
 }
\ No newline at end of file
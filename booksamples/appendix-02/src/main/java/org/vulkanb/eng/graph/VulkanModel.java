@@ -1,5 +1,7 @@
 package org.vulkanb.eng.graph;
 
+import org.joml.Vector4f;
+
 import java.util.*;
 
 public class VulkanModel {
@@ -62,6 +64,6 @@ public class VulkanModel {
     }
 
     public static record VulkanMesh(int verticesSize, int numIndices, int verticesOffset, int indicesOffset,
-                                    int globalMaterialIdx, int weightsOffset) {
+                                    int globalMaterialIdx, int weightsOffset, Vector4f boundingSphere) {
     }
 }
\ No newline at end of file
@@ -2,7 +2,7 @@ package org.vulkanb.eng.graph.animation;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.util.shaderc.Shaderc;
-import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.*;
 import org.vulkanb.eng.EngineProperties;
 import org.vulkanb.eng.graph.*;
 import org.vulkanb.eng.graph.vk.Queue;
@@ -17,56 +17,56 @@ import static org.lwjgl.vulkan.VK11.*;
 public class AnimationComputeActivity {
 
     private static final String ANIM_COMPUTE_SHADER_FILE_GLSL = "resources/shaders/animations_comp.glsl";
-    private static final String ANIM_COMPUTE_SHADER_FILE_SPV = ANIM_COMPUTE_SHADER_FILE_GLSL + ".spv";
     private static final int LOCAL_SIZE_X = 32;
     private static final int PUSH_CONSTANTS_SIZE = GraphConstants.INT_LENGTH * 5;
 
+    private final CommandPool commandPool;
     private final Queue.ComputeQueue computeQueue;
+    private final TimelineSemaphore computeTimeline;
     private final Device device;
-    private final MemoryBarrier memoryBarrier;
+    private final int graphicsQueueFamilyIndex;
 
-    private CommandBuffer commandBuffer;
+    private CommandBuffer[] commandBuffers;
     private ComputePipeline computePipeline;
-    private DescriptorPool descriptorPool;
+    private DescriptorAllocator descriptorAllocator;
     private DescriptorSetLayout[] descriptorSetLayouts;
-    private DescriptorSet.StorageDescriptorSet dstVerticesDescriptorSet;
-    private Fence fence;
+    private DescriptorSet.StorageDescriptorSet[] dstVerticesDescriptorSets;
     private DescriptorSet.StorageDescriptorSet jointMatricesDescriptorSet;
     private ShaderProgram shaderProgram;
     private DescriptorSet.StorageDescriptorSet srcVerticesDescriptorSet;
     private DescriptorSetLayout.StorageDescriptorSetLayout storageDescriptorSetLayout;
     private DescriptorSet.StorageDescriptorSet weightsDescriptorSet;
 
-    public AnimationComputeActivity(CommandPool commandPool, PipelineCache pipelineCache) {
-        device = pipelineCache.getDevice();
+    public AnimationComputeActivity(Queue graphicsQueue, PipelineBuilder pipelineBuilder) {
+        device = pipelineBuilder.getDevice();
+        graphicsQueueFamilyIndex = graphicsQueue.getQueueFamilyIndex();
         computeQueue = new Queue.ComputeQueue(device, 0);
-        createDescriptorPool();
+        computeTimeline = new TimelineSemaphore(device);
+        commandPool = new CommandPool(device, computeQueue.getQueueFamilyIndex());
+        descriptorAllocator = new DescriptorAllocator(device);
         createDescriptorSets();
-        createShaders();
-        createPipeline(pipelineCache);
-        createCommandBuffers(commandPool);
-        memoryBarrier = new MemoryBarrier(0, VK_ACCESS_SHADER_WRITE_BIT);
+        pipelineBuilder.submit(cache -> {
+            createShaders(pipelineBuilder.getShaderVariants());
+            createPipeline(cache);
+        });
+        createCommandBuffers();
     }
 
     public void cleanup() {
         computePipeline.cleanup();
         shaderProgram.cleanup();
-        commandBuffer.cleanup();
-        descriptorPool.cleanup();
+        Arrays.asList(commandBuffers).forEach(CommandBuffer::cleanup);
+        commandPool.cleanup();
+        descriptorAllocator.cleanup();
         storageDescriptorSetLayout.cleanup();
-        fence.cleanup();
-        memoryBarrier.cleanup();
+        computeTimeline.cleanup();
     }
 
-    private void createCommandBuffers(CommandPool commandPool) {
-        commandBuffer = new CommandBuffer(commandPool, true, false);
-        fence = new Fence(device, true);
-    }
-
-    private void createDescriptorPool() {
-        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(4, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
-        descriptorPool = new DescriptorPool(device, descriptorTypeCounts);
+    private void createCommandBuffers() {
+        // One per frame in flight, a frame's buffer is free once its graphics work, which waits for it, completes
+        int framesInFlight = EngineProperties.getInstance().getFramesInFlight();
+        commandBuffers = new CommandBuffer[framesInFlight];
+        Arrays.setAll(commandBuffers, i -> new CommandBuffer(commandPool, true, false));
     }
 
     private void createDescriptorSets() {
@@ -85,47 +85,81 @@ public class AnimationComputeActivity {
         computePipeline = new ComputePipeline(pipelineCache, pipeLineCreationInfo);
     }
 
-    private void createShaders() {
-        EngineProperties engineProperties = EngineProperties.getInstance();
-        if (engineProperties.isShaderRecompilation()) {
-            ShaderCompiler.compileShaderIfChanged(ANIM_COMPUTE_SHADER_FILE_GLSL, Shaderc.shaderc_compute_shader);
-        }
+    private void createShaders(ShaderVariantRegistry shaderVariants) {
         shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderModuleData[]
                 {
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_COMPUTE_BIT, ANIM_COMPUTE_SHADER_FILE_SPV),
+                        shaderVariants.getModuleData(ShaderVariant.builder(ANIM_COMPUTE_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_compute_shader, VK_SHADER_STAGE_COMPUTE_BIT).build()),
                 });
     }
 
+    private boolean isOwnershipTransfer() {
+        return computeQueue.getQueueFamilyIndex() != graphicsQueueFamilyIndex;
+    }
+
     public void onAnimatedEntitiesLoaded(GlobalBuffers globalBuffers) {
-        if (globalBuffers.getAnimVerticesBuffer() == null) {
+        VulkanBuffer[] animVerticesBuffers = globalBuffers.getAnimVerticesBuffers();
+        if (animVerticesBuffers == null) {
             return;
         }
-        if (srcVerticesDescriptorSet != null) {
-            descriptorPool.cleanup();
-            createDescriptorPool();
-        }
-        srcVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorPool,
+        // Sets for buffers which survive the reload are reused, the others are recycled for the next one
+        Runnable recycleTask = descriptorAllocator.nextGeneration();
+        srcVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorAllocator,
                 storageDescriptorSetLayout, globalBuffers.getVerticesBuffer(), 0);
-        weightsDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorPool,
+        weightsDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorAllocator,
                 storageDescriptorSetLayout, globalBuffers.getAnimWeightsBuffer(), 0);
-        dstVerticesDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorPool,
-                storageDescriptorSetLayout, globalBuffers.getAnimVerticesBuffer(), 0);
-        jointMatricesDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorPool,
+        dstVerticesDescriptorSets = new DescriptorSet.StorageDescriptorSet[animVerticesBuffers.length];
+        Arrays.setAll(dstVerticesDescriptorSets, i -> new DescriptorSet.StorageDescriptorSet(descriptorAllocator,
+                storageDescriptorSetLayout, animVerticesBuffers[i], 0));
+        jointMatricesDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorAllocator,
                 storageDescriptorSetLayout, globalBuffers.getAnimJointMatricesBuffer(), 0);
+        // Submitted dispatches may still be using the previous descriptor sets
+        computeTimeline.waitValue(computeTimeline.getLastValue());
+        recycleTask.run();
+    }
+
+    public CommandBuffer getCommandBuffer(int frameIdx) {
+        return commandBuffers[frameIdx];
+    }
+
+    public TimelineSemaphore getComputeTimeline() {
+        return computeTimeline;
     }
 
-    public void recordCommandBuffer(GlobalBuffers globalBuffers) {
-        fence.fenceWait();
-        fence.reset();
+    // Graphics side of the ownership transfer, recorded before the frame's animated vertices are drawn
+    public void recordAcquire(CommandBuffer commandBuffer, GlobalBuffers globalBuffers, int frameIdx) {
+        VulkanBuffer[] animVerticesBuffers = globalBuffers.getAnimVerticesBuffers();
+        if (animVerticesBuffers == null || !isOwnershipTransfer()) {
+            return;
+        }
+        recordBufferBarrier(commandBuffer.getVkCommandBuffer(), animVerticesBuffers[frameIdx],
+                VK_PIPELINE_STAGE_VERTEX_INPUT_BIT, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT, 0,
+                VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT);
+    }
 
-        commandBuffer.reset();
-        commandBuffer.beginRecording();
+    private void recordBufferBarrier(VkCommandBuffer cmdHandle, VulkanBuffer buffer, int srcStage, int dstStage,
+                                     int srcAccessMask, int dstAccessMask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkBufferMemoryBarrier.Buffer bufferBarrier = VkBufferMemoryBarrier.calloc(1, stack)
+                    .sType(VK_STRUCTURE_TYPE_BUFFER_MEMORY_BARRIER)
+                    .srcAccessMask(srcAccessMask)
+                    .dstAccessMask(dstAccessMask)
+                    .srcQueueFamilyIndex(computeQueue.getQueueFamilyIndex())
+                    .dstQueueFamilyIndex(graphicsQueueFamilyIndex)
+                    .buffer(buffer.getBuffer())
+                    .offset(0)
+                    .size(VK_WHOLE_SIZE);
+            vkCmdPipelineBarrier(cmdHandle, srcStage, dstStage, 0, null, bufferBarrier, null);
+        }
+    }
 
+    // Recorded in the command buffer of the frame, see getCommandBuffer, submitted to the compute queue
+    public void recordCommandBuffer(CommandBuffer commandBuffer, GlobalBuffers globalBuffers, int frameIdx) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
 
-            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT,
-                    0, memoryBarrier.getVkMemoryBarrier(), null, null);
+            // The frame's vertices are not read by graphics work still in flight, that work completed before the
+            // frame was reused. Their previous contents are overwritten, so no acquire is needed on this side
 
             vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_COMPUTE, computePipeline.getVkPipeline());
 
@@ -133,7 +167,7 @@ public class AnimationComputeActivity {
 
             descriptorSets.put(srcVerticesDescriptorSet.getVkDescriptorSet());
             descriptorSets.put(weightsDescriptorSet.getVkDescriptorSet());
-            descriptorSets.put(dstVerticesDescriptorSet.getVkDescriptorSet());
+            descriptorSets.put(dstVerticesDescriptorSets[frameIdx].getVkDescriptorSet());
             descriptorSets.put(jointMatricesDescriptorSet.getVkDescriptorSet());
             descriptorSets.flip();
             vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_COMPUTE,
@@ -171,17 +205,24 @@ public class AnimationComputeActivity {
                     vkCmdDispatch(cmdHandle, groupSize, 1, 1);
                 }
             }
+
+            if (isOwnershipTransfer()) {
+                recordBufferBarrier(cmdHandle, globalBuffers.getAnimVerticesBuffers()[frameIdx],
+                        VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT,
+                        VK_ACCESS_SHADER_WRITE_BIT, 0);
+            }
         }
-        commandBuffer.endRecording();
     }
 
-    public void submit() {
+    // Returns the compute timeline value which signals the frame's results
+    public long submit(int frameIdx) {
+        long computeValue = computeTimeline.nextValue();
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            computeQueue.submit(stack.pointers(commandBuffer.getVkCommandBuffer()),
-                    null,
-                    null,
-                    null,
-                    fence);
+            computeQueue.submit(stack.pointers(commandBuffers[frameIdx].getVkCommandBuffer()),
+                    null, null, null,
+                    stack.longs(computeTimeline.getVkSemaphore()),
+                    stack.longs(computeValue));
         }
+        return computeValue;
     }
 }
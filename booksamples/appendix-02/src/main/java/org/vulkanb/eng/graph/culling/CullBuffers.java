@@ -0,0 +1,96 @@
+package org.vulkanb.eng.graph.culling;
+
+import org.joml.Vector4f;
+import org.lwjgl.vulkan.VkDrawIndexedIndirectCommand;
+import org.vulkanb.eng.graph.GlobalBuffers;
+import org.vulkanb.eng.graph.vk.*;
+
+import java.nio.FloatBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+public class CullBuffers {
+
+    public static final int CAMERA_VIEW = 0;
+    // Camera frustum followed by one light frustum per shadow cascade
+    public static final int NUM_VIEWS = 1 + GraphConstants.SHADOW_MAP_CASCADE_COUNT;
+
+    private final VulkanBuffer boundingSpheresBuffer;
+    private final VulkanBuffer[][] culledIndirectBuffers;
+    private final VulkanBuffer[][] culledInstanceDataBuffers;
+    private final int maxCommandInstances;
+    private final int numCommands;
+
+    public CullBuffers(UploadTransaction uploadTransaction, List<VkDrawIndexedIndirectCommand> indirectCommands,
+                       List<Vector4f> boundingSpheres, int numSlots, int framesInFlight) {
+        Device device = uploadTransaction.getDevice();
+        numCommands = indirectCommands.size();
+        int maxInstances = 0;
+        for (int i = 0; i < numCommands; i++) {
+            // Slots between two consecutive commands belong to the first one, spare ones included
+            int nextFirstInstance = i + 1 < numCommands ? indirectCommands.get(i + 1).firstInstance() : numSlots;
+            maxInstances = Math.max(maxInstances, nextFirstInstance - indirectCommands.get(i).firstInstance());
+        }
+        maxCommandInstances = maxInstances;
+
+        long spheresSize = (long) numCommands * GraphConstants.VEC4_SIZE;
+        boundingSpheresBuffer = new VulkanBuffer(device, spheresSize,
+                VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK_BUFFER_USAGE_TRANSFER_DST_BIT,
+                VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+        FloatBuffer spheresData = uploadTransaction.writeBuffer(boundingSpheresBuffer, 0, spheresSize).asFloatBuffer();
+        boundingSpheres.forEach(s -> spheresData.put(s.x).put(s.y).put(s.z).put(s.w));
+
+        culledIndirectBuffers = new VulkanBuffer[NUM_VIEWS][framesInFlight];
+        culledInstanceDataBuffers = new VulkanBuffer[NUM_VIEWS][framesInFlight];
+        for (int view = 0; view < NUM_VIEWS; view++) {
+            for (int i = 0; i < framesInFlight; i++) {
+                culledIndirectBuffers[view][i] = new VulkanBuffer(device,
+                        (long) numCommands * GlobalBuffers.IND_COMMAND_STRIDE,
+                        VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT |
+                                VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0,
+                        MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+                culledInstanceDataBuffers[view][i] = new VulkanBuffer(device,
+                        (long) numSlots * InstanceData.SIZE_IN_BYTES,
+                        VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK_BUFFER_USAGE_STORAGE_BUFFER_BIT,
+                        VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0, MemoryAllocator.MemoryCategory.GLOBAL_BUFFERS);
+            }
+        }
+    }
+
+    public void cleanup() {
+        boundingSpheresBuffer.cleanup();
+        for (int view = 0; view < NUM_VIEWS; view++) {
+            Arrays.asList(culledIndirectBuffers[view]).forEach(VulkanBuffer::cleanup);
+            Arrays.asList(culledInstanceDataBuffers[view]).forEach(VulkanBuffer::cleanup);
+        }
+    }
+
+    public VulkanBuffer getBoundingSpheresBuffer() {
+        return boundingSpheresBuffer;
+    }
+
+    public static int getCascadeView(int cascadeIdx) {
+        return CAMERA_VIEW + 1 + cascadeIdx;
+    }
+
+    public VulkanBuffer[] getCulledIndirectBuffers(int viewIdx) {
+        return culledIndirectBuffers[viewIdx];
+    }
+
+    public VulkanBuffer[] getCulledInstanceDataBuffers(int viewIdx) {
+        return culledInstanceDataBuffers[viewIdx];
+    }
+
+    public int getMaxCommandInstances() {
+        return maxCommandInstances;
+    }
+
+    public int getNumCommands() {
+        return numCommands;
+    }
+
+    public void retire(UploadTransaction uploadTransaction) {
+        uploadTransaction.addCompletionTask(this::cleanup);
+    }
+}
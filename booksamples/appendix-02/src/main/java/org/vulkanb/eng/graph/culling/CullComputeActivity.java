@@ -0,0 +1,228 @@
+package org.vulkanb.eng.graph.culling;
+
+import org.joml.*;
+import org.lwjgl.system.*;
+import org.lwjgl.util.shaderc.Shaderc;
+import org.lwjgl.vulkan.*;
+import org.vulkanb.eng.EngineProperties;
+import org.vulkanb.eng.graph.GlobalBuffers;
+import org.vulkanb.eng.graph.shadows.CascadeShadow;
+import org.vulkanb.eng.graph.vk.*;
+import org.vulkanb.eng.scene.Scene;
+
+import java.lang.Math;
+import java.nio.*;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+public class CullComputeActivity {
+
+    private static final String CULL_COMPUTE_SHADER_FILE_GLSL = "resources/shaders/cull_comp.glsl";
+    private static final int LOCAL_SIZE_X = 64;
+
+    private final Device device;
+    private final VulkanBuffer[] frustumBuffers;
+    private final DescriptorAllocator descriptorAllocator;
+    private final DescriptorAllocator frustumDescriptorAllocator;
+    private final DescriptorSet.UniformDescriptorSet[] frustumDescriptorSets;
+    private final Vector4f[] frustumPlanes;
+    private final Scene scene;
+    private final Matrix4f viewProjMatrix;
+
+    private ComputePipeline computePipeline;
+    private DescriptorSetLayout[] descriptorSetLayouts;
+    private PartitionSets[] partitionSets;
+    private ShaderProgram shaderProgram;
+    private PartitionSets[] staticPartitionSets;
+    private DescriptorSetLayout.StorageDescriptorSetLayout storageDescriptorSetLayout;
+    private DescriptorSetLayout.UniformDescriptorSetLayout uniformDescriptorSetLayout;
+
+    public CullComputeActivity(PipelineBuilder pipelineBuilder, Scene scene) {
+        this.scene = scene;
+        device = pipelineBuilder.getDevice();
+        frustumPlanes = new Vector4f[FrustumCuller.NUM_PLANES];
+        viewProjMatrix = new Matrix4f();
+        int framesInFlight = EngineProperties.getInstance().getFramesInFlight();
+
+        uniformDescriptorSetLayout = new DescriptorSetLayout.UniformDescriptorSetLayout(device, 0, VK_SHADER_STAGE_COMPUTE_BIT);
+        storageDescriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(device, 0, VK_SHADER_STAGE_COMPUTE_BIT);
+        descriptorSetLayouts = new DescriptorSetLayout[]{
+                uniformDescriptorSetLayout,
+                storageDescriptorSetLayout,
+                storageDescriptorSetLayout,
+                storageDescriptorSetLayout,
+                storageDescriptorSetLayout,
+                storageDescriptorSetLayout,
+        };
+
+        // Partition sets change with each entities reload, frustum ones live as long as the activity
+        descriptorAllocator = new DescriptorAllocator(device);
+        frustumDescriptorAllocator = new DescriptorAllocator(device);
+        frustumBuffers = new VulkanBuffer[framesInFlight];
+        frustumDescriptorSets = new DescriptorSet.UniformDescriptorSet[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
+            frustumBuffers[i] = new VulkanBuffer(device,
+                    (long) CullBuffers.NUM_VIEWS * FrustumCuller.NUM_PLANES * GraphConstants.VEC4_SIZE,
+                    VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
+            frustumDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(frustumDescriptorAllocator,
+                    uniformDescriptorSetLayout, frustumBuffers[i], 0);
+        }
+
+        pipelineBuilder.submit(cache -> {
+            createShaders(pipelineBuilder.getShaderVariants());
+            createPipeline(cache);
+        });
+    }
+
+    public void cleanup() {
+        computePipeline.cleanup();
+        shaderProgram.cleanup();
+        descriptorAllocator.cleanup();
+        frustumDescriptorAllocator.cleanup();
+        Arrays.asList(frustumBuffers).forEach(VulkanBuffer::cleanup);
+        storageDescriptorSetLayout.cleanup();
+        uniformDescriptorSetLayout.cleanup();
+    }
+
+    private PartitionSets[] createPartitionSets(CullBuffers cullBuffers, VulkanBuffer[] srcInstanceBuffers,
+                                                VulkanBuffer srcIndirectBuffer) {
+        if (cullBuffers == null) {
+            return null;
+        }
+        int framesInFlight = frustumBuffers.length;
+        PartitionSets[] result = new PartitionSets[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
+            VulkanBuffer srcInstanceBuffer = srcInstanceBuffers[srcInstanceBuffers.length > 1 ? i : 0];
+            DescriptorSet.StorageDescriptorSet[] dstInstances = new DescriptorSet.StorageDescriptorSet[CullBuffers.NUM_VIEWS];
+            DescriptorSet.StorageDescriptorSet[] dstCommands = new DescriptorSet.StorageDescriptorSet[CullBuffers.NUM_VIEWS];
+            for (int view = 0; view < CullBuffers.NUM_VIEWS; view++) {
+                dstInstances[view] = new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
+                        cullBuffers.getCulledInstanceDataBuffers(view)[i], 0);
+                dstCommands[view] = new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
+                        cullBuffers.getCulledIndirectBuffers(view)[i], 0);
+            }
+            result[i] = new PartitionSets(
+                    new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout, srcInstanceBuffer, 0),
+                    new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout, srcIndirectBuffer, 0),
+                    new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
+                            cullBuffers.getBoundingSpheresBuffer(), 0),
+                    dstInstances, dstCommands, cullBuffers);
+        }
+        return result;
+    }
+
+    private void createPipeline(PipelineCache pipelineCache) {
+        ComputePipeline.PipeLineCreationInfo pipeLineCreationInfo = new ComputePipeline.PipeLineCreationInfo(shaderProgram,
+                descriptorSetLayouts, GraphConstants.INT_LENGTH);
+        computePipeline = new ComputePipeline(pipelineCache, pipeLineCreationInfo);
+    }
+
+    private void createShaders(ShaderVariantRegistry shaderVariants) {
+        shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderModuleData[]
+                {
+                        shaderVariants.getModuleData(ShaderVariant.builder(CULL_COMPUTE_SHADER_FILE_GLSL,
+                                        Shaderc.shaderc_compute_shader, VK_SHADER_STAGE_COMPUTE_BIT)
+                                .define("NUM_VIEWS", String.valueOf(CullBuffers.NUM_VIEWS)).build()),
+                });
+    }
+
+    public void onEntitiesLoaded(GlobalBuffers globalBuffers, UploadTransaction uploadTransaction) {
+        // Frames in flight may still be using the previous descriptor sets, those not requested again are recycled
+        // once the upload completes
+        uploadTransaction.addCompletionTask(descriptorAllocator.nextGeneration());
+        staticPartitionSets = null;
+        partitionSets = null;
+        if (globalBuffers.getStaticCullBuffers() == null && globalBuffers.getCullBuffers() == null) {
+            return;
+        }
+
+        staticPartitionSets = createPartitionSets(globalBuffers.getStaticCullBuffers(),
+                new VulkanBuffer[]{globalBuffers.getStaticInstanceDataBuffer()}, globalBuffers.getStaticIndirectBuffer());
+        partitionSets = createPartitionSets(globalBuffers.getCullBuffers(), globalBuffers.getInstanceDataBuffers(),
+                globalBuffers.getIndirectBuffer());
+    }
+
+    public void recordCommandBuffer(CommandBuffer commandBuffer, int frameIdx) {
+        if (staticPartitionSets == null && partitionSets == null) {
+            return;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
+            List<PartitionSets> partitions = new ArrayList<>();
+            if (staticPartitionSets != null) {
+                partitions.add(staticPartitionSets[frameIdx]);
+            }
+            if (partitionSets != null) {
+                partitions.add(partitionSets[frameIdx]);
+            }
+
+            // Clear the instance counts, the other command fields are written by the shader
+            for (PartitionSets partition : partitions) {
+                for (int view = 0; view < CullBuffers.NUM_VIEWS; view++) {
+                    VulkanBuffer indirectBuffer = partition.cullBuffers.getCulledIndirectBuffers(view)[frameIdx];
+                    vkCmdFillBuffer(cmdHandle, indirectBuffer.getBuffer(), 0, VK_WHOLE_SIZE, 0);
+                }
+            }
+            VkMemoryBarrier.Buffer fillBarrier = VkMemoryBarrier.calloc(1, stack)
+                    .sType(VK_STRUCTURE_TYPE_MEMORY_BARRIER)
+                    .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(VK_ACCESS_SHADER_READ_BIT | VK_ACCESS_SHADER_WRITE_BIT);
+            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT,
+                    0, fillBarrier, null, null);
+
+            vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_COMPUTE, computePipeline.getVkPipeline());
+            long pipelineLayout = computePipeline.getVkPipelineLayout();
+            for (PartitionSets partition : partitions) {
+                LongBuffer descriptorSets = stack.mallocLong(4)
+                        .put(0, frustumDescriptorSets[frameIdx].getVkDescriptorSet())
+                        .put(1, partition.srcInstances.getVkDescriptorSet())
+                        .put(2, partition.srcCommands.getVkDescriptorSet())
+                        .put(3, partition.boundingSpheres.getVkDescriptorSet());
+                vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_COMPUTE, pipelineLayout, 0,
+                        descriptorSets, null);
+
+                CullBuffers cullBuffers = partition.cullBuffers;
+                int groupCountX = Math.max(1, (cullBuffers.getMaxCommandInstances() + LOCAL_SIZE_X - 1) / LOCAL_SIZE_X);
+                for (int view = 0; view < CullBuffers.NUM_VIEWS; view++) {
+                    LongBuffer dstDescriptorSets = stack.mallocLong(2)
+                            .put(0, partition.dstInstances[view].getVkDescriptorSet())
+                            .put(1, partition.dstCommands[view].getVkDescriptorSet());
+                    vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_COMPUTE, pipelineLayout, 4,
+                            dstDescriptorSets, null);
+                    vkCmdPushConstants(cmdHandle, pipelineLayout, VK_SHADER_STAGE_COMPUTE_BIT, 0, stack.ints(view));
+                    vkCmdDispatch(cmdHandle, groupCountX, cullBuffers.getNumCommands(), 1);
+                }
+            }
+        }
+    }
+
+    public void render(int frameIdx, List<CascadeShadow> cascadeShadows) {
+        VulkanBuffer frustumBuffer = frustumBuffers[frameIdx];
+        long mappedMemory = frustumBuffer.map();
+        ByteBuffer dataBuffer = MemoryUtil.memByteBuffer(mappedMemory, (int) frustumBuffer.getRequestedSize());
+
+        viewProjMatrix.set(scene.getProjection().getProjectionMatrix()).mul(scene.getCamera().getViewMatrix());
+        writePlanes(viewProjMatrix, CullBuffers.CAMERA_VIEW, dataBuffer);
+        for (int i = 0; i < cascadeShadows.size(); i++) {
+            writePlanes(cascadeShadows.get(i).getProjViewMatrix(), CullBuffers.getCascadeView(i), dataBuffer);
+        }
+        frustumBuffer.unMap();
+    }
+
+    private void writePlanes(Matrix4f matrix, int viewIdx, ByteBuffer dataBuffer) {
+        FrustumCuller.extractPlanes(matrix, frustumPlanes);
+        int offset = viewIdx * FrustumCuller.NUM_PLANES * GraphConstants.VEC4_SIZE;
+        for (int i = 0; i < frustumPlanes.length; i++) {
+            frustumPlanes[i].get(offset + i * GraphConstants.VEC4_SIZE, dataBuffer);
+        }
+    }
+
+    private record PartitionSets(DescriptorSet.StorageDescriptorSet srcInstances,
+                                 DescriptorSet.StorageDescriptorSet srcCommands,
+                                 DescriptorSet.StorageDescriptorSet boundingSpheres,
+                                 DescriptorSet.StorageDescriptorSet[] dstInstances,
+                                 DescriptorSet.StorageDescriptorSet[] dstCommands,
+                                 CullBuffers cullBuffers) {
+    }
+}
@@ -0,0 +1,96 @@
+package org.vulkanb.eng.graph.culling;
+
+import org.joml.*;
+import org.vulkanb.eng.graph.vk.InstanceData;
+
+import java.lang.Math;
+import java.nio.ByteBuffer;
+
+// CPU reference of the cull compute shader, it must produce the same visible instances
+public final class FrustumCuller {
+
+    public static final int NUM_PLANES = 6;
+
+    private FrustumCuller() {
+        // Utility class
+    }
+
+    public static Vector4f computeBoundingSphere(float[] positions) {
+        int numVertices = positions.length / 3;
+        if (numVertices == 0) {
+            return new Vector4f();
+        }
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < numVertices; i++) {
+            float x = positions[i * 3];
+            float y = positions[i * 3 + 1];
+            float z = positions[i * 3 + 2];
+            min.set(Math.min(min.x, x), Math.min(min.y, y), Math.min(min.z, z));
+            max.set(Math.max(max.x, x), Math.max(max.y, y), Math.max(max.z, z));
+        }
+        Vector3f center = new Vector3f(min).add(max).mul(0.5f);
+        float radiusSq = 0;
+        for (int i = 0; i < numVertices; i++) {
+            radiusSq = Math.max(radiusSq, center.distanceSquared(positions[i * 3], positions[i * 3 + 1],
+                    positions[i * 3 + 2]));
+        }
+        return new Vector4f(center, (float) Math.sqrt(radiusSq));
+    }
+
+    public static int[] cull(Vector4f[] planes, ByteBuffer srcInstances, int[] firstInstances, int[] instanceCounts,
+                             Vector4f[] boundingSpheres, ByteBuffer dstInstances) {
+        int numCommands = firstInstances.length;
+        int[] visibleCounts = new int[numCommands];
+        Vector3f position = new Vector3f();
+        Quaternionf rotation = new Quaternionf();
+        Vector3f center = new Vector3f();
+        for (int i = 0; i < numCommands; i++) {
+            Vector4f sphere = boundingSpheres[i];
+            for (int j = 0; j < instanceCounts[i]; j++) {
+                int srcPos = (firstInstances[i] + j) * InstanceData.SIZE_IN_BYTES;
+                float scale = InstanceData.unpackScale(srcInstances, srcPos);
+                InstanceData.unpackPosition(srcInstances, srcPos, position);
+                InstanceData.unpackRotation(srcInstances, srcPos, rotation);
+                rotation.transform(center.set(sphere.x, sphere.y, sphere.z).mul(scale)).add(position);
+                if (!isVisible(planes, center, sphere.w * Math.abs(scale))) {
+                    continue;
+                }
+                int dstPos = (firstInstances[i] + visibleCounts[i]) * InstanceData.SIZE_IN_BYTES;
+                for (int k = 0; k < InstanceData.SIZE_IN_BYTES; k++) {
+                    dstInstances.put(dstPos + k, srcInstances.get(srcPos + k));
+                }
+                visibleCounts[i]++;
+            }
+        }
+        return visibleCounts;
+    }
+
+    public static Vector4f[] extractPlanes(Matrix4f viewProjMatrix, Vector4f[] planes) {
+        Vector4f row0 = viewProjMatrix.getRow(0, new Vector4f());
+        Vector4f row1 = viewProjMatrix.getRow(1, new Vector4f());
+        Vector4f row2 = viewProjMatrix.getRow(2, new Vector4f());
+        Vector4f row3 = viewProjMatrix.getRow(3, new Vector4f());
+        planes[0] = new Vector4f(row3).add(row0);
+        planes[1] = new Vector4f(row3).sub(row0);
+        planes[2] = new Vector4f(row3).add(row1);
+        planes[3] = new Vector4f(row3).sub(row1);
+        // Projection matrices use a [0, 1] depth range
+        planes[4] = new Vector4f(row2);
+        planes[5] = new Vector4f(row3).sub(row2);
+        for (Vector4f plane : planes) {
+            float length = (float) Math.sqrt(plane.x * plane.x + plane.y * plane.y + plane.z * plane.z);
+            plane.div(length);
+        }
+        return planes;
+    }
+
+    public static boolean isVisible(Vector4f[] planes, Vector3f center, float radius) {
+        for (Vector4f plane : planes) {
+            if (plane.x * center.x + plane.y * center.y + plane.z * center.z + plane.w < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
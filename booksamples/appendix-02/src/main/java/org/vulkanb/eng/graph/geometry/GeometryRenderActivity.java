@@ -5,57 +5,60 @@ import org.lwjgl.util.shaderc.Shaderc;
 import org.lwjgl.vulkan.*;
 import org.vulkanb.eng.EngineProperties;
 import org.vulkanb.eng.graph.*;
+import org.vulkanb.eng.graph.culling.CullBuffers;
 import org.vulkanb.eng.graph.vk.*;
 import org.vulkanb.eng.scene.Scene;
 
 import java.nio.LongBuffer;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.lwjgl.vulkan.VK11.*;
+import static org.vulkanb.eng.graph.culling.CullBuffers.CAMERA_VIEW;
 
 public class GeometryRenderActivity {
 
     private static final String GEOMETRY_FRAGMENT_SHADER_FILE_GLSL = "resources/shaders/geometry_fragment.glsl";
-    private static final String GEOMETRY_FRAGMENT_SHADER_FILE_SPV = GEOMETRY_FRAGMENT_SHADER_FILE_GLSL + ".spv";
     private static final String GEOMETRY_VERTEX_SHADER_FILE_GLSL = "resources/shaders/geometry_vertex.glsl";
-    private static final String GEOMETRY_VERTEX_SHADER_FILE_SPV = GEOMETRY_VERTEX_SHADER_FILE_GLSL + ".spv";
 
     private final Device device;
     private final GeometryFrameBuffer geometryFrameBuffer;
-    private final MemoryBarrier memoryBarrier;
-    private final PipelineCache pipelineCache;
     private final Scene scene;
+    private final SecondaryCommandRecorder secondaryRecorder;
 
-    private DescriptorPool descriptorPool;
+    private DescriptorAllocator descriptorAllocator;
     private DescriptorSetLayout[] geometryDescriptorSetLayouts;
     private DescriptorSet.StorageDescriptorSet materialsDescriptorSet;
     private Pipeline pipeLine;
     private DescriptorSet.UniformDescriptorSet projMatrixDescriptorSet;
     private VulkanBuffer projMatrixUniform;
+    private float renderScale;
     private ShaderProgram shaderProgram;
     private DescriptorSetLayout.StorageDescriptorSetLayout storageDescriptorSetLayout;
     private SwapChain swapChain;
-    private TextureDescriptorSet textureDescriptorSet;
-    private DescriptorSetLayout.SamplerDescriptorSetLayout textureDescriptorSetLayout;
+    private TextureArrayDescriptorSet textureDescriptorSet;
     private TextureSampler textureSampler;
     private DescriptorSetLayout.UniformDescriptorSetLayout uniformDescriptorSetLayout;
     private VulkanBuffer[] viewMatricesBuffer;
     private DescriptorSet.UniformDescriptorSet[] viewMatricesDescriptorSets;
 
-    public GeometryRenderActivity(SwapChain swapChain, PipelineCache pipelineCache, Scene scene, GlobalBuffers globalBuffers) {
+    public GeometryRenderActivity(SwapChain swapChain, PipelineBuilder pipelineBuilder, Scene scene, GlobalBuffers globalBuffers,
+                                  ParallelRecorder parallelRecorder) {
         this.swapChain = swapChain;
-        this.pipelineCache = pipelineCache;
         this.scene = scene;
         device = swapChain.getDevice();
+        renderScale = 1.0f;
 
         geometryFrameBuffer = new GeometryFrameBuffer(swapChain);
-        int numImages = swapChain.getNumImages();
-        createShaders();
-        createDescriptorPool();
-        createDescriptorSets(numImages, globalBuffers);
-        createPipeline();
+        int framesInFlight = EngineProperties.getInstance().getFramesInFlight();
+        descriptorAllocator = new DescriptorAllocator(device);
+        createDescriptorSets(framesInFlight, globalBuffers);
+        pipelineBuilder.submit(cache -> {
+            createShaders(pipelineBuilder.getShaderVariants());
+            createPipeline(cache);
+        });
+        secondaryRecorder = parallelRecorder.createSecondaryRecorder(framesInFlight);
         VulkanUtils.copyMatrixToBuffer(projMatrixUniform, scene.getProjection().getProjectionMatrix());
-        memoryBarrier = new MemoryBarrier(VK_ACCESS_SHADER_WRITE_BIT, VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT);
     }
 
     public void cleanup() {
@@ -63,55 +66,44 @@ public class GeometryRenderActivity {
         Arrays.asList(viewMatricesBuffer).forEach(VulkanBuffer::cleanup);
         projMatrixUniform.cleanup();
         textureSampler.cleanup();
-        textureDescriptorSetLayout.cleanup();
+        textureDescriptorSet.cleanup();
         uniformDescriptorSetLayout.cleanup();
         storageDescriptorSetLayout.cleanup();
-        descriptorPool.cleanup();
+        descriptorAllocator.cleanup();
         shaderProgram.cleanup();
         geometryFrameBuffer.cleanup();
-        memoryBarrier.cleanup();
+        secondaryRecorder.cleanup();
     }
 
-    private void createDescriptorPool() {
-        EngineProperties engineProps = EngineProperties.getInstance();
-        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(swapChain.getNumImages() + 1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(engineProps.getMaxTextures(), VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
-        descriptorPool = new DescriptorPool(device, descriptorTypeCounts);
-    }
-
-    private void createDescriptorSets(int numImages, GlobalBuffers globalBuffers) {
-        EngineProperties engineProperties = EngineProperties.getInstance();
+    private void createDescriptorSets(int framesInFlight, GlobalBuffers globalBuffers) {
         uniformDescriptorSetLayout = new DescriptorSetLayout.UniformDescriptorSetLayout(device, 0, VK_SHADER_STAGE_VERTEX_BIT);
-        textureDescriptorSetLayout = new DescriptorSetLayout.SamplerDescriptorSetLayout(device, engineProperties.getMaxTextures(), 0, VK_SHADER_STAGE_FRAGMENT_BIT);
+        textureDescriptorSet = new TextureArrayDescriptorSet(device, VK_SHADER_STAGE_FRAGMENT_BIT);
         storageDescriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(device, 0, VK_SHADER_STAGE_FRAGMENT_BIT);
         geometryDescriptorSetLayouts = new DescriptorSetLayout[]{
                 uniformDescriptorSetLayout,
                 uniformDescriptorSetLayout,
                 storageDescriptorSetLayout,
-                textureDescriptorSetLayout,
+                textureDescriptorSet.getDescriptorSetLayout(),
         };
 
         textureSampler = new TextureSampler(device, 1, true);
         projMatrixUniform = new VulkanBuffer(device, GraphConstants.MAT4X4_SIZE, VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT,
                 VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
-        projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet(descriptorPool, uniformDescriptorSetLayout, projMatrixUniform, 0);
-        materialsDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorPool, storageDescriptorSetLayout,
+        projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout, projMatrixUniform, 0);
+        materialsDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
                 globalBuffers.getMaterialsBuffer(), 0);
 
-        viewMatricesDescriptorSets = new DescriptorSet.UniformDescriptorSet[numImages];
-        viewMatricesBuffer = new VulkanBuffer[numImages];
-        for (int i = 0; i < numImages; i++) {
+        viewMatricesDescriptorSets = new DescriptorSet.UniformDescriptorSet[framesInFlight];
+        viewMatricesBuffer = new VulkanBuffer[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
             viewMatricesBuffer[i] = new VulkanBuffer(device, GraphConstants.MAT4X4_SIZE, VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT,
                     VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
-            viewMatricesDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(descriptorPool, uniformDescriptorSetLayout,
+            viewMatricesDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout,
                     viewMatricesBuffer[i], 0);
         }
     }
 
-    private void createPipeline() {
+    private void createPipeline(PipelineCache pipelineCache) {
         Pipeline.PipeLineCreationInfo pipeLineCreationInfo = new Pipeline.PipeLineCreationInfo(
                 geometryFrameBuffer.getRenderPass().getVkRenderPass(), shaderProgram, GeometryAttachments.NUMBER_COLOR_ATTACHMENTS,
                 true, true, 0,
@@ -120,16 +112,18 @@ public class GeometryRenderActivity {
         pipeLineCreationInfo.cleanup();
     }
 
-    private void createShaders() {
-        EngineProperties engineProperties = EngineProperties.getInstance();
-        if (engineProperties.isShaderRecompilation()) {
-            ShaderCompiler.compileShaderIfChanged(GEOMETRY_VERTEX_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_vertex_shader);
-            ShaderCompiler.compileShaderIfChanged(GEOMETRY_FRAGMENT_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_fragment_shader);
+    private void createShaders(ShaderVariantRegistry shaderVariants) {
+        ShaderVariant.Builder fragmentVariant = ShaderVariant.builder(GEOMETRY_FRAGMENT_SHADER_FILE_GLSL,
+                Shaderc.shaderc_glsl_fragment_shader, VK_SHADER_STAGE_FRAGMENT_BIT);
+        if (!EngineProperties.getInstance().isAlphaTest()) {
+            fragmentVariant.define("ALPHA_TEST", "0");
         }
+        textureDescriptorSet.define(fragmentVariant);
         shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderModuleData[]
                 {
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_VERTEX_BIT, GEOMETRY_VERTEX_SHADER_FILE_SPV),
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_FRAGMENT_BIT, GEOMETRY_FRAGMENT_SHADER_FILE_SPV),
+                        shaderVariants.getModuleData(ShaderVariant.builder(GEOMETRY_VERTEX_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_glsl_vertex_shader, VK_SHADER_STAGE_VERTEX_BIT).build()),
+                        shaderVariants.getModuleData(fragmentVariant.build()),
                 });
     }
 
@@ -138,26 +132,26 @@ public class GeometryRenderActivity {
     }
 
     public void loadModels(TextureCache textureCache) {
-        device.waitIdle();
-        // Size of the descriptor is setup in the layout, we need to fill up the texture list
-        // up to the number defined in the layout (reusing last texture)
-        List<Texture> textureCacheList = textureCache.getAsList();
-        int textureCacheSize = textureCacheList.size();
-        List<Texture> textureList = new ArrayList<>(textureCacheList);
-        EngineProperties engineProperties = EngineProperties.getInstance();
-        int maxTextures = engineProperties.getMaxTextures();
-        for (int i = 0; i < maxTextures - textureCacheSize; i++) {
-            textureList.add(textureCacheList.get(textureCacheSize - 1));
+        textureDescriptorSet.update(textureCache.getAsList(), textureSampler);
+    }
+
+    private void addDrawTasks(List<Consumer<CommandBuffer>> tasks, int frameIdx, GlobalBuffers globalBuffers,
+                              VulkanBuffer verticesBuffer, VulkanBuffer instanceBuffer, VulkanBuffer indirectBuffer,
+                              int numCommands) {
+        int chunkSize = secondaryRecorder.getChunkSize(numCommands);
+        for (int first = 0; first < numCommands; first += chunkSize) {
+            int firstCommand = first;
+            int count = Math.min(chunkSize, numCommands - first);
+            tasks.add(cmd -> recordDraws(cmd, frameIdx, globalBuffers, verticesBuffer, instanceBuffer, indirectBuffer,
+                    firstCommand, count));
         }
-        textureDescriptorSet = new TextureDescriptorSet(descriptorPool, textureDescriptorSetLayout, textureList,
-                textureSampler, 0);
     }
 
-    public void recordCommandBuffer(CommandBuffer commandBuffer, GlobalBuffers globalBuffers, int idx) {
+    public void recordCommandBuffer(CommandBuffer commandBuffer, GlobalBuffers globalBuffers, int frameIdx) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
-            int width = swapChainExtent.width();
-            int height = swapChainExtent.height();
+            int width = DynamicResolution.scaleSize(swapChainExtent.width(), renderScale);
+            int height = DynamicResolution.scaleSize(swapChainExtent.height(), renderScale);
 
             FrameBuffer frameBuffer = geometryFrameBuffer.getFrameBuffer();
             List<Attachment> attachments = geometryFrameBuffer.geometryAttachments().getAttachments();
@@ -171,19 +165,61 @@ public class GeometryRenderActivity {
             }
             clearValues.flip();
 
+            long vkRenderPass = geometryFrameBuffer.getRenderPass().getVkRenderPass();
             VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
-                    .renderPass(geometryFrameBuffer.getRenderPass().getVkRenderPass())
+                    .renderPass(vkRenderPass)
                     .pClearValues(clearValues)
                     .renderArea(a -> a.extent().set(width, height))
                     .framebuffer(frameBuffer.getVkFrameBuffer());
 
             VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
 
-            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT,
-                    0, memoryBarrier.getVkMemoryBarrier(), null, null);
+            vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+
+            List<Consumer<CommandBuffer>> tasks = new ArrayList<>();
+            // Draw commands for static entities
+            if (globalBuffers.getNumStaticIndirectCommands() > 0) {
+                CullBuffers cullBuffers = globalBuffers.getStaticCullBuffers();
+                addDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getVerticesBuffer(),
+                        cullBuffers != null ? cullBuffers.getCulledInstanceDataBuffers(CAMERA_VIEW)[frameIdx] :
+                                globalBuffers.getStaticInstanceDataBuffer(),
+                        cullBuffers != null ? cullBuffers.getCulledIndirectBuffers(CAMERA_VIEW)[frameIdx] :
+                                globalBuffers.getStaticIndirectBuffer(),
+                        globalBuffers.getNumStaticIndirectCommands());
+            }
+            // Draw commands for dynamic non animated entities
+            if (globalBuffers.getNumIndirectCommands() > 0) {
+                CullBuffers cullBuffers = globalBuffers.getCullBuffers();
+                addDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getVerticesBuffer(),
+                        cullBuffers != null ? cullBuffers.getCulledInstanceDataBuffers(CAMERA_VIEW)[frameIdx] :
+                                globalBuffers.getInstanceDataBuffers()[frameIdx],
+                        cullBuffers != null ? cullBuffers.getCulledIndirectBuffers(CAMERA_VIEW)[frameIdx] :
+                                globalBuffers.getIndirectBuffer(),
+                        globalBuffers.getNumIndirectCommands());
+            }
+            // Draw commands for animated entities
+            if (globalBuffers.getNumAnimIndirectCommands() > 0) {
+                addDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getAnimVerticesBuffers()[frameIdx],
+                        globalBuffers.getAnimInstanceDataBuffers()[frameIdx], globalBuffers.getAnimIndirectBuffer(),
+                        globalBuffers.getNumAnimIndirectCommands());
+            }
+            secondaryRecorder.record(commandBuffer, frameIdx,
+                    new CommandBuffer.InheritanceInfo(vkRenderPass, frameBuffer.getVkFrameBuffer(), 0), tasks);
 
-            vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
+            vkCmdEndRenderPass(cmdHandle);
+        }
+    }
+
+    private void recordDraws(CommandBuffer commandBuffer, int frameIdx, GlobalBuffers globalBuffers,
+                             VulkanBuffer verticesBuffer, VulkanBuffer instanceBuffer, VulkanBuffer indirectBuffer,
+                             int firstCommand, int numCommands) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
+            int width = DynamicResolution.scaleSize(swapChainExtent.width(), renderScale);
+            int height = DynamicResolution.scaleSize(swapChainExtent.height(), renderScale);
+
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
 
             vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeLine.getVkPipeline());
 
@@ -207,50 +243,24 @@ public class GeometryRenderActivity {
 
             LongBuffer descriptorSets = stack.mallocLong(4)
                     .put(0, projMatrixDescriptorSet.getVkDescriptorSet())
-                    .put(1, viewMatricesDescriptorSets[idx].getVkDescriptorSet())
+                    .put(1, viewMatricesDescriptorSets[frameIdx].getVkDescriptorSet())
                     .put(2, materialsDescriptorSet.getVkDescriptorSet())
                     .put(3, textureDescriptorSet.getVkDescriptorSet());
 
             vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS,
                     pipeLine.getVkPipelineLayout(), 0, descriptorSets, null);
 
-            LongBuffer vertexBuffer = stack.mallocLong(1);
-            LongBuffer instanceBuffer = stack.mallocLong(1);
             LongBuffer offsets = stack.mallocLong(1).put(0, 0L);
-
-            // Draw commands for non animated entities
-            if (globalBuffers.getNumIndirectCommands() > 0) {
-                vertexBuffer.put(0, globalBuffers.getVerticesBuffer().getBuffer());
-                instanceBuffer.put(0, globalBuffers.getInstanceDataBuffers()[idx].getBuffer());
-
-                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
-                vkCmdBindVertexBuffers(cmdHandle, 1, instanceBuffer, offsets);
-                vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
-                VulkanBuffer staticIndirectBuffer = globalBuffers.getIndirectBuffer();
-                vkCmdDrawIndexedIndirect(cmdHandle, staticIndirectBuffer.getBuffer(), 0, globalBuffers.getNumIndirectCommands(),
-                        GlobalBuffers.IND_COMMAND_STRIDE);
-            }
-
-            // Draw commands for animated entities
-            if (globalBuffers.getNumAnimIndirectCommands() > 0) {
-                vertexBuffer.put(0, globalBuffers.getAnimVerticesBuffer().getBuffer());
-                instanceBuffer.put(0, globalBuffers.getAnimInstanceDataBuffers()[idx].getBuffer());
-
-                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
-                vkCmdBindVertexBuffers(cmdHandle, 1, instanceBuffer, offsets);
-                vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
-                VulkanBuffer animIndirectBuffer = globalBuffers.getAnimIndirectBuffer();
-                vkCmdDrawIndexedIndirect(cmdHandle, animIndirectBuffer.getBuffer(), 0, globalBuffers.getNumAnimIndirectCommands(),
-                        GlobalBuffers.IND_COMMAND_STRIDE);
-            }
-
-            vkCmdEndRenderPass(cmdHandle);
+            vkCmdBindVertexBuffers(cmdHandle, 0, stack.longs(verticesBuffer.getBuffer()), offsets);
+            vkCmdBindVertexBuffers(cmdHandle, 1, stack.longs(instanceBuffer.getBuffer()), offsets);
+            vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
+            vkCmdDrawIndexedIndirect(cmdHandle, indirectBuffer.getBuffer(),
+                    (long) firstCommand * GlobalBuffers.IND_COMMAND_STRIDE, numCommands, GlobalBuffers.IND_COMMAND_STRIDE);
         }
     }
 
-    public void render() {
-        int idx = swapChain.getCurrentFrame();
-        VulkanUtils.copyMatrixToBuffer(viewMatricesBuffer[idx], scene.getCamera().getViewMatrix());
+    public void render(int frameIdx) {
+        VulkanUtils.copyMatrixToBuffer(viewMatricesBuffer[frameIdx], scene.getCamera().getViewMatrix());
     }
 
     public void resize(SwapChain swapChain) {
@@ -258,4 +268,10 @@ public class GeometryRenderActivity {
         this.swapChain = swapChain;
         geometryFrameBuffer.resize(swapChain);
     }
+
+    // Attachments keep the swap chain size, only their top left region is rendered when scaled down. Takes effect
+    // the next time commands are recorded
+    public void setRenderScale(float renderScale) {
+        this.renderScale = renderScale;
+    }
 }
\ No newline at end of file
@@ -72,15 +72,15 @@ public class GeometryRenderPass {
                             | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_READ_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT)
                     .dependencyFlags(VK_DEPENDENCY_BY_REGION_BIT);
 
+            // Lighting samples the attachments, possibly in the same submission, after the final layout transition
             subpassDependencies.get(1)
                     .srcSubpass(0)
                     .dstSubpass(VK_SUBPASS_EXTERNAL)
                     .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT)
-                    .dstStageMask(VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT)
+                    .dstStageMask(VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT)
                     .srcAccessMask(VK_ACCESS_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT
                             | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_READ_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT)
-                    .dstAccessMask(VK_ACCESS_MEMORY_READ_BIT)
-                    .dependencyFlags(VK_DEPENDENCY_BY_REGION_BIT);
+                    .dstAccessMask(VK_ACCESS_SHADER_READ_BIT);
 
             // Render pass
             VkRenderPassCreateInfo renderPassInfo = VkRenderPassCreateInfo.calloc(stack)
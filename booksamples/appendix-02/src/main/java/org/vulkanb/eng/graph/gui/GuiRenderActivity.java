@@ -20,11 +20,9 @@ import static org.lwjgl.vulkan.VK11.*;
 public class GuiRenderActivity {
 
     private static final String GUI_FRAGMENT_SHADER_FILE_GLSL = "resources/shaders/gui_fragment.glsl";
-    private static final String GUI_FRAGMENT_SHADER_FILE_SPV = GUI_FRAGMENT_SHADER_FILE_GLSL + ".spv";
     private static final String GUI_VERTEX_SHADER_FILE_GLSL = "resources/shaders/gui_vertex.glsl";
-    private static final String GUI_VERTEX_SHADER_FILE_SPV = GUI_VERTEX_SHADER_FILE_GLSL + ".spv";
 
-    private DescriptorPool descriptorPool;
+    private DescriptorAllocator descriptorAllocator;
     private DescriptorSetLayout[] descriptorSetLayouts;
     private Device device;
     private FontsManager fontsManager;
@@ -37,22 +35,24 @@ public class GuiRenderActivity {
     private DescriptorSetLayout.SamplerDescriptorSetLayout textureDescriptorSetLayout;
     private VulkanBuffer[] vertexBuffers;
 
-    public GuiRenderActivity(SwapChain swapChain, CommandPool commandPool, Queue queue, PipelineCache pipelineCache,
+    public GuiRenderActivity(SwapChain swapChain, CommandPool commandPool, Queue queue, PipelineBuilder pipelineBuilder,
                              long vkRenderPass) {
         this.swapChain = swapChain;
         device = swapChain.getDevice();
 
-        createShaders();
         createUIResources(swapChain, commandPool, queue);
-        createDescriptorPool();
+        descriptorAllocator = new DescriptorAllocator(device);
         createDescriptorSets();
-        createPipeline(pipelineCache, vkRenderPass);
+        pipelineBuilder.submit(cache -> {
+            createShaders(pipelineBuilder.getShaderVariants());
+            createPipeline(cache, vkRenderPass);
+        });
     }
 
     public void cleanup() {
         textureDescriptorSetLayout.cleanup();
         fontsTextureSampler.cleanup();
-        descriptorPool.cleanup();
+        descriptorAllocator.cleanup();
         Arrays.stream(vertexBuffers).filter(Objects::nonNull).forEach(VulkanBuffer::cleanup);
         Arrays.stream(indicesBuffers).filter(Objects::nonNull).forEach(VulkanBuffer::cleanup);
         ImGui.destroyContext();
@@ -61,19 +61,13 @@ public class GuiRenderActivity {
         fontsManager.cleanup();
     }
 
-    private void createDescriptorPool() {
-        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
-        descriptorPool = new DescriptorPool(device, descriptorTypeCounts);
-    }
-
     private void createDescriptorSets() {
         textureDescriptorSetLayout = new DescriptorSetLayout.SamplerDescriptorSetLayout(device, 1, 0, VK_SHADER_STAGE_FRAGMENT_BIT);
         descriptorSetLayouts = new DescriptorSetLayout[]{
                 textureDescriptorSetLayout,
         };
         fontsTextureSampler = new TextureSampler(device, 1, true);
-        textureDescriptorSet = new TextureDescriptorSet(descriptorPool, textureDescriptorSetLayout, fontsManager.getFontsTexture(),
+        textureDescriptorSet = new TextureDescriptorSet(descriptorAllocator, textureDescriptorSetLayout, fontsManager.getFontsTexture(),
                 fontsTextureSampler, 0);
 
     }
@@ -86,16 +80,13 @@ public class GuiRenderActivity {
         pipeLineCreationInfo.cleanup();
     }
 
-    private void createShaders() {
-        EngineProperties engineProperties = EngineProperties.getInstance();
-        if (engineProperties.isShaderRecompilation()) {
-            ShaderCompiler.compileShaderIfChanged(GUI_VERTEX_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_vertex_shader);
-            ShaderCompiler.compileShaderIfChanged(GUI_FRAGMENT_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_fragment_shader);
-        }
+    private void createShaders(ShaderVariantRegistry shaderVariants) {
         shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderModuleData[]
                 {
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_VERTEX_BIT, GUI_VERTEX_SHADER_FILE_SPV),
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_FRAGMENT_BIT, GUI_FRAGMENT_SHADER_FILE_SPV),
+                        shaderVariants.getModuleData(ShaderVariant.builder(GUI_VERTEX_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_glsl_vertex_shader, VK_SHADER_STAGE_VERTEX_BIT).build()),
+                        shaderVariants.getModuleData(ShaderVariant.builder(GUI_FRAGMENT_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_glsl_fragment_shader, VK_SHADER_STAGE_FRAGMENT_BIT).build()),
                 });
     }
 
@@ -108,8 +99,9 @@ public class GuiRenderActivity {
         imGuiIO.setDisplaySize(swapChainExtent.width(), swapChainExtent.height());
         imGuiIO.setDisplayFramebufferScale(1.0f, 1.0f);
 
-        vertexBuffers = new VulkanBuffer[swapChain.getNumImages()];
-        indicesBuffers = new VulkanBuffer[swapChain.getNumImages()];
+        int framesInFlight = EngineProperties.getInstance().getFramesInFlight();
+        vertexBuffers = new VulkanBuffer[framesInFlight];
+        indicesBuffers = new VulkanBuffer[framesInFlight];
 
         ImGuiIO io = ImGui.getIO();
         io.setKeyMap(ImGuiKey.Tab, GLFW_KEY_TAB);
@@ -132,20 +124,19 @@ public class GuiRenderActivity {
         fontsManager = new FontsManager(commandPool, queue);
     }
 
-    public void recordCommandBuffer(Scene scene, CommandBuffer commandBuffer) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            int idx = swapChain.getCurrentFrame();
-
-            IGuiInstance guiInstance = scene.getGuiInstance();
-            if (guiInstance == null) {
-                return;
-            }
-            guiInstance.drawGui(fontsManager);
-            updateBuffers(idx);
-            if (vertexBuffers[idx] == null) {
-                return;
-            }
+    public boolean prepareFrame(Scene scene, int idx) {
+        // The GUI is built on the calling thread, recording only reads the resulting draw data
+        IGuiInstance guiInstance = scene.getGuiInstance();
+        if (guiInstance == null) {
+            return false;
+        }
+        guiInstance.drawGui(fontsManager);
+        updateBuffers(idx);
+        return vertexBuffers[idx] != null;
+    }
 
+    public void recordCommandBuffer(CommandBuffer commandBuffer, int idx) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
             VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
             int width = swapChainExtent.width();
             int height = swapChainExtent.height();
@@ -228,7 +219,7 @@ public class GuiRenderActivity {
                 vertexBuffer.cleanup();
             }
             vertexBuffer = new VulkanBuffer(device, vertexBufferSize, VK_BUFFER_USAGE_VERTEX_BUFFER_BIT,
-                    VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
+                    VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0, MemoryAllocator.MemoryCategory.GUI);
             vertexBuffers[idx] = vertexBuffer;
         }
 
@@ -238,7 +229,7 @@ public class GuiRenderActivity {
                 indicesBuffer.cleanup();
             }
             indicesBuffer = new VulkanBuffer(device, indexBufferSize, VK_BUFFER_USAGE_INDEX_BUFFER_BIT,
-                    VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
+                    VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0, MemoryAllocator.MemoryCategory.GUI);
             indicesBuffers[idx] = indicesBuffer;
         }
 
@@ -0,0 +1,36 @@
+package org.vulkanb.eng.graph.gui;
+
+import imgui.ImGui;
+import imgui.flag.*;
+import org.vulkanb.eng.graph.vk.MemoryAllocator;
+
+public class MemoryStatsGui {
+
+    private static final float MB = 1024 * 1024;
+
+    private MemoryStatsGui() {
+        // Utility class
+    }
+
+    public static void drawPanel(MemoryAllocator.MemoryStats memoryStats, float posX, float posY) {
+        ImGui.setNextWindowPos(posX, posY, ImGuiCond.Always);
+        ImGui.setNextWindowBgAlpha(0.6f);
+        ImGui.begin("MEMORY_STATS_PANEL", ImGuiWindowFlags.NoDecoration | ImGuiWindowFlags.AlwaysAutoResize |
+                ImGuiWindowFlags.NoInputs | ImGuiWindowFlags.NoSavedSettings);
+
+        for (MemoryAllocator.HeapStats heapStats : memoryStats.heapStatsList()) {
+            ImGui.text(String.format("Heap %d: %.1f / %.1f MB, %d allocs, %.1f MB unused", heapStats.heapIdx(),
+                    heapStats.usage() / MB, heapStats.budget() / MB, heapStats.allocationCount(),
+                    heapStats.unusedBytes() / MB));
+            float fraction = heapStats.budget() > 0 ? (float) heapStats.usage() / heapStats.budget() : 0.0f;
+            ImGui.progressBar(fraction);
+        }
+        ImGui.separator();
+        for (MemoryAllocator.CategoryStats categoryStats : memoryStats.categoryStatsList()) {
+            ImGui.text(String.format("%s: %.1f MB (peak %.1f MB), %d allocs", categoryStats.category(),
+                    categoryStats.bytes() / MB, categoryStats.peakBytes() / MB, categoryStats.allocations()));
+        }
+
+        ImGui.end();
+    }
+}
@@ -4,11 +4,9 @@ import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 import org.vulkanb.eng.graph.vk.*;
 
-import java.nio.LongBuffer;
 import java.util.List;
 
 import static org.lwjgl.vulkan.VK11.*;
-import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
 public class AttachmentsDescriptorSet extends DescriptorSet {
 
@@ -16,28 +14,15 @@ public class AttachmentsDescriptorSet extends DescriptorSet {
     private final Device device;
     private final TextureSampler textureSampler;
 
-    public AttachmentsDescriptorSet(DescriptorPool descriptorPool, AttachmentsLayout descriptorSetLayout,
+    public AttachmentsDescriptorSet(DescriptorAllocator descriptorAllocator, AttachmentsLayout descriptorSetLayout,
                                     List<Attachment> attachments, int binding) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            device = descriptorPool.getDevice();
-            this.binding = binding;
-            LongBuffer pDescriptorSetLayout = stack.mallocLong(1);
-            pDescriptorSetLayout.put(0, descriptorSetLayout.getVkDescriptorLayout());
-            VkDescriptorSetAllocateInfo allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
-                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
-                    .descriptorPool(descriptorPool.getVkDescriptorPool())
-                    .pSetLayouts(pDescriptorSetLayout);
-
-            LongBuffer pDescriptorSet = stack.mallocLong(1);
-            vkCheck(vkAllocateDescriptorSets(device.getVkDevice(), allocInfo, pDescriptorSet),
-                    "Failed to create descriptor set");
+        device = descriptorAllocator.getDevice();
+        this.binding = binding;
+        vkDescriptorSet = descriptorAllocator.allocate(descriptorSetLayout);
 
-            vkDescriptorSet = pDescriptorSet.get(0);
+        textureSampler = new TextureSampler(device, 1, false);
 
-            textureSampler = new TextureSampler(device, 1, false);
-
-            update(attachments);
-        }
+        update(attachments);
     }
 
     public void cleanup() {
@@ -6,6 +6,7 @@ import org.tinylog.Logger;
 import org.vulkanb.eng.graph.vk.*;
 
 import java.nio.LongBuffer;
+import java.util.List;
 
 import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
@@ -33,6 +34,8 @@ public class AttachmentsLayout extends DescriptorSetLayout {
             vkCheck(vkCreateDescriptorSetLayout(device.getVkDevice(), layoutInfo, null, lp),
                     "Failed to create descriptor set layout");
             super.vkDescriptorLayout = lp.get(0);
+            descriptorTypeCounts = List.of(new DescriptorPool.DescriptorTypeCount(numAttachments,
+                    VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
         }
     }
 }
@@ -8,51 +8,109 @@ import org.vulkanb.eng.graph.vk.*;
 import java.nio.LongBuffer;
 import java.util.Arrays;
 
+// When the output is scaled, lighting is rendered into an offscreen image, which may only be partially covered when
+// rendering at a lower resolution, and blitted into the swap chain images. Otherwise, it is rendered directly into
+// them. Overlays are drawn afterwards directly into the swap chain images. The offscreen image is a transient image
+// of the frame graph, its frame buffer is created once it is set
 public class LightingFrameBuffer {
 
+    private final Device device;
     private final LightingRenderPass lightingRenderPass;
+    private final OverlayRenderPass overlayRenderPass;
+    private final boolean scaled;
 
-    private FrameBuffer[] frameBuffers;
+    private Attachment colorAttachment;
+    private FrameBuffer frameBuffer;
+    private int height;
+    private FrameBuffer[] overlayFrameBuffers;
+    private int width;
 
-    public LightingFrameBuffer(SwapChain swapChain) {
+    public LightingFrameBuffer(SwapChain swapChain, boolean scaled) {
         Logger.debug("Creating Lighting FrameBuffer");
-        lightingRenderPass = new LightingRenderPass(swapChain);
+        this.scaled = scaled;
+        device = swapChain.getDevice();
+        lightingRenderPass = new LightingRenderPass(swapChain, scaled);
+        overlayRenderPass = new OverlayRenderPass(swapChain, scaled);
         createFrameBuffers(swapChain);
     }
 
     public void cleanup() {
         Logger.debug("Destroying Lighting FrameBuffer");
-        Arrays.asList(frameBuffers).forEach(FrameBuffer::cleanup);
+        cleanupFrameBuffers();
         lightingRenderPass.cleanup();
+        overlayRenderPass.cleanup();
+    }
+
+    private void cleanupFrameBuffers() {
+        if (frameBuffer != null) {
+            frameBuffer.cleanup();
+            frameBuffer = null;
+        }
+        colorAttachment = null;
+        Arrays.asList(overlayFrameBuffers).forEach(FrameBuffer::cleanup);
     }
 
     private void createFrameBuffers(SwapChain swapChain) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkExtent2D extent2D = swapChain.getSwapChainExtent();
-            int width = extent2D.width();
-            int height = extent2D.height();
+            width = extent2D.width();
+            height = extent2D.height();
 
-            int numImages = swapChain.getNumImages();
-            frameBuffers = new FrameBuffer[numImages];
             LongBuffer attachmentsBuff = stack.mallocLong(1);
+            int numImages = swapChain.getNumImages();
+            overlayFrameBuffers = new FrameBuffer[numImages];
             for (int i = 0; i < numImages; i++) {
                 attachmentsBuff.put(0, swapChain.getImageViews()[i].getVkImageView());
-                frameBuffers[i] = new FrameBuffer(swapChain.getDevice(), width, height,
-                        attachmentsBuff, lightingRenderPass.getVkRenderPass(), 1);
+                overlayFrameBuffers[i] = new FrameBuffer(device, width, height,
+                        attachmentsBuff, overlayRenderPass.getVkRenderPass(), 1);
             }
         }
     }
 
-    public FrameBuffer[] getFrameBuffers() {
-        return frameBuffers;
+    public Attachment getColorAttachment() {
+        return colorAttachment;
+    }
+
+    // Both render passes are compatible, without scaling lighting uses the overlay frame buffers of the swap chain
+    // images
+    public FrameBuffer getFrameBuffer(int imageIndex) {
+        return scaled ? frameBuffer : overlayFrameBuffers[imageIndex];
     }
 
     public LightingRenderPass getLightingRenderPass() {
         return lightingRenderPass;
     }
 
+    public FrameBuffer[] getOverlayFrameBuffers() {
+        return overlayFrameBuffers;
+    }
+
+    public OverlayRenderPass getOverlayRenderPass() {
+        return overlayRenderPass;
+    }
+
+    public boolean isScaled() {
+        return scaled;
+    }
+
     public void resize(SwapChain swapChain) {
-        Arrays.asList(frameBuffers).forEach(FrameBuffer::cleanup);
+        cleanupFrameBuffers();
         createFrameBuffers(swapChain);
     }
-}
\ No newline at end of file
+
+    // The image must have the size of the swap chain images
+    public void setColorAttachment(Attachment colorAttachment) {
+        if (!scaled || colorAttachment == this.colorAttachment) {
+            return;
+        }
+        if (frameBuffer != null) {
+            frameBuffer.cleanup();
+        }
+        this.colorAttachment = colorAttachment;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            LongBuffer attachmentsBuff = stack.longs(colorAttachment.getImageView().getVkImageView());
+            frameBuffer = new FrameBuffer(device, width, height, attachmentsBuff, lightingRenderPass.getVkRenderPass(),
+                    1);
+        }
+    }
+}
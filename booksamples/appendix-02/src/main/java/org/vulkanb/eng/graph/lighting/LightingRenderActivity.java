@@ -5,40 +5,40 @@ import org.lwjgl.system.*;
 import org.lwjgl.util.shaderc.Shaderc;
 import org.lwjgl.vulkan.*;
 import org.vulkanb.eng.EngineProperties;
+import org.vulkanb.eng.graph.DynamicResolution;
 import org.vulkanb.eng.graph.shadows.CascadeShadow;
-import org.vulkanb.eng.graph.vk.Queue;
 import org.vulkanb.eng.graph.vk.*;
 import org.vulkanb.eng.scene.*;
 
 import java.nio.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.lwjgl.vulkan.VK11.*;
 
 public class LightingRenderActivity {
 
     private static final String LIGHTING_FRAGMENT_SHADER_FILE_GLSL = "resources/shaders/lighting_fragment.glsl";
-    private static final String LIGHTING_FRAGMENT_SHADER_FILE_SPV = LIGHTING_FRAGMENT_SHADER_FILE_GLSL + ".spv";
     private static final String LIGHTING_VERTEX_SHADER_FILE_GLSL = "resources/shaders/lighting_vertex.glsl";
-    private static final String LIGHTING_VERTEX_SHADER_FILE_SPV = LIGHTING_VERTEX_SHADER_FILE_GLSL + ".spv";
 
     private final Vector4f auxVec;
     private final Device device;
-    private final LightSpecConstants lightSpecConstants;
     private final LightingFrameBuffer lightingFrameBuffer;
+    private final SecondaryCommandRecorder overlayRecorder;
     private final Scene scene;
+    private final SecondaryCommandRecorder secondaryRecorder;
 
     private AttachmentsDescriptorSet attachmentsDescriptorSet;
     private AttachmentsLayout attachmentsLayout;
-    private CommandBuffer[] commandBuffers;
-    private DescriptorPool descriptorPool;
+    private int blitFilter;
+    private DescriptorAllocator descriptorAllocator;
     private DescriptorSetLayout[] descriptorSetLayouts;
-    private Fence[] fences;
     private VulkanBuffer[] invMatricesBuffers;
     private DescriptorSet.UniformDescriptorSet[] invMatricesDescriptorSets;
     private VulkanBuffer[] lightsBuffers;
     private DescriptorSet.StorageDescriptorSet[] lightsDescriptorSets;
     private Pipeline pipeline;
+    private float renderScale;
     private VulkanBuffer[] sceneBuffers;
     private DescriptorSet.UniformDescriptorSet[] sceneDescriptorSets;
     private ShaderProgram shaderProgram;
@@ -48,42 +48,44 @@ public class LightingRenderActivity {
     private SwapChain swapChain;
     private DescriptorSetLayout.UniformDescriptorSetLayout uniformDescriptorSetLayout;
 
-    public LightingRenderActivity(SwapChain swapChain, CommandPool commandPool, PipelineCache pipelineCache,
-                                  List<Attachment> attachments, Scene scene) {
+    // Without a scaled output, lighting is rendered directly into the swap chain images and there is nothing to blit
+    public LightingRenderActivity(SwapChain swapChain, PipelineBuilder pipelineBuilder, List<Attachment> attachments,
+                                  Scene scene, ParallelRecorder parallelRecorder, boolean scaled) {
         this.swapChain = swapChain;
         this.scene = scene;
         device = swapChain.getDevice();
         auxVec = new Vector4f();
-        lightSpecConstants = new LightSpecConstants();
-
-        lightingFrameBuffer = new LightingFrameBuffer(swapChain);
-        int numImages = swapChain.getNumImages();
-        createShaders();
-        createDescriptorPool(attachments);
-        createUniforms(numImages);
-        createDescriptorSets(attachments, numImages);
-        createPipeline(pipelineCache);
-        createCommandBuffers(commandPool, numImages);
+        renderScale = 1.0f;
+
+        lightingFrameBuffer = new LightingFrameBuffer(swapChain, scaled);
+        blitFilter = scaled ? calcBlitFilter(swapChain) : VK_FILTER_NEAREST;
+        int framesInFlight = EngineProperties.getInstance().getFramesInFlight();
+        descriptorAllocator = new DescriptorAllocator(device);
+        createUniforms(framesInFlight);
+        createDescriptorSets(attachments, framesInFlight);
+        pipelineBuilder.submit(cache -> {
+            createShaders(pipelineBuilder.getShaderVariants());
+            createPipeline(cache);
+        });
+        secondaryRecorder = parallelRecorder.createSecondaryRecorder(framesInFlight);
+        overlayRecorder = parallelRecorder.createSecondaryRecorder(framesInFlight);
     }
 
-    public CommandBuffer beginRecording(List<CascadeShadow> cascadeShadows) {
-        int idx = swapChain.getCurrentFrame();
-
-        Fence fence = fences[idx];
-        CommandBuffer commandBuffer = commandBuffers[idx];
-
-        fence.fenceWait();
-        fence.reset();
-
-        updateLights(scene.getAmbientLight(), scene.getLights(), scene.getCamera().getViewMatrix(),
-                lightsBuffers[idx], sceneBuffers[idx]);
-        updateInvMatrices(invMatricesBuffers[idx]);
-        updateCascadeShadowMatrices(cascadeShadows, shadowsMatricesBuffers[idx]);
-
-        commandBuffer.reset();
-        commandBuffer.beginRecording();
-
-        return commandBuffer;
+    // The scaled output is stretched over the whole swap chain image, linear filtering is used when available
+    private static int calcBlitFilter(SwapChain swapChain) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            int format = swapChain.getSurfaceFormat().imageFormat();
+            VkFormatProperties formatProperties = VkFormatProperties.calloc(stack);
+            vkGetPhysicalDeviceFormatProperties(swapChain.getDevice().getPhysicalDevice().getVkPhysicalDevice(),
+                    format, formatProperties);
+            int features = formatProperties.optimalTilingFeatures();
+            int blitFeatures = VK_FORMAT_FEATURE_BLIT_SRC_BIT | VK_FORMAT_FEATURE_BLIT_DST_BIT;
+            if ((features & blitFeatures) != blitFeatures) {
+                throw new RuntimeException("Format [" + format + "] does not support blit operations");
+            }
+            return (features & VK_FORMAT_FEATURE_SAMPLED_IMAGE_FILTER_LINEAR_BIT) != 0 ? VK_FILTER_LINEAR :
+                    VK_FILTER_NEAREST;
+        }
     }
 
     public void cleanup() {
@@ -91,38 +93,19 @@ public class LightingRenderActivity {
         uniformDescriptorSetLayout.cleanup();
         attachmentsDescriptorSet.cleanup();
         attachmentsLayout.cleanup();
-        descriptorPool.cleanup();
+        descriptorAllocator.cleanup();
         Arrays.asList(sceneBuffers).forEach(VulkanBuffer::cleanup);
         Arrays.asList(lightsBuffers).forEach(VulkanBuffer::cleanup);
         pipeline.cleanup();
-        lightSpecConstants.cleanup();
         Arrays.asList(invMatricesBuffers).forEach(VulkanBuffer::cleanup);
         lightingFrameBuffer.cleanup();
         Arrays.asList(shadowsMatricesBuffers).forEach(VulkanBuffer::cleanup);
         shaderProgram.cleanup();
-        Arrays.asList(commandBuffers).forEach(CommandBuffer::cleanup);
-        Arrays.asList(fences).forEach(Fence::cleanup);
-    }
-
-    private void createCommandBuffers(CommandPool commandPool, int numImages) {
-        commandBuffers = new CommandBuffer[numImages];
-        fences = new Fence[numImages];
-
-        for (int i = 0; i < numImages; i++) {
-            commandBuffers[i] = new CommandBuffer(commandPool, true, false);
-            fences[i] = new Fence(device, true);
-        }
-    }
-
-    private void createDescriptorPool(List<Attachment> attachments) {
-        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(attachments.size(), VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(swapChain.getNumImages() * 2, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(swapChain.getNumImages() * 2, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
-        descriptorPool = new DescriptorPool(device, descriptorTypeCounts);
+        secondaryRecorder.cleanup();
+        overlayRecorder.cleanup();
     }
 
-    private void createDescriptorSets(List<Attachment> attachments, int numImages) {
+    private void createDescriptorSets(List<Attachment> attachments, int framesInFlight) {
         attachmentsLayout = new AttachmentsLayout(device, attachments.size());
         uniformDescriptorSetLayout = new DescriptorSetLayout.UniformDescriptorSetLayout(device, 0, VK_SHADER_STAGE_FRAGMENT_BIT);
         storageDescriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(device, 0, VK_SHADER_STAGE_FRAGMENT_BIT);
@@ -134,53 +117,56 @@ public class LightingRenderActivity {
                 storageDescriptorSetLayout,
         };
 
-        attachmentsDescriptorSet = new AttachmentsDescriptorSet(descriptorPool, attachmentsLayout,
+        attachmentsDescriptorSet = new AttachmentsDescriptorSet(descriptorAllocator, attachmentsLayout,
                 attachments, 0);
 
-        lightsDescriptorSets = new DescriptorSet.StorageDescriptorSet[numImages];
-        sceneDescriptorSets = new DescriptorSet.UniformDescriptorSet[numImages];
-        invMatricesDescriptorSets = new DescriptorSet.UniformDescriptorSet[numImages];
-        shadowsMatricesDescriptorSets = new DescriptorSet.StorageDescriptorSet[numImages];
-        for (int i = 0; i < numImages; i++) {
-            lightsDescriptorSets[i] = new DescriptorSet.StorageDescriptorSet(descriptorPool, storageDescriptorSetLayout,
+        lightsDescriptorSets = new DescriptorSet.StorageDescriptorSet[framesInFlight];
+        sceneDescriptorSets = new DescriptorSet.UniformDescriptorSet[framesInFlight];
+        invMatricesDescriptorSets = new DescriptorSet.UniformDescriptorSet[framesInFlight];
+        shadowsMatricesDescriptorSets = new DescriptorSet.StorageDescriptorSet[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
+            lightsDescriptorSets[i] = new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
                     lightsBuffers[i], 0);
-            sceneDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(descriptorPool, uniformDescriptorSetLayout,
+            sceneDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout,
                     sceneBuffers[i], 0);
-            invMatricesDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(descriptorPool, uniformDescriptorSetLayout,
+            invMatricesDescriptorSets[i] = new DescriptorSet.UniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout,
                     invMatricesBuffers[i], 0);
-            shadowsMatricesDescriptorSets[i] = new DescriptorSet.StorageDescriptorSet(descriptorPool, storageDescriptorSetLayout,
+            shadowsMatricesDescriptorSets[i] = new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
                     shadowsMatricesBuffers[i], 0);
         }
     }
 
     private void createPipeline(PipelineCache pipelineCache) {
         Pipeline.PipeLineCreationInfo pipeLineCreationInfo = new Pipeline.PipeLineCreationInfo(
-                lightingFrameBuffer.getLightingRenderPass().getVkRenderPass(), shaderProgram, 1, false, false, 0,
-                new EmptyVertexBufferStructure(), descriptorSetLayouts);
+                lightingFrameBuffer.getLightingRenderPass().getVkRenderPass(), shaderProgram, 1, false, false,
+                GraphConstants.FLOAT_LENGTH * 2, new EmptyVertexBufferStructure(), descriptorSetLayouts);
         pipeline = new Pipeline(pipelineCache, pipeLineCreationInfo);
         pipeLineCreationInfo.cleanup();
     }
 
-    private void createShaders() {
+    private void createShaders(ShaderVariantRegistry shaderVariants) {
         EngineProperties engineProperties = EngineProperties.getInstance();
-        if (engineProperties.isShaderRecompilation()) {
-            ShaderCompiler.compileShaderIfChanged(LIGHTING_VERTEX_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_vertex_shader);
-            ShaderCompiler.compileShaderIfChanged(LIGHTING_FRAGMENT_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_fragment_shader);
-        }
+        ShaderVariant fragmentVariant = ShaderVariant.builder(LIGHTING_FRAGMENT_SHADER_FILE_GLSL,
+                        Shaderc.shaderc_glsl_fragment_shader, VK_SHADER_STAGE_FRAGMENT_BIT)
+                .specConstant(0, GraphConstants.SHADOW_MAP_CASCADE_COUNT)
+                .specConstant(1, engineProperties.isShadowPcf())
+                .specConstant(2, engineProperties.getShadowBias())
+                .specConstant(3, engineProperties.isShadowDebug())
+                .build();
         shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderModuleData[]
                 {
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_VERTEX_BIT, LIGHTING_VERTEX_SHADER_FILE_SPV),
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_FRAGMENT_BIT, LIGHTING_FRAGMENT_SHADER_FILE_SPV,
-                                lightSpecConstants.getSpecInfo()),
+                        shaderVariants.getModuleData(ShaderVariant.builder(LIGHTING_VERTEX_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_glsl_vertex_shader, VK_SHADER_STAGE_VERTEX_BIT).build()),
+                        shaderVariants.getModuleData(fragmentVariant),
                 });
     }
 
-    private void createUniforms(int numImages) {
-        lightsBuffers = new VulkanBuffer[numImages];
-        sceneBuffers = new VulkanBuffer[numImages];
-        invMatricesBuffers = new VulkanBuffer[numImages];
-        shadowsMatricesBuffers = new VulkanBuffer[numImages];
-        for (int i = 0; i < numImages; i++) {
+    private void createUniforms(int framesInFlight) {
+        lightsBuffers = new VulkanBuffer[framesInFlight];
+        sceneBuffers = new VulkanBuffer[framesInFlight];
+        invMatricesBuffers = new VulkanBuffer[framesInFlight];
+        shadowsMatricesBuffers = new VulkanBuffer[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
             lightsBuffers[i] = new VulkanBuffer(device, (long)
                     GraphConstants.INT_LENGTH * 4 + GraphConstants.VEC4_SIZE * 2 * GraphConstants.MAX_LIGHTS +
                     GraphConstants.VEC4_SIZE, VK_BUFFER_USAGE_STORAGE_BUFFER_BIT,
@@ -201,25 +187,50 @@ public class LightingRenderActivity {
         }
     }
 
-    public void endRecording(CommandBuffer commandBuffer) {
-        vkCmdEndRenderPass(commandBuffer.getVkCommandBuffer());
-        commandBuffer.endRecording();
-    }
-
     public LightingFrameBuffer getLightingFrameBuffer() {
         return lightingFrameBuffer;
     }
 
-    public void recordCommandBuffer(CommandBuffer commandBuffer) {
+    // Stretches the scaled lighting output over the whole swap chain image, both images are transitioned by the frame
+    // graph
+    public void recordBlit(CommandBuffer commandBuffer) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            int idx = swapChain.getCurrentFrame();
             VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
             int width = swapChainExtent.width();
             int height = swapChainExtent.height();
 
-            FrameBuffer frameBuffer = lightingFrameBuffer.getFrameBuffers()[idx];
+            VkImageBlit.Buffer blit = VkImageBlit.calloc(1, stack)
+                    .srcOffsets(0, VkOffset3D.calloc(stack).set(0, 0, 0))
+                    .srcOffsets(1, VkOffset3D.calloc(stack).set(DynamicResolution.scaleSize(width, renderScale),
+                            DynamicResolution.scaleSize(height, renderScale), 1))
+                    .srcSubresource(it -> it
+                            .aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                            .mipLevel(0)
+                            .baseArrayLayer(0)
+                            .layerCount(1))
+                    .dstOffsets(0, VkOffset3D.calloc(stack).set(0, 0, 0))
+                    .dstOffsets(1, VkOffset3D.calloc(stack).set(width, height, 1))
+                    .dstSubresource(it -> it
+                            .aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                            .mipLevel(0)
+                            .baseArrayLayer(0)
+                            .layerCount(1));
+            vkCmdBlitImage(commandBuffer.getVkCommandBuffer(),
+                    lightingFrameBuffer.getColorAttachment().getImage().getVkImage(),
+                    VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, swapChain.getVkImage(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
+                    blit, blitFilter);
+        }
+    }
+
+    public void recordCommandBuffer(CommandBuffer commandBuffer, int idx) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
+            int width = DynamicResolution.scaleSize(swapChainExtent.width(), renderScale);
+            int height = DynamicResolution.scaleSize(swapChainExtent.height(), renderScale);
+
+            FrameBuffer frameBuffer = lightingFrameBuffer.getFrameBuffer(swapChain.getImageIndex());
+            long vkRenderPass = lightingFrameBuffer.getLightingRenderPass().getVkRenderPass();
 
-            commandBuffer.reset();
             VkClearValue.Buffer clearValues = VkClearValue.calloc(1, stack);
             clearValues.apply(0, v -> v.color().float32(0, 0.0f).float32(1, 0.0f).float32(2, 0.0f).float32(3, 1));
 
@@ -229,15 +240,29 @@ public class LightingRenderActivity {
 
             VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
-                    .renderPass(lightingFrameBuffer.getLightingRenderPass().getVkRenderPass())
+                    .renderPass(vkRenderPass)
                     .pClearValues(clearValues)
                     .framebuffer(frameBuffer.getVkFrameBuffer())
                     .renderArea(renderArea);
 
-            commandBuffer.beginRecording();
-            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
-            vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
+            vkCmdBeginRenderPass(commandBuffer.getVkCommandBuffer(), renderPassBeginInfo,
+                    VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+
+            secondaryRecorder.record(commandBuffer, idx,
+                    new CommandBuffer.InheritanceInfo(vkRenderPass, frameBuffer.getVkFrameBuffer(), 0),
+                    List.of(cmd -> recordLighting(cmd, idx)));
+
+            vkCmdEndRenderPass(commandBuffer.getVkCommandBuffer());
+        }
+    }
+
+    private void recordLighting(CommandBuffer commandBuffer, int idx) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
+            int width = DynamicResolution.scaleSize(swapChainExtent.width(), renderScale);
+            int height = DynamicResolution.scaleSize(swapChainExtent.height(), renderScale);
 
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
             vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.getVkPipeline());
 
             VkViewport.Buffer viewport = VkViewport.calloc(1, stack)
@@ -267,28 +292,70 @@ public class LightingRenderActivity {
             vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS,
                     pipeline.getVkPipelineLayout(), 0, descriptorSets, null);
 
+            // Attachments are only covered up to the scaled extent, texture coordinates are remapped to that region
+            FloatBuffer pushConstantBuffer = stack.mallocFloat(2);
+            pushConstantBuffer.put(0, (float) width / swapChainExtent.width());
+            pushConstantBuffer.put(1, (float) height / swapChainExtent.height());
+            vkCmdPushConstants(cmdHandle, pipeline.getVkPipelineLayout(),
+                    VK_SHADER_STAGE_VERTEX_BIT, 0, pushConstantBuffer);
+
             vkCmdDraw(cmdHandle, 3, 1, 0, 0);
         }
     }
 
+    // Overlays are drawn over the swap chain image once the lighting output is in it
+    public void recordOverlay(CommandBuffer commandBuffer, int idx, List<Consumer<CommandBuffer>> overlayTasks) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkExtent2D swapChainExtent = swapChain.getSwapChainExtent();
+            int width = swapChainExtent.width();
+            int height = swapChainExtent.height();
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
+
+            FrameBuffer frameBuffer = lightingFrameBuffer.getOverlayFrameBuffers()[swapChain.getImageIndex()];
+            long vkRenderPass = lightingFrameBuffer.getOverlayRenderPass().getVkRenderPass();
+
+            VkRect2D renderArea = VkRect2D.calloc(stack);
+            renderArea.offset().set(0, 0);
+            renderArea.extent().set(width, height);
+
+            VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
+                    .renderPass(vkRenderPass)
+                    .framebuffer(frameBuffer.getVkFrameBuffer())
+                    .renderArea(renderArea);
+
+            vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+
+            overlayRecorder.record(commandBuffer, idx,
+                    new CommandBuffer.InheritanceInfo(vkRenderPass, frameBuffer.getVkFrameBuffer(), 0), overlayTasks);
+
+            vkCmdEndRenderPass(cmdHandle);
+        }
+    }
+
     public void resize(SwapChain swapChain, List<Attachment> attachments) {
         this.swapChain = swapChain;
         attachmentsDescriptorSet.update(attachments);
         lightingFrameBuffer.resize(swapChain);
+        if (lightingFrameBuffer.isScaled()) {
+            blitFilter = calcBlitFilter(swapChain);
+        }
     }
 
-    public void submit(Queue queue) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            int idx = swapChain.getCurrentFrame();
-            CommandBuffer commandBuffer = commandBuffers[idx];
-            Fence currentFence = fences[idx];
-            SwapChain.SyncSemaphores syncSemaphores = swapChain.getSyncSemaphoresList()[idx];
-            queue.submit(stack.pointers(commandBuffer.getVkCommandBuffer()),
-                    stack.longs(syncSemaphores.geometryCompleteSemaphore().getVkSemaphore()),
-                    stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT),
-                    stack.longs(syncSemaphores.renderCompleteSemaphore().getVkSemaphore()),
-                    currentFence);
-        }
+    public void setRenderScale(float renderScale) {
+        this.renderScale = renderScale;
+    }
+
+    public void setScaledOutput(Attachment scaledOutput) {
+        lightingFrameBuffer.setColorAttachment(scaledOutput);
+    }
+
+    // The frame context completion value has already been waited, so its resources are no longer in use
+    public void update(int idx, List<CascadeShadow> cascadeShadows) {
+        updateLights(scene.getAmbientLight(), scene.getLights(), scene.getCamera().getViewMatrix(),
+                lightsBuffers[idx], sceneBuffers[idx]);
+        updateInvMatrices(invMatricesBuffers[idx]);
+        updateCascadeShadowMatrices(cascadeShadows, shadowsMatricesBuffers[idx]);
     }
 
     private void updateCascadeShadowMatrices(List<CascadeShadow> cascadeShadows, VulkanBuffer shadowsUniformBuffer) {
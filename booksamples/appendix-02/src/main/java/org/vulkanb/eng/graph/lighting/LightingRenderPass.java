@@ -9,13 +9,15 @@ import java.nio.LongBuffer;
 import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
+// Renders into the offscreen image when the output is scaled, or directly into the swap chain image otherwise
 public class LightingRenderPass {
 
     private final Device device;
     private final long vkRenderPass;
 
-    public LightingRenderPass(SwapChain swapChain) {
+    public LightingRenderPass(SwapChain swapChain, boolean scaled) {
         device = swapChain.getDevice();
+        int finalLayout = scaled ? VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL : VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkAttachmentDescription.Buffer attachments = VkAttachmentDescription.calloc(1, stack);
 
@@ -28,7 +30,7 @@ public class LightingRenderPass {
                     .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
                     .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
                     .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
-                    .finalLayout(KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR);
+                    .finalLayout(finalLayout);
 
             VkAttachmentReference.Buffer colorReference = VkAttachmentReference.calloc(1, stack)
                     .attachment(0)
@@ -39,14 +41,37 @@ public class LightingRenderPass {
                     .colorAttachmentCount(colorReference.remaining())
                     .pColorAttachments(colorReference);
 
-            VkSubpassDependency.Buffer subpassDependencies = VkSubpassDependency.calloc(1, stack);
-            subpassDependencies.get(0)
-                    .srcSubpass(VK_SUBPASS_EXTERNAL)
-                    .dstSubpass(0)
-                    .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
-                    .dstStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
-                    .srcAccessMask(0)
-                    .dstAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
+            VkSubpassDependency.Buffer subpassDependencies;
+            if (scaled) {
+                // The output is blitted into the swap chain image, the previous blit must have read it before it is
+                // overwritten
+                subpassDependencies = VkSubpassDependency.calloc(2, stack);
+                subpassDependencies.get(0)
+                        .srcSubpass(VK_SUBPASS_EXTERNAL)
+                        .dstSubpass(0)
+                        .srcStageMask(VK_PIPELINE_STAGE_TRANSFER_BIT)
+                        .dstStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
+                        .srcAccessMask(0)
+                        .dstAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
+
+                subpassDependencies.get(1)
+                        .srcSubpass(0)
+                        .dstSubpass(VK_SUBPASS_EXTERNAL)
+                        .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
+                        .dstStageMask(VK_PIPELINE_STAGE_TRANSFER_BIT)
+                        .srcAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT)
+                        .dstAccessMask(VK_ACCESS_TRANSFER_READ_BIT);
+            } else {
+                // Chains with the image acquisition wait, the overlay pass synchronizes with the output
+                subpassDependencies = VkSubpassDependency.calloc(1, stack);
+                subpassDependencies.get(0)
+                        .srcSubpass(VK_SUBPASS_EXTERNAL)
+                        .dstSubpass(0)
+                        .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
+                        .dstStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
+                        .srcAccessMask(0)
+                        .dstAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
+            }
 
             VkRenderPassCreateInfo renderPassInfo = VkRenderPassCreateInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_RENDER_PASS_CREATE_INFO)
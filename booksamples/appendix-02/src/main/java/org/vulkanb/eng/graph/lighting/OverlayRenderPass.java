@@ -0,0 +1,76 @@
+package org.vulkanb.eng.graph.lighting;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.vulkanb.eng.graph.vk.*;
+
+import java.nio.LongBuffer;
+
+import static org.lwjgl.vulkan.VK11.*;
+import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
+
+// Draws on top of the swap chain image once the scene has been blitted or rendered into it, at the native resolution
+public class OverlayRenderPass {
+
+    private final Device device;
+    private final long vkRenderPass;
+
+    public OverlayRenderPass(SwapChain swapChain, boolean scaled) {
+        device = swapChain.getDevice();
+        // The image is either written by the blit or by the lighting pass
+        int srcStageMask = scaled ? VK_PIPELINE_STAGE_TRANSFER_BIT : VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT;
+        int srcAccessMask = scaled ? VK_ACCESS_TRANSFER_WRITE_BIT : VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT;
+        int initialLayout = scaled ? VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL : VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkAttachmentDescription.Buffer attachments = VkAttachmentDescription.calloc(1, stack);
+
+            // Color attachment
+            attachments.get(0)
+                    .format(swapChain.getSurfaceFormat().imageFormat())
+                    .samples(VK_SAMPLE_COUNT_1_BIT)
+                    .loadOp(VK_ATTACHMENT_LOAD_OP_LOAD)
+                    .storeOp(VK_ATTACHMENT_STORE_OP_STORE)
+                    .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
+                    .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                    .initialLayout(initialLayout)
+                    .finalLayout(swapChain.getFinalLayout());
+
+            VkAttachmentReference.Buffer colorReference = VkAttachmentReference.calloc(1, stack)
+                    .attachment(0)
+                    .layout(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+
+            VkSubpassDescription.Buffer subPass = VkSubpassDescription.calloc(1, stack)
+                    .pipelineBindPoint(VK_PIPELINE_BIND_POINT_GRAPHICS)
+                    .colorAttachmentCount(colorReference.remaining())
+                    .pColorAttachments(colorReference);
+
+            VkSubpassDependency.Buffer subpassDependencies = VkSubpassDependency.calloc(1, stack);
+            subpassDependencies.get(0)
+                    .srcSubpass(VK_SUBPASS_EXTERNAL)
+                    .dstSubpass(0)
+                    .srcStageMask(srcStageMask)
+                    .dstStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
+                    .srcAccessMask(srcAccessMask)
+                    .dstAccessMask(VK_ACCESS_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
+
+            VkRenderPassCreateInfo renderPassInfo = VkRenderPassCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_RENDER_PASS_CREATE_INFO)
+                    .pAttachments(attachments)
+                    .pSubpasses(subPass)
+                    .pDependencies(subpassDependencies);
+
+            LongBuffer lp = stack.mallocLong(1);
+            vkCheck(vkCreateRenderPass(device.getVkDevice(), renderPassInfo, null, lp),
+                    "Failed to create render pass");
+            vkRenderPass = lp.get(0);
+        }
+    }
+
+    public void cleanup() {
+        vkDestroyRenderPass(device.getVkDevice(), vkRenderPass, null);
+    }
+
+    public long getVkRenderPass() {
+        return vkRenderPass;
+    }
+}
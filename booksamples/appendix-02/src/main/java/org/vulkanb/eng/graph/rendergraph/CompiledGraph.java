@@ -0,0 +1,96 @@
+package org.vulkanb.eng.graph.rendergraph;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.vulkanb.eng.graph.vk.CommandBuffer;
+
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+// Result of compiling a render graph: the passes to execute in order, each one preceded by the barrier it needs, the
+// batches they are submitted in and the alias slots of the transient images
+public record CompiledGraph(List<RenderGraph.CompiledPass> passes, List<Batch> batches, List<Alias> aliases) {
+
+    public int getNumAliasSlots() {
+        return aliases.stream().mapToInt(Alias::slot).max().orElse(-1) + 1;
+    }
+
+    public void record(CommandBuffer commandBuffer) {
+        recordPasses(commandBuffer, 0, passes.size());
+    }
+
+    public void record(CommandBuffer commandBuffer, int batchIdx) {
+        Batch batch = batches.get(batchIdx);
+        recordPasses(commandBuffer, batch.firstPass(), batch.firstPass() + batch.numPasses());
+    }
+
+    private void recordBarrier(CommandBuffer commandBuffer, Barrier barrier) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            int srcStageMask = barrier.srcStageMask();
+            int dstStageMask = barrier.dstStageMask();
+            VkMemoryBarrier.Buffer memoryBarrier = null;
+            if (barrier.dstStageMask() != 0) {
+                memoryBarrier = VkMemoryBarrier.calloc(1, stack)
+                        .sType(VK_STRUCTURE_TYPE_MEMORY_BARRIER)
+                        .srcAccessMask(barrier.srcAccessMask())
+                        .dstAccessMask(barrier.dstAccessMask());
+            }
+
+            List<RenderGraph.ImageBarrier> imageBarriers = barrier.imageBarriers();
+            VkImageMemoryBarrier.Buffer imageMemoryBarriers = null;
+            if (!imageBarriers.isEmpty()) {
+                imageMemoryBarriers = VkImageMemoryBarrier.calloc(imageBarriers.size(), stack);
+                for (int i = 0; i < imageBarriers.size(); i++) {
+                    RenderGraph.ImageBarrier imageBarrier = imageBarriers.get(i);
+                    RenderGraph.Resource resource = imageBarrier.resource();
+                    srcStageMask |= imageBarrier.srcStageMask();
+                    dstStageMask |= imageBarrier.dstStageMask();
+                    imageMemoryBarriers.get(i)
+                            .sType(VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
+                            .oldLayout(imageBarrier.oldLayout())
+                            .newLayout(imageBarrier.newLayout())
+                            .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                            .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                            .image(resource.getVkImage())
+                            .srcAccessMask(imageBarrier.srcAccessMask())
+                            .dstAccessMask(imageBarrier.dstAccessMask())
+                            .subresourceRange(it -> it
+                                    .aspectMask(resource.getAspectMask())
+                                    .baseMipLevel(0)
+                                    .levelCount(VK_REMAINING_MIP_LEVELS)
+                                    .baseArrayLayer(0)
+                                    .layerCount(VK_REMAINING_ARRAY_LAYERS));
+                }
+            }
+
+            vkCmdPipelineBarrier(commandBuffer.getVkCommandBuffer(), srcStageMask, dstStageMask, 0,
+                    memoryBarrier, null, imageMemoryBarriers);
+        }
+    }
+
+    private void recordPasses(CommandBuffer commandBuffer, int from, int to) {
+        for (RenderGraph.CompiledPass pass : passes.subList(from, to)) {
+            if (pass.barrier() != null) {
+                recordBarrier(commandBuffer, pass.barrier());
+            }
+            pass.executor().accept(commandBuffer);
+        }
+    }
+
+    public record Alias(RenderGraph.Resource resource, int slot) {
+    }
+
+    public record Barrier(int srcStageMask, int dstStageMask, int srcAccessMask, int dstAccessMask,
+                          List<RenderGraph.ImageBarrier> imageBarriers) {
+    }
+
+    // Passes recorded together and submitted to one queue. The batch waits for the acquisition of the images it is
+    // the first one to use, in the acquire stages, and for the batches it depends on
+    public record Batch(RenderGraph.QueueType queueType, int firstPass, int numPasses, int acquireStageMask,
+                        List<BatchWait> waits) {
+    }
+
+    public record BatchWait(int batchIdx, int dstStageMask) {
+    }
+}
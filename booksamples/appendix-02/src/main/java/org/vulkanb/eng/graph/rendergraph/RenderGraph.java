@@ -0,0 +1,586 @@
+package org.vulkanb.eng.graph.rendergraph;
+
+import org.vulkanb.eng.graph.vk.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+// Passes declare the resources they read and write, compiling the graph culls the ones whose results are never used
+// and derives the barriers between the rest, which run in the order they were added. Passes are grouped in batches,
+// submitted in order, which wait on the batches they depend on. Transient images whose lifetimes do not overlap are
+// planned to share memory. Compilation does not call Vulkan, so it can be exercised without a device
+public class RenderGraph {
+
+    private final List<Pass> passes;
+    private final List<Resource> resources;
+
+    public RenderGraph() {
+        passes = new ArrayList<>();
+        resources = new ArrayList<>();
+    }
+
+    // Transient images may be used on one queue only to share a slot, memory is not synchronized across queues
+    private static boolean canShareSlot(int queueMask, int otherQueueMask) {
+        return queueMask == otherQueueMask && Integer.bitCount(queueMask) == 1;
+    }
+
+    private static boolean isLayoutChange(Resource resource, ResourceState state, ResourceAccess access) {
+        return resource.isImage() && access.layout() != VK_IMAGE_LAYOUT_UNDEFINED && access.layout() != state.layout;
+    }
+
+    public Pass addPass(String name, Consumer<CommandBuffer> executor) {
+        return addPass(name, QueueType.GRAPHICS, executor);
+    }
+
+    public Pass addPass(String name, QueueType queueType, Consumer<CommandBuffer> executor) {
+        Pass pass = new Pass(passes.size(), name, queueType, executor);
+        passes.add(pass);
+        return pass;
+    }
+
+    // The memory of the previous occupant of the slot is reused, its accesses must be done before the first one of
+    // the new image
+    private void addAliasBarrier(Map<Integer, PassBarriers> barriers, int order, ResourceAccess access,
+                                 int previousStages, int previousWriteAccess) {
+        PassBarriers passBarriers = barriers.computeIfAbsent(order, k -> new PassBarriers());
+        passBarriers.srcStageMask |= previousStages;
+        passBarriers.dstStageMask |= access.stageMask();
+        passBarriers.srcAccessMask |= previousWriteAccess;
+        passBarriers.dstAccessMask |= access.accessMask();
+    }
+
+    // Barriers are placed right after the last pass which accessed the resource, so consumers of the same producer
+    // share a single barrier
+    private void addBarrier(Map<Integer, PassBarriers> barriers, int order, Resource resource, ResourceState state,
+                            ResourceAccess access, int srcStageMask, int dstAccessMask) {
+        boolean layoutChange = isLayoutChange(resource, state, access);
+        if (srcStageMask == 0 && !layoutChange) {
+            return;
+        }
+        int barrierOrder = state.lastOrder >= 0 ? state.lastOrder + 1 : order;
+        PassBarriers passBarriers = barriers.computeIfAbsent(barrierOrder, k -> new PassBarriers());
+        // Transitions of resources waited on by the batch chain with the wait
+        int srcStages = srcStageMask | state.waitStages;
+        if (srcStages == 0) {
+            srcStages = VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT;
+        }
+        // Images in no defined layout have nothing to transition, a memory barrier is enough
+        if (resource.isImage() && (layoutChange || state.layout != VK_IMAGE_LAYOUT_UNDEFINED)) {
+            passBarriers.imageBarriers.add(new ImageBarrier(resource, srcStages, access.stageMask(),
+                    state.writeAccess, dstAccessMask, state.layout, layoutChange ? access.layout() : state.layout));
+        } else {
+            passBarriers.srcStageMask |= srcStages;
+            passBarriers.dstStageMask |= access.stageMask();
+            passBarriers.srcAccessMask |= state.writeAccess;
+            passBarriers.dstAccessMask |= dstAccessMask;
+        }
+    }
+
+    private Resource addResource(Resource resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    public CompiledGraph compile() {
+        boolean[] live = cullPasses();
+        List<Pass> livePasses = new ArrayList<>();
+        for (Pass pass : passes) {
+            if (live[pass.idx]) {
+                livePasses.add(pass);
+            }
+        }
+        List<BatchBuilder> batches = new ArrayList<>();
+        int[] passBatches = createBatches(livePasses, batches);
+        ResourceUses uses = new ResourceUses(livePasses);
+        List<CompiledGraph.Alias> aliases = planAliasing(uses);
+        Map<Resource, Resource> previousOccupants = findPreviousOccupants(aliases);
+
+        ResourceState[] states = new ResourceState[resources.size()];
+        for (Resource resource : resources) {
+            states[resource.idx] = new ResourceState(resource.initialLayout);
+        }
+        Map<Integer, PassBarriers> barriers = new HashMap<>();
+        for (int order = 0; order < livePasses.size(); order++) {
+            Pass pass = livePasses.get(order);
+            int batchIdx = passBatches[order];
+            BatchBuilder batch = batches.get(batchIdx);
+            for (Map.Entry<Resource, ResourceAccess> entry : pass.accesses.entrySet()) {
+                Resource resource = entry.getKey();
+                ResourceAccess access = entry.getValue();
+                ResourceState state = states[resource.idx];
+                if (uses.firstOrders[resource.idx] == order) {
+                    if (resource.acquired) {
+                        batch.acquireStageMask |= access.stageMask();
+                        state.waitStages = access.stageMask();
+                    }
+                    Resource previous = previousOccupants.get(resource);
+                    if (previous != null) {
+                        addAliasBarrier(barriers, order, access, uses.stages[previous.idx],
+                                uses.writeAccesses[previous.idx]);
+                    }
+                }
+                waitForBatches(batches, batchIdx, resource, state, access);
+                if (access.isWrite()) {
+                    // Write after write or after read
+                    addBarrier(barriers, order, resource, state, access, state.writeStages | state.readStages,
+                            access.accessMask());
+                    state.resetSync(access);
+                    state.writeBatch = batchIdx;
+                    state.readBatches.clear();
+                } else {
+                    boolean layoutChange = isLayoutChange(resource, state, access);
+                    boolean visible = (state.visibleStages & access.stageMask()) == access.stageMask() &&
+                            (state.visibleAccess & access.readAccessMask()) == access.readAccessMask();
+                    if (layoutChange) {
+                        addBarrier(barriers, order, resource, state, access, state.writeStages | state.readStages,
+                                access.accessMask());
+                        // The transition behaves as a write, later readers in other stages must wait for it
+                        state.writeStages = access.stageMask();
+                        state.writeAccess = 0;
+                        state.readStages = 0;
+                        state.visibleStages = access.stageMask();
+                        state.visibleAccess = access.readAccessMask();
+                        state.writeBatch = batchIdx;
+                        state.readBatches.clear();
+                    } else if (state.writeStages != 0 && !visible) {
+                        // Read after write, stages which already got visibility are not synchronized again
+                        addBarrier(barriers, order, resource, state, access, state.writeStages,
+                                access.readAccessMask());
+                        state.visibleStages |= access.stageMask();
+                        state.visibleAccess |= access.readAccessMask();
+                    }
+                    state.readStages |= access.stageMask();
+                    state.readBatches.set(batchIdx);
+                }
+                if (resource.isImage() && access.layout() != VK_IMAGE_LAYOUT_UNDEFINED) {
+                    state.layout = access.layout();
+                }
+                Integer finalLayout = pass.finalLayouts.get(resource);
+                if (finalLayout != null) {
+                    state.layout = finalLayout;
+                }
+                state.lastOrder = order;
+                state.waitStages = 0;
+            }
+        }
+
+        List<CompiledPass> compiledPasses = new ArrayList<>();
+        for (int order = 0; order < livePasses.size(); order++) {
+            Pass pass = livePasses.get(order);
+            PassBarriers passBarriers = barriers.get(order);
+            compiledPasses.add(new CompiledPass(pass.name, pass.queueType, pass.executor,
+                    passBarriers != null ? passBarriers.toBarrier() : null));
+        }
+        List<CompiledGraph.Batch> compiledBatches = new ArrayList<>();
+        for (BatchBuilder batch : batches) {
+            compiledBatches.add(batch.toBatch());
+        }
+        return new CompiledGraph(compiledPasses, compiledBatches, aliases);
+    }
+
+    // Passes are split into batches where they change queue and where they first use an image acquired outside the
+    // graph, so the work before it does not wait for the acquisition. Returns the batch of each pass
+    private int[] createBatches(List<Pass> livePasses, List<BatchBuilder> batches) {
+        int[] passBatches = new int[livePasses.size()];
+        Set<Resource> acquired = new HashSet<>();
+        BatchBuilder batch = null;
+        for (int order = 0; order < livePasses.size(); order++) {
+            Pass pass = livePasses.get(order);
+            boolean acquires = false;
+            for (Resource resource : pass.accesses.keySet()) {
+                if (resource.acquired && acquired.add(resource)) {
+                    acquires = true;
+                }
+            }
+            if (batch == null || batch.queueType != pass.queueType || acquires) {
+                batch = new BatchBuilder(pass.queueType, order);
+                batches.add(batch);
+            }
+            batch.numPasses++;
+            passBatches[order] = batches.size() - 1;
+        }
+        return passBatches;
+    }
+
+    // Images created for the graph, with memory bound once compiled, see TransientImages
+    public Resource createTransientImage(String name, Image.ImageData imageData) {
+        int aspectMask = Attachment.calcAspectMask(imageData.getUsage());
+        if (aspectMask == 0) {
+            throw new RuntimeException("Transient [" + name + "] is not an attachment");
+        }
+        return addResource(new Resource(resources.size(), name, null, null, imageData, aspectMask,
+                VK_IMAGE_LAYOUT_UNDEFINED));
+    }
+
+    // A pass is kept if it has side effects or writes a resource that a kept pass reads or that is a graph output
+    private boolean[] cullPasses() {
+        boolean[] live = new boolean[passes.size()];
+        Set<Resource> needed = new HashSet<>();
+        for (Resource resource : resources) {
+            if (resource.output) {
+                needed.add(resource);
+            }
+        }
+        for (int i = passes.size() - 1; i >= 0; i--) {
+            Pass pass = passes.get(i);
+            boolean writesNeeded = false;
+            for (Map.Entry<Resource, ResourceAccess> entry : pass.accesses.entrySet()) {
+                if (entry.getValue().isWrite() && needed.contains(entry.getKey())) {
+                    writesNeeded = true;
+                    break;
+                }
+            }
+            if (pass.sideEffects || writesNeeded) {
+                live[i] = true;
+                for (Map.Entry<Resource, ResourceAccess> entry : pass.accesses.entrySet()) {
+                    if (entry.getValue().readAccessMask() != 0 || !entry.getValue().isWrite()) {
+                        needed.add(entry.getKey());
+                    }
+                }
+            }
+        }
+        return live;
+    }
+
+    // The first image of a slot follows the last one, which was used by the previous execution of the graph
+    private Map<Resource, Resource> findPreviousOccupants(List<CompiledGraph.Alias> aliases) {
+        Map<Integer, List<Resource>> slots = new HashMap<>();
+        for (CompiledGraph.Alias alias : aliases) {
+            slots.computeIfAbsent(alias.slot(), k -> new ArrayList<>()).add(alias.resource());
+        }
+        Map<Resource, Resource> previousOccupants = new HashMap<>();
+        for (List<Resource> occupants : slots.values()) {
+            if (occupants.size() < 2) {
+                continue;
+            }
+            for (int i = 0; i < occupants.size(); i++) {
+                previousOccupants.put(occupants.get(i), occupants.get((i + occupants.size() - 1) % occupants.size()));
+            }
+        }
+        return previousOccupants;
+    }
+
+    public Resource importBuffer(String name, VulkanBuffer buffer) {
+        return addResource(new Resource(resources.size(), name, buffer, null, null, 0, VK_IMAGE_LAYOUT_UNDEFINED));
+    }
+
+    public Resource importImage(String name, Attachment attachment, int initialLayout) {
+        int aspectMask = attachment.isDepthAttachment() ? VK_IMAGE_ASPECT_DEPTH_BIT : VK_IMAGE_ASPECT_COLOR_BIT;
+        Image image = attachment.getImage();
+        return importImage(name, image::getVkImage, aspectMask, initialLayout);
+    }
+
+    // The handle is resolved when barriers are recorded, for images which change between executions such as the
+    // acquired swap chain image
+    public Resource importImage(String name, LongSupplier vkImage, int aspectMask, int initialLayout) {
+        return addResource(new Resource(resources.size(), name, null, vkImage, null, aspectMask, initialLayout));
+    }
+
+    // Transient images whose lifetimes, from their first to their last use, do not overlap share an alias slot. In
+    // order of first use, each one takes the first slot whose last occupant is no longer used
+    private List<CompiledGraph.Alias> planAliasing(ResourceUses uses) {
+        List<Resource> transients = new ArrayList<>();
+        for (Resource resource : resources) {
+            if (resource.isTransient() && uses.firstOrders[resource.idx] >= 0) {
+                transients.add(resource);
+            }
+        }
+        transients.sort(Comparator.comparingInt(r -> uses.firstOrders[r.idx]));
+
+        List<Resource> lastOccupants = new ArrayList<>();
+        List<CompiledGraph.Alias> aliases = new ArrayList<>();
+        for (Resource resource : transients) {
+            int slot = -1;
+            for (int i = 0; i < lastOccupants.size() && slot < 0; i++) {
+                Resource occupant = lastOccupants.get(i);
+                if (uses.lastOrders[occupant.idx] < uses.firstOrders[resource.idx] &&
+                        canShareSlot(uses.queueMasks[occupant.idx], uses.queueMasks[resource.idx])) {
+                    slot = i;
+                }
+            }
+            if (slot < 0) {
+                slot = lastOccupants.size();
+                lastOccupants.add(resource);
+            } else {
+                lastOccupants.set(slot, resource);
+            }
+            aliases.add(new CompiledGraph.Alias(resource, slot));
+        }
+        return aliases;
+    }
+
+    // Waits of the batch for the accesses made by earlier batches. The semaphore wait covers their synchronization, so
+    // the state within the batch starts over, only layout transitions are still recorded, chained with the wait
+    private void waitForBatches(List<BatchBuilder> batches, int batchIdx, Resource resource, ResourceState state,
+                                ResourceAccess access) {
+        BatchBuilder batch = batches.get(batchIdx);
+        boolean writes = access.isWrite() || isLayoutChange(resource, state, access);
+        boolean waited = false;
+        if (state.writeBatch >= 0 && state.writeBatch != batchIdx) {
+            batch.addWait(state.writeBatch, access.stageMask());
+            waited = true;
+        }
+        if (writes) {
+            for (int i = state.readBatches.nextSetBit(0); i >= 0; i = state.readBatches.nextSetBit(i + 1)) {
+                if (i != batchIdx) {
+                    batch.addWait(i, access.stageMask());
+                    waited = true;
+                }
+            }
+        }
+        if (state.batch >= 0 && state.batch != batchIdx) {
+            state.lastOrder = -1;
+            state.writeStages = 0;
+            state.writeAccess = 0;
+            state.readStages = 0;
+            state.visibleStages = 0;
+            state.visibleAccess = 0;
+        }
+        if (waited) {
+            state.waitStages |= access.stageMask();
+        }
+        state.batch = batchIdx;
+    }
+
+    public enum QueueType {
+        COMPUTE, GRAPHICS
+    }
+
+    public record CompiledPass(String name, QueueType queueType, Consumer<CommandBuffer> executor,
+                               CompiledGraph.Barrier barrier) {
+    }
+
+    public record ImageBarrier(Resource resource, int srcStageMask, int dstStageMask, int srcAccessMask,
+                               int dstAccessMask, int oldLayout, int newLayout) {
+    }
+
+    private static class BatchBuilder {
+        private final int firstPass;
+        private final QueueType queueType;
+        private final Map<Integer, Integer> waits;
+        private int acquireStageMask;
+        private int numPasses;
+
+        private BatchBuilder(QueueType queueType, int firstPass) {
+            this.queueType = queueType;
+            this.firstPass = firstPass;
+            waits = new TreeMap<>();
+        }
+
+        private void addWait(int batchIdx, int dstStageMask) {
+            waits.merge(batchIdx, dstStageMask, (a, b) -> a | b);
+        }
+
+        private CompiledGraph.Batch toBatch() {
+            List<CompiledGraph.BatchWait> batchWaits = new ArrayList<>();
+            waits.forEach((k, v) -> batchWaits.add(new CompiledGraph.BatchWait(k, v)));
+            return new CompiledGraph.Batch(queueType, firstPass, numPasses, acquireStageMask, batchWaits);
+        }
+    }
+
+    public static class Pass {
+        private final Map<Resource, ResourceAccess> accesses;
+        private final Consumer<CommandBuffer> executor;
+        private final Map<Resource, Integer> finalLayouts;
+        private final int idx;
+        private final String name;
+        private final QueueType queueType;
+        private boolean sideEffects;
+
+        private Pass(int idx, String name, QueueType queueType, Consumer<CommandBuffer> executor) {
+            this.idx = idx;
+            this.name = name;
+            this.queueType = queueType;
+            this.executor = executor;
+            accesses = new LinkedHashMap<>();
+            finalLayouts = new HashMap<>();
+        }
+
+        // Layout an image is left in by the pass, for render passes which transition their attachments themselves
+        public Pass finalLayout(Resource resource, int layout) {
+            finalLayouts.put(resource, layout);
+            return this;
+        }
+
+        public Pass read(Resource resource, ResourceAccess access) {
+            if (access.isWrite()) {
+                throw new RuntimeException("Pass [" + name + "] reads [" + resource.name + "] with a write access");
+            }
+            accesses.merge(resource, access, ResourceAccess::combine);
+            return this;
+        }
+
+        // Kept even if none of its results are used, for example passes which present or read back
+        public Pass sideEffects() {
+            sideEffects = true;
+            return this;
+        }
+
+        public Pass write(Resource resource, ResourceAccess access) {
+            if (!access.isWrite()) {
+                throw new RuntimeException("Pass [" + name + "] writes [" + resource.name + "] with a read access");
+            }
+            accesses.merge(resource, access, ResourceAccess::combine);
+            return this;
+        }
+    }
+
+    private static class PassBarriers {
+        private final List<ImageBarrier> imageBarriers = new ArrayList<>();
+        private int dstAccessMask;
+        private int dstStageMask;
+        private int srcAccessMask;
+        private int srcStageMask;
+
+        private CompiledGraph.Barrier toBarrier() {
+            return new CompiledGraph.Barrier(srcStageMask, dstStageMask, srcAccessMask, dstAccessMask,
+                    imageBarriers);
+        }
+    }
+
+    public static class Resource {
+        private final int aspectMask;
+        private final VulkanBuffer buffer;
+        private final int idx;
+        private final Image.ImageData imageData;
+        private final int initialLayout;
+        private final String name;
+        private final LongSupplier vkImage;
+        private boolean acquired;
+        private Image image;
+        private boolean output;
+
+        private Resource(int idx, String name, VulkanBuffer buffer, LongSupplier vkImage, Image.ImageData imageData,
+                         int aspectMask, int initialLayout) {
+            this.idx = idx;
+            this.name = name;
+            this.buffer = buffer;
+            this.imageData = imageData;
+            this.aspectMask = aspectMask;
+            this.initialLayout = initialLayout;
+            this.vkImage = imageData != null ? () -> image.getVkImage() : vkImage;
+        }
+
+        void bindImage(Image image) {
+            this.image = image;
+        }
+
+        public int getAspectMask() {
+            return aspectMask;
+        }
+
+        public VulkanBuffer getBuffer() {
+            return buffer;
+        }
+
+        // Only set for transient images, once bound
+        public Image getImage() {
+            return image;
+        }
+
+        Image.ImageData getImageData() {
+            return imageData;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getVkImage() {
+            return vkImage.getAsLong();
+        }
+
+        public boolean isImage() {
+            return aspectMask != 0;
+        }
+
+        public boolean isTransient() {
+            return imageData != null;
+        }
+
+        // Images made available outside the graph, such as swap chain images. The batch using them first waits for
+        // their acquisition, the work before it is put in earlier batches
+        public Resource markAcquired() {
+            acquired = true;
+            return this;
+        }
+
+        // Results used outside the graph, which keep the passes writing them alive
+        public Resource markOutput() {
+            output = true;
+            return this;
+        }
+    }
+
+    private static class ResourceState {
+        private final BitSet readBatches = new BitSet();
+        private int batch = -1;
+        private int lastOrder = -1;
+        private int layout;
+        private int readStages;
+        private int visibleAccess;
+        private int visibleStages;
+        private int waitStages;
+        private int writeAccess;
+        private int writeBatch = -1;
+        private int writeStages;
+
+        private ResourceState(int layout) {
+            this.layout = layout;
+        }
+
+        private void resetSync(ResourceAccess access) {
+            if (access.isWrite()) {
+                writeStages = access.stageMask();
+                writeAccess = access.writeAccessMask();
+                readStages = 0;
+                visibleStages = 0;
+                visibleAccess = 0;
+            } else {
+                readStages = access.stageMask();
+                visibleStages = access.stageMask();
+                visibleAccess = access.readAccessMask();
+            }
+        }
+    }
+
+    // Lifetimes of the resources in the live passes, with every stage and write access they are used with
+    private class ResourceUses {
+        private final int[] firstOrders;
+        private final int[] lastOrders;
+        private final int[] queueMasks;
+        private final int[] stages;
+        private final int[] writeAccesses;
+
+        private ResourceUses(List<Pass> livePasses) {
+            int numResources = resources.size();
+            firstOrders = new int[numResources];
+            lastOrders = new int[numResources];
+            queueMasks = new int[numResources];
+            stages = new int[numResources];
+            writeAccesses = new int[numResources];
+            Arrays.fill(firstOrders, -1);
+            for (int order = 0; order < livePasses.size(); order++) {
+                Pass pass = livePasses.get(order);
+                for (Map.Entry<Resource, ResourceAccess> entry : pass.accesses.entrySet()) {
+                    Resource resource = entry.getKey();
+                    ResourceAccess access = entry.getValue();
+                    int idx = resource.idx;
+                    if (firstOrders[idx] < 0) {
+                        if (resource.isTransient() && !access.isWrite()) {
+                            throw new RuntimeException("Transient [" + resource.name + "] is read by [" +
+                                    pass.name + "] before being written");
+                        }
+                        firstOrders[idx] = order;
+                    }
+                    lastOrders[idx] = order;
+                    queueMasks[idx] |= 1 << pass.queueType.ordinal();
+                    stages[idx] |= access.stageMask();
+                    writeAccesses[idx] |= access.writeAccessMask();
+                }
+            }
+        }
+    }
+}
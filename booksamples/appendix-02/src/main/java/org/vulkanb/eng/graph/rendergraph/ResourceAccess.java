@@ -0,0 +1,53 @@
+package org.vulkanb.eng.graph.rendergraph;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+// How a pass uses a resource: the pipeline stages, the memory accesses and, for images, the layout it expects
+public record ResourceAccess(int stageMask, int accessMask, int layout) {
+
+    private static final int WRITE_ACCESS_MASK = VK_ACCESS_SHADER_WRITE_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT |
+            VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT | VK_ACCESS_TRANSFER_WRITE_BIT | VK_ACCESS_HOST_WRITE_BIT |
+            VK_ACCESS_MEMORY_WRITE_BIT;
+
+    // Attachments cleared by a render pass, whose previous contents are discarded and whose layout transition is
+    // done by the render pass itself
+    public static final ResourceAccess COLOR_ATTACHMENT_CLEAR = new ResourceAccess(
+            VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT,
+            VK_IMAGE_LAYOUT_UNDEFINED);
+    public static final ResourceAccess COMPUTE_WRITE = new ResourceAccess(VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT,
+            VK_ACCESS_SHADER_WRITE_BIT, VK_IMAGE_LAYOUT_GENERAL);
+    public static final ResourceAccess DEPTH_ATTACHMENT_CLEAR = new ResourceAccess(
+            VK_PIPELINE_STAGE_EARLY_FRAGMENT_TESTS_BIT | VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT,
+            VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT, VK_IMAGE_LAYOUT_UNDEFINED);
+    public static final ResourceAccess INDIRECT_READ = new ResourceAccess(VK_PIPELINE_STAGE_DRAW_INDIRECT_BIT,
+            VK_ACCESS_INDIRECT_COMMAND_READ_BIT, VK_IMAGE_LAYOUT_UNDEFINED);
+    public static final ResourceAccess TRANSFER_READ = new ResourceAccess(VK_PIPELINE_STAGE_TRANSFER_BIT,
+            VK_ACCESS_TRANSFER_READ_BIT, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+    public static final ResourceAccess TRANSFER_WRITE = new ResourceAccess(VK_PIPELINE_STAGE_TRANSFER_BIT,
+            VK_ACCESS_TRANSFER_WRITE_BIT, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+    public static final ResourceAccess VERTEX_READ = new ResourceAccess(VK_PIPELINE_STAGE_VERTEX_INPUT_BIT,
+            VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT, VK_IMAGE_LAYOUT_UNDEFINED);
+
+    // Merges two uses of the same resource by one pass, image uses must agree on the layout
+    public ResourceAccess combine(ResourceAccess other) {
+        int combinedLayout = layout;
+        if (layout == VK_IMAGE_LAYOUT_UNDEFINED) {
+            combinedLayout = other.layout;
+        } else if (other.layout != VK_IMAGE_LAYOUT_UNDEFINED && other.layout != layout) {
+            throw new RuntimeException("Incompatible layouts [" + layout + "] and [" + other.layout + "]");
+        }
+        return new ResourceAccess(stageMask | other.stageMask, accessMask | other.accessMask, combinedLayout);
+    }
+
+    public boolean isWrite() {
+        return (accessMask & WRITE_ACCESS_MASK) != 0;
+    }
+
+    public int readAccessMask() {
+        return accessMask & ~WRITE_ACCESS_MASK;
+    }
+
+    public int writeAccessMask() {
+        return accessMask & WRITE_ACCESS_MASK;
+    }
+}
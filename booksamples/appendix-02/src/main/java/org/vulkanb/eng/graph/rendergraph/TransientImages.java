@@ -0,0 +1,113 @@
+package org.vulkanb.eng.graph.rendergraph;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkMemoryAllocateInfo;
+import org.tinylog.Logger;
+import org.vulkanb.eng.graph.vk.*;
+
+import java.nio.LongBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK11.*;
+import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
+
+// Images of the transient resources of compiled graphs, created from the alias plan of the first graph bound. Images
+// sharing an alias slot are bound to the same range of a single allocation, so memory is only taken by the slots.
+// Graphs bound afterwards, such as the ones of the other frames in flight, must declare the same transients
+public class TransientImages {
+
+    private final Map<String, Attachment> attachments;
+    private final Device device;
+    private long allocationSize;
+    private MemoryAllocator.MemoryCategory category;
+    private long vkMemory;
+
+    public TransientImages(Device device) {
+        this.device = device;
+        attachments = new HashMap<>();
+    }
+
+    private static long alignUp(long value, long alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    public void bind(CompiledGraph compiledGraph) {
+        List<CompiledGraph.Alias> aliases = compiledGraph.aliases();
+        if (vkMemory == VK_NULL_HANDLE && !aliases.isEmpty()) {
+            createImages(aliases, compiledGraph.getNumAliasSlots());
+        }
+        for (CompiledGraph.Alias alias : aliases) {
+            RenderGraph.Resource resource = alias.resource();
+            Attachment attachment = attachments.get(resource.getName());
+            if (attachment == null) {
+                throw new RuntimeException("Transient [" + resource.getName() + "] was not planned");
+            }
+            resource.bindImage(attachment.getImage());
+        }
+    }
+
+    public void cleanup() {
+        attachments.values().forEach(Attachment::cleanup);
+        attachments.clear();
+        if (vkMemory != VK_NULL_HANDLE) {
+            vkFreeMemory(device.getVkDevice(), vkMemory, null);
+            device.getMemoryAllocator().trackFree(category, allocationSize);
+            vkMemory = VK_NULL_HANDLE;
+        }
+    }
+
+    private void createImages(List<CompiledGraph.Alias> aliases, int numSlots) {
+        long[] slotSizes = new long[numSlots];
+        long[] slotAlignments = new long[numSlots];
+        int memoryTypeBits = ~0;
+        List<Image> images = new ArrayList<>();
+        for (CompiledGraph.Alias alias : aliases) {
+            Image.ImageData imageData = alias.resource().getImageData();
+            Image image = new Image(device, imageData, false);
+            images.add(image);
+            slotSizes[alias.slot()] = Math.max(slotSizes[alias.slot()], image.getAllocationSize());
+            slotAlignments[alias.slot()] = Math.max(slotAlignments[alias.slot()], image.getMemoryAlignment());
+            memoryTypeBits &= image.getMemoryTypeBits();
+            category = imageData.getCategory();
+        }
+        if (memoryTypeBits == 0) {
+            throw new RuntimeException("Transient images have no memory type in common");
+        }
+
+        long[] slotOffsets = new long[numSlots];
+        long size = 0;
+        for (int i = 0; i < numSlots; i++) {
+            slotOffsets[i] = alignUp(size, slotAlignments[i]);
+            size = slotOffsets[i] + slotSizes[i];
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkMemoryAllocateInfo memAlloc = VkMemoryAllocateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO)
+                    .allocationSize(size)
+                    .memoryTypeIndex(VulkanUtils.memoryTypeFromProperties(device.getPhysicalDevice(),
+                            memoryTypeBits, 0));
+            LongBuffer lp = stack.mallocLong(1);
+            vkCheck(vkAllocateMemory(device.getVkDevice(), memAlloc, null, lp), "Failed to allocate memory");
+            vkMemory = lp.get(0);
+        }
+        allocationSize = size;
+        device.getMemoryAllocator().trackAllocation(category, allocationSize);
+
+        for (int i = 0; i < aliases.size(); i++) {
+            RenderGraph.Resource resource = aliases.get(i).resource();
+            Image image = images.get(i);
+            image.bindMemory(vkMemory, slotOffsets[aliases.get(i).slot()]);
+            ImageView.ImageViewData imageViewData = new ImageView.ImageViewData().format(image.getFormat())
+                    .aspectMask(resource.getAspectMask());
+            ImageView imageView = new ImageView(device, image.getVkImage(), imageViewData);
+            attachments.put(resource.getName(), new Attachment(image, imageView,
+                    resource.getAspectMask() == VK_IMAGE_ASPECT_DEPTH_BIT));
+        }
+        Logger.debug("Created {} transient image(s) in {} alias slot(s), {} bytes", aliases.size(), numSlots,
+                allocationSize);
+    }
+
+    public Attachment getAttachment(String name) {
+        return attachments.get(name);
+    }
+}
@@ -1,6 +1,7 @@
 package org.vulkanb.eng.graph.shadows;
 
 import org.joml.*;
+import org.vulkanb.eng.EngineProperties;
 import org.vulkanb.eng.graph.vk.GraphConstants;
 import org.vulkanb.eng.scene.Scene;
 
@@ -24,6 +25,7 @@ public class CascadeShadow {
         Vector4f lightPos = scene.getDirectionalLight().getPosition();
 
         float cascadeSplitLambda = 0.95f;
+        int shadowMapSize = EngineProperties.getInstance().getShadowMapSize();
 
         float[] cascadeSplits = new float[GraphConstants.SHADOW_MAP_CASCADE_COUNT];
 
@@ -94,8 +96,20 @@ public class CascadeShadow {
             Vector3f minExtents = new Vector3f(maxExtents).mul(-1);
 
             Vector3f lightDir = (new Vector3f(lightPos.x, lightPos.y, lightPos.z).mul(-1)).normalize();
-            Vector3f eye = new Vector3f(frustumCenter).sub(new Vector3f(lightDir).mul(-minExtents.z));
             Vector3f up = new Vector3f(0.0f, 1.0f, 0.0f);
+
+            // Snap the center to whole texels in light space, so small camera moves produce the exact same
+            // matrix and the cached shadow maps remain valid
+            float texelSize = 2.0f * radius / shadowMapSize;
+            Matrix4f lightRotation = new Matrix4f().lookAt(new Vector3f(), lightDir, up);
+            Vector3f lightSpaceCenter = lightRotation.transformPosition(new Vector3f(frustumCenter));
+            lightSpaceCenter.set(
+                    (float) java.lang.Math.floor(lightSpaceCenter.x / texelSize) * texelSize,
+                    (float) java.lang.Math.floor(lightSpaceCenter.y / texelSize) * texelSize,
+                    (float) java.lang.Math.floor(lightSpaceCenter.z / texelSize) * texelSize);
+            lightRotation.invertAffine().transformPosition(lightSpaceCenter, frustumCenter);
+
+            Vector3f eye = new Vector3f(frustumCenter).sub(new Vector3f(lightDir).mul(-minExtents.z));
             Matrix4f lightViewMatrix = new Matrix4f().lookAt(eye, frustumCenter, up);
             Matrix4f lightOrthoMatrix = new Matrix4f().ortho
                     (minExtents.x, maxExtents.x, minExtents.y, maxExtents.y, 0.0f, maxExtents.z - minExtents.z, true);
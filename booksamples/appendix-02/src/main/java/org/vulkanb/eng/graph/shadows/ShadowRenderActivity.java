@@ -5,29 +5,32 @@ import org.lwjgl.util.shaderc.Shaderc;
 import org.lwjgl.vulkan.*;
 import org.vulkanb.eng.EngineProperties;
 import org.vulkanb.eng.graph.*;
+import org.vulkanb.eng.graph.culling.CullBuffers;
 import org.vulkanb.eng.graph.geometry.GeometryAttachments;
 import org.vulkanb.eng.graph.vk.*;
 import org.vulkanb.eng.scene.Scene;
 
 import java.nio.LongBuffer;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.lwjgl.vulkan.VK11.*;
 
 public class ShadowRenderActivity {
 
+    private static final int ALL_CASCADES_MASK = (1 << GraphConstants.SHADOW_MAP_CASCADE_COUNT) - 1;
     private static final String SHADOW_FRAGMENT_SHADER_FILE_GLSL = "resources/shaders/shadow_fragment.glsl";
-    private static final String SHADOW_FRAGMENT_SHADER_FILE_SPV = SHADOW_FRAGMENT_SHADER_FILE_GLSL + ".spv";
     private static final String SHADOW_GEOMETRY_SHADER_FILE_GLSL = "resources/shaders/shadow_geometry.glsl";
-    private static final String SHADOW_GEOMETRY_SHADER_FILE_SPV = SHADOW_GEOMETRY_SHADER_FILE_GLSL + ".spv";
     private static final String SHADOW_VERTEX_SHADER_FILE_GLSL = "resources/shaders/shadow_vertex.glsl";
-    private static final String SHADOW_VERTEX_SHADER_FILE_SPV = SHADOW_VERTEX_SHADER_FILE_GLSL + ".spv";
 
+    private final SecondaryCommandRecorder cacheRecorder;
     private final Device device;
     private final Scene scene;
+    private final SecondaryCommandRecorder secondaryRecorder;
+    private final ShadowsCache shadowsCache;
     private final ShadowsFrameBuffer shadowsFrameBuffer;
     private List<CascadeShadow> cascadeShadows;
-    private DescriptorPool descriptorPool;
+    private DescriptorAllocator descriptorAllocator;
     private DescriptorSetLayout[] descriptorSetLayouts;
     private boolean firstRun;
     private DescriptorSet.StorageDescriptorSet materialsDescriptorSet;
@@ -37,66 +40,121 @@ public class ShadowRenderActivity {
     private VulkanBuffer[] shadowsUniforms;
     private DescriptorSetLayout.StorageDescriptorSetLayout storageDescriptorSetLayout;
     private SwapChain swapChain;
-    private TextureDescriptorSet textureDescriptorSet;
-    private DescriptorSetLayout.SamplerDescriptorSetLayout textureDescriptorSetLayout;
+    private TextureArrayDescriptorSet textureDescriptorSet;
     private TextureSampler textureSampler;
     private DescriptorSetLayout.UniformDescriptorSetLayout uniformDescriptorSetLayout;
 
-    public ShadowRenderActivity(SwapChain swapChain, PipelineCache pipelineCache, Scene scene, GlobalBuffers globalBuffers) {
+    public ShadowRenderActivity(SwapChain swapChain, PipelineBuilder pipelineBuilder, Scene scene, GlobalBuffers globalBuffers,
+                                ParallelRecorder parallelRecorder) {
         firstRun = true;
         this.swapChain = swapChain;
         this.scene = scene;
         device = swapChain.getDevice();
-        int numImages = swapChain.getNumImages();
-        shadowsFrameBuffer = new ShadowsFrameBuffer(device);
-        createShaders();
-        createDescriptorPool(numImages);
-        createDescriptorSets(numImages, globalBuffers);
-        createPipeline(pipelineCache);
+        EngineProperties engineProperties = EngineProperties.getInstance();
+        int framesInFlight = engineProperties.getFramesInFlight();
+        boolean shadowCaching = engineProperties.isShadowCaching();
+        shadowsFrameBuffer = new ShadowsFrameBuffer(device, shadowCaching);
+        shadowsCache = shadowCaching ? new ShadowsCache(device, framesInFlight) : null;
+        descriptorAllocator = new DescriptorAllocator(device);
+        createDescriptorSets(framesInFlight, globalBuffers);
+        pipelineBuilder.submit(cache -> {
+            createShaders(pipelineBuilder.getShaderVariants());
+            createPipeline(cache);
+        });
         createShadowCascades();
+        secondaryRecorder = parallelRecorder.createSecondaryRecorder(framesInFlight);
+        cacheRecorder = shadowCaching ? parallelRecorder.createSecondaryRecorder(framesInFlight) : null;
+    }
+
+    private void addDrawTasks(List<Consumer<CommandBuffer>> tasks, int frameIdx, GlobalBuffers globalBuffers,
+                              VulkanBuffer verticesBuffer, VulkanBuffer instanceBuffer, VulkanBuffer indirectBuffer,
+                              int numCommands, int cascadeMask) {
+        int chunkSize = secondaryRecorder.getChunkSize(numCommands);
+        for (int first = 0; first < numCommands; first += chunkSize) {
+            int firstCommand = first;
+            int count = Math.min(chunkSize, numCommands - first);
+            tasks.add(cmd -> recordDraws(cmd, frameIdx, globalBuffers, verticesBuffer, instanceBuffer, indirectBuffer,
+                    firstCommand, count, cascadeMask));
+        }
+    }
+
+    private void addDynamicDrawTasks(List<Consumer<CommandBuffer>> tasks, int frameIdx, GlobalBuffers globalBuffers) {
+        // Draw commands for dynamic non animated models
+        if (globalBuffers.getNumIndirectCommands() > 0) {
+            addPartitionDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getCullBuffers(),
+                    globalBuffers.getInstanceDataBuffers()[frameIdx], globalBuffers.getIndirectBuffer(),
+                    globalBuffers.getNumIndirectCommands());
+        }
+        // Draw commands for animated models
+        if (globalBuffers.getNumAnimIndirectCommands() > 0) {
+            addDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getAnimVerticesBuffers()[frameIdx],
+                    globalBuffers.getAnimInstanceDataBuffers()[frameIdx], globalBuffers.getAnimIndirectBuffer(),
+                    globalBuffers.getNumAnimIndirectCommands(), ALL_CASCADES_MASK);
+        }
+    }
+
+    private void addPartitionDrawTasks(List<Consumer<CommandBuffer>> tasks, int frameIdx, GlobalBuffers globalBuffers,
+                                       CullBuffers cullBuffers, VulkanBuffer instanceBuffer,
+                                       VulkanBuffer indirectBuffer, int numCommands) {
+        if (cullBuffers == null) {
+            addDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getVerticesBuffer(), instanceBuffer,
+                    indirectBuffer, numCommands, ALL_CASCADES_MASK);
+            return;
+        }
+        // Each cascade draws the instances that survived culling against its light frustum
+        for (int i = 0; i < GraphConstants.SHADOW_MAP_CASCADE_COUNT; i++) {
+            int view = CullBuffers.getCascadeView(i);
+            addDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getVerticesBuffer(),
+                    cullBuffers.getCulledInstanceDataBuffers(view)[frameIdx],
+                    cullBuffers.getCulledIndirectBuffers(view)[frameIdx], numCommands, 1 << i);
+        }
+    }
+
+    private void addStaticDrawTasks(List<Consumer<CommandBuffer>> tasks, int frameIdx, GlobalBuffers globalBuffers) {
+        if (globalBuffers.getNumStaticIndirectCommands() > 0) {
+            addPartitionDrawTasks(tasks, frameIdx, globalBuffers, globalBuffers.getStaticCullBuffers(),
+                    globalBuffers.getStaticInstanceDataBuffer(), globalBuffers.getStaticIndirectBuffer(),
+                    globalBuffers.getNumStaticIndirectCommands());
+        }
     }
 
     public void cleanup() {
         pipeLine.cleanup();
         Arrays.asList(shadowsUniforms).forEach(VulkanBuffer::cleanup);
         uniformDescriptorSetLayout.cleanup();
-        textureDescriptorSetLayout.cleanup();
+        textureDescriptorSet.cleanup();
         storageDescriptorSetLayout.cleanup();
         textureSampler.cleanup();
-        descriptorPool.cleanup();
+        descriptorAllocator.cleanup();
         shaderProgram.cleanup();
         shadowsFrameBuffer.cleanup();
+        secondaryRecorder.cleanup();
+        if (shadowsCache != null) {
+            shadowsCache.cleanup();
+            cacheRecorder.cleanup();
+        }
     }
 
-    private void createDescriptorPool(int numImages) {
-        EngineProperties engineProps = EngineProperties.getInstance();
-        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(numImages, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(engineProps.getMaxTextures(), VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
-        descriptorPool = new DescriptorPool(device, descriptorTypeCounts);
-    }
-
-    private void createDescriptorSets(int numImages, GlobalBuffers globalBuffers) {
-        EngineProperties engineProperties = EngineProperties.getInstance();
+    private void createDescriptorSets(int framesInFlight, GlobalBuffers globalBuffers) {
         uniformDescriptorSetLayout = new DescriptorSetLayout.UniformDescriptorSetLayout(device, 0, VK_SHADER_STAGE_GEOMETRY_BIT);
-        textureDescriptorSetLayout = new DescriptorSetLayout.SamplerDescriptorSetLayout(device, engineProperties.getMaxTextures(), 0, VK_SHADER_STAGE_FRAGMENT_BIT);
+        textureDescriptorSet = new TextureArrayDescriptorSet(device, VK_SHADER_STAGE_FRAGMENT_BIT);
         storageDescriptorSetLayout = new DescriptorSetLayout.StorageDescriptorSetLayout(device, 0, VK_SHADER_STAGE_FRAGMENT_BIT);
         descriptorSetLayouts = new DescriptorSetLayout[]{
                 uniformDescriptorSetLayout,
-                textureDescriptorSetLayout,
+                textureDescriptorSet.getDescriptorSetLayout(),
                 storageDescriptorSetLayout,
         };
 
         textureSampler = new TextureSampler(device, 1, false);
-        projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet[numImages];
-        materialsDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorPool, storageDescriptorSetLayout,
+        projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet[framesInFlight];
+        materialsDescriptorSet = new DescriptorSet.StorageDescriptorSet(descriptorAllocator, storageDescriptorSetLayout,
                 globalBuffers.getMaterialsBuffer(), 0);
-        shadowsUniforms = new VulkanBuffer[numImages];
-        for (int i = 0; i < numImages; i++) {
+        shadowsUniforms = new VulkanBuffer[framesInFlight];
+        for (int i = 0; i < framesInFlight; i++) {
             shadowsUniforms[i] = new VulkanBuffer(device, (long)
                     GraphConstants.MAT4X4_SIZE * GraphConstants.SHADOW_MAP_CASCADE_COUNT,
                     VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, 0);
-            projMatrixDescriptorSet[i] = new DescriptorSet.UniformDescriptorSet(descriptorPool, uniformDescriptorSetLayout,
+            projMatrixDescriptorSet[i] = new DescriptorSet.UniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout,
                     shadowsUniforms[i], 0);
         }
     }
@@ -104,24 +162,26 @@ public class ShadowRenderActivity {
     private void createPipeline(PipelineCache pipelineCache) {
         Pipeline.PipeLineCreationInfo pipeLineCreationInfo = new Pipeline.PipeLineCreationInfo(
                 shadowsFrameBuffer.getRenderPass().getVkRenderPass(), shaderProgram,
-                GeometryAttachments.NUMBER_COLOR_ATTACHMENTS, true, true, 0,
+                GeometryAttachments.NUMBER_COLOR_ATTACHMENTS, true, true, GraphConstants.INT_LENGTH,
                 new InstancedVertexBufferStructure(), descriptorSetLayouts);
         pipeLine = new Pipeline(pipelineCache, pipeLineCreationInfo);
         pipeLineCreationInfo.cleanup();
     }
 
-    private void createShaders() {
-        EngineProperties engineProperties = EngineProperties.getInstance();
-        if (engineProperties.isShaderRecompilation()) {
-            ShaderCompiler.compileShaderIfChanged(SHADOW_VERTEX_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_vertex_shader);
-            ShaderCompiler.compileShaderIfChanged(SHADOW_GEOMETRY_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_geometry_shader);
-            ShaderCompiler.compileShaderIfChanged(SHADOW_FRAGMENT_SHADER_FILE_GLSL, Shaderc.shaderc_glsl_fragment_shader);
+    private void createShaders(ShaderVariantRegistry shaderVariants) {
+        ShaderVariant.Builder fragmentVariant = ShaderVariant.builder(SHADOW_FRAGMENT_SHADER_FILE_GLSL,
+                Shaderc.shaderc_glsl_fragment_shader, VK_SHADER_STAGE_FRAGMENT_BIT);
+        if (!EngineProperties.getInstance().isAlphaTest()) {
+            fragmentVariant.define("ALPHA_TEST", "0");
         }
+        textureDescriptorSet.define(fragmentVariant);
         shaderProgram = new ShaderProgram(device, new ShaderProgram.ShaderModuleData[]
                 {
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_VERTEX_BIT, SHADOW_VERTEX_SHADER_FILE_SPV),
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_GEOMETRY_BIT, SHADOW_GEOMETRY_SHADER_FILE_SPV),
-                        new ShaderProgram.ShaderModuleData(VK_SHADER_STAGE_FRAGMENT_BIT, SHADOW_FRAGMENT_SHADER_FILE_SPV),
+                        shaderVariants.getModuleData(ShaderVariant.builder(SHADOW_VERTEX_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_glsl_vertex_shader, VK_SHADER_STAGE_VERTEX_BIT).build()),
+                        shaderVariants.getModuleData(ShaderVariant.builder(SHADOW_GEOMETRY_SHADER_FILE_GLSL,
+                                Shaderc.shaderc_glsl_geometry_shader, VK_SHADER_STAGE_GEOMETRY_BIT).build()),
+                        shaderVariants.getModuleData(fragmentVariant.build()),
                 });
     }
 
@@ -142,26 +202,41 @@ public class ShadowRenderActivity {
     }
 
     public void loadModels(TextureCache textureCache) {
-        device.waitIdle();
-        // Size of the descriptor is setup in the layout, we need to fill up the texture list
-        // up to the number defined in the layout (reusing last texture)
-        List<Texture> textureCacheList = textureCache.getAsList();
-        int textureCacheSize = textureCacheList.size();
-        List<Texture> textureList = new ArrayList<>(textureCacheList);
-        EngineProperties engineProperties = EngineProperties.getInstance();
-        int maxTextures = engineProperties.getMaxTextures();
-        for (int i = 0; i < maxTextures - textureCacheSize; i++) {
-            textureList.add(textureCacheList.get(textureCacheSize - 1));
+        textureDescriptorSet.update(textureCache.getAsList(), textureSampler);
+    }
+
+    public boolean isRecordingStale(int frameIdx) {
+        return shadowsCache != null && shadowsCache.isRecordingStale(frameIdx);
+    }
+
+    public void recordCommandBuffer(CommandBuffer commandBuffer, GlobalBuffers globalBuffers, int frameIdx) {
+        List<Consumer<CommandBuffer>> tasks = new ArrayList<>();
+        if (shadowsCache == null) {
+            addStaticDrawTasks(tasks, frameIdx, globalBuffers);
+            addDynamicDrawTasks(tasks, frameIdx, globalBuffers);
+            recordRenderPass(commandBuffer, frameIdx, shadowsFrameBuffer.getRenderPass(),
+                    shadowsFrameBuffer.getFrameBuffer(), secondaryRecorder, tasks);
+            return;
         }
-        textureDescriptorSet = new TextureDescriptorSet(descriptorPool, textureDescriptorSetLayout, textureList,
-                textureSampler, 0);
+
+        // Static casters are only rendered when the cache is invalidated, then copied every frame
+        if (shadowsCache.isUpdateCache()) {
+            List<Consumer<CommandBuffer>> staticTasks = new ArrayList<>();
+            addStaticDrawTasks(staticTasks, frameIdx, globalBuffers);
+            recordRenderPass(commandBuffer, frameIdx, shadowsCache.getRenderPass(), shadowsCache.getFrameBuffer(),
+                    cacheRecorder, staticTasks);
+        }
+        shadowsCache.recordCopy(commandBuffer, shadowsFrameBuffer.getDepthAttachment());
+        addDynamicDrawTasks(tasks, frameIdx, globalBuffers);
+        recordRenderPass(commandBuffer, frameIdx, shadowsFrameBuffer.getLoadRenderPass(),
+                shadowsFrameBuffer.getFrameBuffer(), secondaryRecorder, tasks);
+        shadowsCache.setRecorded(frameIdx);
     }
 
-    public void recordCommandBuffer(CommandBuffer commandBuffer, GlobalBuffers globalBuffers, int idx) {
+    private void recordDraws(CommandBuffer commandBuffer, int frameIdx, GlobalBuffers globalBuffers,
+                             VulkanBuffer verticesBuffer, VulkanBuffer instanceBuffer, VulkanBuffer indirectBuffer,
+                             int firstCommand, int numCommands, int cascadeMask) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            VkClearValue.Buffer clearValues = VkClearValue.calloc(1, stack);
-            clearValues.apply(0, v -> v.depthStencil().depth(1.0f));
-
             EngineProperties engineProperties = EngineProperties.getInstance();
             int shadowMapSize = engineProperties.getShadowMapSize();
             int width = shadowMapSize;
@@ -187,74 +262,70 @@ public class ShadowRenderActivity {
                             .y(0));
             vkCmdSetScissor(cmdHandle, 0, scissor);
 
-            FrameBuffer frameBuffer = shadowsFrameBuffer.getFrameBuffer();
-
-            VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack)
-                    .sType(VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
-                    .renderPass(shadowsFrameBuffer.getRenderPass().getVkRenderPass())
-                    .pClearValues(clearValues)
-                    .renderArea(a -> a.extent().set(width, height))
-                    .framebuffer(frameBuffer.getVkFrameBuffer());
-
-            vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_INLINE);
-
             vkCmdBindPipeline(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeLine.getVkPipeline());
+            vkCmdPushConstants(cmdHandle, pipeLine.getVkPipelineLayout(), VK_SHADER_STAGE_VERTEX_BIT, 0,
+                    stack.ints(cascadeMask));
 
             LongBuffer descriptorSets = stack.mallocLong(3)
-                    .put(0, projMatrixDescriptorSet[idx].getVkDescriptorSet())
+                    .put(0, projMatrixDescriptorSet[frameIdx].getVkDescriptorSet())
                     .put(1, textureDescriptorSet.getVkDescriptorSet())
                     .put(2, materialsDescriptorSet.getVkDescriptorSet());
 
             vkCmdBindDescriptorSets(cmdHandle, VK_PIPELINE_BIND_POINT_GRAPHICS,
                     pipeLine.getVkPipelineLayout(), 0, descriptorSets, null);
 
-            LongBuffer vertexBuffer = stack.mallocLong(1);
-            LongBuffer instanceBuffer = stack.mallocLong(1);
             LongBuffer offsets = stack.mallocLong(1).put(0, 0L);
+            vkCmdBindVertexBuffers(cmdHandle, 0, stack.longs(verticesBuffer.getBuffer()), offsets);
+            vkCmdBindVertexBuffers(cmdHandle, 1, stack.longs(instanceBuffer.getBuffer()), offsets);
+            vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
+            vkCmdDrawIndexedIndirect(cmdHandle, indirectBuffer.getBuffer(),
+                    (long) firstCommand * GlobalBuffers.IND_COMMAND_STRIDE, numCommands, GlobalBuffers.IND_COMMAND_STRIDE);
+        }
+    }
 
-            // Draw commands for non animated models
-            if (globalBuffers.getNumIndirectCommands() > 0) {
-                vertexBuffer.put(0, globalBuffers.getVerticesBuffer().getBuffer());
-                instanceBuffer.put(0, globalBuffers.getInstanceDataBuffers()[idx].getBuffer());
+    private void recordRenderPass(CommandBuffer commandBuffer, int frameIdx, ShadowsRenderPass renderPass,
+                                  FrameBuffer frameBuffer, SecondaryCommandRecorder recorder,
+                                  List<Consumer<CommandBuffer>> tasks) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkClearValue.Buffer clearValues = VkClearValue.calloc(1, stack);
+            clearValues.apply(0, v -> v.depthStencil().depth(1.0f));
 
-                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
-                vkCmdBindVertexBuffers(cmdHandle, 1, instanceBuffer, offsets);
-                vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
+            EngineProperties engineProperties = EngineProperties.getInstance();
+            int shadowMapSize = engineProperties.getShadowMapSize();
+            int width = shadowMapSize;
+            int height = shadowMapSize;
 
-                VulkanBuffer indirectBuffer = globalBuffers.getIndirectBuffer();
-                vkCmdDrawIndexedIndirect(cmdHandle, indirectBuffer.getBuffer(), 0, globalBuffers.getNumIndirectCommands(),
-                        GlobalBuffers.IND_COMMAND_STRIDE);
-            }
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
+            long vkRenderPass = renderPass.getVkRenderPass();
 
-            if (globalBuffers.getNumAnimIndirectCommands() > 0) {
-                // Draw commands for  animated models
-                vertexBuffer.put(0, globalBuffers.getAnimVerticesBuffer().getBuffer());
-                instanceBuffer.put(0, globalBuffers.getAnimInstanceDataBuffers()[idx].getBuffer());
-
-                vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
-                vkCmdBindVertexBuffers(cmdHandle, 1, instanceBuffer, offsets);
-                vkCmdBindIndexBuffer(cmdHandle, globalBuffers.getIndicesBuffer().getBuffer(), 0, VK_INDEX_TYPE_UINT32);
-                VulkanBuffer animIndirectBuffer = globalBuffers.getAnimIndirectBuffer();
-                vkCmdDrawIndexedIndirect(cmdHandle, animIndirectBuffer.getBuffer(), 0, globalBuffers.getNumAnimIndirectCommands(),
-                        GlobalBuffers.IND_COMMAND_STRIDE);
-            }
+            VkRenderPassBeginInfo renderPassBeginInfo = VkRenderPassBeginInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO)
+                    .renderPass(vkRenderPass)
+                    .pClearValues(clearValues)
+                    .renderArea(a -> a.extent().set(width, height))
+                    .framebuffer(frameBuffer.getVkFrameBuffer());
 
+            vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+            recorder.record(commandBuffer, frameIdx,
+                    new CommandBuffer.InheritanceInfo(vkRenderPass, frameBuffer.getVkFrameBuffer(), 0), tasks);
             vkCmdEndRenderPass(cmdHandle);
         }
     }
 
-    public void render() {
+    public void render(int frameIdx, GlobalBuffers globalBuffers) {
         if (firstRun || scene.isLightChanged() || scene.getCamera().isHasMoved()) {
             CascadeShadow.updateCascadeShadows(cascadeShadows, scene);
             if (firstRun) {
                 firstRun = false;
             }
         }
+        if (shadowsCache != null) {
+            shadowsCache.update(cascadeShadows, globalBuffers.getStaticGeneration());
+        }
 
-        int idx = swapChain.getCurrentFrame();
         int offset = 0;
         for (CascadeShadow cascadeShadow : cascadeShadows) {
-            VulkanUtils.copyMatrixToBuffer(shadowsUniforms[idx], cascadeShadow.getProjViewMatrix(), offset);
+            VulkanUtils.copyMatrixToBuffer(shadowsUniforms[frameIdx], cascadeShadow.getProjViewMatrix(), offset);
             offset += GraphConstants.MAT4X4_SIZE;
         }
     }
@@ -0,0 +1,140 @@
+package org.vulkanb.eng.graph.shadows;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+import org.vulkanb.eng.EngineProperties;
+import org.vulkanb.eng.graph.vk.*;
+
+import java.util.List;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+public class ShadowsCache {
+
+    private final Attachment cacheAttachment;
+    private final FrameBuffer cacheFrameBuffer;
+    private final ShadowsRenderPass cacheRenderPass;
+    private final Matrix4f[] cachedProjViewMatrices;
+    private final boolean[] recordedUpdates;
+    private long cachedStaticGeneration;
+    private boolean cacheValid;
+    private boolean updateCache;
+
+    public ShadowsCache(Device device, int framesInFlight) {
+        Logger.debug("Creating ShadowsCache");
+        cacheAttachment = ShadowsFrameBuffer.createDepthAttachment(device,
+                VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT | VK_IMAGE_USAGE_TRANSFER_SRC_BIT);
+        cacheRenderPass = new ShadowsRenderPass(device, cacheAttachment, false, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+        cacheFrameBuffer = ShadowsFrameBuffer.createFrameBuffer(device, cacheAttachment, cacheRenderPass);
+        cachedProjViewMatrices = new Matrix4f[GraphConstants.SHADOW_MAP_CASCADE_COUNT];
+        for (int i = 0; i < cachedProjViewMatrices.length; i++) {
+            cachedProjViewMatrices[i] = new Matrix4f();
+        }
+        recordedUpdates = new boolean[framesInFlight];
+    }
+
+    public void cleanup() {
+        Logger.debug("Destroying ShadowsCache");
+        cacheRenderPass.cleanup();
+        cacheAttachment.cleanup();
+        cacheFrameBuffer.cleanup();
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return cacheFrameBuffer;
+    }
+
+    public ShadowsRenderPass getRenderPass() {
+        return cacheRenderPass;
+    }
+
+    public boolean isRecordingStale(int frameIdx) {
+        return recordedUpdates[frameIdx] != updateCache;
+    }
+
+    public boolean isUpdateCache() {
+        return updateCache;
+    }
+
+    public void recordCopy(CommandBuffer commandBuffer, Attachment depthAttachment) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
+            int shadowMapSize = EngineProperties.getInstance().getShadowMapSize();
+
+            // The cache may have been rendered in this or in a previous submission
+            VkImageMemoryBarrier.Buffer barriers = VkImageMemoryBarrier.calloc(2, stack);
+            setImageBarrier(barriers.get(0), cacheAttachment, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL,
+                    VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT,
+                    VK_ACCESS_TRANSFER_READ_BIT);
+            setImageBarrier(barriers.get(1), depthAttachment, VK_IMAGE_LAYOUT_UNDEFINED,
+                    VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, 0, VK_ACCESS_TRANSFER_WRITE_BIT);
+            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT |
+                            VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT, 0, null, null,
+                    barriers);
+
+            VkImageCopy.Buffer region = VkImageCopy.calloc(1, stack)
+                    .srcSubresource(it -> it
+                            .aspectMask(VK_IMAGE_ASPECT_DEPTH_BIT)
+                            .mipLevel(0)
+                            .baseArrayLayer(0)
+                            .layerCount(GraphConstants.SHADOW_MAP_CASCADE_COUNT))
+                    .dstSubresource(it -> it
+                            .aspectMask(VK_IMAGE_ASPECT_DEPTH_BIT)
+                            .mipLevel(0)
+                            .baseArrayLayer(0)
+                            .layerCount(GraphConstants.SHADOW_MAP_CASCADE_COUNT))
+                    .extent(it -> it.width(shadowMapSize).height(shadowMapSize).depth(1));
+            vkCmdCopyImage(cmdHandle, cacheAttachment.getImage().getVkImage(), VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL,
+                    depthAttachment.getImage().getVkImage(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, region);
+
+            VkImageMemoryBarrier.Buffer depthBarrier = VkImageMemoryBarrier.calloc(1, stack);
+            setImageBarrier(depthBarrier.get(0), depthAttachment, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
+                    VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL, VK_ACCESS_TRANSFER_WRITE_BIT,
+                    VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_READ_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT);
+            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_TRANSFER_BIT,
+                    VK_PIPELINE_STAGE_EARLY_FRAGMENT_TESTS_BIT | VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT, 0,
+                    null, null, depthBarrier);
+        }
+    }
+
+    private void setImageBarrier(VkImageMemoryBarrier barrier, Attachment attachment, int oldLayout, int newLayout,
+                                 int srcAccessMask, int dstAccessMask) {
+        barrier.sType(VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
+                .oldLayout(oldLayout)
+                .newLayout(newLayout)
+                .srcAccessMask(srcAccessMask)
+                .dstAccessMask(dstAccessMask)
+                .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .image(attachment.getImage().getVkImage())
+                .subresourceRange(it -> it
+                        .aspectMask(VK_IMAGE_ASPECT_DEPTH_BIT)
+                        .baseMipLevel(0)
+                        .levelCount(1)
+                        .baseArrayLayer(0)
+                        .layerCount(GraphConstants.SHADOW_MAP_CASCADE_COUNT));
+    }
+
+    public void setRecorded(int frameIdx) {
+        recordedUpdates[frameIdx] = updateCache;
+    }
+
+    public void update(List<CascadeShadow> cascadeShadows, long staticGeneration) {
+        if (cachedStaticGeneration != staticGeneration) {
+            cachedStaticGeneration = staticGeneration;
+            cacheValid = false;
+        }
+        for (int i = 0; i < cascadeShadows.size(); i++) {
+            Matrix4f projViewMatrix = cascadeShadows.get(i).getProjViewMatrix();
+            if (!cachedProjViewMatrices[i].equals(projViewMatrix)) {
+                cachedProjViewMatrices[i].set(projViewMatrix);
+                cacheValid = false;
+            }
+        }
+        // The frame submitted next renders the cache, so it is valid for the following ones
+        updateCache = !cacheValid;
+        cacheValid = true;
+    }
+}
@@ -13,37 +13,53 @@ public class ShadowsFrameBuffer {
 
     private final Attachment depthAttachment;
     private final FrameBuffer frameBuffer;
+    private final ShadowsRenderPass loadRenderPass;
     private final ShadowsRenderPass shadowsRenderPass;
 
-    public ShadowsFrameBuffer(Device device) {
+    public ShadowsFrameBuffer(Device device, boolean cached) {
         Logger.debug("Creating ShadowsFrameBuffer");
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            int usage = VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT | VK_IMAGE_USAGE_SAMPLED_BIT;
-            EngineProperties engineProperties = EngineProperties.getInstance();
-            int shadowMapSize = engineProperties.getShadowMapSize();
-            Image.ImageData imageData = new Image.ImageData().width(shadowMapSize).height(shadowMapSize).
-                    usage(usage | VK_IMAGE_USAGE_SAMPLED_BIT).
-                    format(VK_FORMAT_D32_SFLOAT).arrayLayers(GraphConstants.SHADOW_MAP_CASCADE_COUNT);
-            Image depthImage = new Image(device, imageData);
-
-            ImageView.ImageViewData imageViewData = new ImageView.ImageViewData().format(depthImage.getFormat()).
-                    aspectMask(Attachment.calcAspectMask(usage)).viewType(VK_IMAGE_VIEW_TYPE_2D_ARRAY).
-                    baseArrayLayer(0).layerCount(GraphConstants.SHADOW_MAP_CASCADE_COUNT);
-            ImageView depthImageView = new ImageView(device, depthImage.getVkImage(), imageViewData);
-            depthAttachment = new Attachment(depthImage, depthImageView, true);
-
-            shadowsRenderPass = new ShadowsRenderPass(device, depthAttachment);
+        int usage = VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT | VK_IMAGE_USAGE_SAMPLED_BIT;
+        depthAttachment = createDepthAttachment(device, cached ? usage | VK_IMAGE_USAGE_TRANSFER_DST_BIT : usage);
+        shadowsRenderPass = new ShadowsRenderPass(device, depthAttachment);
+        // Used to draw dynamic casters on top of the contents copied from the cache
+        loadRenderPass = cached ? new ShadowsRenderPass(device, depthAttachment, true,
+                VK_IMAGE_LAYOUT_DEPTH_STENCIL_READ_ONLY_OPTIMAL) : null;
+        frameBuffer = createFrameBuffer(device, depthAttachment, shadowsRenderPass);
+    }
+
+    public static Attachment createDepthAttachment(Device device, int usage) {
+        EngineProperties engineProperties = EngineProperties.getInstance();
+        int shadowMapSize = engineProperties.getShadowMapSize();
+        Image.ImageData imageData = new Image.ImageData().width(shadowMapSize).height(shadowMapSize).
+                usage(usage).
+                format(VK_FORMAT_D32_SFLOAT).arrayLayers(GraphConstants.SHADOW_MAP_CASCADE_COUNT).
+                category(MemoryAllocator.MemoryCategory.ATTACHMENTS);
+        Image depthImage = new Image(device, imageData);
+
+        ImageView.ImageViewData imageViewData = new ImageView.ImageViewData().format(depthImage.getFormat()).
+                aspectMask(Attachment.calcAspectMask(usage)).viewType(VK_IMAGE_VIEW_TYPE_2D_ARRAY).
+                baseArrayLayer(0).layerCount(GraphConstants.SHADOW_MAP_CASCADE_COUNT);
+        ImageView depthImageView = new ImageView(device, depthImage.getVkImage(), imageViewData);
+        return new Attachment(depthImage, depthImageView, true);
+    }
 
+    public static FrameBuffer createFrameBuffer(Device device, Attachment depthAttachment,
+                                                ShadowsRenderPass renderPass) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            int shadowMapSize = EngineProperties.getInstance().getShadowMapSize();
             LongBuffer attachmentsBuff = stack.mallocLong(1);
             attachmentsBuff.put(0, depthAttachment.getImageView().getVkImageView());
-            frameBuffer = new FrameBuffer(device, shadowMapSize, shadowMapSize, attachmentsBuff,
-                    shadowsRenderPass.getVkRenderPass(), GraphConstants.SHADOW_MAP_CASCADE_COUNT);
+            return new FrameBuffer(device, shadowMapSize, shadowMapSize, attachmentsBuff,
+                    renderPass.getVkRenderPass(), GraphConstants.SHADOW_MAP_CASCADE_COUNT);
         }
     }
 
     public void cleanup() {
         Logger.debug("Destroying ShadowsFrameBuffer");
         shadowsRenderPass.cleanup();
+        if (loadRenderPass != null) {
+            loadRenderPass.cleanup();
+        }
         depthAttachment.cleanup();
         frameBuffer.cleanup();
     }
@@ -56,6 +72,10 @@ public class ShadowsFrameBuffer {
         return frameBuffer;
     }
 
+    public ShadowsRenderPass getLoadRenderPass() {
+        return loadRenderPass;
+    }
+
     public ShadowsRenderPass getRenderPass() {
         return shadowsRenderPass;
     }
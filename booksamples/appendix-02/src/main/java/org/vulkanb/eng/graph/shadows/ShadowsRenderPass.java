@@ -17,18 +17,23 @@ public class ShadowsRenderPass {
     private final long vkRenderPass;
 
     public ShadowsRenderPass(Device device, Attachment depthAttachment) {
+        this(device, depthAttachment, false, VK_IMAGE_LAYOUT_DEPTH_STENCIL_READ_ONLY_OPTIMAL);
+    }
+
+    // When loading contents the attachment must already be in VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL
+    public ShadowsRenderPass(Device device, Attachment depthAttachment, boolean loadContents, int finalLayout) {
         this.device = device;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkAttachmentDescription.Buffer attachmentsDesc = VkAttachmentDescription.calloc(1, stack);
             attachmentsDesc.get(0)
                     .format(depthAttachment.getImage().getFormat())
-                    .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
+                    .loadOp(loadContents ? VK_ATTACHMENT_LOAD_OP_LOAD : VK_ATTACHMENT_LOAD_OP_CLEAR)
                     .storeOp(VK_ATTACHMENT_STORE_OP_STORE)
                     .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
                     .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
                     .samples(MAX_SAMPLES)
-                    .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
-                    .finalLayout(VK_IMAGE_LAYOUT_DEPTH_STENCIL_READ_ONLY_OPTIMAL);
+                    .initialLayout(loadContents ? VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL : VK_IMAGE_LAYOUT_UNDEFINED)
+                    .finalLayout(finalLayout);
 
             VkAttachmentReference depthReference = VkAttachmentReference.calloc(stack)
                     .attachment(0)
@@ -51,15 +56,16 @@ public class ShadowsRenderPass {
                             | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_READ_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT)
                     .dependencyFlags(VK_DEPENDENCY_BY_REGION_BIT);
 
+            // Lighting samples the attachments, possibly in the same submission, after the final layout transition.
+            // Not by region, the shadow maps are sampled anywhere
             subpassDependencies.get(1)
                     .srcSubpass(0)
                     .dstSubpass(VK_SUBPASS_EXTERNAL)
                     .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT)
-                    .dstStageMask(VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT)
+                    .dstStageMask(VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT)
                     .srcAccessMask(VK_ACCESS_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT
                             | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_READ_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT)
-                    .dstAccessMask(VK_ACCESS_MEMORY_READ_BIT)
-                    .dependencyFlags(VK_DEPENDENCY_BY_REGION_BIT);
+                    .dstAccessMask(VK_ACCESS_SHADER_READ_BIT);
 
             // Render pass
             VkRenderPassCreateInfo renderPassInfo = VkRenderPassCreateInfo.calloc(stack)
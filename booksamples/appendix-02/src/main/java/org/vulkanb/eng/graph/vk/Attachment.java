@@ -17,7 +17,7 @@ public class Attachment {
     public Attachment(Device device, int width, int height, int format, int usage) {
         Image.ImageData imageData = new Image.ImageData().width(width).height(height).
                 usage(usage | VK_IMAGE_USAGE_SAMPLED_BIT).
-                format(format);
+                format(format).category(MemoryAllocator.MemoryCategory.ATTACHMENTS);
         image = new Image(device, imageData);
 
         int aspectMask = calcAspectMask(usage);
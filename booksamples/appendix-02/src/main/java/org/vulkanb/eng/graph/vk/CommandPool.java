@@ -43,4 +43,8 @@ public class CommandPool {
     public long getVkCommandPool() {
         return vkCommandPool;
     }
+
+    public void reset() {
+        vkResetCommandPool(device.getVkDevice(), vkCommandPool, 0);
+    }
 }
@@ -0,0 +1,179 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+
+import java.nio.LongBuffer;
+import java.util.*;
+import java.util.function.LongConsumer;
+
+import static org.lwjgl.vulkan.VK11.*;
+import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
+
+// Allocates descriptor sets from a chain of pools, a new and larger pool is added when the current one runs out, so
+// pools do not need to be sized up front. Sets too large for a shared pool get a pool sized for them alone. Sets which
+// only reference buffers are cached by layout and resources, and recycled, instead of freed, when a generation ends
+// without them being requested again
+public class DescriptorAllocator {
+
+    private static final int INITIAL_POOL_SETS = 16;
+    private static final int MAX_POOL_SETS = 1024;
+    // Descriptors of each type reserved per set in new pools
+    private static final int[][] POOL_RATIOS = {
+            {VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, 1},
+            {VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC, 1},
+            {VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, 2},
+            {VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, 4},
+    };
+
+    private final Map<SetKey, CachedSet> cachedSets;
+    private final Device device;
+    private final Map<Long, Deque<Long>> freeSets;
+    private final List<DescriptorPool> pools;
+    private int generation;
+    private int nextPoolSets;
+
+    public DescriptorAllocator(Device device) {
+        this.device = device;
+        cachedSets = new HashMap<>();
+        freeSets = new HashMap<>();
+        pools = new ArrayList<>();
+        nextPoolSets = INITIAL_POOL_SETS;
+    }
+
+    // Allocates a set which is owned by the caller until the allocator is cleaned up
+    public synchronized long allocate(DescriptorSetLayout descriptorSetLayout) {
+        long vkDescriptorLayout = descriptorSetLayout.getVkDescriptorLayout();
+        Deque<Long> free = freeSets.get(vkDescriptorLayout);
+        if (free != null && !free.isEmpty()) {
+            return free.pop();
+        }
+
+        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = descriptorSetLayout.getDescriptorTypeCounts();
+        if (descriptorTypeCounts != null && !fitsPool(descriptorTypeCounts, INITIAL_POOL_SETS)) {
+            // Growing the shared pools would not help, the set gets its own pool, kept out of the chain
+            Logger.debug("Creating descriptor pool for a single set with {}", descriptorTypeCounts);
+            DescriptorPool pool = new DescriptorPool(device, descriptorTypeCounts, 1, 0);
+            pools.add(0, pool);
+            return allocate(pool, vkDescriptorLayout, true);
+        }
+
+        if (pools.isEmpty()) {
+            createPool();
+        }
+        long vkDescriptorSet = allocate(pools.get(pools.size() - 1), vkDescriptorLayout, false);
+        if (vkDescriptorSet == VK_NULL_HANDLE) {
+            // The set fits an empty pool, so it is only retried once, on a fresh one which stays in use afterwards
+            createPool();
+            vkDescriptorSet = allocate(pools.get(pools.size() - 1), vkDescriptorLayout, true);
+        }
+        return vkDescriptorSet;
+    }
+
+    // Returns a set for the given resources, the writer is only called when a new set has to be filled
+    public synchronized long allocate(DescriptorSetLayout descriptorSetLayout, List<Object> resources,
+                                      LongConsumer writer) {
+        SetKey key = new SetKey(descriptorSetLayout.getVkDescriptorLayout(), resources);
+        CachedSet cachedSet = cachedSets.get(key);
+        if (cachedSet == null) {
+            long vkDescriptorSet = allocate(descriptorSetLayout);
+            writer.accept(vkDescriptorSet);
+            cachedSet = new CachedSet(vkDescriptorSet);
+            cachedSets.put(key, cachedSet);
+        }
+        cachedSet.generation = generation;
+        return cachedSet.vkDescriptorSet;
+    }
+
+    // Returns VK_NULL_HANDLE if the pool has run out and it is not the last attempt
+    private long allocate(DescriptorPool pool, long vkDescriptorLayout, boolean lastAttempt) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkDescriptorSetAllocateInfo allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
+                    .descriptorPool(pool.getVkDescriptorPool())
+                    .pSetLayouts(stack.longs(vkDescriptorLayout));
+            LongBuffer pDescriptorSet = stack.mallocLong(1);
+            int err = vkAllocateDescriptorSets(device.getVkDevice(), allocInfo, pDescriptorSet);
+            boolean exhausted = err == VK_ERROR_OUT_OF_POOL_MEMORY || err == VK_ERROR_FRAGMENTED_POOL;
+            if (exhausted && !lastAttempt) {
+                return VK_NULL_HANDLE;
+            }
+            vkCheck(err, "Failed to create descriptor set");
+            return pDescriptorSet.get(0);
+        }
+    }
+
+    public synchronized void cleanup() {
+        Logger.debug("Destroying descriptor allocator with [{}] pool(s)", pools.size());
+        pools.forEach(DescriptorPool::cleanup);
+        pools.clear();
+        cachedSets.clear();
+        freeSets.clear();
+    }
+
+    private void createPool() {
+        int maxSets = nextPoolSets;
+        Logger.debug("Creating descriptor allocator pool for [{}] sets", maxSets);
+        List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts = new ArrayList<>();
+        for (int[] ratio : POOL_RATIOS) {
+            descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(maxSets * ratio[1], ratio[0]));
+        }
+        pools.add(new DescriptorPool(device, descriptorTypeCounts, maxSets, 0));
+        nextPoolSets = Math.min(nextPoolSets * 2, MAX_POOL_SETS);
+    }
+
+    // Whether a set needing these descriptors fits in a new shared pool of the given size
+    static boolean fitsPool(List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts, int maxSets) {
+        for (DescriptorPool.DescriptorTypeCount typeCount : descriptorTypeCounts) {
+            int available = 0;
+            for (int[] ratio : POOL_RATIOS) {
+                if (ratio[0] == typeCount.descriptorType()) {
+                    available = maxSets * ratio[1];
+                }
+            }
+            if (typeCount.count() > available) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    // Starts a new generation. Cached sets not requested again in it are recycled when the returned task runs, which
+    // must happen once the GPU no longer uses them
+    public synchronized Runnable nextGeneration() {
+        int endedGeneration = generation++;
+        return () -> recycle(endedGeneration);
+    }
+
+    private synchronized void recycle(int endedGeneration) {
+        int count = 0;
+        Iterator<Map.Entry<SetKey, CachedSet>> it = cachedSets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SetKey, CachedSet> entry = it.next();
+            if (entry.getValue().generation <= endedGeneration) {
+                freeSets.computeIfAbsent(entry.getKey().vkDescriptorLayout(), k -> new ArrayDeque<>())
+                        .push(entry.getValue().vkDescriptorSet);
+                it.remove();
+                count++;
+            }
+        }
+        Logger.debug("Recycled [{}] descriptor set(s)", count);
+    }
+
+    private static class CachedSet {
+        private final long vkDescriptorSet;
+        private int generation;
+
+        private CachedSet(long vkDescriptorSet) {
+            this.vkDescriptorSet = vkDescriptorSet;
+        }
+    }
+
+    private record SetKey(long vkDescriptorLayout, List<Object> resources) {
+    }
+}
@@ -15,14 +15,22 @@ public class DescriptorPool {
     private final long vkDescriptorPool;
 
     public DescriptorPool(Device device, List<DescriptorTypeCount> descriptorTypeCounts) {
+        this(device, descriptorTypeCounts, 0);
+    }
+
+    // Extra flags are needed by pools holding sets with update after bind bindings
+    public DescriptorPool(Device device, List<DescriptorTypeCount> descriptorTypeCounts, int flags) {
+        this(device, descriptorTypeCounts, descriptorTypeCounts.stream().mapToInt(DescriptorTypeCount::count).sum(),
+                flags);
+    }
+
+    public DescriptorPool(Device device, List<DescriptorTypeCount> descriptorTypeCounts, int maxSets, int flags) {
         Logger.debug("Creating descriptor pool");
         this.device = device;
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            int maxSets = 0;
             int numTypes = descriptorTypeCounts.size();
             VkDescriptorPoolSize.Buffer typeCounts = VkDescriptorPoolSize.calloc(numTypes, stack);
             for (int i = 0; i < numTypes; i++) {
-                maxSets += descriptorTypeCounts.get(i).count();
                 typeCounts.get(i)
                         .type(descriptorTypeCounts.get(i).descriptorType())
                         .descriptorCount(descriptorTypeCounts.get(i).count());
@@ -30,7 +38,7 @@ public class DescriptorPool {
 
             VkDescriptorPoolCreateInfo descriptorPoolInfo = VkDescriptorPoolCreateInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO)
-                    .flags(VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT)
+                    .flags(VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT | flags)
                     .pPoolSizes(typeCounts)
                     .maxSets(maxSets);
 
@@ -5,6 +5,7 @@ import org.lwjgl.vulkan.*;
 import org.tinylog.Logger;
 
 import java.nio.LongBuffer;
+import java.util.List;
 
 import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
@@ -12,6 +13,8 @@ import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 public abstract class DescriptorSetLayout {
     private final Device device;
 
+    // Descriptors needed by a set with this layout, used to size pools when a set does not fit a shared one
+    protected List<DescriptorPool.DescriptorTypeCount> descriptorTypeCounts;
     protected long vkDescriptorLayout;
 
     protected DescriptorSetLayout(Device device) {
@@ -23,6 +26,10 @@ public abstract class DescriptorSetLayout {
         vkDestroyDescriptorSetLayout(device.getVkDevice(), vkDescriptorLayout, null);
     }
 
+    public List<DescriptorPool.DescriptorTypeCount> getDescriptorTypeCounts() {
+        return descriptorTypeCounts;
+    }
+
     public long getVkDescriptorLayout() {
         return vkDescriptorLayout;
     }
@@ -59,6 +66,8 @@ public abstract class DescriptorSetLayout {
                 vkCheck(vkCreateDescriptorSetLayout(device.getVkDevice(), layoutInfo, null, pSetLayout),
                         "Failed to create descriptor set layout");
                 super.vkDescriptorLayout = pSetLayout.get(0);
+                descriptorTypeCounts = List.of(new DescriptorPool.DescriptorTypeCount(descriptorCount,
+                        descriptorType));
             }
         }
     }
@@ -74,4 +83,40 @@ public abstract class DescriptorSetLayout {
             super(device, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, 1, binding, stage);
         }
     }
+
+    // Sampler array whose size is set when allocating the set, slots may be left empty and written while bound
+    public static class VariableSamplerDescriptorSetLayout extends DescriptorSetLayout {
+
+        public VariableSamplerDescriptorSetLayout(Device device, int maxDescriptorCount, int binding, int stage) {
+            super(device);
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                VkDescriptorSetLayoutBinding.Buffer layoutBindings = VkDescriptorSetLayoutBinding.calloc(1, stack);
+                layoutBindings.get(0)
+                        .binding(binding)
+                        .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                        .descriptorCount(maxDescriptorCount)
+                        .stageFlags(stage);
+
+                VkDescriptorSetLayoutBindingFlagsCreateInfo bindingFlags =
+                        VkDescriptorSetLayoutBindingFlagsCreateInfo.calloc(stack)
+                                .sType(VK12.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_BINDING_FLAGS_CREATE_INFO)
+                                .pBindingFlags(stack.ints(VK12.VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT |
+                                        VK12.VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT |
+                                        VK12.VK_DESCRIPTOR_BINDING_VARIABLE_DESCRIPTOR_COUNT_BIT));
+
+                VkDescriptorSetLayoutCreateInfo layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack)
+                        .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_CREATE_INFO)
+                        .flags(VK12.VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT)
+                        .pBindings(layoutBindings)
+                        .pNext(bindingFlags);
+
+                LongBuffer pSetLayout = stack.mallocLong(1);
+                vkCheck(vkCreateDescriptorSetLayout(device.getVkDevice(), layoutInfo, null, pSetLayout),
+                        "Failed to create descriptor set layout");
+                super.vkDescriptorLayout = pSetLayout.get(0);
+                descriptorTypeCounts = List.of(new DescriptorPool.DescriptorTypeCount(maxDescriptorCount,
+                        VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
+            }
+        }
+    }
 }
@@ -15,6 +15,9 @@ import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
 public class Device {
 
+    private final boolean descriptorIndexing;
+    private final boolean hostQueryReset;
+    private final int maxUpdateAfterBindSamplers;
     private final MemoryAllocator memoryAllocator;
     private final PhysicalDevice physicalDevice;
     private final boolean samplerAnisotropy;
@@ -35,8 +38,10 @@ public class Device {
                 enableCheckPoints = false;
             }
 
-            int numRequiredExtensions = 1;
             Set<String> deviceExtensions = getDeviceExtensions();
+            // Only missing on devices picked for headless rendering
+            boolean swapChain = deviceExtensions.contains(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME);
+            int numRequiredExtensions = swapChain ? 1 : 0;
             boolean usePortability = deviceExtensions.contains(VK_KHR_PORTABILITY_SUBSET_EXTENSION_NAME) && VulkanUtils.getOS() == VulkanUtils.OSType.MACOS;
             if (usePortability) {
                 numRequiredExtensions++;
@@ -44,8 +49,14 @@ public class Device {
             if (enableCheckPoints) {
                 numRequiredExtensions++;
             }
+            boolean memoryBudget = deviceExtensions.contains(EXTMemoryBudget.VK_EXT_MEMORY_BUDGET_EXTENSION_NAME);
+            if (memoryBudget) {
+                numRequiredExtensions++;
+            }
             PointerBuffer requiredExtensions = stack.mallocPointer(numRequiredExtensions);
-            requiredExtensions.put(stack.ASCII(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME));
+            if (swapChain) {
+                requiredExtensions.put(stack.ASCII(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME));
+            }
             if (usePortability) {
                 requiredExtensions.put(stack.ASCII(VK_KHR_PORTABILITY_SUBSET_EXTENSION_NAME));
             }
@@ -56,6 +67,9 @@ public class Device {
                     requiredExtensions.put(stack.ASCII(AMDBufferMarker.VK_AMD_BUFFER_MARKER_EXTENSION_NAME));
                 }
             }
+            if (memoryBudget) {
+                requiredExtensions.put(stack.ASCII(EXTMemoryBudget.VK_EXT_MEMORY_BUDGET_EXTENSION_NAME));
+            }
             requiredExtensions.flip();
 
             // Set up required features
@@ -72,6 +86,45 @@ public class Device {
             }
             features.multiDrawIndirect(true);
 
+            // Queue synchronization relies on timeline semaphores
+            if (physicalDevice.getVkPhysicalDeviceProperties().apiVersion() < VK12.VK_API_VERSION_1_2) {
+                throw new RuntimeException("Vulkan 1.2 not supported");
+            }
+            VkPhysicalDeviceVulkan12Features supported12Features = VkPhysicalDeviceVulkan12Features.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_FEATURES);
+            VkPhysicalDeviceFeatures2 supportedFeatures2 = VkPhysicalDeviceFeatures2.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2)
+                    .pNext(supported12Features);
+            vkGetPhysicalDeviceFeatures2(physicalDevice.getVkPhysicalDevice(), supportedFeatures2);
+            if (!supported12Features.timelineSemaphore()) {
+                throw new RuntimeException("Timeline semaphores not supported");
+            }
+            VkPhysicalDeviceVulkan12Features features12 = VkPhysicalDeviceVulkan12Features.calloc(stack)
+                    .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_FEATURES)
+                    .timelineSemaphore(true);
+
+            // Bindless textures need partially bound, update after bind and variable sized sampler arrays
+            descriptorIndexing = engineProperties.isBindlessTextures() && supported12Features.descriptorIndexing() &&
+                    supported12Features.runtimeDescriptorArray() &&
+                    supported12Features.descriptorBindingPartiallyBound() &&
+                    supported12Features.descriptorBindingSampledImageUpdateAfterBind() &&
+                    supported12Features.descriptorBindingVariableDescriptorCount() &&
+                    supported12Features.shaderSampledImageArrayNonUniformIndexing();
+            if (descriptorIndexing) {
+                features12.descriptorIndexing(true)
+                        .runtimeDescriptorArray(true)
+                        .descriptorBindingPartiallyBound(true)
+                        .descriptorBindingSampledImageUpdateAfterBind(true)
+                        .descriptorBindingVariableDescriptorCount(true)
+                        .shaderSampledImageArrayNonUniformIndexing(true);
+            } else if (engineProperties.isBindlessTextures()) {
+                Logger.warn("Descriptor indexing not supported, using fixed size texture arrays");
+            }
+            // Lets timestamp queries be reset when read, instead of recording resets in prerecorded command buffers
+            hostQueryReset = supported12Features.hostQueryReset();
+            features12.hostQueryReset(hostQueryReset);
+            maxUpdateAfterBindSamplers = descriptorIndexing ? calcMaxUpdateAfterBindSamplers(physicalDevice, stack) : 0;
+
             // Enable all the queue families
             VkQueueFamilyProperties.Buffer queuePropsBuff = physicalDevice.getVkQueueFamilyProps();
             int numQueuesFamilies = queuePropsBuff.capacity();
@@ -88,17 +141,35 @@ public class Device {
                     .sType(VK_STRUCTURE_TYPE_DEVICE_CREATE_INFO)
                     .ppEnabledExtensionNames(requiredExtensions)
                     .pEnabledFeatures(features)
-                    .pQueueCreateInfos(queueCreationInfoBuf);
+                    .pQueueCreateInfos(queueCreationInfoBuf)
+                    .pNext(features12);
 
             PointerBuffer pp = stack.mallocPointer(1);
             vkCheck(vkCreateDevice(physicalDevice.getVkPhysicalDevice(), deviceCreateInfo, null, pp),
                     "Failed to create device");
             vkDevice = new VkDevice(pp.get(0), physicalDevice.getVkPhysicalDevice(), deviceCreateInfo);
 
-            memoryAllocator = new MemoryAllocator(instance, physicalDevice, vkDevice);
+            memoryAllocator = new MemoryAllocator(instance, physicalDevice, vkDevice, memoryBudget);
         }
     }
 
+    // Samplers which can be bound in a single update after bind set, as combined image samplers count against
+    // both the image and sampler limits, the lowest one applies
+    private static int calcMaxUpdateAfterBindSamplers(PhysicalDevice physicalDevice, MemoryStack stack) {
+        VkPhysicalDeviceVulkan12Properties props12 = VkPhysicalDeviceVulkan12Properties.calloc(stack)
+                .sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_PROPERTIES);
+        VkPhysicalDeviceProperties2 props2 = VkPhysicalDeviceProperties2.calloc(stack)
+                .sType(VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PROPERTIES_2)
+                .pNext(props12);
+        vkGetPhysicalDeviceProperties2(physicalDevice.getVkPhysicalDevice(), props2);
+        // Limits are unsigned, values above the int range are clamped
+        long result = Math.min(Integer.toUnsignedLong(props12.maxDescriptorSetUpdateAfterBindSampledImages()),
+                Integer.toUnsignedLong(props12.maxDescriptorSetUpdateAfterBindSamplers()));
+        result = Math.min(result, Integer.toUnsignedLong(props12.maxPerStageDescriptorUpdateAfterBindSampledImages()));
+        result = Math.min(result, Integer.toUnsignedLong(props12.maxPerStageDescriptorUpdateAfterBindSamplers()));
+        return (int) Math.min(result, Integer.MAX_VALUE);
+    }
+
     public void cleanup() {
         Logger.debug("Destroying Vulkan device");
         memoryAllocator.cleanUp();
@@ -125,6 +196,10 @@ public class Device {
         return deviceExtensions;
     }
 
+    public int getMaxUpdateAfterBindSamplers() {
+        return maxUpdateAfterBindSamplers;
+    }
+
     public MemoryAllocator getMemoryAllocator() {
         return memoryAllocator;
     }
@@ -137,6 +212,14 @@ public class Device {
         return vkDevice;
     }
 
+    public boolean isDescriptorIndexing() {
+        return descriptorIndexing;
+    }
+
+    public boolean isHostQueryReset() {
+        return hostQueryReset;
+    }
+
     public boolean isSamplerAnisotropy() {
         return samplerAnisotropy;
     }
@@ -0,0 +1,53 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.tinylog.Logger;
+
+public class FrameContext {
+
+    // Records the work waiting for the swap chain image each frame, the scene work before it is kept recorded
+    private final CommandBuffer frameCommandBuffer;
+    private final int frameIdx;
+    private final Semaphore imgAcquisitionSemaphore;
+    private final CommandBuffer sceneCommandBuffer;
+    // Graphics timeline value signaled by the last submission of this frame
+    private long completionValue;
+
+    public FrameContext(CommandPool commandPool, int frameIdx) {
+        Logger.debug("Creating frame context [{}]", frameIdx);
+        this.frameIdx = frameIdx;
+        Device device = commandPool.getDevice();
+        imgAcquisitionSemaphore = new Semaphore(device);
+        sceneCommandBuffer = new CommandBuffer(commandPool, true, false);
+        frameCommandBuffer = new CommandBuffer(commandPool, true, false);
+    }
+
+    public void cleanup() {
+        sceneCommandBuffer.cleanup();
+        frameCommandBuffer.cleanup();
+        imgAcquisitionSemaphore.cleanup();
+    }
+
+    public long getCompletionValue() {
+        return completionValue;
+    }
+
+    public CommandBuffer getFrameCommandBuffer() {
+        return frameCommandBuffer;
+    }
+
+    public int getFrameIdx() {
+        return frameIdx;
+    }
+
+    public Semaphore getImgAcquisitionSemaphore() {
+        return imgAcquisitionSemaphore;
+    }
+
+    public CommandBuffer getSceneCommandBuffer() {
+        return sceneCommandBuffer;
+    }
+
+    public void setCompletionValue(long completionValue) {
+        this.completionValue = completionValue;
+    }
+}
@@ -0,0 +1,81 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+
+import java.nio.LongBuffer;
+
+import static org.lwjgl.vulkan.VK12.*;
+import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
+
+// Timestamp queries for each frame in flight. They are reset from the host once read, so prerecorded command buffers
+// can write them without recording resets
+public class GpuTimer {
+
+    private final Device device;
+    private final int queriesPerFrame;
+    // Nanoseconds per timestamp tick
+    private final double timestampPeriod;
+    private final long validBitsMask;
+    private final long vkQueryPool;
+
+    public GpuTimer(Device device, int queueFamilyIndex, int numFrames, int queriesPerFrame) {
+        Logger.debug("Creating GPU timer with [{}] queries per frame", queriesPerFrame);
+        this.device = device;
+        this.queriesPerFrame = queriesPerFrame;
+        PhysicalDevice physicalDevice = device.getPhysicalDevice();
+        timestampPeriod = physicalDevice.getVkPhysicalDeviceProperties().limits().timestampPeriod();
+        int validBits = physicalDevice.getVkQueueFamilyProps().get(queueFamilyIndex).timestampValidBits();
+        validBitsMask = validBits >= 64 ? -1L : (1L << validBits) - 1;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkQueryPoolCreateInfo createInfo = VkQueryPoolCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_QUERY_POOL_CREATE_INFO)
+                    .queryType(VK_QUERY_TYPE_TIMESTAMP)
+                    .queryCount(numFrames * queriesPerFrame);
+
+            LongBuffer lp = stack.mallocLong(1);
+            vkCheck(vkCreateQueryPool(device.getVkDevice(), createInfo, null, lp), "Failed to create query pool");
+            vkQueryPool = lp.get(0);
+        }
+        vkResetQueryPool(device.getVkDevice(), vkQueryPool, 0, numFrames * queriesPerFrame);
+    }
+
+    public static boolean isSupported(Device device, int queueFamilyIndex) {
+        PhysicalDevice physicalDevice = device.getPhysicalDevice();
+        return device.isHostQueryReset() &&
+                physicalDevice.getVkPhysicalDeviceProperties().limits().timestampPeriod() > 0 &&
+                physicalDevice.getVkQueueFamilyProps().get(queueFamilyIndex).timestampValidBits() > 0;
+    }
+
+    public void cleanup() {
+        vkDestroyQueryPool(device.getVkDevice(), vkQueryPool, null);
+    }
+
+    // Reads the timestamps of a frame, in milliseconds, once its submissions have completed. Returns false if any of
+    // them was not written. The queries are reset either way, ready for the next use of the frame
+    public boolean read(int frameIdx, double[] timesMs) {
+        int firstQuery = frameIdx * queriesPerFrame;
+        boolean available = true;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            // Each result is followed by its availability
+            LongBuffer results = stack.mallocLong(queriesPerFrame * 2);
+            int err = vkGetQueryPoolResults(device.getVkDevice(), vkQueryPool, firstQuery, queriesPerFrame, results,
+                    2L * Long.BYTES, VK_QUERY_RESULT_64_BIT | VK_QUERY_RESULT_WITH_AVAILABILITY_BIT);
+            if (err != VK_NOT_READY) {
+                vkCheck(err, "Failed to get query pool results");
+            }
+            for (int i = 0; i < queriesPerFrame; i++) {
+                available &= results.get(i * 2 + 1) != 0;
+                timesMs[i] = (results.get(i * 2) & validBitsMask) * timestampPeriod / 1_000_000.0;
+            }
+        }
+        vkResetQueryPool(device.getVkDevice(), vkQueryPool, firstQuery, queriesPerFrame);
+        return available;
+    }
+
+    public void write(CommandBuffer commandBuffer, int frameIdx, int query, int stage) {
+        vkCmdWriteTimestamp(commandBuffer.getVkCommandBuffer(), stage, vkQueryPool, frameIdx * queriesPerFrame + query);
+    }
+}
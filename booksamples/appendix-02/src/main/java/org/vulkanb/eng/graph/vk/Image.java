@@ -10,17 +10,29 @@ import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
 public class Image {
 
+    private final long allocationSize;
+    private final MemoryAllocator.MemoryCategory category;
     private final Device device;
     private final int format;
+    private final long memoryAlignment;
+    private final int memoryTypeBits;
     private final int mipLevels;
+    private final boolean ownsMemory;
     private final long vkImage;
-    private final long vkMemory;
+    private long vkMemory;
 
     public Image(Device device, ImageData imageData) {
+        this(device, imageData, true);
+    }
+
+    // Images which do not own their memory are bound to a range of memory shared with other images with bindMemory
+    public Image(Device device, ImageData imageData, boolean ownsMemory) {
         this.device = device;
+        this.ownsMemory = ownsMemory;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             this.format = imageData.format;
             this.mipLevels = imageData.mipLevels;
+            this.category = imageData.category;
 
             VkImageCreateInfo imageCreateInfo = VkImageCreateInfo.calloc(stack)
                     .sType(VK_STRUCTURE_TYPE_IMAGE_CREATE_INFO)
@@ -46,6 +58,12 @@ public class Image {
             // Get memory requirements for this object
             VkMemoryRequirements memReqs = VkMemoryRequirements.calloc(stack);
             vkGetImageMemoryRequirements(device.getVkDevice(), vkImage, memReqs);
+            allocationSize = memReqs.size();
+            memoryAlignment = memReqs.alignment();
+            memoryTypeBits = memReqs.memoryTypeBits();
+            if (!ownsMemory) {
+                return;
+            }
 
             // Select memory size and type
             VkMemoryAllocateInfo memAlloc = VkMemoryAllocateInfo.calloc(stack)
@@ -57,22 +75,41 @@ public class Image {
             // Allocate memory
             vkCheck(vkAllocateMemory(device.getVkDevice(), memAlloc, null, lp), "Failed to allocate memory");
             vkMemory = lp.get(0);
+            device.getMemoryAllocator().trackAllocation(category, allocationSize);
 
-            // Bind memory
-            vkCheck(vkBindImageMemory(device.getVkDevice(), vkImage, vkMemory, 0),
-                    "Failed to bind image memory");
+            bindMemory(vkMemory, 0);
         }
     }
 
+    public void bindMemory(long vkMemory, long offset) {
+        vkCheck(vkBindImageMemory(device.getVkDevice(), vkImage, vkMemory, offset), "Failed to bind image memory");
+        this.vkMemory = vkMemory;
+    }
+
     public void cleanup() {
         vkDestroyImage(device.getVkDevice(), vkImage, null);
-        vkFreeMemory(device.getVkDevice(), vkMemory, null);
+        if (ownsMemory) {
+            vkFreeMemory(device.getVkDevice(), vkMemory, null);
+            device.getMemoryAllocator().trackFree(category, allocationSize);
+        }
+    }
+
+    public long getAllocationSize() {
+        return allocationSize;
     }
 
     public int getFormat() {
         return format;
     }
 
+    public long getMemoryAlignment() {
+        return memoryAlignment;
+    }
+
+    public int getMemoryTypeBits() {
+        return memoryTypeBits;
+    }
+
     public int getMipLevels() {
         return mipLevels;
     }
@@ -87,6 +124,7 @@ public class Image {
 
     public static class ImageData {
         private int arrayLayers;
+        private MemoryAllocator.MemoryCategory category;
         private int format;
         private int height;
         private int mipLevels;
@@ -99,6 +137,7 @@ public class Image {
             this.mipLevels = 1;
             this.sampleCount = 1;
             this.arrayLayers = 1;
+            this.category = MemoryAllocator.MemoryCategory.OTHER;
         }
 
         public ImageData arrayLayers(int arrayLayers) {
@@ -106,6 +145,11 @@ public class Image {
             return this;
         }
 
+        public ImageData category(MemoryAllocator.MemoryCategory category) {
+            this.category = category;
+            return this;
+        }
+
         public ImageData format(int format) {
             this.format = format;
             return this;
@@ -126,6 +170,14 @@ public class Image {
             return this;
         }
 
+        public MemoryAllocator.MemoryCategory getCategory() {
+            return category;
+        }
+
+        public int getUsage() {
+            return usage;
+        }
+
         public ImageData usage(int usage) {
             this.usage = usage;
             return this;
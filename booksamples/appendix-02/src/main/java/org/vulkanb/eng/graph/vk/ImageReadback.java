@@ -0,0 +1,97 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.stb.STBImageWrite;
+import org.lwjgl.system.*;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+// Copies RGBA8 images to host memory and writes them as PNG files
+public class ImageReadback {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final CommandBuffer commandBuffer;
+    private final CommandPool commandPool;
+    private final Fence fence;
+    private final int height;
+    private final VulkanBuffer readbackBuffer;
+    private final int width;
+
+    public ImageReadback(Device device, int queueFamilyIndex, int width, int height) {
+        this.width = width;
+        this.height = height;
+        commandPool = new CommandPool(device, queueFamilyIndex);
+        commandBuffer = new CommandBuffer(commandPool, true, true);
+        fence = new Fence(device, false);
+        readbackBuffer = new VulkanBuffer(device, (long) width * height * BYTES_PER_PIXEL,
+                VK_BUFFER_USAGE_TRANSFER_DST_BIT, VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT,
+                VK_MEMORY_PROPERTY_HOST_COHERENT_BIT, MemoryAllocator.MemoryCategory.STAGING);
+    }
+
+    public void cleanup() {
+        readbackBuffer.cleanup();
+        fence.cleanup();
+        commandBuffer.cleanup();
+        commandPool.cleanup();
+    }
+
+    private void recordCopy(Image image, int imageLayout) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkCommandBuffer cmdHandle = commandBuffer.getVkCommandBuffer();
+            VkBufferImageCopy.Buffer region = VkBufferImageCopy.calloc(1, stack)
+                    .bufferOffset(0)
+                    .bufferRowLength(0)
+                    .bufferImageHeight(0)
+                    .imageSubresource(it -> it
+                            .aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                            .mipLevel(0)
+                            .baseArrayLayer(0)
+                            .layerCount(1))
+                    .imageOffset(it -> it.x(0).y(0).z(0))
+                    .imageExtent(it -> it.width(width).height(height).depth(1));
+            vkCmdCopyImageToBuffer(cmdHandle, image.getVkImage(), imageLayout, readbackBuffer.getBuffer(), region);
+
+            VkMemoryBarrier.Buffer hostBarrier = VkMemoryBarrier.calloc(1, stack)
+                    .sType(VK_STRUCTURE_TYPE_MEMORY_BARRIER)
+                    .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(VK_ACCESS_HOST_READ_BIT);
+            vkCmdPipelineBarrier(cmdHandle, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_HOST_BIT, 0,
+                    hostBarrier, null, null);
+        }
+    }
+
+    // The image must be in the given layout, usable as a transfer source, once the semaphore is signaled
+    public void readback(Queue queue, Image image, int imageLayout, Semaphore waitSemaphore, String fileName) {
+        commandBuffer.reset();
+        commandBuffer.beginRecording();
+        recordCopy(image, imageLayout);
+        commandBuffer.endRecording();
+
+        fence.reset();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            queue.submit(stack.pointers(commandBuffer.getVkCommandBuffer()),
+                    stack.longs(waitSemaphore.getVkSemaphore()),
+                    stack.ints(VK_PIPELINE_STAGE_TRANSFER_BIT), null, fence);
+        }
+        fence.fenceWait();
+
+        File file = new File(fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new RuntimeException("Could not create directory [" + parent + "]");
+        }
+        ByteBuffer pixels = MemoryUtil.memByteBuffer(readbackBuffer.map(), (int) readbackBuffer.getRequestedSize());
+        boolean written = STBImageWrite.stbi_write_png(fileName, width, height, BYTES_PER_PIXEL, pixels,
+                width * BYTES_PER_PIXEL);
+        readbackBuffer.unMap();
+        if (!written) {
+            throw new RuntimeException("Could not write image [" + fileName + "]");
+        }
+        Logger.debug("Written frame to [{}]", fileName);
+    }
+}
@@ -27,7 +27,7 @@ public class Instance {
     private VkDebugUtilsMessengerCreateInfoEXT debugUtils;
     private long vkDebugHandle;
 
-    public Instance(boolean validate) {
+    public Instance(boolean validate, boolean headless) {
         Logger.debug("Creating Vulkan instance");
         try (MemoryStack stack = MemoryStack.stackPush()) {
             // Create application information
@@ -38,7 +38,7 @@ public class Instance {
                     .applicationVersion(1)
                     .pEngineName(appShortName)
                     .engineVersion(0)
-                    .apiVersion(VK_API_VERSION_1_1);
+                    .apiVersion(VK12.VK_API_VERSION_1_2);
 
             // Validation layers
             List<String> validationLayers = getSupportedValidationLayers();
@@ -62,8 +62,9 @@ public class Instance {
 
             Set<String> instanceExtensions = getInstanceExtensions();
 
-            // GLFW Extension
-            PointerBuffer glfwExtensions = GLFWVulkan.glfwGetRequiredInstanceExtensions();
+            // GLFW Extension, there is no surface in headless mode
+            PointerBuffer glfwExtensions = headless ? stack.mallocPointer(0) :
+                    GLFWVulkan.glfwGetRequiredInstanceExtensions();
             if (glfwExtensions == null) {
                 throw new RuntimeException("Failed to find the GLFW platform surface extensions");
             }
@@ -0,0 +1,68 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.joml.*;
+
+import java.lang.Math;
+import java.nio.ByteBuffer;
+
+import static org.vulkanb.eng.graph.vk.GraphConstants.*;
+
+public final class InstanceData {
+
+    // Position + scale (4 floats), rotation quaternion (4 SNORM16), material index and padding: 32 bytes
+    public static final int MATERIAL_OFFSET = VEC4_SIZE + SHORT_LENGTH * 4;
+    public static final int ROTATION_OFFSET = VEC4_SIZE;
+    public static final int SIZE_IN_BYTES = MATERIAL_OFFSET + INT_LENGTH * 2;
+    private static final float SNORM16_MAX = Short.MAX_VALUE;
+
+    private InstanceData() {
+        // Utility class
+    }
+
+    public static float fromSnorm16(short value) {
+        return Math.max(value / SNORM16_MAX, -1.0f);
+    }
+
+    public static void pack(Vector3f position, Quaternionf rotation, float scale, int materialIdx,
+                            ByteBuffer buffer, int pos) {
+        buffer.putFloat(pos, position.x);
+        buffer.putFloat(pos + FLOAT_LENGTH, position.y);
+        buffer.putFloat(pos + FLOAT_LENGTH * 2, position.z);
+        buffer.putFloat(pos + FLOAT_LENGTH * 3, scale);
+
+        float length = (float) Math.sqrt(rotation.x * rotation.x + rotation.y * rotation.y +
+                rotation.z * rotation.z + rotation.w * rotation.w);
+        float invLength = length > 0 ? 1.0f / length : 0.0f;
+        int rotPos = pos + ROTATION_OFFSET;
+        buffer.putShort(rotPos, toSnorm16(rotation.x * invLength));
+        buffer.putShort(rotPos + SHORT_LENGTH, toSnorm16(rotation.y * invLength));
+        buffer.putShort(rotPos + SHORT_LENGTH * 2, toSnorm16(rotation.z * invLength));
+        buffer.putShort(rotPos + SHORT_LENGTH * 3, toSnorm16(length > 0 ? rotation.w * invLength : 1.0f));
+
+        buffer.putInt(pos + MATERIAL_OFFSET, materialIdx);
+        buffer.putInt(pos + MATERIAL_OFFSET + INT_LENGTH, 0);
+    }
+
+    public static int unpackMaterialIdx(ByteBuffer buffer, int pos) {
+        return buffer.getInt(pos + MATERIAL_OFFSET);
+    }
+
+    public static Vector3f unpackPosition(ByteBuffer buffer, int pos, Vector3f dest) {
+        return dest.set(buffer.getFloat(pos), buffer.getFloat(pos + FLOAT_LENGTH), buffer.getFloat(pos + FLOAT_LENGTH * 2));
+    }
+
+    public static Quaternionf unpackRotation(ByteBuffer buffer, int pos, Quaternionf dest) {
+        int rotPos = pos + ROTATION_OFFSET;
+        return dest.set(fromSnorm16(buffer.getShort(rotPos)), fromSnorm16(buffer.getShort(rotPos + SHORT_LENGTH)),
+                fromSnorm16(buffer.getShort(rotPos + SHORT_LENGTH * 2)),
+                fromSnorm16(buffer.getShort(rotPos + SHORT_LENGTH * 3))).normalize();
+    }
+
+    public static float unpackScale(ByteBuffer buffer, int pos) {
+        return buffer.getFloat(pos + FLOAT_LENGTH * 3);
+    }
+
+    public static short toSnorm16(float value) {
+        return (short) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * SNORM16_MAX);
+    }
+}
@@ -8,7 +8,7 @@ public class InstancedVertexBufferStructure extends VertexInputStateInfo {
 
     public static final int TEXT_COORD_COMPONENTS = 2;
     private static final int NORMAL_COMPONENTS = 3;
-    private static final int NUMBER_OF_ATTRIBUTES = 10;
+    private static final int NUMBER_OF_ATTRIBUTES = 8;
     private static final int POSITION_COMPONENTS = 3;
     public static final int SIZE_IN_BYTES = (POSITION_COMPONENTS + NORMAL_COMPONENTS * 3 + TEXT_COORD_COMPONENTS) * GraphConstants.FLOAT_LENGTH;
 
@@ -60,21 +60,29 @@ public class InstancedVertexBufferStructure extends VertexInputStateInfo {
                 .format(VK_FORMAT_R32G32_SFLOAT)
                 .offset(NORMAL_COMPONENTS * GraphConstants.FLOAT_LENGTH * 3 + POSITION_COMPONENTS * GraphConstants.FLOAT_LENGTH);
 
-        // Model Matrix as a set of 4 Vectors
+        // Instance position and scale
         i++;
-        for (int j = 0; j < 4; j++) {
-            viAttrs.get(i)
-                    .binding(1)
-                    .location(i)
-                    .format(VK_FORMAT_R32G32B32A32_SFLOAT)
-                    .offset(j * GraphConstants.VEC4_SIZE);
-            i++;
-        }
         viAttrs.get(i)
                 .binding(1)
                 .location(i)
-                .format(VK_FORMAT_R8_UINT)
-                .offset(GraphConstants.VEC4_SIZE * 4);
+                .format(VK_FORMAT_R32G32B32A32_SFLOAT)
+                .offset(0);
+
+        // Instance rotation quaternion
+        i++;
+        viAttrs.get(i)
+                .binding(1)
+                .location(i)
+                .format(VK_FORMAT_R16G16B16A16_SNORM)
+                .offset(InstanceData.ROTATION_OFFSET);
+
+        // Material index
+        i++;
+        viAttrs.get(i)
+                .binding(1)
+                .location(i)
+                .format(VK_FORMAT_R32_UINT)
+                .offset(InstanceData.MATERIAL_OFFSET);
 
         // Non instanced data
         viBindings.get(0)
@@ -85,7 +93,7 @@ public class InstancedVertexBufferStructure extends VertexInputStateInfo {
         // Instanced data
         viBindings.get(1)
                 .binding(1)
-                .stride(GraphConstants.MAT4X4_SIZE + GraphConstants.INT_LENGTH)
+                .stride(InstanceData.SIZE_IN_BYTES)
                 .inputRate(VK_VERTEX_INPUT_RATE_INSTANCE);
 
         vi
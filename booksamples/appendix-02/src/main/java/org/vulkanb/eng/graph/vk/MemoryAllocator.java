@@ -3,16 +3,24 @@ package org.vulkanb.eng.graph.vk;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.util.vma.*;
-import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.*;
+
+import java.util.*;
 
 import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
 public class MemoryAllocator {
 
+    private static final float MB = 1024 * 1024;
+    private final int[] categoryAllocations;
+    private final long[] categoryBytes;
+    private final long[] categoryPeakBytes;
+    private final int numHeaps;
     private final long vmaAllocator;
 
-    public MemoryAllocator(Instance instance, PhysicalDevice physicalDevice, VkDevice vkDevice) {
+    public MemoryAllocator(Instance instance, PhysicalDevice physicalDevice, VkDevice vkDevice, boolean memoryBudget) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             PointerBuffer pAllocator = stack.mallocPointer(1);
 
@@ -20,7 +28,9 @@ public class MemoryAllocator {
                     .set(instance.getVkInstance(), vkDevice);
 
             VmaAllocatorCreateInfo createInfo = VmaAllocatorCreateInfo.calloc(stack)
+                    .flags(memoryBudget ? VMA_ALLOCATOR_CREATE_EXT_MEMORY_BUDGET_BIT : 0)
                     .instance(instance.getVkInstance())
+                    .vulkanApiVersion(VK12.VK_API_VERSION_1_2)
                     .device(vkDevice)
                     .physicalDevice(physicalDevice.getVkPhysicalDevice())
                     .pVulkanFunctions(vmaVulkanFunctions);
@@ -29,13 +39,86 @@ public class MemoryAllocator {
 
             vmaAllocator = pAllocator.get(0);
         }
+        numHeaps = physicalDevice.getVkMemoryProperties().memoryHeapCount();
+        int numCategories = MemoryCategory.values().length;
+        categoryAllocations = new int[numCategories];
+        categoryBytes = new long[numCategories];
+        categoryPeakBytes = new long[numCategories];
     }
 
     public void cleanUp() {
         vmaDestroyAllocator(vmaAllocator);
     }
 
+    public MemoryStats getMemoryStats() {
+        List<HeapStats> heapStatsList = new ArrayList<>();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VmaBudget.Buffer budgets = VmaBudget.calloc(VK_MAX_MEMORY_HEAPS, stack);
+            vmaGetHeapBudgets(vmaAllocator, budgets);
+            for (int i = 0; i < numHeaps; i++) {
+                VmaBudget budget = budgets.get(i);
+                VmaStatistics statistics = budget.statistics();
+                heapStatsList.add(new HeapStats(i, budget.budget(), budget.usage(), statistics.blockBytes(),
+                        statistics.allocationBytes(), statistics.blockCount(), statistics.allocationCount()));
+            }
+        }
+
+        List<CategoryStats> categoryStatsList = new ArrayList<>();
+        synchronized (this) {
+            for (MemoryCategory category : MemoryCategory.values()) {
+                int idx = category.ordinal();
+                categoryStatsList.add(new CategoryStats(category, categoryBytes[idx], categoryPeakBytes[idx],
+                        categoryAllocations[idx]));
+            }
+        }
+        return new MemoryStats(heapStatsList, categoryStatsList);
+    }
+
     public long getVmaAllocator() {
         return vmaAllocator;
     }
+
+    public synchronized void trackAllocation(MemoryCategory category, long size) {
+        int idx = category.ordinal();
+        categoryAllocations[idx]++;
+        categoryBytes[idx] += size;
+        categoryPeakBytes[idx] = Math.max(categoryPeakBytes[idx], categoryBytes[idx]);
+    }
+
+    public synchronized void trackFree(MemoryCategory category, long size) {
+        int idx = category.ordinal();
+        categoryAllocations[idx]--;
+        categoryBytes[idx] -= size;
+    }
+
+    public enum MemoryCategory {
+        GLOBAL_BUFFERS, TEXTURES, ATTACHMENTS, STAGING, GUI, OTHER
+    }
+
+    public record CategoryStats(MemoryCategory category, long bytes, long peakBytes, int allocations) {
+    }
+
+    public record HeapStats(int heapIdx, long budget, long usage, long blockBytes, long allocationBytes,
+                            int blockCount, int allocationCount) {
+        public long unusedBytes() {
+            return blockBytes - allocationBytes;
+        }
+    }
+
+    public record MemoryStats(List<HeapStats> heapStatsList, List<CategoryStats> categoryStatsList) {
+        public String summary() {
+            StringBuilder sb = new StringBuilder();
+            for (HeapStats heapStats : heapStatsList) {
+                sb.append(String.format("heap%d %.1f/%.1fMB (%d allocs, %.1fMB unused in %d blocks) ",
+                        heapStats.heapIdx(), heapStats.usage() / MB, heapStats.budget() / MB,
+                        heapStats.allocationCount(), heapStats.unusedBytes() / MB, heapStats.blockCount()));
+            }
+            sb.append("|");
+            for (CategoryStats categoryStats : categoryStatsList) {
+                sb.append(String.format(" %s %.1fMB (peak %.1fMB, %d allocs)", categoryStats.category(),
+                        categoryStats.bytes() / MB, categoryStats.peakBytes() / MB, categoryStats.allocations()));
+            }
+            return sb.toString();
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.tinylog.Logger;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelRecorder {
+
+    private final Device device;
+    private final ExecutorService executorService;
+    private final int numWorkers;
+    private final int queueFamilyIndex;
+
+    public ParallelRecorder(Device device, int queueFamilyIndex, int numWorkers) {
+        Logger.debug("Creating parallel recorder with {} worker(s)", numWorkers);
+        this.device = device;
+        this.queueFamilyIndex = queueFamilyIndex;
+        this.numWorkers = numWorkers;
+        AtomicInteger threadCount = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread thread = new Thread(r, "recorder-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void cleanup() {
+        executorService.shutdownNow();
+    }
+
+    public SecondaryCommandRecorder createSecondaryRecorder(int framesInFlight) {
+        return new SecondaryCommandRecorder(this, framesInFlight);
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    public int getQueueFamilyIndex() {
+        return queueFamilyIndex;
+    }
+
+    public void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while recording command buffers", excp);
+        } catch (ExecutionException excp) {
+            throw new RuntimeException("Failed to record command buffers", excp.getCause());
+        }
+    }
+}
@@ -54,7 +54,8 @@ public class PhysicalDevice {
         }
     }
 
-    public static PhysicalDevice createPhysicalDevice(Instance instance, String prefferredDeviceName) {
+    public static PhysicalDevice createPhysicalDevice(Instance instance, String prefferredDeviceName,
+                                                      boolean requireSwapChain) {
         Logger.debug("Selecting physical devices");
         PhysicalDevice selectedPhysicalDevice = null;
         try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -72,7 +73,8 @@ public class PhysicalDevice {
                 PhysicalDevice physicalDevice = new PhysicalDevice(vkPhysicalDevice);
 
                 String deviceName = physicalDevice.getDeviceName();
-                if (physicalDevice.hasGraphicsQueueFamily() && physicalDevice.hasKHRSwapChainExtension()) {
+                if (physicalDevice.hasGraphicsQueueFamily() &&
+                        (!requireSwapChain || physicalDevice.hasKHRSwapChainExtension())) {
                     Logger.debug("Device [{}] supports required extensions", deviceName);
                     if (prefferredDeviceName != null && prefferredDeviceName.equals(deviceName)) {
                         selectedPhysicalDevice = physicalDevice;
@@ -0,0 +1,85 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.tinylog.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Creates shader modules and pipelines on worker threads. Each worker uses its own pipeline cache, seeded with the
+// contents of the main one, to avoid contention on it. They are merged back once all the pipelines are created
+public class PipelineBuilder {
+
+    private final ExecutorService executorService;
+    private final List<Future<?>> futures;
+    private final PipelineCache pipelineCache;
+    private final ShaderVariantRegistry shaderVariants;
+    private final ThreadLocal<PipelineCache> threadCache;
+    private final List<PipelineCache> threadCaches;
+
+    public PipelineBuilder(PipelineCache pipelineCache, ShaderVariantRegistry shaderVariants, int numWorkers) {
+        Logger.debug("Creating pipeline builder with {} worker(s)", numWorkers);
+        this.pipelineCache = pipelineCache;
+        this.shaderVariants = shaderVariants;
+        futures = new ArrayList<>();
+        threadCaches = new ArrayList<>();
+        threadCache = ThreadLocal.withInitial(() -> {
+            PipelineCache cache = new PipelineCache(pipelineCache);
+            synchronized (threadCaches) {
+                threadCaches.add(cache);
+            }
+            return cache;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread thread = new Thread(r, "pipeline-builder-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Device getDevice() {
+        return pipelineCache.getDevice();
+    }
+
+    public ShaderVariantRegistry getShaderVariants() {
+        return shaderVariants;
+    }
+
+    // The task receives the cache to create its pipelines with, results are only visible after waitAll
+    public void submit(Consumer<PipelineCache> task) {
+        futures.add(executorService.submit(() -> task.accept(threadCache.get())));
+    }
+
+    // Waits for all the submitted tasks, merges the worker caches into the main one and releases the workers
+    public void waitAll() {
+        long start = System.currentTimeMillis();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while creating pipelines", excp);
+        } catch (ExecutionException excp) {
+            throw new RuntimeException("Failed to create pipelines", excp.getCause());
+        } finally {
+            executorService.shutdownNow();
+            try {
+                if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                    Logger.warn("Pipeline builder workers did not finish");
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (threadCaches) {
+                pipelineCache.merge(threadCaches);
+                threadCaches.forEach(PipelineCache::cleanup);
+                threadCaches.clear();
+            }
+        }
+        Logger.debug("Completed [{}] pipeline tasks in [{}] ms", futures.size(), System.currentTimeMillis() - start);
+        futures.clear();
+    }
+}
@@ -1,38 +1,148 @@
 package org.vulkanb.eng.graph.vk;
 
-import org.lwjgl.system.MemoryStack;
-import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.*;
+import org.lwjgl.vulkan.*;
 import org.tinylog.Logger;
 
-import java.nio.LongBuffer;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
 
 import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
 public class PipelineCache {
 
+    // Header written by the driver: size, version, vendor ID, device ID and the cache UUID
+    private static final int HEADER_SIZE = 16 + VK_UUID_SIZE;
+
     private final Device device;
+    private final Path filePath;
     private final long vkPipelineCache;
 
     public PipelineCache(Device device) {
+        this(device, null);
+    }
+
+    // When a directory is given, the cache is loaded from and saved to a file specific to the device and driver
+    public PipelineCache(Device device, String cacheDir) {
         Logger.debug("Creating pipeline cache");
         this.device = device;
+        VkPhysicalDeviceProperties props = device.getPhysicalDevice().getVkPhysicalDeviceProperties();
+        filePath = cacheDir != null && !cacheDir.isEmpty() ? Path.of(cacheDir, getFileName(props)) : null;
+        ByteBuffer initialData = filePath != null ? loadData(filePath, props) : null;
+        try {
+            vkPipelineCache = createVkPipelineCache(device, initialData);
+        } finally {
+            if (initialData != null) {
+                MemoryUtil.memFree(initialData);
+            }
+        }
+    }
+
+    // Starts with the contents of another cache, for workers which merge their results back into it
+    public PipelineCache(PipelineCache srcCache) {
+        Logger.debug("Creating pipeline cache from existing one");
+        device = srcCache.device;
+        filePath = null;
+        ByteBuffer initialData = srcCache.getData();
+        try {
+            vkPipelineCache = createVkPipelineCache(device, initialData);
+        } finally {
+            MemoryUtil.memFree(initialData);
+        }
+    }
+
+    private static long createVkPipelineCache(Device device, ByteBuffer initialData) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkPipelineCacheCreateInfo createInfo = VkPipelineCacheCreateInfo.calloc(stack)
-                    .sType(VK_STRUCTURE_TYPE_PIPELINE_CACHE_CREATE_INFO);
+                    .sType(VK_STRUCTURE_TYPE_PIPELINE_CACHE_CREATE_INFO)
+                    .pInitialData(initialData);
 
             LongBuffer lp = stack.mallocLong(1);
             vkCheck(vkCreatePipelineCache(device.getVkDevice(), createInfo, null, lp),
                     "Error creating pipeline cache");
-            vkPipelineCache = lp.get(0);
+            return lp.get(0);
+        }
+    }
+
+    private static String getFileName(VkPhysicalDeviceProperties props) {
+        StringBuilder uuid = new StringBuilder();
+        ByteBuffer cacheUUID = props.pipelineCacheUUID();
+        for (int i = 0; i < VK_UUID_SIZE; i++) {
+            uuid.append(String.format("%02x", cacheUUID.get(i)));
+        }
+        return String.format("pipelines-%08x-%08x-%08x-%s.bin", props.vendorID(), props.deviceID(),
+                props.driverVersion(), uuid);
+    }
+
+    // Discards files from other devices, drivers or corrupted ones, which would otherwise be ignored or rejected
+    private static boolean isValidHeader(ByteBuffer data, VkPhysicalDeviceProperties props) {
+        if (data.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int headerSize = header.getInt(0);
+        int headerVersion = header.getInt(4);
+        if (headerSize < HEADER_SIZE || headerSize > data.remaining() ||
+                headerVersion != VK_PIPELINE_CACHE_HEADER_VERSION_ONE ||
+                header.getInt(8) != props.vendorID() || header.getInt(12) != props.deviceID()) {
+            return false;
+        }
+        ByteBuffer cacheUUID = props.pipelineCacheUUID();
+        for (int i = 0; i < VK_UUID_SIZE; i++) {
+            if (header.get(16 + i) != cacheUUID.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer loadData(Path path, VkPhysicalDeviceProperties props) {
+        if (!Files.exists(path)) {
+            Logger.debug("No pipeline cache found at [{}]", path);
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            ByteBuffer data = MemoryUtil.memAlloc(bytes.length).put(bytes).flip();
+            if (!isValidHeader(data, props)) {
+                Logger.warn("Discarding incompatible pipeline cache [{}]", path);
+                MemoryUtil.memFree(data);
+                return null;
+            }
+            Logger.debug("Loaded pipeline cache [{}], [{}] bytes", path, bytes.length);
+            return data;
+        } catch (IOException excp) {
+            Logger.warn("Could not read pipeline cache [{}]", path, excp);
+            return null;
         }
     }
 
     public void cleanup() {
+        if (filePath != null) {
+            save();
+        }
         Logger.debug("Destroying pipeline cache");
         vkDestroyPipelineCache(device.getVkDevice(), vkPipelineCache, null);
     }
 
+    // Returned buffer must be freed by the caller
+    private ByteBuffer getData() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer pSize = stack.mallocPointer(1);
+            vkCheck(vkGetPipelineCacheData(device.getVkDevice(), vkPipelineCache, pSize, null),
+                    "Error getting pipeline cache size");
+            ByteBuffer data = MemoryUtil.memAlloc((int) pSize.get(0));
+            vkCheck(vkGetPipelineCacheData(device.getVkDevice(), vkPipelineCache, pSize, data),
+                    "Error getting pipeline cache data");
+            data.limit((int) pSize.get(0));
+            return data;
+        }
+    }
+
     public Device getDevice() {
         return device;
     }
@@ -40,4 +150,42 @@ public class PipelineCache {
     public long getVkPipelineCache() {
         return vkPipelineCache;
     }
+
+    // Merges the contents of the given caches into this one, so they are all persisted together
+    public void merge(List<PipelineCache> srcCaches) {
+        if (srcCaches.isEmpty()) {
+            return;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            LongBuffer srcHandles = stack.mallocLong(srcCaches.size());
+            srcCaches.forEach(c -> srcHandles.put(c.getVkPipelineCache()));
+            srcHandles.flip();
+            vkCheck(vkMergePipelineCaches(device.getVkDevice(), vkPipelineCache, srcHandles),
+                    "Error merging pipeline caches");
+        }
+    }
+
+    private void save() {
+        ByteBuffer data = getData();
+        try {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+
+            // Written to a temporary file and then moved, so a crash never leaves a truncated cache behind
+            Path dir = filePath.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmpPath = Files.createTempFile(dir, filePath.getFileName().toString(), ".tmp");
+            Files.write(tmpPath, bytes);
+            try {
+                Files.move(tmpPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmpPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Logger.debug("Saved pipeline cache [{}], [{}] bytes", filePath, bytes.length);
+        } catch (IOException excp) {
+            Logger.warn("Could not save pipeline cache [{}]", filePath, excp);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
 }
@@ -6,6 +6,7 @@ import org.lwjgl.vulkan.*;
 import org.tinylog.Logger;
 
 import java.nio.*;
+import java.util.List;
 
 import static org.lwjgl.vulkan.VK11.*;
 import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
@@ -27,6 +28,22 @@ public class Queue {
         }
     }
 
+    private VkSubmitInfo createSubmitInfo(MemoryStack stack, PointerBuffer commandBuffers, LongBuffer waitSemaphores,
+                                          IntBuffer dstStageMasks, LongBuffer signalSemaphores) {
+        VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack)
+                .sType(VK_STRUCTURE_TYPE_SUBMIT_INFO)
+                .pCommandBuffers(commandBuffers)
+                .pSignalSemaphores(signalSemaphores);
+        if (waitSemaphores != null) {
+            submitInfo.waitSemaphoreCount(waitSemaphores.capacity())
+                    .pWaitSemaphores(waitSemaphores)
+                    .pWaitDstStageMask(dstStageMasks);
+        } else {
+            submitInfo.waitSemaphoreCount(0);
+        }
+        return submitInfo;
+    }
+
     public int getQueueFamilyIndex() {
         return queueFamilyIndex;
     }
@@ -38,17 +55,8 @@ public class Queue {
     public void submit(PointerBuffer commandBuffers, LongBuffer waitSemaphores, IntBuffer dstStageMasks,
                        LongBuffer signalSemaphores, Fence fence) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack)
-                    .sType(VK_STRUCTURE_TYPE_SUBMIT_INFO)
-                    .pCommandBuffers(commandBuffers)
-                    .pSignalSemaphores(signalSemaphores);
-            if (waitSemaphores != null) {
-                submitInfo.waitSemaphoreCount(waitSemaphores.capacity())
-                        .pWaitSemaphores(waitSemaphores)
-                        .pWaitDstStageMask(dstStageMasks);
-            } else {
-                submitInfo.waitSemaphoreCount(0);
-            }
+            VkSubmitInfo submitInfo = createSubmitInfo(stack, commandBuffers, waitSemaphores, dstStageMasks,
+                    signalSemaphores);
             long fenceHandle = fence != null ? fence.getVkFence() : VK_NULL_HANDLE;
 
             vkCheck(vkQueueSubmit(vkQueue, submitInfo, fenceHandle),
@@ -56,10 +64,40 @@ public class Queue {
         }
     }
 
+    // Values are only used for timeline semaphores, binary semaphores in the same lists ignore them
+    public void submit(PointerBuffer commandBuffers, LongBuffer waitSemaphores, IntBuffer dstStageMasks,
+                       LongBuffer waitValues, LongBuffer signalSemaphores, LongBuffer signalValues) {
+        submit(List.of(new Submission(commandBuffers, waitSemaphores, dstStageMasks, waitValues, signalSemaphores,
+                signalValues)));
+    }
+
+    // Submissions are executed in order, with a single call to the queue
+    public void submit(List<Submission> submissions) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSubmitInfo.Buffer submitInfos = VkSubmitInfo.calloc(submissions.size(), stack);
+            for (int i = 0; i < submissions.size(); i++) {
+                Submission submission = submissions.get(i);
+                VkTimelineSemaphoreSubmitInfo timelineSubmitInfo = VkTimelineSemaphoreSubmitInfo.calloc(stack)
+                        .sType(VK12.VK_STRUCTURE_TYPE_TIMELINE_SEMAPHORE_SUBMIT_INFO)
+                        .pWaitSemaphoreValues(submission.waitValues())
+                        .pSignalSemaphoreValues(submission.signalValues());
+                submitInfos.put(i, createSubmitInfo(stack, submission.commandBuffers(), submission.waitSemaphores(),
+                        submission.dstStageMasks(), submission.signalSemaphores()).pNext(timelineSubmitInfo));
+            }
+
+            vkCheck(vkQueueSubmit(vkQueue, submitInfos, VK_NULL_HANDLE),
+                    "Failed to submit command to queue");
+        }
+    }
+
     public void waitIdle() {
         vkQueueWaitIdle(vkQueue);
     }
 
+    public record Submission(PointerBuffer commandBuffers, LongBuffer waitSemaphores, IntBuffer dstStageMasks,
+                             LongBuffer waitValues, LongBuffer signalSemaphores, LongBuffer signalValues) {
+    }
+
     public static class ComputeQueue extends Queue {
 
         public ComputeQueue(Device device, int queueIndex) {
@@ -74,9 +112,13 @@ public class Queue {
             for (int i = 0; i < numQueuesFamilies; i++) {
                 VkQueueFamilyProperties props = queuePropsBuff.get(i);
                 boolean computeQueue = (props.queueFlags() & VK_QUEUE_COMPUTE_BIT) != 0;
-                if (computeQueue) {
+                boolean graphicsQueue = (props.queueFlags() & VK_QUEUE_GRAPHICS_BIT) != 0;
+                if (computeQueue && (index < 0 || !graphicsQueue)) {
                     index = i;
-                    break;
+                    // Prefer a dedicated family, whose queues can run alongside the graphics one
+                    if (!graphicsQueue) {
+                        break;
+                    }
                 }
             }
 
@@ -0,0 +1,91 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import static org.lwjgl.vulkan.VK11.vkCmdExecuteCommands;
+
+public class SecondaryCommandRecorder {
+
+    private static final int MIN_COMMANDS_PER_TASK = 32;
+
+    private final ParallelRecorder parallelRecorder;
+    private final WorkerCommands[][] workerCommands;
+
+    SecondaryCommandRecorder(ParallelRecorder parallelRecorder, int framesInFlight) {
+        this.parallelRecorder = parallelRecorder;
+        int numWorkers = parallelRecorder.getNumWorkers();
+        // Command pools are externally synchronized, so each worker owns one per frame in flight
+        workerCommands = new WorkerCommands[framesInFlight][numWorkers];
+        for (int i = 0; i < framesInFlight; i++) {
+            for (int j = 0; j < numWorkers; j++) {
+                workerCommands[i][j] = new WorkerCommands(new CommandPool(parallelRecorder.getDevice(),
+                        parallelRecorder.getQueueFamilyIndex()), new ArrayList<>());
+            }
+        }
+    }
+
+    public void cleanup() {
+        for (WorkerCommands[] frameWorkerCommands : workerCommands) {
+            for (WorkerCommands worker : frameWorkerCommands) {
+                worker.commandBuffers().forEach(CommandBuffer::cleanup);
+                worker.commandPool().cleanup();
+            }
+        }
+    }
+
+    public int getChunkSize(int numCommands) {
+        int numWorkers = parallelRecorder.getNumWorkers();
+        return Math.max(MIN_COMMANDS_PER_TASK, (numCommands + numWorkers - 1) / numWorkers);
+    }
+
+    // Buffers recorded for a frame stay valid until the next call for the same frame, which must only
+    // happen once the primary buffer that executes them is no longer in use
+    public void record(CommandBuffer primaryCommandBuffer, int frameIdx, CommandBuffer.InheritanceInfo inheritanceInfo,
+                       List<Consumer<CommandBuffer>> tasks) {
+        int numTasks = tasks.size();
+        if (numTasks == 0) {
+            return;
+        }
+        int numWorkers = Math.min(parallelRecorder.getNumWorkers(), numTasks);
+        CommandBuffer[] recorded = new CommandBuffer[numTasks];
+        List<Callable<Void>> workerTasks = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            int worker = i;
+            workerTasks.add(() -> {
+                CommandPool commandPool = workerCommands[frameIdx][worker].commandPool();
+                List<CommandBuffer> buffers = workerCommands[frameIdx][worker].commandBuffers();
+                commandPool.reset();
+                int count = 0;
+                for (int j = worker; j < numTasks; j += numWorkers) {
+                    if (count == buffers.size()) {
+                        buffers.add(new CommandBuffer(commandPool, false, false));
+                    }
+                    CommandBuffer commandBuffer = buffers.get(count++);
+                    commandBuffer.beginRecording(inheritanceInfo);
+                    tasks.get(j).accept(commandBuffer);
+                    commandBuffer.endRecording();
+                    recorded[j] = commandBuffer;
+                }
+                return null;
+            });
+        }
+        parallelRecorder.invokeAll(workerTasks);
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            PointerBuffer pCommandBuffers = stack.mallocPointer(numTasks);
+            for (CommandBuffer commandBuffer : recorded) {
+                pCommandBuffers.put(commandBuffer.getVkCommandBuffer());
+            }
+            pCommandBuffers.flip();
+            vkCmdExecuteCommands(primaryCommandBuffer.getVkCommandBuffer(), pCommandBuffers);
+        }
+    }
+
+    private record WorkerCommands(CommandPool commandPool, List<CommandBuffer> commandBuffers) {
+    }
+}
@@ -2,27 +2,74 @@ package org.vulkanb.eng.graph.vk;
 
 import org.lwjgl.util.shaderc.Shaderc;
 import org.tinylog.Logger;
+import org.vulkanb.eng.EngineProperties;
 
-import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.regex.*;
 
 public class ShaderCompiler {
 
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("^\\s*#include\\s+\"([^\"]+)\"\\s*$");
+    private static final int MAX_INCLUDE_DEPTH = 16;
+    // Magic number and header words of a SPIR-V module
+    private static final int SPIRV_HEADER_WORDS = 5;
+    private static final int SPIRV_MAGIC = 0x07230203;
+    private static final int SPIRV_OP_FUNCTION_END = 56;
+    private static final String TARGET_ENV = "vulkan1.2";
+
+    // Compiler instances are expensive to create, they are borrowed for a single compilation and kept until cleanup.
+    // A compiler is only used by one thread at a time, so there are at most as many as concurrent compilations
+    private static final Deque<Long> idleCompilers = new ArrayDeque<>();
+
     private ShaderCompiler() {
         // Utility class
     }
 
+    private static long acquireCompiler() {
+        synchronized (idleCompilers) {
+            if (!idleCompilers.isEmpty()) {
+                return idleCompilers.pop();
+            }
+        }
+        long compiler = Shaderc.shaderc_compiler_initialize();
+        if (compiler == 0) {
+            throw new RuntimeException("Could not create shader compiler");
+        }
+        return compiler;
+    }
+
+    // Must not be called while shaders are being compiled
+    public static void cleanup() {
+        synchronized (idleCompilers) {
+            idleCompilers.forEach(Shaderc::shaderc_compiler_release);
+            idleCompilers.clear();
+        }
+    }
+
     public static byte[] compileShader(String shaderCode, int shaderType) {
-        long compiler = 0;
+        return compileShader(shaderCode, shaderType, Map.of());
+    }
+
+    public static byte[] compileShader(String shaderCode, int shaderType, Map<String, String> defines) {
+        long compiler = acquireCompiler();
         long options = 0;
+        long result = 0;
         byte[] compiledShader;
 
         try {
-            compiler = Shaderc.shaderc_compiler_initialize();
             options = Shaderc.shaderc_compile_options_initialize();
+            Shaderc.shaderc_compile_options_set_target_env(options, Shaderc.shaderc_target_env_vulkan,
+                    Shaderc.shaderc_env_version_vulkan_1_2);
+            for (Map.Entry<String, String> define : defines.entrySet()) {
+                Shaderc.shaderc_compile_options_add_macro_definition(options, define.getKey(), define.getValue());
+            }
 
-            long result = Shaderc.shaderc_compile_into_spv(
+            result = Shaderc.shaderc_compile_into_spv(
                     compiler,
                     shaderCode,
                     shaderType,
@@ -39,29 +86,142 @@ public class ShaderCompiler {
             compiledShader = new byte[buffer.remaining()];
             buffer.get(compiledShader);
         } finally {
+            if (result != 0) {
+                Shaderc.shaderc_result_release(result);
+            }
             Shaderc.shaderc_compile_options_release(options);
-            Shaderc.shaderc_compiler_release(compiler);
+            synchronized (idleCompilers) {
+                idleCompilers.push(compiler);
+            }
         }
 
         return compiledShader;
     }
 
     public static void compileShaderIfChanged(String glsShaderFile, int shaderType) {
-        byte[] compiledShader;
+        compileShaderIfChanged(glsShaderFile, glsShaderFile + ".spv", shaderType, Map.of());
+    }
+
+    // The SPIR-V is looked up in a content addressed cache, keyed by the source with its includes expanded, the
+    // defines, the shader type and the target environment, so unchanged shaders are never compiled again
+    public static void compileShaderIfChanged(String glsShaderFile, String spvShaderFile, int shaderType,
+                                              Map<String, String> defines) {
+        compileShaderIfChanged(glsShaderFile, spvShaderFile, shaderType, defines,
+                Path.of(EngineProperties.getInstance().getShaderCachePath()));
+    }
+
+    static void compileShaderIfChanged(String glsShaderFile, String spvShaderFile, int shaderType,
+                                       Map<String, String> defines, Path cacheDir) {
         try {
-            File glslFile = new File(glsShaderFile);
-            File spvFile = new File(glsShaderFile + ".spv");
-            if (!spvFile.exists() || glslFile.lastModified() > spvFile.lastModified()) {
-                Logger.debug("Compiling [{}] to [{}]", glslFile.getPath(), spvFile.getPath());
-                String shaderCode = new String(Files.readAllBytes(glslFile.toPath()));
-
-                compiledShader = compileShader(shaderCode, shaderType);
-                Files.write(spvFile.toPath(), compiledShader);
+            Path glslPath = Path.of(glsShaderFile);
+            String shaderCode = expandIncludes(glslPath, new ArrayDeque<>());
+            Map<String, String> sortedDefines = new TreeMap<>(defines);
+            String hash = hash(TARGET_ENV + "\n" + shaderType + "\n" + sortedDefines + "\n" + shaderCode);
+
+            Path cachePath = cacheDir.resolve(hash + ".spv");
+            byte[] compiledShader = Files.exists(cachePath) ? Files.readAllBytes(cachePath) : null;
+            if (compiledShader != null && !isValidSpirv(compiledShader)) {
+                Logger.warn("Ignoring invalid cached shader [{}] for [{}]", cachePath, glsShaderFile);
+                compiledShader = null;
+            }
+            if (compiledShader != null) {
+                Logger.debug("Shader [{}] found in cache [{}]", glsShaderFile, cachePath);
             } else {
-                Logger.debug("Shader [{}] already compiled. Loading compiled version: [{}]", glslFile.getPath(), spvFile.getPath());
+                Logger.debug("Compiling [{}] to [{}]", glsShaderFile, spvShaderFile);
+                compiledShader = compileShader(shaderCode, shaderType, sortedDefines);
+                writeAtomically(cachePath, compiledShader);
+            }
+
+            Path spvPath = Path.of(spvShaderFile);
+            if (!Files.exists(spvPath) || !Arrays.equals(Files.readAllBytes(spvPath), compiledShader)) {
+                writeAtomically(spvPath, compiledShader);
             }
         } catch (IOException excp) {
             throw new RuntimeException(excp);
         }
     }
+
+    // Includes are resolved relative to the including file and inlined, line numbers are kept with #line
+    private static String expandIncludes(Path path, Deque<Path> includeStack) throws IOException {
+        Path normalized = path.toAbsolutePath().normalize();
+        if (includeStack.contains(normalized)) {
+            throw new RuntimeException("Circular include of [" + path + "]");
+        }
+        if (includeStack.size() >= MAX_INCLUDE_DEPTH) {
+            throw new RuntimeException("Too many nested includes in [" + path + "]");
+        }
+        includeStack.push(normalized);
+
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            Matcher matcher = INCLUDE_PATTERN.matcher(lines.get(i));
+            if (matcher.matches()) {
+                Path includePath = normalized.resolveSibling(matcher.group(1));
+                if (!Files.exists(includePath)) {
+                    throw new RuntimeException("Include [" + matcher.group(1) + "] not found from [" + path + "]");
+                }
+                result.append("#line 1\n").append(expandIncludes(includePath, includeStack));
+                result.append("#line ").append(i + 2).append('\n');
+            } else {
+                result.append(lines.get(i)).append('\n');
+            }
+        }
+
+        includeStack.pop();
+        return result.toString();
+    }
+
+    private static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (byte b : hash) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new RuntimeException(excp);
+        }
+    }
+
+    // Catches truncated or corrupt files. A module is made of 32-bit words, starts with the magic number and its
+    // instructions, whose first word holds their length, must end exactly with the last function
+    static boolean isValidSpirv(byte[] data) {
+        if (data.length < SPIRV_HEADER_WORDS * 4 || data.length % 4 != 0) {
+            return false;
+        }
+        IntBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if (words.get(0) != SPIRV_MAGIC) {
+            words = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+            if (words.get(0) != SPIRV_MAGIC) {
+                return false;
+            }
+        }
+        int pos = SPIRV_HEADER_WORDS;
+        int opcode = -1;
+        while (pos < words.limit()) {
+            int wordCount = words.get(pos) >>> 16;
+            if (wordCount == 0) {
+                return false;
+            }
+            opcode = words.get(pos) & 0xFFFF;
+            pos += wordCount;
+        }
+        return pos == words.limit() && opcode == SPIRV_OP_FUNCTION_END;
+    }
+
+    // Several threads may produce the same file, readers never see partially written contents
+    private static void writeAtomically(Path path, byte[] data) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmpPath = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        Files.write(tmpPath, data);
+        try {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException excp) {
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 }
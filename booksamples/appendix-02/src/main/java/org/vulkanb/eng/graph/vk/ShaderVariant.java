@@ -0,0 +1,63 @@
+package org.vulkanb.eng.graph.vk;
+
+import java.util.*;
+
+// A shader permutation: the source, the defines it is compiled with and the specialization constants applied when
+// creating pipelines with it. Defines produce separate SPIR-V files, specialization constants share the same one
+public record ShaderVariant(String glslFile, int shaderType, int shaderStage, SortedMap<String, String> defines,
+                            SortedMap<Integer, Integer> specConstants) {
+
+    public static Builder builder(String glslFile, int shaderType, int shaderStage) {
+        return new Builder(glslFile, shaderType, shaderStage);
+    }
+
+    public String getSpvFile() {
+        if (defines.isEmpty()) {
+            return glslFile + ".spv";
+        }
+        StringBuilder result = new StringBuilder(glslFile);
+        defines.forEach((k, v) -> result.append('.').append(k).append('_').append(v.replaceAll("[^A-Za-z0-9]", "_")));
+        return result.append(".spv").toString();
+    }
+
+    public static class Builder {
+        private final SortedMap<String, String> defines;
+        private final String glslFile;
+        private final int shaderStage;
+        private final int shaderType;
+        private final SortedMap<Integer, Integer> specConstants;
+
+        private Builder(String glslFile, int shaderType, int shaderStage) {
+            this.glslFile = glslFile;
+            this.shaderType = shaderType;
+            this.shaderStage = shaderStage;
+            defines = new TreeMap<>();
+            specConstants = new TreeMap<>();
+        }
+
+        public ShaderVariant build() {
+            return new ShaderVariant(glslFile, shaderType, shaderStage,
+                    Collections.unmodifiableSortedMap(new TreeMap<>(defines)),
+                    Collections.unmodifiableSortedMap(new TreeMap<>(specConstants)));
+        }
+
+        public Builder define(String name, String value) {
+            defines.put(name, value);
+            return this;
+        }
+
+        public Builder specConstant(int constantId, boolean value) {
+            return specConstant(constantId, value ? 1 : 0);
+        }
+
+        public Builder specConstant(int constantId, float value) {
+            return specConstant(constantId, Float.floatToRawIntBits(value));
+        }
+
+        // Integers, floats and booleans are all 32 bit wide, values are stored with their raw bits
+        public Builder specConstant(int constantId, int value) {
+            specConstants.put(constantId, value);
+            return this;
+        }
+    }
+}
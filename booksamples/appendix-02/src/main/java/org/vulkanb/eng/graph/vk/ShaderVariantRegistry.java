@@ -0,0 +1,81 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+import org.vulkanb.eng.EngineProperties;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compiles shader variants on first use and keeps their specialization data alive for the pipelines created with
+// them. Safe to use from the pipeline builder workers, which compile the variants of each activity in parallel
+public class ShaderVariantRegistry {
+
+    private final Map<ShaderVariant, String> compiledVariants;
+    private final boolean shaderRecompilation;
+    private final Map<ShaderVariant, SpecData> specData;
+
+    public ShaderVariantRegistry() {
+        shaderRecompilation = EngineProperties.getInstance().isShaderRecompilation();
+        compiledVariants = new ConcurrentHashMap<>();
+        specData = new ConcurrentHashMap<>();
+    }
+
+    private static SpecData createSpecData(SortedMap<Integer, Integer> specConstants) {
+        int numConstants = specConstants.size();
+        ByteBuffer data = MemoryUtil.memAlloc(numConstants * GraphConstants.INT_LENGTH);
+        VkSpecializationMapEntry.Buffer specEntryMap = VkSpecializationMapEntry.calloc(numConstants);
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : specConstants.entrySet()) {
+            data.putInt(entry.getValue());
+            specEntryMap.get(i)
+                    .constantID(entry.getKey())
+                    .size(GraphConstants.INT_LENGTH)
+                    .offset(i * GraphConstants.INT_LENGTH);
+            i++;
+        }
+        data.flip();
+
+        VkSpecializationInfo specInfo = VkSpecializationInfo.calloc();
+        specInfo.pData(data)
+                .pMapEntries(specEntryMap);
+        return new SpecData(data, specEntryMap, specInfo);
+    }
+
+    public void cleanup() {
+        specData.values().forEach(SpecData::cleanup);
+        specData.clear();
+        compiledVariants.clear();
+    }
+
+    private String compile(ShaderVariant variant) {
+        String spvFile = variant.getSpvFile();
+        if (shaderRecompilation || !new File(spvFile).exists()) {
+            Logger.debug("Preparing shader variant [{}]", spvFile);
+            ShaderCompiler.compileShaderIfChanged(variant.glslFile(), spvFile, variant.shaderType(),
+                    variant.defines());
+        }
+        return spvFile;
+    }
+
+    public ShaderProgram.ShaderModuleData getModuleData(ShaderVariant variant) {
+        String spvFile = compiledVariants.computeIfAbsent(variant, this::compile);
+        VkSpecializationInfo specInfo = null;
+        if (!variant.specConstants().isEmpty()) {
+            specInfo = specData.computeIfAbsent(variant, v -> createSpecData(v.specConstants())).specInfo();
+        }
+        return new ShaderProgram.ShaderModuleData(variant.shaderStage(), spvFile, specInfo);
+    }
+
+    private record SpecData(ByteBuffer data, VkSpecializationMapEntry.Buffer specEntryMap,
+                            VkSpecializationInfo specInfo) {
+        private void cleanup() {
+            MemoryUtil.memFree(specEntryMap);
+            specInfo.free();
+            MemoryUtil.memFree(data);
+        }
+    }
+}
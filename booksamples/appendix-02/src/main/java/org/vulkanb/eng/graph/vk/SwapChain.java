@@ -3,7 +3,7 @@ package org.vulkanb.eng.graph.vk;
 import org.lwjgl.system.*;
 import org.lwjgl.vulkan.*;
 import org.tinylog.Logger;
-import org.vulkanb.eng.Window;
+import org.vulkanb.eng.*;
 
 import java.nio.*;
 import java.util.*;
@@ -14,18 +14,28 @@ import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 public class SwapChain {
 
     private final Device device;
+    // Only set in headless mode, where the images are owned by the engine instead of a surface
+    private final Queue headlessQueue;
+    private final ImageReadback imageReadback;
     private final ImageView[] imageViews;
+    private final Image[] images;
+    private final Semaphore[] renderCompleteSemaphores;
     private final SurfaceFormat surfaceFormat;
     private final VkExtent2D swapChainExtent;
-    private final SyncSemaphores[] syncSemaphoresList;
+    private final long[] vkImages;
     private final long vkSwapChain;
 
-    private int currentFrame;
+    private long frameCount;
+    private int imageIndex;
 
-    public SwapChain(Device device, Surface surface, Window window, int requestedImages, boolean vsync,
-                     Queue.PresentQueue presentationQueue, Queue[] concurrentQueues) {
+    // Transfer destination usage is only requested when the scene is rendered offscreen and blitted into the images
+    public SwapChain(Device device, Surface surface, Window window, int requestedImages, PresentMode presentMode,
+                     Queue.PresentQueue presentationQueue, Queue[] concurrentQueues, boolean transferDst) {
         Logger.debug("Creating Vulkan SwapChain");
         this.device = device;
+        headlessQueue = null;
+        imageReadback = null;
+        images = null;
         try (MemoryStack stack = MemoryStack.stackPush()) {
 
             PhysicalDevice physicalDevice = device.getPhysicalDevice();
@@ -41,6 +51,14 @@ public class SwapChain {
 
             swapChainExtent = calcSwapChainExtent(window, surfCapabilities);
 
+            int imageUsage = VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT;
+            if (transferDst) {
+                if ((surfCapabilities.supportedUsageFlags() & VK_IMAGE_USAGE_TRANSFER_DST_BIT) == 0) {
+                    throw new RuntimeException("Surface does not support transfer destination images");
+                }
+                imageUsage |= VK_IMAGE_USAGE_TRANSFER_DST_BIT;
+            }
+
             VkSwapchainCreateInfoKHR vkSwapchainCreateInfo = VkSwapchainCreateInfoKHR.calloc(stack)
                     .sType(KHRSwapchain.VK_STRUCTURE_TYPE_SWAPCHAIN_CREATE_INFO_KHR)
                     .surface(surface.getVkSurface())
@@ -49,15 +67,11 @@ public class SwapChain {
                     .imageColorSpace(surfaceFormat.colorSpace())
                     .imageExtent(swapChainExtent)
                     .imageArrayLayers(1)
-                    .imageUsage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT)
+                    .imageUsage(imageUsage)
                     .preTransform(surfCapabilities.currentTransform())
                     .compositeAlpha(KHRSurface.VK_COMPOSITE_ALPHA_OPAQUE_BIT_KHR)
+                    .presentMode(calcPresentMode(physicalDevice, surface, presentMode).getVkPresentMode())
                     .clipped(true);
-            if (vsync) {
-                vkSwapchainCreateInfo.presentMode(KHRSurface.VK_PRESENT_MODE_FIFO_KHR);
-            } else {
-                vkSwapchainCreateInfo.presentMode(KHRSurface.VK_PRESENT_MODE_IMMEDIATE_KHR);
-            }
 
             int numQueues = concurrentQueues != null ? concurrentQueues.length : 0;
             List<Integer> indices = new ArrayList<>();
@@ -83,20 +97,62 @@ public class SwapChain {
                     "Failed to create swap chain");
             vkSwapChain = lp.get(0);
 
-            imageViews = createImageViews(stack, device, vkSwapChain, surfaceFormat.imageFormat);
+            vkImages = getSwapChainImages(stack, device, vkSwapChain);
+            imageViews = createImageViews(device, vkImages, surfaceFormat.imageFormat);
             numImages = imageViews.length;
-            syncSemaphoresList = new SyncSemaphores[numImages];
-            Arrays.setAll(syncSemaphoresList, i -> new SyncSemaphores(device));
-            currentFrame = 0;
+            // Presentation waits on these, so they are tied to the images and not to the frames in flight
+            renderCompleteSemaphores = new Semaphore[numImages];
+            Arrays.setAll(renderCompleteSemaphores, i -> new Semaphore(device));
+            imageIndex = 0;
+        }
+    }
+
+    // Headless swap chain, frames are rendered into offscreen images and optionally written to disk
+    public SwapChain(Device device, Queue queue, int width, int height, int numImages, boolean transferDst) {
+        Logger.debug("Creating headless SwapChain");
+        this.device = device;
+        headlessQueue = queue;
+        vkSwapChain = VK_NULL_HANDLE;
+        surfaceFormat = new SurfaceFormat(VK_FORMAT_R8G8B8A8_SRGB, KHRSurface.VK_COLOR_SPACE_SRGB_NONLINEAR_KHR);
+        swapChainExtent = VkExtent2D.calloc().set(width, height);
+
+        images = new Image[numImages];
+        imageViews = new ImageView[numImages];
+        vkImages = new long[numImages];
+        Image.ImageData imageData = new Image.ImageData().width(width).height(height)
+                .format(surfaceFormat.imageFormat())
+                .usage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK_IMAGE_USAGE_TRANSFER_SRC_BIT |
+                        (transferDst ? VK_IMAGE_USAGE_TRANSFER_DST_BIT : 0))
+                .category(MemoryAllocator.MemoryCategory.ATTACHMENTS);
+        ImageView.ImageViewData imageViewData = new ImageView.ImageViewData().format(surfaceFormat.imageFormat())
+                .aspectMask(VK_IMAGE_ASPECT_COLOR_BIT);
+        for (int i = 0; i < numImages; i++) {
+            images[i] = new Image(device, imageData);
+            vkImages[i] = images[i].getVkImage();
+            imageViews[i] = new ImageView(device, vkImages[i], imageViewData);
         }
+        renderCompleteSemaphores = new Semaphore[numImages];
+        Arrays.setAll(renderCompleteSemaphores, i -> new Semaphore(device));
+
+        imageReadback = EngineProperties.getInstance().getReadbackInterval() > 0 ?
+                new ImageReadback(device, queue.getQueueFamilyIndex(), width, height) : null;
+        imageIndex = numImages - 1;
     }
 
-    public boolean acquireNextImage() {
+    public boolean acquireNextImage(Semaphore imgAcquisitionSemaphore) {
+        if (isHeadless()) {
+            // Images are handed out in order, signal the acquisition semaphore as a presentation engine would
+            imageIndex = (imageIndex + 1) % images.length;
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                headlessQueue.submit(null, null, null, stack.longs(imgAcquisitionSemaphore.getVkSemaphore()), null);
+            }
+            return false;
+        }
         boolean resize = false;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer ip = stack.mallocInt(1);
             int err = KHRSwapchain.vkAcquireNextImageKHR(device.getVkDevice(), vkSwapChain, ~0L,
-                    syncSemaphoresList[currentFrame].imgAcquisitionSemaphore().getVkSemaphore(), MemoryUtil.NULL, ip);
+                    imgAcquisitionSemaphore.getVkSemaphore(), MemoryUtil.NULL, ip);
             if (err == KHRSwapchain.VK_ERROR_OUT_OF_DATE_KHR) {
                 resize = true;
             } else if (err == KHRSwapchain.VK_SUBOPTIMAL_KHR) {
@@ -104,7 +160,7 @@ public class SwapChain {
             } else if (err != VK_SUCCESS) {
                 throw new RuntimeException("Failed to acquire image: " + err);
             }
-            currentFrame = ip.get(0);
+            imageIndex = ip.get(0);
         }
 
         return resize;
@@ -124,6 +180,26 @@ public class SwapChain {
         return result;
     }
 
+    private PresentMode calcPresentMode(PhysicalDevice physicalDevice, Surface surface, PresentMode presentMode) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer ip = stack.mallocInt(1);
+            vkCheck(KHRSurface.vkGetPhysicalDeviceSurfacePresentModesKHR(physicalDevice.getVkPhysicalDevice(),
+                    surface.getVkSurface(), ip, null), "Failed to get the number of present modes");
+            IntBuffer presentModes = stack.mallocInt(ip.get(0));
+            vkCheck(KHRSurface.vkGetPhysicalDeviceSurfacePresentModesKHR(physicalDevice.getVkPhysicalDevice(),
+                    surface.getVkSurface(), ip, presentModes), "Failed to get present modes");
+            for (int i = 0; i < presentModes.capacity(); i++) {
+                if (presentModes.get(i) == presentMode.getVkPresentMode()) {
+                    Logger.debug("Using present mode [{}]", presentMode);
+                    return presentMode;
+                }
+            }
+        }
+        // FIFO support is required by the specification
+        Logger.warn("Present mode [{}] not supported, using [{}]", presentMode, PresentMode.FIFO);
+        return PresentMode.FIFO;
+    }
+
     private SurfaceFormat calcSurfaceFormat(PhysicalDevice physicalDevice, Surface surface) {
         int imageFormat;
         int colorSpace;
@@ -179,39 +255,41 @@ public class SwapChain {
         Logger.debug("Destroying Vulkan SwapChain");
         swapChainExtent.free();
         Arrays.asList(imageViews).forEach(ImageView::cleanup);
-        Arrays.asList(syncSemaphoresList).forEach(SyncSemaphores::cleanup);
-        KHRSwapchain.vkDestroySwapchainKHR(device.getVkDevice(), vkSwapChain, null);
+        Arrays.asList(renderCompleteSemaphores).forEach(Semaphore::cleanup);
+        if (isHeadless()) {
+            Arrays.asList(images).forEach(Image::cleanup);
+            if (imageReadback != null) {
+                imageReadback.cleanup();
+            }
+        } else {
+            KHRSwapchain.vkDestroySwapchainKHR(device.getVkDevice(), vkSwapChain, null);
+        }
     }
 
-    private ImageView[] createImageViews(MemoryStack stack, Device device, long swapChain, int format) {
-        ImageView[] result;
-
-        IntBuffer ip = stack.mallocInt(1);
-        vkCheck(KHRSwapchain.vkGetSwapchainImagesKHR(device.getVkDevice(), swapChain, ip, null),
-                "Failed to get number of surface images");
-        int numImages = ip.get(0);
-
-        LongBuffer swapChainImages = stack.mallocLong(numImages);
-        vkCheck(KHRSwapchain.vkGetSwapchainImagesKHR(device.getVkDevice(), swapChain, ip, swapChainImages),
-                "Failed to get surface images");
-
-        result = new ImageView[numImages];
+    private ImageView[] createImageViews(Device device, long[] swapChainImages, int format) {
+        int numImages = swapChainImages.length;
+        ImageView[] result = new ImageView[numImages];
         ImageView.ImageViewData imageViewData = new ImageView.ImageViewData().format(format).aspectMask(VK_IMAGE_ASPECT_COLOR_BIT);
         for (int i = 0; i < numImages; i++) {
-            result[i] = new ImageView(device, swapChainImages.get(i), imageViewData);
+            result[i] = new ImageView(device, swapChainImages[i], imageViewData);
         }
 
         return result;
     }
 
-    public int getCurrentFrame() {
-        return currentFrame;
-    }
-
     public Device getDevice() {
         return device;
     }
 
+    // Layout the images are left in once a frame has been rendered
+    public int getFinalLayout() {
+        return isHeadless() ? VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL : KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR;
+    }
+
+    public int getImageIndex() {
+        return imageIndex;
+    }
+
     public ImageView[] getImageViews() {
         return imageViews;
     }
@@ -220,6 +298,10 @@ public class SwapChain {
         return imageViews.length;
     }
 
+    public Semaphore getRenderCompleteSemaphore() {
+        return renderCompleteSemaphores[imageIndex];
+    }
+
     public SurfaceFormat getSurfaceFormat() {
         return surfaceFormat;
     }
@@ -228,24 +310,65 @@ public class SwapChain {
         return swapChainExtent;
     }
 
-    public SyncSemaphores[] getSyncSemaphoresList() {
-        return syncSemaphoresList;
+    private long[] getSwapChainImages(MemoryStack stack, Device device, long swapChain) {
+        IntBuffer ip = stack.mallocInt(1);
+        vkCheck(KHRSwapchain.vkGetSwapchainImagesKHR(device.getVkDevice(), swapChain, ip, null),
+                "Failed to get number of surface images");
+        int numImages = ip.get(0);
+
+        LongBuffer swapChainImages = stack.mallocLong(numImages);
+        vkCheck(KHRSwapchain.vkGetSwapchainImagesKHR(device.getVkDevice(), swapChain, ip, swapChainImages),
+                "Failed to get surface images");
+
+        long[] result = new long[numImages];
+        swapChainImages.get(result);
+        return result;
+    }
+
+    public long getVkImage() {
+        return vkImages[imageIndex];
     }
 
     public long getVkSwapChain() {
         return vkSwapChain;
     }
 
+    public boolean isHeadless() {
+        return vkSwapChain == VK_NULL_HANDLE;
+    }
+
+    private void presentHeadless() {
+        Semaphore renderCompleteSemaphore = renderCompleteSemaphores[imageIndex];
+        int readbackInterval = EngineProperties.getInstance().getReadbackInterval();
+        if (imageReadback != null && frameCount % readbackInterval == 0) {
+            String fileName = String.format("%s/frame_%06d.png", EngineProperties.getInstance().getReadbackPath(),
+                    frameCount);
+            imageReadback.readback(headlessQueue, images[imageIndex], getFinalLayout(), renderCompleteSemaphore,
+                    fileName);
+        } else {
+            // Nothing consumes the image, just wait on the semaphore so it can be signaled again
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                headlessQueue.submit(null, stack.longs(renderCompleteSemaphore.getVkSemaphore()),
+                        stack.ints(VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT), null, null);
+            }
+        }
+        frameCount++;
+    }
+
+    // The queue is ignored in headless mode, the images are released in the queue the swap chain was created with
     public boolean presentImage(Queue queue) {
+        if (isHeadless()) {
+            presentHeadless();
+            return false;
+        }
         boolean resize = false;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkPresentInfoKHR present = VkPresentInfoKHR.calloc(stack)
                     .sType(KHRSwapchain.VK_STRUCTURE_TYPE_PRESENT_INFO_KHR)
-                    .pWaitSemaphores(stack.longs(
-                            syncSemaphoresList[currentFrame].renderCompleteSemaphore().getVkSemaphore()))
+                    .pWaitSemaphores(stack.longs(renderCompleteSemaphores[imageIndex].getVkSemaphore()))
                     .swapchainCount(1)
                     .pSwapchains(stack.longs(vkSwapChain))
-                    .pImageIndices(stack.ints(currentFrame));
+                    .pImageIndices(stack.ints(imageIndex));
 
             int err = KHRSwapchain.vkQueuePresentKHR(queue.getVkQueue(), present);
             if (err == KHRSwapchain.VK_ERROR_OUT_OF_DATE_KHR) {
@@ -256,24 +379,39 @@ public class SwapChain {
                 throw new RuntimeException("Failed to present KHR: " + err);
             }
         }
-        currentFrame = (currentFrame + 1) % imageViews.length;
         return resize;
     }
 
-    public record SurfaceFormat(int imageFormat, int colorSpace) {
-    }
+    public enum PresentMode {
+        FIFO(KHRSurface.VK_PRESENT_MODE_FIFO_KHR),
+        FIFO_RELAXED(KHRSurface.VK_PRESENT_MODE_FIFO_RELAXED_KHR),
+        IMMEDIATE(KHRSurface.VK_PRESENT_MODE_IMMEDIATE_KHR),
+        MAILBOX(KHRSurface.VK_PRESENT_MODE_MAILBOX_KHR);
 
-    public record SyncSemaphores(Semaphore imgAcquisitionSemaphore, Semaphore geometryCompleteSemaphore,
-                                 Semaphore renderCompleteSemaphore) {
+        private final int vkPresentMode;
 
-        public SyncSemaphores(Device device) {
-            this(new Semaphore(device), new Semaphore(device), new Semaphore(device));
+        PresentMode(int vkPresentMode) {
+            this.vkPresentMode = vkPresentMode;
         }
 
-        public void cleanup() {
-            imgAcquisitionSemaphore.cleanup();
-            geometryCompleteSemaphore.cleanup();
-            renderCompleteSemaphore.cleanup();
+        // An explicit present mode name takes precedence over the vsync flag
+        public static PresentMode fromProperties(String name, boolean vsync) {
+            if (name == null || name.isBlank()) {
+                return vsync ? FIFO : IMMEDIATE;
+            }
+            for (PresentMode presentMode : values()) {
+                if (presentMode.name().equalsIgnoreCase(name.trim().replace('-', '_'))) {
+                    return presentMode;
+                }
+            }
+            throw new RuntimeException("Unknown present mode [" + name + "]");
+        }
+
+        public int getVkPresentMode() {
+            return vkPresentMode;
         }
     }
+
+    public record SurfaceFormat(int imageFormat, int colorSpace) {
+    }
 }
\ No newline at end of file
@@ -26,7 +26,7 @@ public class SwapChainRenderPass {
                     .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
                     .storeOp(VK_ATTACHMENT_STORE_OP_STORE)
                     .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
-                    .finalLayout(KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR);
+                    .finalLayout(swapChain.getFinalLayout());
 
             // Depth attachment
             attachments.get(1)
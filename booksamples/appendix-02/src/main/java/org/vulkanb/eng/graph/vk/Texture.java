@@ -72,7 +72,8 @@ public class Texture {
     private void createStgBuffer(Device device, ByteBuffer data) {
         int size = data.remaining();
         stgBuffer = new VulkanBuffer(device, size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT,
-                VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+                VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT,
+                MemoryAllocator.MemoryCategory.STAGING);
         long mappedMemory = stgBuffer.map();
         ByteBuffer buffer = MemoryUtil.memByteBuffer(mappedMemory, (int) stgBuffer.getRequestedSize());
         buffer.put(data);
@@ -85,7 +86,7 @@ public class Texture {
         createStgBuffer(device, buf);
         Image.ImageData imageData = new Image.ImageData().width(width).height(height).
                 usage(VK_IMAGE_USAGE_TRANSFER_SRC_BIT | VK_IMAGE_USAGE_TRANSFER_DST_BIT | VK_IMAGE_USAGE_SAMPLED_BIT).
-                format(imageFormat).mipLevels(mipLevels);
+                format(imageFormat).mipLevels(mipLevels).category(MemoryAllocator.MemoryCategory.TEXTURES);
         image = new Image(device, imageData);
         ImageView.ImageViewData imageViewData = new ImageView.ImageViewData().format(image.getFormat()).
                 aspectMask(VK_IMAGE_ASPECT_COLOR_BIT).mipLevels(mipLevels);
@@ -0,0 +1,158 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+import org.vulkanb.eng.EngineProperties;
+
+import java.nio.LongBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK11.*;
+import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
+
+// Material textures indexed by their position in the texture cache. When descriptor indexing is available the array
+// is bindless: slots may stay empty and only the ones which change are written. Otherwise it falls back to a fixed
+// size array, which is fully rewritten padding unused slots with the last texture
+public class TextureArrayDescriptorSet extends DescriptorSet {
+
+    private final boolean bindless;
+    private final int capacity;
+    private final DescriptorPool descriptorPool;
+    private final DescriptorSetLayout descriptorSetLayout;
+    private final Device device;
+    private final long[] slotViews;
+
+    public TextureArrayDescriptorSet(Device device, int stage) {
+        this.device = device;
+        EngineProperties engineProperties = EngineProperties.getInstance();
+        bindless = device.isDescriptorIndexing();
+        if (bindless) {
+            capacity = Math.min(engineProperties.getMaxBindlessTextures(), device.getMaxUpdateAfterBindSamplers());
+            descriptorSetLayout = new DescriptorSetLayout.VariableSamplerDescriptorSetLayout(device, capacity, 0, stage);
+            descriptorPool = new DescriptorPool(device, List.of(new DescriptorPool.DescriptorTypeCount(capacity,
+                    VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)), VK12.VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT);
+        } else {
+            capacity = engineProperties.getMaxTextures();
+            descriptorSetLayout = new DescriptorSetLayout.SamplerDescriptorSetLayout(device, capacity, 0, stage);
+            descriptorPool = new DescriptorPool(device, List.of(new DescriptorPool.DescriptorTypeCount(capacity,
+                    VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)));
+        }
+        Logger.debug("Creating texture array descriptor set, bindless [{}], capacity [{}]", bindless, capacity);
+        slotViews = new long[capacity];
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            LongBuffer pDescriptorSetLayout = stack.mallocLong(1);
+            pDescriptorSetLayout.put(0, descriptorSetLayout.getVkDescriptorLayout());
+            VkDescriptorSetAllocateInfo allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
+                    .descriptorPool(descriptorPool.getVkDescriptorPool())
+                    .pSetLayouts(pDescriptorSetLayout);
+            if (bindless) {
+                VkDescriptorSetVariableDescriptorCountAllocateInfo countInfo =
+                        VkDescriptorSetVariableDescriptorCountAllocateInfo.calloc(stack)
+                                .sType(VK12.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_VARIABLE_DESCRIPTOR_COUNT_ALLOCATE_INFO)
+                                .pDescriptorCounts(stack.ints(capacity));
+                allocInfo.pNext(countInfo);
+            }
+
+            LongBuffer pDescriptorSet = stack.mallocLong(1);
+            vkCheck(vkAllocateDescriptorSets(device.getVkDevice(), allocInfo, pDescriptorSet),
+                    "Failed to create descriptor set");
+            vkDescriptorSet = pDescriptorSet.get(0);
+        }
+    }
+
+    public void cleanup() {
+        descriptorPool.cleanup();
+        descriptorSetLayout.cleanup();
+    }
+
+    // Shaders are compiled with a runtime sized array when bindless, or with the size of the fixed one
+    public ShaderVariant.Builder define(ShaderVariant.Builder builder) {
+        if (bindless) {
+            return builder.define("BINDLESS", "1");
+        }
+        return builder.define("MAX_TEXTURES", String.valueOf(capacity));
+    }
+
+    public DescriptorSetLayout getDescriptorSetLayout() {
+        return descriptorSetLayout;
+    }
+
+    public boolean isBindless() {
+        return bindless;
+    }
+
+    // Bindless slots which were empty can be written while the set is in use by pending frames, since no draw reads
+    // them. Otherwise the GPU has to be idle first
+    public void update(List<Texture> textureList, TextureSampler textureSampler) {
+        int numTextures = textureList.size();
+        if (numTextures > capacity) {
+            throw new RuntimeException("Number of textures [" + numTextures + "] exceeds texture array capacity [" +
+                    capacity + "]");
+        }
+        if (numTextures == 0) {
+            return;
+        }
+
+        List<Integer> changedSlots = new ArrayList<>();
+        boolean slotsInUse = !bindless;
+        int numSlots = bindless ? numTextures : capacity;
+        for (int i = 0; i < numSlots; i++) {
+            Texture texture = textureList.get(Math.min(i, numTextures - 1));
+            long vkImageView = texture.getImageView().getVkImageView();
+            if (slotViews[i] != vkImageView) {
+                slotsInUse |= slotViews[i] != VK_NULL_HANDLE;
+                slotViews[i] = vkImageView;
+                changedSlots.add(i);
+            }
+        }
+        if (changedSlots.isEmpty()) {
+            return;
+        }
+        Logger.debug("Updating [{}] texture array slot(s), waiting for the device [{}]", changedSlots.size(),
+                slotsInUse);
+        if (slotsInUse) {
+            device.waitIdle();
+        }
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            // Consecutive slots are written with a single descriptor write
+            List<int[]> ranges = new ArrayList<>();
+            int start = changedSlots.get(0);
+            int prev = start;
+            for (int i = 1; i < changedSlots.size(); i++) {
+                int slot = changedSlots.get(i);
+                if (slot != prev + 1) {
+                    ranges.add(new int[]{start, prev - start + 1});
+                    start = slot;
+                }
+                prev = slot;
+            }
+            ranges.add(new int[]{start, prev - start + 1});
+
+            int numRanges = ranges.size();
+            VkWriteDescriptorSet.Buffer descrBuffer = VkWriteDescriptorSet.calloc(numRanges, stack);
+            for (int i = 0; i < numRanges; i++) {
+                int[] range = ranges.get(i);
+                VkDescriptorImageInfo.Buffer imageInfo = VkDescriptorImageInfo.calloc(range[1], stack);
+                for (int j = 0; j < range[1]; j++) {
+                    imageInfo.get(j)
+                            .imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                            .imageView(slotViews[range[0] + j])
+                            .sampler(textureSampler.getVkSampler());
+                }
+                descrBuffer.get(i)
+                        .sType(VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET)
+                        .dstSet(vkDescriptorSet)
+                        .dstBinding(0)
+                        .dstArrayElement(range[0])
+                        .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                        .descriptorCount(range[1])
+                        .pImageInfo(imageInfo);
+            }
+            vkUpdateDescriptorSets(device.getVkDevice(), descrBuffer, null);
+        }
+    }
+}
@@ -3,34 +3,22 @@ package org.vulkanb.eng.graph.vk;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
-import java.nio.LongBuffer;
 import java.util.*;
 
 import static org.lwjgl.vulkan.VK11.*;
-import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 
 public class TextureDescriptorSet extends DescriptorSet {
 
-    public TextureDescriptorSet(DescriptorPool descriptorPool, DescriptorSetLayout descriptorSetLayout,
+    public TextureDescriptorSet(DescriptorAllocator descriptorAllocator, DescriptorSetLayout descriptorSetLayout,
                                 Texture texture, TextureSampler textureSampler, int binding) {
-        this(descriptorPool, descriptorSetLayout, Arrays.asList(texture), textureSampler, binding);
+        this(descriptorAllocator, descriptorSetLayout, Arrays.asList(texture), textureSampler, binding);
     }
 
-    public TextureDescriptorSet(DescriptorPool descriptorPool, DescriptorSetLayout descriptorSetLayout,
+    public TextureDescriptorSet(DescriptorAllocator descriptorAllocator, DescriptorSetLayout descriptorSetLayout,
                                 List<Texture> textureList, TextureSampler textureSampler, int binding) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            Device device = descriptorPool.getDevice();
-            LongBuffer pDescriptorSetLayout = stack.mallocLong(1);
-            pDescriptorSetLayout.put(0, descriptorSetLayout.getVkDescriptorLayout());
-            VkDescriptorSetAllocateInfo allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
-                    .sType(VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO)
-                    .descriptorPool(descriptorPool.getVkDescriptorPool())
-                    .pSetLayouts(pDescriptorSetLayout);
-
-            LongBuffer pDescriptorSet = stack.mallocLong(1);
-            vkCheck(vkAllocateDescriptorSets(device.getVkDevice(), allocInfo, pDescriptorSet),
-                    "Failed to create descriptor set");
-            vkDescriptorSet = pDescriptorSet.get(0);
+            Device device = descriptorAllocator.getDevice();
+            vkDescriptorSet = descriptorAllocator.allocate(descriptorSetLayout);
 
             int numImages = textureList.size();
             VkDescriptorImageInfo.Buffer imageInfo = VkDescriptorImageInfo.calloc(numImages, stack);
@@ -0,0 +1,76 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.nio.LongBuffer;
+
+import static org.lwjgl.vulkan.VK12.*;
+import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
+
+public class TimelineSemaphore {
+
+    private final Device device;
+    private final long vkSemaphore;
+    private long lastValue;
+
+    public TimelineSemaphore(Device device) {
+        this.device = device;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSemaphoreTypeCreateInfo semaphoreTypeCreateInfo = VkSemaphoreTypeCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_SEMAPHORE_TYPE_CREATE_INFO)
+                    .semaphoreType(VK_SEMAPHORE_TYPE_TIMELINE)
+                    .initialValue(0);
+            VkSemaphoreCreateInfo semaphoreCreateInfo = VkSemaphoreCreateInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO)
+                    .pNext(semaphoreTypeCreateInfo);
+
+            LongBuffer lp = stack.mallocLong(1);
+            vkCheck(vkCreateSemaphore(device.getVkDevice(), semaphoreCreateInfo, null, lp),
+                    "Failed to create timeline semaphore");
+            vkSemaphore = lp.get(0);
+        }
+    }
+
+    public void cleanup() {
+        vkDestroySemaphore(device.getVkDevice(), vkSemaphore, null);
+    }
+
+    public long getCompletedValue() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            LongBuffer lp = stack.mallocLong(1);
+            vkCheck(vkGetSemaphoreCounterValue(device.getVkDevice(), vkSemaphore, lp),
+                    "Failed to get timeline semaphore value");
+            return lp.get(0);
+        }
+    }
+
+    // Last value handed out to a submission, which may not have been reached yet
+    public long getLastValue() {
+        return lastValue;
+    }
+
+    public long getVkSemaphore() {
+        return vkSemaphore;
+    }
+
+    public boolean isReached(long value) {
+        return getCompletedValue() >= value;
+    }
+
+    public long nextValue() {
+        return ++lastValue;
+    }
+
+    public void waitValue(long value) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkSemaphoreWaitInfo waitInfo = VkSemaphoreWaitInfo.calloc(stack)
+                    .sType(VK_STRUCTURE_TYPE_SEMAPHORE_WAIT_INFO)
+                    .semaphoreCount(1)
+                    .pSemaphores(stack.longs(vkSemaphore))
+                    .pValues(stack.longs(value));
+            vkCheck(vkWaitSemaphores(device.getVkDevice(), waitInfo, Long.MAX_VALUE),
+                    "Failed to wait for timeline semaphore");
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.lwjgl.system.*;
+import org.lwjgl.vulkan.*;
+import org.tinylog.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.lwjgl.vulkan.VK11.*;
+
+public class UploadTransaction {
+
+    // Stages that read uploaded data: vertex input, indirect draws, and the storage buffers used by the vertex and
+    // fragment shaders and by culling. Both the static and the dynamic instance partitions are rewritten in place
+    private static final int READER_STAGES = VK_PIPELINE_STAGE_VERTEX_INPUT_BIT | VK_PIPELINE_STAGE_DRAW_INDIRECT_BIT |
+            VK_PIPELINE_STAGE_VERTEX_SHADER_BIT | VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT |
+            VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT;
+
+    private final CommandPool commandPool;
+    private final List<Runnable> completionTasks;
+    private final List<VulkanBuffer> stgBuffers;
+    private CommandBuffer cmd;
+    private long signalValue;
+    private TimelineSemaphore timeline;
+
+    public UploadTransaction(CommandPool commandPool) {
+        this.commandPool = commandPool;
+        completionTasks = new ArrayList<>();
+        stgBuffers = new ArrayList<>();
+    }
+
+    public void addCompletionTask(Runnable task) {
+        completionTasks.add(task);
+    }
+
+    public void cleanup() {
+        completionTasks.forEach(Runnable::run);
+        completionTasks.clear();
+        stgBuffers.forEach(VulkanBuffer::cleanup);
+        stgBuffers.clear();
+        if (cmd != null) {
+            cmd.cleanup();
+        }
+    }
+
+    private VulkanBuffer createStgBuffer(long size) {
+        VulkanBuffer stgBuffer = new VulkanBuffer(commandPool.getDevice(), size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT,
+                VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK_MEMORY_PROPERTY_HOST_COHERENT_BIT,
+                MemoryAllocator.MemoryCategory.STAGING);
+        stgBuffers.add(stgBuffer);
+        return stgBuffer;
+    }
+
+    public CommandBuffer getCommandBuffer() {
+        if (timeline != null) {
+            throw new RuntimeException("Upload transaction has already been submitted");
+        }
+        if (cmd == null) {
+            cmd = new CommandBuffer(commandPool, true, true);
+            cmd.beginRecording();
+            // Writes must not start until previously submitted work has stopped reading the destinations
+            recordMemoryBarrier(READER_STAGES, VK_PIPELINE_STAGE_TRANSFER_BIT, 0, VK_ACCESS_TRANSFER_WRITE_BIT);
+        }
+        return cmd;
+    }
+
+    public Device getDevice() {
+        return commandPool.getDevice();
+    }
+
+    public boolean isComplete() {
+        return timeline == null ? isEmpty() : timeline.isReached(signalValue);
+    }
+
+    public boolean isEmpty() {
+        return cmd == null && completionTasks.isEmpty();
+    }
+
+    private void recordMemoryBarrier(int srcStage, int dstStage, int srcAccessMask, int dstAccessMask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkMemoryBarrier.Buffer memBarrier = VkMemoryBarrier.calloc(1, stack)
+                    .sType(VK_STRUCTURE_TYPE_MEMORY_BARRIER)
+                    .srcAccessMask(srcAccessMask)
+                    .dstAccessMask(dstAccessMask);
+            vkCmdPipelineBarrier(cmd.getVkCommandBuffer(), srcStage, dstStage, 0, memBarrier, null, null);
+        }
+    }
+
+    public void recordTextureTransition(Texture texture) {
+        texture.recordTextureTransition(getCommandBuffer());
+        addCompletionTask(texture::cleanupStgBuffer);
+    }
+
+    public void retire(VulkanBuffer vulkanBuffer) {
+        if (vulkanBuffer != null) {
+            addCompletionTask(vulkanBuffer::cleanup);
+        }
+    }
+
+    public void submit(Queue queue, TimelineSemaphore timeline) {
+        CommandBuffer commandBuffer = getCommandBuffer();
+        recordMemoryBarrier(VK_PIPELINE_STAGE_TRANSFER_BIT, READER_STAGES, VK_ACCESS_TRANSFER_WRITE_BIT,
+                VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT | VK_ACCESS_INDIRECT_COMMAND_READ_BIT | VK_ACCESS_SHADER_READ_BIT);
+        commandBuffer.endRecording();
+        Logger.trace("Submitting upload transaction with {} staging buffer(s)", stgBuffers.size());
+
+        this.timeline = timeline;
+        signalValue = timeline.nextValue();
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            queue.submit(stack.pointers(commandBuffer.getVkCommandBuffer()), null, null, null,
+                    stack.longs(timeline.getVkSemaphore()), stack.longs(signalValue));
+        }
+    }
+
+    public void waitComplete() {
+        if (timeline != null) {
+            timeline.waitValue(signalValue);
+        }
+    }
+
+    public ByteBuffer writeBuffer(VulkanBuffer dstBuffer, long dstOffset, long size) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            VkBufferCopy.Buffer copyRegion = VkBufferCopy.calloc(1, stack)
+                    .srcOffset(0).dstOffset(dstOffset).size(size);
+            return writeBuffer(dstBuffer, size, copyRegion);
+        }
+    }
+
+    public ByteBuffer writeBuffer(VulkanBuffer dstBuffer, long size, VkBufferCopy.Buffer copyRegions) {
+        VulkanBuffer stgBuffer = createStgBuffer(size);
+        vkCmdCopyBuffer(getCommandBuffer().getVkCommandBuffer(), stgBuffer.getBuffer(), dstBuffer.getBuffer(),
+                copyRegions);
+        return MemoryUtil.memByteBuffer(stgBuffer.map(), (int) size);
+    }
+}
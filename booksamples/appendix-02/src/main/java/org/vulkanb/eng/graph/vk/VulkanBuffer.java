@@ -2,7 +2,7 @@ package org.vulkanb.eng.graph.vk;
 
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.*;
-import org.lwjgl.util.vma.VmaAllocationCreateInfo;
+import org.lwjgl.util.vma.*;
 import org.lwjgl.vulkan.VkBufferCreateInfo;
 
 import java.nio.LongBuffer;
@@ -15,7 +15,9 @@ import static org.vulkanb.eng.graph.vk.VulkanUtils.vkCheck;
 public class VulkanBuffer {
 
     private final long allocation;
+    private final long allocationSize;
     private final long buffer;
+    private final MemoryAllocator.MemoryCategory category;
     private final Device device;
     private final PointerBuffer pb;
     private final long requestedSize;
@@ -24,7 +26,13 @@ public class VulkanBuffer {
 
     public VulkanBuffer(Device device, long size, int bufferUsage, int memoryUsage,
                         int requiredFlags) {
+        this(device, size, bufferUsage, memoryUsage, requiredFlags, MemoryAllocator.MemoryCategory.OTHER);
+    }
+
+    public VulkanBuffer(Device device, long size, int bufferUsage, int memoryUsage,
+                        int requiredFlags, MemoryAllocator.MemoryCategory category) {
         this.device = device;
+        this.category = category;
         requestedSize = size;
         try (MemoryStack stack = MemoryStack.stackPush()) {
             VkBufferCreateInfo bufferCreateInfo = VkBufferCreateInfo.calloc(stack)
@@ -39,10 +47,13 @@ public class VulkanBuffer {
 
             PointerBuffer pAllocation = stack.callocPointer(1);
             LongBuffer lp = stack.mallocLong(1);
+            VmaAllocationInfo vmaAllocationInfo = VmaAllocationInfo.calloc(stack);
             vkCheck(vmaCreateBuffer(device.getMemoryAllocator().getVmaAllocator(), bufferCreateInfo, allocInfo, lp,
-                    pAllocation, null), "Failed to create buffer");
+                    pAllocation, vmaAllocationInfo), "Failed to create buffer");
             buffer = lp.get(0);
             allocation = pAllocation.get(0);
+            allocationSize = vmaAllocationInfo.size();
+            device.getMemoryAllocator().trackAllocation(category, allocationSize);
             pb = MemoryUtil.memAllocPointer(1);
         }
     }
@@ -51,6 +62,7 @@ public class VulkanBuffer {
         MemoryUtil.memFree(pb);
         unMap();
         vmaDestroyBuffer(device.getMemoryAllocator().getVmaAllocator(), buffer, allocation);
+        device.getMemoryAllocator().trackFree(category, allocationSize);
     }
 
     public void flush() {
@@ -0,0 +1,121 @@
+package org.vulkanb.eng.scene;
+
+import org.joml.*;
+
+import java.lang.Math;
+
+public class Aabb {
+
+    private final Vector3f max;
+    private final Vector3f min;
+
+    public Aabb() {
+        min = new Vector3f(Float.POSITIVE_INFINITY);
+        max = new Vector3f(Float.NEGATIVE_INFINITY);
+    }
+
+    public Aabb(Aabb other) {
+        min = new Vector3f(other.min);
+        max = new Vector3f(other.max);
+    }
+
+    public static Aabb fromPositions(float[] positions) {
+        Aabb aabb = new Aabb();
+        int numVertices = positions.length / 3;
+        for (int i = 0; i < numVertices; i++) {
+            aabb.include(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+        }
+        return aabb;
+    }
+
+    public boolean contains(Aabb other) {
+        return min.x <= other.min.x && min.y <= other.min.y && min.z <= other.min.z &&
+                max.x >= other.max.x && max.y >= other.max.y && max.z >= other.max.z;
+    }
+
+    public Vector3f getCenter(Vector3f dest) {
+        return dest.set(min).add(max).mul(0.5f);
+    }
+
+    public Vector3f getMax() {
+        return max;
+    }
+
+    public Vector3f getMin() {
+        return min;
+    }
+
+    public float getSurfaceArea() {
+        if (isEmpty()) {
+            return 0.0f;
+        }
+        float dx = max.x - min.x;
+        float dy = max.y - min.y;
+        float dz = max.z - min.z;
+        return 2.0f * (dx * dy + dy * dz + dz * dx);
+    }
+
+    public Aabb grow(float margin) {
+        min.sub(margin, margin, margin);
+        max.add(margin, margin, margin);
+        return this;
+    }
+
+    public Aabb include(float x, float y, float z) {
+        min.set(Math.min(min.x, x), Math.min(min.y, y), Math.min(min.z, z));
+        max.set(Math.max(max.x, x), Math.max(max.y, y), Math.max(max.z, z));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return min.x > max.x || min.y > max.y || min.z > max.z;
+    }
+
+    public Aabb set(Aabb other) {
+        min.set(other.min);
+        max.set(other.max);
+        return this;
+    }
+
+    public Aabb setEmpty() {
+        min.set(Float.POSITIVE_INFINITY);
+        max.set(Float.NEGATIVE_INFINITY);
+        return this;
+    }
+
+    public boolean testFrustum(FrustumIntersection frustumIntersection) {
+        return frustumIntersection.testAab(min.x, min.y, min.z, max.x, max.y, max.z);
+    }
+
+    public float testRay(Vector3f origin, Vector3f dir) {
+        Vector2f result = new Vector2f();
+        if (!Intersectionf.intersectRayAab(origin, dir, min, max, result)) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(result.x, 0.0f);
+    }
+
+    public boolean testSphere(Vector3f center, float radius) {
+        return Intersectionf.testAabSphere(min, max, center, radius * radius);
+    }
+
+    public Aabb transform(Matrix4f matrix, Aabb dest) {
+        Vector3f corner = new Vector3f();
+        dest.setEmpty();
+        if (isEmpty()) {
+            return dest;
+        }
+        for (int i = 0; i < 8; i++) {
+            corner.set((i & 1) == 0 ? min.x : max.x, (i & 2) == 0 ? min.y : max.y, (i & 4) == 0 ? min.z : max.z);
+            matrix.transformPosition(corner);
+            dest.include(corner.x, corner.y, corner.z);
+        }
+        return dest;
+    }
+
+    public Aabb union(Aabb other) {
+        min.min(other.min);
+        max.max(other.max);
+        return this;
+    }
+}
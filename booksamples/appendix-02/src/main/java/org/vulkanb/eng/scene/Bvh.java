@@ -0,0 +1,344 @@
+package org.vulkanb.eng.scene;
+
+import org.joml.*;
+
+import java.lang.Math;
+import java.util.*;
+import java.util.function.Consumer;
+
+public class Bvh<T> {
+
+    // Leaves are padded so that small movements do not need to touch the tree
+    private static final float LEAF_MARGIN = 0.1f;
+    private static final int NUM_BINS = 12;
+
+    private final Map<T, Node<T>> leaves;
+    private int numChanges;
+    private Node<T> root;
+
+    public Bvh() {
+        leaves = new HashMap<>();
+    }
+
+    private static <T> void refit(Node<T> node) {
+        while (node != null) {
+            node.bounds.set(node.left.bounds).union(node.right.bounds);
+            node = node.parent;
+        }
+    }
+
+    // Registers an item without placing it in the tree, for bulk loading. It is only visible to queries after build
+    public void add(T item, Aabb bounds) {
+        Node<T> leaf = new Node<>(item);
+        leaf.itemBounds.set(bounds);
+        leaf.bounds.set(bounds).grow(LEAF_MARGIN);
+        leaves.put(item, leaf);
+    }
+
+    public void build() {
+        List<Node<T>> nodes = new ArrayList<>(leaves.values());
+        nodes.forEach(n -> n.parent = null);
+        root = nodes.isEmpty() ? null : build(nodes, 0, nodes.size(), new Vector3f());
+        if (root != null) {
+            root.parent = null;
+        }
+        numChanges = 0;
+    }
+
+    private Node<T> build(List<Node<T>> nodes, int start, int end, Vector3f center) {
+        if (end - start == 1) {
+            return nodes.get(start);
+        }
+        Aabb centroidBounds = new Aabb();
+        for (int i = start; i < end; i++) {
+            nodes.get(i).bounds.getCenter(center);
+            centroidBounds.include(center.x, center.y, center.z);
+        }
+        Vector3f extent = new Vector3f(centroidBounds.getMax()).sub(centroidBounds.getMin());
+        int axis = extent.x >= extent.y && extent.x >= extent.z ? 0 : extent.y >= extent.z ? 1 : 2;
+        float axisMin = centroidBounds.getMin().get(axis);
+        float axisExtent = extent.get(axis);
+
+        int mid = -1;
+        if (axisExtent > 0) {
+            int bestSplit = findSahSplit(nodes, start, end, axis, axisMin, axisExtent, center);
+            if (bestSplit > 0) {
+                // Partition in place: nodes in bins below the split go first
+                int left = start;
+                for (int i = start; i < end; i++) {
+                    if (getBin(nodes.get(i), axis, axisMin, axisExtent, center) < bestSplit) {
+                        Collections.swap(nodes, i, left++);
+                    }
+                }
+                if (left > start && left < end) {
+                    mid = left;
+                }
+            }
+        }
+        if (mid < 0) {
+            // Degenerate centroids, split by count
+            nodes.subList(start, end).sort(Comparator.comparingDouble(n -> n.bounds.getCenter(new Vector3f()).get(axis)));
+            mid = (start + end) / 2;
+        }
+
+        Node<T> node = new Node<>(null);
+        node.left = build(nodes, start, mid, center);
+        node.right = build(nodes, mid, end, center);
+        node.left.parent = node;
+        node.right.parent = node;
+        node.bounds.set(node.left.bounds).union(node.right.bounds);
+        return node;
+    }
+
+    public void clear() {
+        leaves.clear();
+        root = null;
+        numChanges = 0;
+    }
+
+    private int findSahSplit(List<Node<T>> nodes, int start, int end, int axis, float axisMin, float axisExtent,
+                             Vector3f center) {
+        int[] binCounts = new int[NUM_BINS];
+        Aabb[] binBounds = new Aabb[NUM_BINS];
+        for (int i = 0; i < NUM_BINS; i++) {
+            binBounds[i] = new Aabb();
+        }
+        for (int i = start; i < end; i++) {
+            Node<T> node = nodes.get(i);
+            int bin = getBin(node, axis, axisMin, axisExtent, center);
+            binCounts[bin]++;
+            binBounds[bin].union(node.bounds);
+        }
+
+        float[] leftCosts = new float[NUM_BINS];
+        Aabb accum = new Aabb();
+        int count = 0;
+        for (int i = 0; i < NUM_BINS - 1; i++) {
+            accum.union(binBounds[i]);
+            count += binCounts[i];
+            leftCosts[i + 1] = accum.getSurfaceArea() * count;
+        }
+        int bestSplit = -1;
+        float bestCost = Float.POSITIVE_INFINITY;
+        accum.setEmpty();
+        count = 0;
+        for (int i = NUM_BINS - 1; i > 0; i--) {
+            accum.union(binBounds[i]);
+            count += binCounts[i];
+            float cost = leftCosts[i] + accum.getSurfaceArea() * count;
+            if (count < end - start && count > 0 && cost < bestCost) {
+                bestCost = cost;
+                bestSplit = i;
+            }
+        }
+        return bestSplit;
+    }
+
+    private int getBin(Node<T> node, int axis, float axisMin, float axisExtent, Vector3f center) {
+        float value = node.bounds.getCenter(center).get(axis);
+        int bin = (int) ((value - axisMin) / axisExtent * NUM_BINS);
+        return Math.min(Math.max(bin, 0), NUM_BINS - 1);
+    }
+
+    public void insert(T item, Aabb bounds) {
+        if (leaves.containsKey(item)) {
+            update(item, bounds);
+            return;
+        }
+        Node<T> leaf = new Node<>(item);
+        leaf.itemBounds.set(bounds);
+        leaf.bounds.set(bounds).grow(LEAF_MARGIN);
+        leaves.put(item, leaf);
+        insertLeaf(leaf);
+        numChanges++;
+    }
+
+    private void insertLeaf(Node<T> leaf) {
+        if (root == null) {
+            root = leaf;
+            leaf.parent = null;
+            return;
+        }
+        // Descend towards the child whose area grows the least
+        Aabb merged = new Aabb();
+        Node<T> sibling = root;
+        while (!sibling.isLeaf()) {
+            float leftCost = merged.set(sibling.left.bounds).union(leaf.bounds).getSurfaceArea() -
+                    sibling.left.bounds.getSurfaceArea();
+            float rightCost = merged.set(sibling.right.bounds).union(leaf.bounds).getSurfaceArea() -
+                    sibling.right.bounds.getSurfaceArea();
+            sibling = leftCost <= rightCost ? sibling.left : sibling.right;
+        }
+
+        Node<T> oldParent = sibling.parent;
+        Node<T> newParent = new Node<>(null);
+        newParent.parent = oldParent;
+        newParent.left = sibling;
+        newParent.right = leaf;
+        sibling.parent = newParent;
+        leaf.parent = newParent;
+        if (oldParent == null) {
+            root = newParent;
+        } else if (oldParent.left == sibling) {
+            oldParent.left = newParent;
+        } else {
+            oldParent.right = newParent;
+        }
+        refit(newParent);
+    }
+
+    public void queryFrustum(FrustumIntersection frustumIntersection, Consumer<T> consumer) {
+        if (root == null) {
+            return;
+        }
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            if (!node.bounds.testFrustum(frustumIntersection)) {
+                continue;
+            }
+            if (node.isLeaf()) {
+                if (node.itemBounds.testFrustum(frustumIntersection)) {
+                    consumer.accept(node.item);
+                }
+            } else {
+                stack.push(node.left);
+                stack.push(node.right);
+            }
+        }
+    }
+
+    public RayHit<T> queryRay(Vector3f origin, Vector3f dir) {
+        RayHit<T> result = null;
+        if (root == null) {
+            return null;
+        }
+        float closest = Float.POSITIVE_INFINITY;
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            if (node.bounds.testRay(origin, dir) >= closest) {
+                continue;
+            }
+            if (node.isLeaf()) {
+                float distance = node.itemBounds.testRay(origin, dir);
+                if (distance < closest) {
+                    closest = distance;
+                    result = new RayHit<>(node.item, distance);
+                }
+            } else {
+                stack.push(node.left);
+                stack.push(node.right);
+            }
+        }
+        return result;
+    }
+
+    public void querySphere(Vector3f center, float radius, Consumer<T> consumer) {
+        if (root == null) {
+            return;
+        }
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            if (!node.bounds.testSphere(center, radius)) {
+                continue;
+            }
+            if (node.isLeaf()) {
+                if (node.itemBounds.testSphere(center, radius)) {
+                    consumer.accept(node.item);
+                }
+            } else {
+                stack.push(node.left);
+                stack.push(node.right);
+            }
+        }
+    }
+
+    public boolean rebuildIfDegraded() {
+        // Incremental inserts and refits lower the tree quality, rebuild once they outnumber the leaves
+        if (numChanges <= leaves.size()) {
+            return false;
+        }
+        build();
+        return true;
+    }
+
+    public void remove(T item) {
+        Node<T> leaf = leaves.remove(item);
+        if (leaf == null) {
+            return;
+        }
+        removeLeaf(leaf);
+        numChanges++;
+    }
+
+    private void removeLeaf(Node<T> leaf) {
+        Node<T> parent = leaf.parent;
+        if (parent == null) {
+            root = null;
+            return;
+        }
+        Node<T> sibling = parent.left == leaf ? parent.right : parent.left;
+        Node<T> grandParent = parent.parent;
+        sibling.parent = grandParent;
+        if (grandParent == null) {
+            root = sibling;
+        } else {
+            if (grandParent.left == parent) {
+                grandParent.left = sibling;
+            } else {
+                grandParent.right = sibling;
+            }
+            refit(grandParent);
+        }
+        leaf.parent = null;
+    }
+
+    public int size() {
+        return leaves.size();
+    }
+
+    public void update(T item, Aabb bounds) {
+        Node<T> leaf = leaves.get(item);
+        if (leaf == null) {
+            insert(item, bounds);
+            return;
+        }
+        leaf.itemBounds.set(bounds);
+        if (leaf.bounds.contains(bounds)) {
+            return;
+        }
+        // Refit: the leaf keeps its place in the tree and its ancestors are enlarged to contain it
+        leaf.bounds.set(bounds).grow(LEAF_MARGIN);
+        if (leaf.parent != null) {
+            refit(leaf.parent);
+        }
+        numChanges++;
+    }
+
+    private static class Node<T> {
+        private final Aabb bounds;
+        private final T item;
+        private final Aabb itemBounds;
+        private Node<T> left;
+        private Node<T> parent;
+        private Node<T> right;
+
+        public Node(T item) {
+            this.item = item;
+            bounds = new Aabb();
+            itemBounds = new Aabb();
+        }
+
+        public boolean isLeaf() {
+            return item != null;
+        }
+    }
+
+    public record RayHit<T>(T item, float distance) {
+    }
+}
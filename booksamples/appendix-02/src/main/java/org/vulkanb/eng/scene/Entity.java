@@ -2,6 +2,8 @@ package org.vulkanb.eng.scene;
 
 import org.joml.*;
 
+import java.util.function.Consumer;
+
 public class Entity {
 
     private EntityAnimation entityAnimation;
@@ -9,8 +11,13 @@ public class Entity {
     private String modelId;
     private Matrix4f modelMatrix;
     private Vector3f position;
+    private Vector3f previousPosition;
+    private Quaternionf previousRotation;
+    private float previousScale;
     private Quaternionf rotation;
     private float scale;
+    private boolean staticEntity;
+    private Consumer<Entity> transformListener;
 
     public Entity(String id, String modelId, Vector3f position) {
         this.id = id;
@@ -19,6 +26,9 @@ public class Entity {
         scale = 1;
         rotation = new Quaternionf();
         modelMatrix = new Matrix4f();
+        previousPosition = new Vector3f(position);
+        previousRotation = new Quaternionf();
+        previousScale = scale;
         updateModelMatrix();
     }
 
@@ -38,6 +48,18 @@ public class Entity {
         return modelMatrix;
     }
 
+    public Vector3f getInterpolatedPosition(float alpha, Vector3f dest) {
+        return previousPosition.lerp(position, alpha, dest);
+    }
+
+    public Quaternionf getInterpolatedRotation(float alpha, Quaternionf dest) {
+        return previousRotation.slerp(rotation, alpha, dest);
+    }
+
+    public float getInterpolatedScale(float alpha) {
+        return previousScale + (scale - previousScale) * alpha;
+    }
+
     public Vector3f getPosition() {
         return position;
     }
@@ -54,6 +76,15 @@ public class Entity {
         return entityAnimation != null;
     }
 
+    // Whether the transform changed in the last update, so the rendered one depends on the interpolation alpha
+    public boolean isInterpolating() {
+        return previousScale != scale || !previousPosition.equals(position) || !previousRotation.equals(rotation);
+    }
+
+    public boolean isStaticEntity() {
+        return staticEntity;
+    }
+
     public void resetRotation() {
         rotation.x = 0.0f;
         rotation.y = 0.0f;
@@ -65,6 +96,10 @@ public class Entity {
         this.entityAnimation = entityAnimation;
     }
 
+    void setModelId(String modelId) {
+        this.modelId = modelId;
+    }
+
     public final void setPosition(float x, float y, float z) {
         position.x = x;
         position.y = y;
@@ -77,8 +112,25 @@ public class Entity {
         updateModelMatrix();
     }
 
+    public void setStaticEntity(boolean staticEntity) {
+        this.staticEntity = staticEntity;
+    }
+
+    public void storePreviousTransform() {
+        previousPosition.set(position);
+        previousRotation.set(rotation);
+        previousScale = scale;
+    }
+
+    void setTransformListener(Consumer<Entity> transformListener) {
+        this.transformListener = transformListener;
+    }
+
     public void updateModelMatrix() {
         modelMatrix.translationRotateScale(position, rotation, scale);
+        if (transformListener != null) {
+            transformListener.accept(this);
+        }
     }
 
     public static class EntityAnimation {
@@ -25,6 +25,12 @@ public class ModelData {
         return animationsList;
     }
 
+    public Aabb getBounds() {
+        Aabb bounds = new Aabb();
+        meshDataList.forEach(m -> bounds.union(m.bounds()));
+        return bounds;
+    }
+
     public List<Material> getMaterialList() {
         return materialList;
     }
@@ -68,7 +74,7 @@ public class ModelData {
     }
 
     public record MeshData(float[] positions, float[] normals, float[] tangents, float[] biTangents,
-                           float[] textCoords, int[] indices, int materialIdx) {
+                           float[] textCoords, int[] indices, int materialIdx, Aabb bounds) {
 
     }
 }
\ No newline at end of file
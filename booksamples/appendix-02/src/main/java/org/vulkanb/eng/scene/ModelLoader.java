@@ -358,8 +358,10 @@ public class ModelLoader {
         }
 
         int materialIdx = aiMesh.mMaterialIndex();
-        return new ModelData.MeshData(listFloatToArray(vertices), listFloatToArray(normals), listFloatToArray(tangents),
-                listFloatToArray(biTangents), listFloatToArray(textCoords), listIntToArray(indices), materialIdx);
+        float[] positions = listFloatToArray(vertices);
+        return new ModelData.MeshData(positions, listFloatToArray(normals), listFloatToArray(tangents),
+                listFloatToArray(biTangents), listFloatToArray(textCoords), listIntToArray(indices), materialIdx,
+                Aabb.fromPositions(positions));
     }
 
     private static List<Float> processNormals(AIMesh aiMesh) {
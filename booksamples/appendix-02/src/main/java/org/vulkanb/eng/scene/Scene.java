@@ -1,29 +1,49 @@
 package org.vulkanb.eng.scene;
 
-import org.joml.Vector4f;
+import org.joml.*;
 import org.vulkanb.eng.Window;
 import org.vulkanb.eng.graph.vk.GraphConstants;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 public class Scene {
 
     private Vector4f ambientLight;
+    // Entities whose world bounds changed since the tree was last refitted
+    private final Set<Entity> boundsChangedEntities;
     private Camera camera;
     private Light directionalLight;
+    private final Set<Entity> dirtyEntities;
+    private final Bvh<Entity> entityBvh;
+    private final List<EntityEvent> entityEvents;
     private long entitiesLoadedTimeStamp;
     private Map<String, List<Entity>> entitiesMap;
     private IGuiInstance guiInstance;
     private boolean lightChanged;
     private Light[] lights;
+    private final Map<String, Aabb> modelBounds;
+    private final Set<Entity> movingEntities;
     private Projection projection;
+    private final Consumer<Entity> transformListener;
 
     public Scene(Window window) {
+        this(window.getWidth(), window.getHeight());
+    }
+
+    public Scene(int width, int height) {
+        boundsChangedEntities = new HashSet<>();
+        dirtyEntities = new HashSet<>();
+        entityBvh = new Bvh<>();
         entitiesMap = new HashMap<>();
+        entityEvents = new ArrayList<>();
+        modelBounds = new HashMap<>();
+        movingEntities = new HashSet<>();
         projection = new Projection();
-        projection.resize(window.getWidth(), window.getHeight());
+        projection.resize(width, height);
         camera = new Camera();
         ambientLight = new Vector4f();
+        transformListener = this::onTransformChanged;
     }
 
     public void addEntity(Entity entity) {
@@ -33,7 +53,32 @@ public class Scene {
             entitiesMap.put(entity.getModelId(), entities);
         }
         entities.add(entity);
-        entitiesLoadedTimeStamp = System.currentTimeMillis();
+        entityEvents.add(new EntityEvent(EntityEventType.ADDED, entity, entity.getModelId()));
+        entity.setTransformListener(transformListener);
+        entityBvh.insert(entity, getWorldBounds(entity, new Aabb()));
+    }
+
+    public void addModelBounds(ModelData modelData) {
+        modelBounds.put(modelData.getModelId(), modelData.getBounds());
+        List<Entity> entities = entitiesMap.get(modelData.getModelId());
+        if (entities != null) {
+            boundsChangedEntities.addAll(entities);
+        }
+    }
+
+    public void changeEntityModel(Entity entity, String modelId) {
+        String prevModelId = entity.getModelId();
+        if (prevModelId.equals(modelId)) {
+            return;
+        }
+        List<Entity> entities = entitiesMap.get(prevModelId);
+        if (entities != null) {
+            entities.removeIf(e -> e.getId().equals(entity.getId()));
+        }
+        entity.setModelId(modelId);
+        entitiesMap.computeIfAbsent(modelId, k -> new ArrayList<>()).add(entity);
+        entityEvents.add(new EntityEvent(EntityEventType.MODEL_CHANGED, entity, prevModelId));
+        boundsChangedEntities.add(entity);
     }
 
     public Vector4f getAmbientLight() {
@@ -48,6 +93,11 @@ public class Scene {
         return directionalLight;
     }
 
+    // Entities whose transform changed since the instance data was last written
+    public Set<Entity> getDirtyEntities() {
+        return dirtyEntities;
+    }
+
     public List<Entity> getEntitiesByModelId(String modelId) {
         return entitiesMap.get(modelId);
     }
@@ -60,6 +110,22 @@ public class Scene {
         return entitiesMap;
     }
 
+    // Entities moved since their previous transform was stored, rendered blended with the interpolation alpha
+    public Set<Entity> getMovingEntities() {
+        return movingEntities;
+    }
+
+    // Moved entities are refitted in place when the tree is requested, it is only rebuilt once refits degraded it
+    public Bvh<Entity> getEntityBvh() {
+        if (!boundsChangedEntities.isEmpty()) {
+            Aabb bounds = new Aabb();
+            boundsChangedEntities.forEach(e -> entityBvh.update(e, getWorldBounds(e, bounds)));
+            boundsChangedEntities.clear();
+        }
+        entityBvh.rebuildIfDegraded();
+        return entityBvh;
+    }
+
     public IGuiInstance getGuiInstance() {
         return guiInstance;
     }
@@ -72,21 +138,56 @@ public class Scene {
         return projection;
     }
 
+    private Aabb getWorldBounds(Entity entity, Aabb dest) {
+        Aabb localBounds = modelBounds.get(entity.getModelId());
+        if (localBounds == null || localBounds.isEmpty()) {
+            Vector3f position = entity.getPosition();
+            return dest.setEmpty().include(position.x, position.y, position.z);
+        }
+        return localBounds.transform(entity.getModelMatrix(), dest);
+    }
+
     public boolean isLightChanged() {
         return lightChanged;
     }
 
+    private void onTransformChanged(Entity entity) {
+        boundsChangedEntities.add(entity);
+        dirtyEntities.add(entity);
+        movingEntities.add(entity);
+    }
+
+    public List<EntityEvent> pollEntityEvents() {
+        List<EntityEvent> result = new ArrayList<>(entityEvents);
+        entityEvents.clear();
+        return result;
+    }
+
     public void removeAllEntities() {
+        entitiesMap.values().forEach(l -> l.forEach(e -> e.setTransformListener(null)));
         entitiesMap.clear();
+        entityEvents.clear();
+        boundsChangedEntities.clear();
+        entityBvh.clear();
+        dirtyEntities.clear();
+        movingEntities.clear();
         entitiesLoadedTimeStamp = System.currentTimeMillis();
     }
 
     public void removeEntity(Entity entity) {
         List<Entity> entities = entitiesMap.get(entity.getModelId());
-        if (entities != null) {
-            entities.removeIf(e -> e.getId().equals(entity.getId()));
+        if (entities != null && entities.removeIf(e -> e.getId().equals(entity.getId()))) {
+            entityEvents.add(new EntityEvent(EntityEventType.REMOVED, entity, entity.getModelId()));
+            entity.setTransformListener(null);
+            entityBvh.remove(entity);
+            boundsChangedEntities.remove(entity);
+            dirtyEntities.remove(entity);
+            movingEntities.remove(entity);
         }
-        entitiesLoadedTimeStamp = System.currentTimeMillis();
+    }
+
+    public void resetDirtyEntities() {
+        dirtyEntities.clear();
     }
 
     public void setGuiInstance(IGuiInstance guiInstance) {
@@ -111,4 +212,23 @@ public class Scene {
 
         lightChanged = true;
     }
+
+    // Called before each fixed update, so rendering can blend between the previous and the updated transforms
+    public void storePreviousTransforms() {
+        // The previous transform of any other entity already matches the current one
+        for (Entity entity : movingEntities) {
+            entity.storePreviousTransform();
+            // The last rendered transform was a blend, make sure the settled one gets rendered too
+            dirtyEntities.add(entity);
+        }
+        movingEntities.clear();
+    }
+
+    public enum EntityEventType {
+        ADDED, REMOVED, MODEL_CHANGED
+    }
+
+    // For MODEL_CHANGED events prevModelId holds the model the entity was moved from
+    public record EntityEvent(EntityEventType type, Entity entity, String prevModelId) {
+    }
 }
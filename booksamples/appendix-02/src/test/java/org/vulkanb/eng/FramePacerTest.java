@@ -0,0 +1,132 @@
+package org.vulkanb.eng;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FramePacerTest {
+
+    private static final long MILLIS = 1_000_000L;
+    // Each clock read while spinning advances the time, as a real spin would
+    private static final long SPIN_NANOS = 50_000L;
+
+    private final List<Long> parks = new ArrayList<>();
+    private long now;
+    private int numReads;
+
+    // Time only moves between frames, which must not wait
+    private FramePacer createFramePacer(int numFrameTimes) {
+        now = 1_000 * MILLIS;
+        return new FramePacer(() -> now, parks::add, 0, numFrameTimes);
+    }
+
+    private FramePacer createSpinningFramePacer(int targetFps) {
+        now = 1_000 * MILLIS;
+        return new FramePacer(() -> {
+            numReads++;
+            now += SPIN_NANOS;
+            return now;
+        }, nanos -> {
+            parks.add(nanos);
+            now += nanos;
+        }, targetFps, 10);
+    }
+
+    private void runFrames(FramePacer framePacer, long... frameMillis) {
+        for (long millis : frameMillis) {
+            now += millis * MILLIS;
+            framePacer.endFrame();
+        }
+    }
+
+    @Test
+    void fallingBehindRestartsSchedule() {
+        FramePacer framePacer = createSpinningFramePacer(100);
+        // A 50 ms hitch is not followed by a burst of frames without waiting
+        runFrames(framePacer, 50);
+        assertTrue(parks.isEmpty());
+        runFrames(framePacer, 3);
+        assertEquals(1, parks.size());
+        long parked = parks.get(0);
+        assertTrue(parked > 4 * MILLIS && parked <= 5 * MILLIS, "Parked " + parked);
+    }
+
+    @Test
+    void longWaitParksThenSpins() {
+        FramePacer framePacer = createSpinningFramePacer(100);
+        long start = now;
+        now += 3 * MILLIS;
+        numReads = 0;
+        framePacer.endFrame();
+
+        // 7 ms left: parks until 2 ms before the deadline, then spins the rest
+        assertEquals(1, parks.size());
+        long parked = parks.get(0);
+        assertTrue(parked > 4 * MILLIS && parked <= 5 * MILLIS, "Parked " + parked);
+        assertTrue(numReads >= 2 * MILLIS / SPIN_NANOS, "Clock reads " + numReads);
+        assertTrue(now - start >= 10 * MILLIS && now - start < 10 * MILLIS + 2 * SPIN_NANOS, "Frame " + (now - start));
+    }
+
+    @Test
+    void noWaitWithoutCap() {
+        FramePacer framePacer = createFramePacer(10);
+        runFrames(framePacer, 1, 2, 3);
+        assertTrue(parks.isEmpty());
+        assertEquals(3, framePacer.getFrameTimeStats().numFrames());
+    }
+
+    @Test
+    void percentiles() {
+        FramePacer framePacer = createFramePacer(100);
+        long[] frameMillis = new long[100];
+        for (int i = 0; i < frameMillis.length; i++) {
+            // Recorded out of order
+            frameMillis[i] = (i * 37) % 100 + 1;
+        }
+        runFrames(framePacer, frameMillis);
+
+        FramePacer.FrameTimeStats stats = framePacer.getFrameTimeStats();
+        assertEquals(100, stats.numFrames());
+        assertEquals(50.0, stats.p50Millis());
+        assertEquals(95.0, stats.p95Millis());
+        assertEquals(99.0, stats.p99Millis());
+    }
+
+    @Test
+    void percentilesOfSmallSamples() {
+        FramePacer framePacer = createFramePacer(10);
+        assertEquals(new FramePacer.FrameTimeStats(0, 0, 0, 0), framePacer.getFrameTimeStats());
+
+        runFrames(framePacer, 7);
+        assertEquals(new FramePacer.FrameTimeStats(1, 7, 7, 7), framePacer.getFrameTimeStats());
+
+        // Nearest rank: p50 of 3 samples is the 2nd, p95 and p99 the 3rd
+        runFrames(framePacer, 3, 5);
+        assertEquals(new FramePacer.FrameTimeStats(3, 5, 7, 7), framePacer.getFrameTimeStats());
+
+        // p50 of 4 samples is the 2nd, not an average
+        runFrames(framePacer, 1);
+        assertEquals(new FramePacer.FrameTimeStats(4, 3, 7, 7), framePacer.getFrameTimeStats());
+    }
+
+    @Test
+    void percentilesUseLatestFrames() {
+        FramePacer framePacer = createFramePacer(4);
+        runFrames(framePacer, 100, 100, 1, 2, 3, 4);
+        assertEquals(new FramePacer.FrameTimeStats(4, 2, 4, 4), framePacer.getFrameTimeStats());
+    }
+
+    @Test
+    void shortWaitOnlySpins() {
+        FramePacer framePacer = createSpinningFramePacer(100);
+        long start = now;
+        now += 8 * MILLIS + 500_000L;
+        framePacer.endFrame();
+
+        // 1.5 ms left, below the threshold
+        assertTrue(parks.isEmpty());
+        assertTrue(now - start >= 10 * MILLIS && now - start < 10 * MILLIS + 2 * SPIN_NANOS, "Frame " + (now - start));
+    }
+}
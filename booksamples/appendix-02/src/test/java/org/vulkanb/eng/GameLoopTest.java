@@ -0,0 +1,95 @@
+package org.vulkanb.eng;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameLoopTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private long now;
+
+    private GameLoop createGameLoop(int ups, int maxUpdateSteps) {
+        now = 1_000 * MILLIS;
+        return new GameLoop(() -> now, ups, maxUpdateSteps);
+    }
+
+    @Test
+    void clockGoingBackwardsIsIgnored() {
+        GameLoop gameLoop = createGameLoop(50, 5);
+        now -= 10 * MILLIS;
+        assertEquals(0, gameLoop.nextFrame());
+        assertEquals(0, gameLoop.getUpdateSteps());
+
+        now += 20 * MILLIS;
+        gameLoop.nextFrame();
+        assertEquals(1, gameLoop.getUpdateSteps());
+    }
+
+    @Test
+    void fixedStepAccumulation() {
+        // 20 ms steps
+        GameLoop gameLoop = createGameLoop(50, 5);
+
+        now += 10 * MILLIS;
+        assertEquals(10 * MILLIS, gameLoop.nextFrame());
+        assertEquals(0, gameLoop.getUpdateSteps());
+        assertEquals(0.5f, gameLoop.getAlpha(), 1e-6f);
+
+        now += 15 * MILLIS;
+        gameLoop.nextFrame();
+        assertEquals(1, gameLoop.getUpdateSteps());
+        assertEquals(0.25f, gameLoop.getAlpha(), 1e-6f);
+
+        now += 40 * MILLIS;
+        gameLoop.nextFrame();
+        assertEquals(2, gameLoop.getUpdateSteps());
+        assertEquals(0.25f, gameLoop.getAlpha(), 1e-6f);
+
+        // Steps carry over frames, 60 ms of frames in 3 steps
+        now += 15 * MILLIS;
+        gameLoop.nextFrame();
+        assertEquals(1, gameLoop.getUpdateSteps());
+        assertEquals(0.0f, gameLoop.getAlpha(), 1e-6f);
+    }
+
+    @Test
+    void interpolationAlphaStaysBelowOne() {
+        GameLoop gameLoop = createGameLoop(60, 5);
+        for (int i = 0; i < 1000; i++) {
+            now += (i * 7919 % 40) * MILLIS / 3;
+            gameLoop.nextFrame();
+            float alpha = gameLoop.getAlpha();
+            assertTrue(alpha >= 0.0f && alpha < 1.0f, "Alpha " + alpha);
+        }
+    }
+
+    @Test
+    void invalidSettings() {
+        assertThrows(RuntimeException.class, () -> new GameLoop(() -> 0, 0, 5));
+        assertThrows(RuntimeException.class, () -> new GameLoop(() -> 0, 30, 0));
+    }
+
+    @Test
+    void spiralOfDeathClamp() {
+        GameLoop gameLoop = createGameLoop(50, 5);
+
+        // A 1 s stall only runs the maximum number of steps, and the backlog is dropped
+        now += 1_010 * MILLIS;
+        gameLoop.nextFrame();
+        assertEquals(5, gameLoop.getUpdateSteps());
+        assertEquals(0.5f, gameLoop.getAlpha(), 1e-6f);
+
+        now += 20 * MILLIS;
+        gameLoop.nextFrame();
+        assertEquals(1, gameLoop.getUpdateSteps());
+        assertEquals(0.5f, gameLoop.getAlpha(), 1e-6f);
+    }
+
+    @Test
+    void stepMillisIsNotTruncated() {
+        assertEquals(33.333f, createGameLoop(30, 5).getStepMillis(), 1e-3f);
+        assertEquals(20.0f, createGameLoop(50, 5).getStepMillis(), 1e-6f);
+    }
+}
@@ -0,0 +1,104 @@
+package org.vulkanb.eng.graph;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamicResolutionTest {
+
+    private static final float EPSILON = 1e-4f;
+    private static final double TARGET_MS = 10.0;
+
+    private static DynamicResolution createDynamicResolution() {
+        return new DynamicResolution(TARGET_MS, 0.5f, 1.0f);
+    }
+
+    // Number of updates with the given GPU time until the scale changes, or -1 if it does not within maxFrames
+    private static int framesUntilChange(DynamicResolution dynamicResolution, double gpuMs, int maxFrames) {
+        float scale = dynamicResolution.getScale();
+        for (int i = 1; i <= maxFrames; i++) {
+            if (dynamicResolution.update(gpuMs) != scale) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    void clampsToMaxScale() {
+        DynamicResolution dynamicResolution = createDynamicResolution();
+        assertEquals(1.0f, dynamicResolution.getScale(), EPSILON);
+        assertEquals(-1, framesUntilChange(dynamicResolution, 1.0, 1000));
+
+        DynamicResolution capped = new DynamicResolution(TARGET_MS, 0.5f, 0.8f);
+        assertEquals(0.8f, capped.getScale(), EPSILON);
+        assertEquals(-1, framesUntilChange(capped, 1.0, 1000));
+    }
+
+    @Test
+    void clampsToMinScale() {
+        DynamicResolution dynamicResolution = createDynamicResolution();
+        assertEquals(5, framesUntilChange(dynamicResolution, 20.0, 1000));
+        assertEquals(0.7f, dynamicResolution.getScale(), EPSILON);
+        // The estimate for the same time at 0.7 is below the minimum
+        assertEquals(35, framesUntilChange(dynamicResolution, 20.0, 1000));
+        assertEquals(0.5f, dynamicResolution.getScale(), EPSILON);
+        assertEquals(-1, framesUntilChange(dynamicResolution, 100.0, 1000));
+        assertEquals(0.5f, dynamicResolution.getScale(), EPSILON);
+    }
+
+    @Test
+    void cooldownDelaysNextChange() {
+        DynamicResolution dynamicResolution = createDynamicResolution();
+        assertEquals(5, framesUntilChange(dynamicResolution, 20.0, 1000));
+        // Still over budget, but 30 frames of cooldown pass before counting 5 frames over it again
+        assertEquals(35, framesUntilChange(dynamicResolution, 20.0, 1000));
+    }
+
+    @Test
+    void increaseNeedsSustainedHeadroom() {
+        DynamicResolution dynamicResolution = createDynamicResolution();
+        framesUntilChange(dynamicResolution, 20.0, 1000);
+        // Times between 80% of the target and the target keep the scale
+        assertEquals(-1, framesUntilChange(dynamicResolution, 9.0, 1000));
+        assertEquals(0.7f, dynamicResolution.getScale(), EPSILON);
+
+        // The smoothed time takes 3 frames to go below 8 ms, then 60 frames under it grow the scale one step
+        assertEquals(62, framesUntilChange(dynamicResolution, 5.0, 1000));
+        assertEquals(0.75f, dynamicResolution.getScale(), EPSILON);
+        assertEquals(90, framesUntilChange(dynamicResolution, 5.0, 1000));
+        assertEquals(0.8f, dynamicResolution.getScale(), EPSILON);
+    }
+
+    @Test
+    void invalidSettings() {
+        assertThrows(RuntimeException.class, () -> new DynamicResolution(0, 0.5f, 1.0f));
+        assertThrows(RuntimeException.class, () -> new DynamicResolution(TARGET_MS, 0.0f, 1.0f));
+        assertThrows(RuntimeException.class, () -> new DynamicResolution(TARGET_MS, 0.8f, 0.5f));
+    }
+
+    @Test
+    void scaleSize() {
+        assertEquals(960, DynamicResolution.scaleSize(1920, 0.5f));
+        assertEquals(1, DynamicResolution.scaleSize(1, 0.1f));
+        assertEquals(100, DynamicResolution.scaleSize(100, 1.5f));
+    }
+
+    @Test
+    void shortSpikeKeepsScale() {
+        DynamicResolution dynamicResolution = createDynamicResolution();
+        assertEquals(-1, framesUntilChange(dynamicResolution, 9.0, 100));
+        // Smoothed to 10.1 ms, a single frame over the target
+        assertEquals(1.0f, dynamicResolution.update(20.0), EPSILON);
+        assertEquals(-1, framesUntilChange(dynamicResolution, 9.0, 1000));
+    }
+
+    @Test
+    void smoothsFrameTimes() {
+        DynamicResolution dynamicResolution = createDynamicResolution();
+        framesUntilChange(dynamicResolution, 9.0, 100);
+        // After 5 frames of 20 ms the smoothed time is 13.5 ms, the drop is estimated from it and not from 20 ms
+        assertEquals(5, framesUntilChange(dynamicResolution, 20.0, 1000));
+        assertEquals(0.85f, dynamicResolution.getScale(), EPSILON);
+    }
+}
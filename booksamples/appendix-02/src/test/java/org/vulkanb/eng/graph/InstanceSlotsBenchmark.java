@@ -0,0 +1,89 @@
+package org.vulkanb.eng.graph;
+
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.vulkanb.eng.graph.vk.InstanceData;
+import org.vulkanb.eng.scene.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// A frame of the dynamic instance data as GlobalBuffers.loadInstanceData writes it: the moved entities land in the
+// dirty set of the scene through their transform listener, and their slots get written to every buffer in flight.
+// Host memory stands in for the mapped buffers. The full rewrite is the baseline marking every slot in the frame
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceSlotsBenchmark {
+
+    private static final int FRAMES_IN_FLIGHT = 3;
+    private static final int NUM_ENTITIES = 50_000;
+
+    private ByteBuffer dataBuffer;
+    private GlobalBuffers.InstanceSlots instanceSlots;
+    private Entity[] movedEntities;
+    @Param({"50", "500", "5000", "25000"})
+    private int numMoved;
+    private Scene scene;
+    private float step;
+
+    @Benchmark
+    public void fullRewrite() {
+        moveEntities();
+        instanceSlots.markAllSlots();
+        scene.resetDirtyEntities();
+        writeSlots();
+    }
+
+    @Benchmark
+    public void markAndWrite() {
+        moveEntities();
+        instanceSlots.markDirtySlots(scene.getDirtyEntities());
+        scene.resetDirtyEntities();
+        writeSlots();
+    }
+
+    private void moveEntities() {
+        step += 0.01f;
+        for (Entity entity : movedEntities) {
+            Vector3f position = entity.getPosition();
+            entity.setPosition(position.x, step, position.z);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        scene = new Scene(1920, 1080);
+        List<Entity> entities = new ArrayList<>();
+        List<Integer> materials = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTITIES; i++) {
+            Entity entity = new Entity("entity-" + i, "model", new Vector3f(i, 0, 0));
+            scene.addEntity(entity);
+            entities.add(entity);
+            materials.add(0);
+        }
+        instanceSlots = new GlobalBuffers.InstanceSlots(entities, materials, FRAMES_IN_FLIGHT);
+        dataBuffer = MemoryUtil.memAlloc(NUM_ENTITIES * InstanceData.SIZE_IN_BYTES);
+        writeSlots();
+
+        // Shuffled, so entities are not moved in slot order
+        Collections.shuffle(entities, new Random(0));
+        movedEntities = entities.subList(0, numMoved).toArray(new Entity[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MemoryUtil.memFree(dataBuffer);
+    }
+
+    private void writeSlots() {
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            instanceSlots.writeDirtySlots(dataBuffer, i, 1.0f);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.vulkanb.eng.graph;
+
+import org.joml.Vector3f;
+import org.junit.jupiter.api.*;
+import org.vulkanb.eng.graph.vk.InstanceData;
+import org.vulkanb.eng.scene.*;
+
+import java.nio.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceSlotsTest {
+
+    private static final int NUM_BUFFERS = 2;
+    private static final int NUM_ENTITIES = 9;
+
+    private final List<Entity> entities = new ArrayList<>();
+    private final Scene scene = new Scene(1920, 1080);
+    private final List<Entity> slotEntities = new ArrayList<>();
+
+    private static float[] writtenHeights(GlobalBuffers.InstanceSlots instanceSlots, ByteBuffer buffer, int bufferIdx,
+                                          int numSlots) {
+        instanceSlots.writeDirtySlots(buffer, bufferIdx, 1.0f);
+        float[] heights = new float[numSlots];
+        Vector3f position = new Vector3f();
+        for (int i = 0; i < numSlots; i++) {
+            heights[i] = InstanceData.unpackPosition(buffer, i * InstanceData.SIZE_IN_BYTES, position).y;
+        }
+        return heights;
+    }
+
+    @Test
+    void highChurnMarksEverySlot() {
+        GlobalBuffers.InstanceSlots instanceSlots = newInstanceSlots();
+        ByteBuffer buffer = newWrittenBuffer(instanceSlots);
+        // Unmoved slots are set apart in the buffer, so only a full rewrite restores them
+        for (int i = 0; i < slotEntities.size(); i++) {
+            buffer.putFloat(i * InstanceData.SIZE_IN_BYTES + Float.BYTES, -1.0f);
+        }
+        // More than a third of the entities moved
+        for (int i = 1; i <= 4; i++) {
+            entities.get(i).setPosition(i, 1, 0);
+        }
+        instanceSlots.markDirtySlots(scene.getDirtyEntities());
+
+        float[] heights = writtenHeights(instanceSlots, buffer, 0, slotEntities.size());
+        assertArrayEquals(new float[]{0, 1, 1, 1, 1, 0, 0, 0, 0, 0, -1}, heights);
+    }
+
+    @Test
+    void marksOnlySlotsOfMovedEntities() {
+        GlobalBuffers.InstanceSlots instanceSlots = newInstanceSlots();
+        ByteBuffer buffer = newWrittenBuffer(instanceSlots);
+        entities.get(0).setPosition(0, 1, 0);
+        entities.get(5).setPosition(5, 2, 0);
+        // Moving them again before the frame must not write anything twice
+        entities.get(5).setPosition(5, 3, 0);
+        instanceSlots.markDirtySlots(scene.getDirtyEntities());
+
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+            float[] heights = writtenHeights(instanceSlots, buffer, i, slotEntities.size());
+            assertArrayEquals(new float[]{1, 0, 0, 0, 0, 3, 0, 0, 0, 1, 0}, heights);
+        }
+        entities.get(5).setPosition(5, 4, 0);
+        assertEquals(3, writtenHeights(instanceSlots, buffer, 0, slotEntities.size())[5]);
+    }
+
+    @Test
+    void unknownEntitiesAreIgnored() {
+        GlobalBuffers.InstanceSlots instanceSlots = newInstanceSlots();
+        ByteBuffer buffer = newWrittenBuffer(instanceSlots);
+        Set<Entity> others = new HashSet<>();
+        for (int i = 0; i < NUM_ENTITIES; i++) {
+            others.add(new Entity("other-" + i, "model", new Vector3f(0, 1, 0)));
+        }
+        entities.get(2).setPosition(2, 1, 0);
+        others.add(entities.get(2));
+        instanceSlots.markDirtySlots(others);
+
+        // Entities without slots count towards no threshold
+        float[] heights = writtenHeights(instanceSlots, buffer, 0, slotEntities.size());
+        assertArrayEquals(new float[]{0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0}, heights);
+    }
+
+    private GlobalBuffers.InstanceSlots newInstanceSlots() {
+        List<Integer> materials = slotEntities.stream().map(e -> 0).toList();
+        return new GlobalBuffers.InstanceSlots(slotEntities, materials, NUM_BUFFERS);
+    }
+
+    private ByteBuffer newWrittenBuffer(GlobalBuffers.InstanceSlots instanceSlots) {
+        ByteBuffer buffer = ByteBuffer.allocate(slotEntities.size() * InstanceData.SIZE_IN_BYTES)
+                .order(ByteOrder.nativeOrder());
+        // Every slot starts dirty
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+            instanceSlots.writeDirtySlots(buffer, i, 1.0f);
+        }
+        scene.resetDirtyEntities();
+        return buffer;
+    }
+
+    @BeforeEach
+    void setup() {
+        for (int i = 0; i < NUM_ENTITIES; i++) {
+            Entity entity = new Entity("entity-" + i, "model", new Vector3f(i, 0, 0));
+            scene.addEntity(entity);
+            entities.add(entity);
+            slotEntities.add(entity);
+        }
+        // A second mesh of the first entity and a spare slot
+        slotEntities.add(entities.get(0));
+        slotEntities.add(null);
+    }
+}
@@ -0,0 +1,349 @@
+package org.vulkanb.eng.graph.rendergraph;
+
+import org.junit.jupiter.api.Test;
+import org.vulkanb.eng.graph.vk.Image;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK11.*;
+
+class RenderGraphTest {
+
+    private static final ResourceAccess FRAGMENT_SAMPLED_READ = new ResourceAccess(
+            VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, VK_ACCESS_SHADER_READ_BIT, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+    private static final ResourceAccess TRANSFER_READ = new ResourceAccess(VK_PIPELINE_STAGE_TRANSFER_BIT,
+            VK_ACCESS_TRANSFER_READ_BIT, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+
+    private static final ResourceAccess COLOR_ATTACHMENT_LOAD = new ResourceAccess(
+            VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT,
+            VK_ACCESS_COLOR_ATTACHMENT_READ_BIT | VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT,
+            VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+
+    private static RenderGraph.Resource createTransient(RenderGraph renderGraph, String name) {
+        return renderGraph.createTransientImage(name, new Image.ImageData().width(16).height(16)
+                .usage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK_IMAGE_USAGE_SAMPLED_BIT));
+    }
+
+    private static RenderGraph.CompiledPass findPass(CompiledGraph compiledGraph, String name) {
+        return compiledGraph.passes().stream().filter(p -> p.name().equals(name)).findFirst().orElseThrow();
+    }
+
+    private static List<String> passNames(CompiledGraph compiledGraph) {
+        return compiledGraph.passes().stream().map(RenderGraph.CompiledPass::name).toList();
+    }
+
+    private static int slotOf(CompiledGraph compiledGraph, RenderGraph.Resource resource) {
+        return compiledGraph.aliases().stream().filter(a -> a.resource() == resource).findFirst().orElseThrow()
+                .slot();
+    }
+
+    @Test
+    void aliasBarriers() {
+        // Same shape as aliasSlots, the second and first occupants of the slot wait for each other
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource first = createTransient(renderGraph, "first");
+        RenderGraph.Resource second = createTransient(renderGraph, "second");
+        RenderGraph.Resource other = createTransient(renderGraph, "other");
+        renderGraph.addPass("writeFirst", cmd -> {
+        }).write(first, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+        renderGraph.addPass("readFirst", cmd -> {
+        }).read(first, FRAGMENT_SAMPLED_READ).write(other, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+        renderGraph.addPass("writeSecond", cmd -> {
+        }).read(other, FRAGMENT_SAMPLED_READ).write(second, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+        renderGraph.addPass("readSecond", cmd -> {
+        }).read(second, TRANSFER_READ).sideEffects();
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        CompiledGraph.Barrier secondBarrier = findPass(compiledGraph, "writeSecond").barrier();
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT,
+                secondBarrier.srcStageMask());
+        assertEquals(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT, secondBarrier.srcAccessMask());
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, secondBarrier.dstStageMask());
+        assertEquals(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT, secondBarrier.dstAccessMask());
+
+        // The previous execution of the graph may still be reading the second image
+        CompiledGraph.Barrier firstBarrier = findPass(compiledGraph, "writeFirst").barrier();
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_TRANSFER_BIT,
+                firstBarrier.srcStageMask());
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, firstBarrier.dstStageMask());
+    }
+
+    @Test
+    void aliasSlots() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource first = createTransient(renderGraph, "first");
+        RenderGraph.Resource second = createTransient(renderGraph, "second");
+        RenderGraph.Resource other = createTransient(renderGraph, "other");
+        RenderGraph.Resource unused = createTransient(renderGraph, "unused");
+        renderGraph.addPass("writeFirst", cmd -> {
+        }).write(first, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+        renderGraph.addPass("readFirst", cmd -> {
+        }).read(first, FRAGMENT_SAMPLED_READ).write(other, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+        renderGraph.addPass("writeSecond", cmd -> {
+        }).read(other, FRAGMENT_SAMPLED_READ).write(second, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+        renderGraph.addPass("readSecond", cmd -> {
+        }).read(second, FRAGMENT_SAMPLED_READ).sideEffects();
+        renderGraph.addPass("culled", cmd -> {
+        }).write(unused, ResourceAccess.COLOR_ATTACHMENT_CLEAR);
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertEquals(3, compiledGraph.aliases().size());
+        assertEquals(2, compiledGraph.getNumAliasSlots());
+        // The first image is no longer used when the second one is written
+        assertEquals(slotOf(compiledGraph, first), slotOf(compiledGraph, second));
+        assertNotEquals(slotOf(compiledGraph, first), slotOf(compiledGraph, other));
+    }
+
+    @Test
+    void aliasSlotsStayOnOneQueue() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource graphics = createTransient(renderGraph, "graphics");
+        RenderGraph.Resource compute = createTransient(renderGraph, "compute");
+        renderGraph.addPass("graphics", cmd -> {
+        }).write(graphics, ResourceAccess.COLOR_ATTACHMENT_CLEAR).sideEffects();
+        renderGraph.addPass("compute", RenderGraph.QueueType.COMPUTE, cmd -> {
+        }).write(compute, ResourceAccess.COMPUTE_WRITE).sideEffects();
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertEquals(2, compiledGraph.getNumAliasSlots());
+    }
+
+    @Test
+    void batchesSplitOnQueueAndAcquisition() {
+        // Same shape as the frame graph: skinning on the compute queue, the scene, then lighting into the swap chain
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource vertices = renderGraph.importBuffer("vertices", null);
+        RenderGraph.Resource albedo = renderGraph.importImage("albedo", () -> 1L, VK_IMAGE_ASPECT_COLOR_BIT,
+                VK_IMAGE_LAYOUT_UNDEFINED);
+        RenderGraph.Resource swapChainImage = renderGraph.importImage("swapChainImage", () -> 2L,
+                VK_IMAGE_ASPECT_COLOR_BIT, VK_IMAGE_LAYOUT_UNDEFINED).markAcquired().markOutput();
+        renderGraph.addPass("animation", RenderGraph.QueueType.COMPUTE, cmd -> {
+        }).write(vertices, ResourceAccess.COMPUTE_WRITE);
+        renderGraph.addPass("geometry", cmd -> {
+        }).read(vertices, ResourceAccess.VERTEX_READ).write(albedo, ResourceAccess.COLOR_ATTACHMENT_CLEAR)
+                .finalLayout(albedo, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+        renderGraph.addPass("lighting", cmd -> {
+        }).read(albedo, FRAGMENT_SAMPLED_READ).write(swapChainImage, ResourceAccess.COLOR_ATTACHMENT_CLEAR)
+                .finalLayout(swapChainImage, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+        renderGraph.addPass("overlay", cmd -> {
+        }).write(swapChainImage, COLOR_ATTACHMENT_LOAD);
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertEquals(List.of(
+                new CompiledGraph.Batch(RenderGraph.QueueType.COMPUTE, 0, 1, 0, List.of()),
+                new CompiledGraph.Batch(RenderGraph.QueueType.GRAPHICS, 1, 1, 0,
+                        List.of(new CompiledGraph.BatchWait(0, VK_PIPELINE_STAGE_VERTEX_INPUT_BIT))),
+                new CompiledGraph.Batch(RenderGraph.QueueType.GRAPHICS, 2, 2,
+                        VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT,
+                        List.of(new CompiledGraph.BatchWait(1, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT)))),
+                compiledGraph.batches());
+        // Waits replace the barriers of accesses made by earlier batches, and the render pass handles the acquisition
+        assertNull(findPass(compiledGraph, "geometry").barrier());
+        assertNull(findPass(compiledGraph, "lighting").barrier());
+        RenderGraph.ImageBarrier overlayBarrier = findPass(compiledGraph, "overlay").barrier().imageBarriers().get(0);
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, overlayBarrier.srcStageMask());
+        assertEquals(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL, overlayBarrier.oldLayout());
+    }
+
+    @Test
+    void batchesAreRecordedApart() {
+        RenderGraph renderGraph = new RenderGraph();
+        List<String> recorded = new ArrayList<>();
+        renderGraph.addPass("compute", RenderGraph.QueueType.COMPUTE, cmd -> recorded.add("compute")).sideEffects();
+        renderGraph.addPass("first", cmd -> recorded.add("first")).sideEffects();
+        renderGraph.addPass("second", cmd -> recorded.add("second")).sideEffects();
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertEquals(2, compiledGraph.batches().size());
+        compiledGraph.record(null, 1);
+        assertEquals(List.of("first", "second"), recorded);
+    }
+
+    @Test
+    void crossBatchTransitionsChainWithWaits() {
+        // Same shape as the scaled output: lighting before the acquisition, the upscale after it
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource scaledOutput = createTransient(renderGraph, "scaledOutput");
+        RenderGraph.Resource swapChainImage = renderGraph.importImage("swapChainImage", () -> 2L,
+                VK_IMAGE_ASPECT_COLOR_BIT, VK_IMAGE_LAYOUT_UNDEFINED).markAcquired().markOutput();
+        renderGraph.addPass("lighting", cmd -> {
+        }).write(scaledOutput, ResourceAccess.COLOR_ATTACHMENT_CLEAR)
+                .finalLayout(scaledOutput, VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+        renderGraph.addPass("blit", cmd -> {
+        }).read(scaledOutput, TRANSFER_READ).write(swapChainImage, ResourceAccess.TRANSFER_WRITE);
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        CompiledGraph.Batch blitBatch = compiledGraph.batches().get(1);
+        assertEquals(VK_PIPELINE_STAGE_TRANSFER_BIT, blitBatch.acquireStageMask());
+        assertEquals(List.of(new CompiledGraph.BatchWait(0, VK_PIPELINE_STAGE_TRANSFER_BIT)), blitBatch.waits());
+
+        Map<String, RenderGraph.ImageBarrier> barriers = new HashMap<>();
+        findPass(compiledGraph, "blit").barrier().imageBarriers()
+                .forEach(b -> barriers.put(b.resource().getName(), b));
+        // Both transitions start in the stage the semaphores are waited in, which is all they have to wait for
+        RenderGraph.ImageBarrier source = barriers.get("scaledOutput");
+        assertEquals(VK_PIPELINE_STAGE_TRANSFER_BIT, source.srcStageMask());
+        assertEquals(0, source.srcAccessMask());
+        assertEquals(VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, source.newLayout());
+        RenderGraph.ImageBarrier destination = barriers.get("swapChainImage");
+        assertEquals(VK_PIPELINE_STAGE_TRANSFER_BIT, destination.srcStageMask());
+        assertEquals(VK_IMAGE_LAYOUT_UNDEFINED, destination.oldLayout());
+        assertEquals(VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, destination.newLayout());
+    }
+
+    @Test
+    void barrierIsSharedByConsumers() {
+        // Same shape as the scene graph: culling feeds the geometry and shadow passes
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Pass cull = renderGraph.addPass("cull", cmd -> {
+        });
+        RenderGraph.Pass geometry = renderGraph.addPass("geometry", cmd -> {
+        }).sideEffects();
+        RenderGraph.Pass shadows = renderGraph.addPass("shadows", cmd -> {
+        }).sideEffects();
+        RenderGraph.Resource cameraCommands = renderGraph.importBuffer("cameraCommands", null);
+        RenderGraph.Resource cascadeCommands = renderGraph.importBuffer("cascadeCommands", null);
+        RenderGraph.Resource cascadeInstances = renderGraph.importBuffer("cascadeInstances", null);
+        cull.write(cameraCommands, ResourceAccess.COMPUTE_WRITE)
+                .write(cascadeCommands, ResourceAccess.COMPUTE_WRITE)
+                .write(cascadeInstances, ResourceAccess.COMPUTE_WRITE);
+        geometry.read(cameraCommands, ResourceAccess.INDIRECT_READ);
+        shadows.read(cascadeCommands, ResourceAccess.INDIRECT_READ).read(cascadeInstances, ResourceAccess.VERTEX_READ);
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertEquals(List.of("cull", "geometry", "shadows"), passNames(compiledGraph));
+        assertNull(findPass(compiledGraph, "cull").barrier());
+        assertNull(findPass(compiledGraph, "shadows").barrier());
+        CompiledGraph.Barrier barrier = findPass(compiledGraph, "geometry").barrier();
+        assertEquals(VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, barrier.srcStageMask());
+        assertEquals(VK_PIPELINE_STAGE_DRAW_INDIRECT_BIT | VK_PIPELINE_STAGE_VERTEX_INPUT_BIT,
+                barrier.dstStageMask());
+        assertEquals(VK_ACCESS_SHADER_WRITE_BIT, barrier.srcAccessMask());
+        assertEquals(VK_ACCESS_INDIRECT_COMMAND_READ_BIT | VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT,
+                barrier.dstAccessMask());
+        assertTrue(barrier.imageBarriers().isEmpty());
+    }
+
+    @Test
+    void culledPasses() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource unused = renderGraph.importBuffer("unused", null);
+        RenderGraph.Resource intermediate = renderGraph.importBuffer("intermediate", null);
+        RenderGraph.Resource output = renderGraph.importBuffer("output", null).markOutput();
+        renderGraph.addPass("producer", cmd -> {
+        }).write(intermediate, ResourceAccess.COMPUTE_WRITE);
+        renderGraph.addPass("unusedProducer", cmd -> {
+        }).write(unused, ResourceAccess.COMPUTE_WRITE);
+        renderGraph.addPass("consumer", cmd -> {
+        }).read(intermediate, ResourceAccess.VERTEX_READ).write(output, ResourceAccess.COMPUTE_WRITE);
+        renderGraph.addPass("unusedReader", cmd -> {
+        }).read(output, ResourceAccess.INDIRECT_READ);
+        renderGraph.addPass("present", cmd -> {
+        }).sideEffects();
+
+        assertEquals(List.of("producer", "consumer", "present"), passNames(renderGraph.compile()));
+    }
+
+    @Test
+    void imageLayoutTransitions() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource image = renderGraph.importImage("albedo", null, VK_IMAGE_ASPECT_COLOR_BIT,
+                VK_IMAGE_LAYOUT_UNDEFINED).markOutput();
+        // The render pass clears the attachment and leaves it ready to be sampled
+        renderGraph.addPass("geometry", cmd -> {
+        }).write(image, ResourceAccess.COLOR_ATTACHMENT_CLEAR)
+                .finalLayout(image, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+        renderGraph.addPass("lighting", cmd -> {
+        }).read(image, FRAGMENT_SAMPLED_READ).sideEffects();
+        renderGraph.addPass("copy", cmd -> {
+        }).read(image, TRANSFER_READ).sideEffects();
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertNull(findPass(compiledGraph, "geometry").barrier());
+
+        List<RenderGraph.ImageBarrier> lightingBarriers = findPass(compiledGraph, "lighting").barrier().imageBarriers();
+        assertEquals(1, lightingBarriers.size());
+        RenderGraph.ImageBarrier visibility = lightingBarriers.get(0);
+        assertEquals(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL, visibility.oldLayout());
+        assertEquals(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL, visibility.newLayout());
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT, visibility.srcStageMask());
+        assertEquals(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT, visibility.srcAccessMask());
+        assertEquals(VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, visibility.dstStageMask());
+        assertEquals(VK_ACCESS_SHADER_READ_BIT, visibility.dstAccessMask());
+
+        List<RenderGraph.ImageBarrier> copyBarriers = findPass(compiledGraph, "copy").barrier().imageBarriers();
+        assertEquals(1, copyBarriers.size());
+        RenderGraph.ImageBarrier transition = copyBarriers.get(0);
+        assertEquals(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL, transition.oldLayout());
+        assertEquals(VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, transition.newLayout());
+        // Waits for the write and for the sampling, which must be done before the layout changes
+        assertEquals(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT,
+                transition.srcStageMask());
+        assertEquals(VK_PIPELINE_STAGE_TRANSFER_BIT, transition.dstStageMask());
+    }
+
+    @Test
+    void invalidAccesses() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource buffer = renderGraph.importBuffer("buffer", null);
+        RenderGraph.Pass pass = renderGraph.addPass("pass", cmd -> {
+        });
+        assertThrows(RuntimeException.class, () -> pass.read(buffer, ResourceAccess.COMPUTE_WRITE));
+        assertThrows(RuntimeException.class, () -> pass.write(buffer, ResourceAccess.VERTEX_READ));
+
+        RenderGraph.Resource image = renderGraph.importImage("image", null, VK_IMAGE_ASPECT_COLOR_BIT,
+                VK_IMAGE_LAYOUT_UNDEFINED);
+        pass.read(image, FRAGMENT_SAMPLED_READ);
+        assertThrows(RuntimeException.class, () -> pass.read(image, TRANSFER_READ));
+    }
+
+    @Test
+    void readsAreNotSynchronizedTwice() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource buffer = renderGraph.importBuffer("buffer", null);
+        renderGraph.addPass("write", cmd -> {
+        }).write(buffer, ResourceAccess.COMPUTE_WRITE);
+        renderGraph.addPass("read", cmd -> {
+        }).read(buffer, ResourceAccess.VERTEX_READ).sideEffects();
+        renderGraph.addPass("readAgain", cmd -> {
+        }).read(buffer, ResourceAccess.VERTEX_READ).sideEffects();
+        renderGraph.addPass("readIndirect", cmd -> {
+        }).read(buffer, ResourceAccess.INDIRECT_READ).sideEffects();
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertNotNull(findPass(compiledGraph, "read").barrier());
+        assertNull(findPass(compiledGraph, "readAgain").barrier());
+        // A stage which has not seen the write yet gets its own barrier
+        CompiledGraph.Barrier barrier = findPass(compiledGraph, "readIndirect").barrier();
+        assertEquals(VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, barrier.srcStageMask());
+        assertEquals(VK_PIPELINE_STAGE_DRAW_INDIRECT_BIT, barrier.dstStageMask());
+    }
+
+    @Test
+    void transientsAreWrittenFirst() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource image = createTransient(renderGraph, "image");
+        renderGraph.addPass("read", cmd -> {
+        }).read(image, FRAGMENT_SAMPLED_READ).sideEffects();
+        assertThrows(RuntimeException.class, renderGraph::compile);
+    }
+
+    @Test
+    void writeAfterRead() {
+        RenderGraph renderGraph = new RenderGraph();
+        RenderGraph.Resource buffer = renderGraph.importBuffer("buffer", null);
+        renderGraph.addPass("read", cmd -> {
+        }).read(buffer, ResourceAccess.VERTEX_READ).sideEffects();
+        renderGraph.addPass("write", cmd -> {
+        }).write(buffer, ResourceAccess.COMPUTE_WRITE).sideEffects();
+
+        CompiledGraph compiledGraph = renderGraph.compile();
+        assertNull(findPass(compiledGraph, "read").barrier());
+        // Execution dependency only, reads have nothing to make available
+        CompiledGraph.Barrier barrier = findPass(compiledGraph, "write").barrier();
+        assertEquals(VK_PIPELINE_STAGE_VERTEX_INPUT_BIT, barrier.srcStageMask());
+        assertEquals(VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, barrier.dstStageMask());
+        assertEquals(0, barrier.srcAccessMask());
+    }
+}
@@ -0,0 +1,39 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.vulkan.VK11.*;
+
+class DescriptorAllocatorTest {
+
+    private static DescriptorPool.DescriptorTypeCount typeCount(int count, int descriptorType) {
+        return new DescriptorPool.DescriptorTypeCount(count, descriptorType);
+    }
+
+    @Test
+    void largeSetsDoNotFit() {
+        // A pool of 16 sets holds 64 combined image samplers
+        assertTrue(DescriptorAllocator.fitsPool(List.of(typeCount(64, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)),
+                16));
+        assertFalse(DescriptorAllocator.fitsPool(List.of(typeCount(65, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)),
+                16));
+        assertFalse(DescriptorAllocator.fitsPool(List.of(typeCount(1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER),
+                typeCount(33, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)), 16));
+    }
+
+    @Test
+    void missingTypesDoNotFit() {
+        assertFalse(DescriptorAllocator.fitsPool(List.of(typeCount(1, VK_DESCRIPTOR_TYPE_STORAGE_IMAGE)), 16));
+    }
+
+    @Test
+    void smallSetsFit() {
+        assertTrue(DescriptorAllocator.fitsPool(List.of(typeCount(1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)), 16));
+        assertTrue(DescriptorAllocator.fitsPool(List.of(typeCount(1, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC),
+                typeCount(2, VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)), 16));
+        assertTrue(DescriptorAllocator.fitsPool(List.of(), 16));
+    }
+}
@@ -0,0 +1,118 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.joml.*;
+import org.junit.jupiter.api.Test;
+
+import java.lang.Math;
+import java.nio.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceDataTest {
+
+    private static final int POS = InstanceData.SIZE_IN_BYTES;
+    // SNORM16 has a resolution of 1 / 32767 per component
+    private static final float ROTATION_EPSILON = 1e-4f;
+
+    private static void assertSameRotation(Quaternionf expected, Quaternionf actual) {
+        // q and -q are the same rotation
+        float dot = Math.abs(expected.dot(actual));
+        assertEquals(1.0f, dot, ROTATION_EPSILON, "Expected " + expected + " but was " + actual);
+        Vector3f v = new Vector3f(1, 2, 3);
+        Vector3f expectedV = expected.transform(v, new Vector3f());
+        Vector3f actualV = actual.transform(v, new Vector3f());
+        assertTrue(expectedV.equals(actualV, ROTATION_EPSILON * 10), "Expected " + expectedV + " but was " + actualV);
+    }
+
+    private static ByteBuffer pack(Vector3f position, Quaternionf rotation, float scale, int materialIdx) {
+        // Packed after a first instance, so offsets relative to pos are checked
+        ByteBuffer buffer = ByteBuffer.allocate(InstanceData.SIZE_IN_BYTES * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0x5A);
+        }
+        InstanceData.pack(position, rotation, scale, materialIdx, buffer, POS);
+        return buffer;
+    }
+
+    private static Quaternionf roundTripRotation(Quaternionf rotation) {
+        ByteBuffer buffer = pack(new Vector3f(), rotation, 1.0f, 0);
+        return InstanceData.unpackRotation(buffer, POS, new Quaternionf());
+    }
+
+    @Test
+    void identityRoundTrip() {
+        Vector3f position = new Vector3f(1.5f, -2.25f, 1000.0f);
+        ByteBuffer buffer = pack(position, new Quaternionf(), 2.5f, 7);
+
+        assertEquals(position, InstanceData.unpackPosition(buffer, POS, new Vector3f()));
+        assertEquals(2.5f, InstanceData.unpackScale(buffer, POS));
+        assertEquals(7, InstanceData.unpackMaterialIdx(buffer, POS));
+        Quaternionf rotation = InstanceData.unpackRotation(buffer, POS, new Quaternionf());
+        assertEquals(new Quaternionf(0, 0, 0, 1), rotation);
+    }
+
+    @Test
+    void materialAndPaddingWords() {
+        ByteBuffer buffer = pack(new Vector3f(), new Quaternionf(), 1.0f, Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, InstanceData.unpackMaterialIdx(buffer, POS));
+        assertEquals(Integer.MAX_VALUE, buffer.getInt(POS + InstanceData.MATERIAL_OFFSET));
+        assertEquals(0, buffer.getInt(POS + InstanceData.MATERIAL_OFFSET + GraphConstants.INT_LENGTH));
+        assertEquals(32, InstanceData.SIZE_IN_BYTES);
+
+        // Nothing is written outside the instance
+        for (int i = 0; i < POS; i++) {
+            assertEquals((byte) 0x5A, buffer.get(i));
+        }
+    }
+
+    @Test
+    void negatedQuaternionIsSameRotation() {
+        Quaternionf rotation = new Quaternionf().rotateXYZ(0.3f, -1.2f, 2.0f);
+        Quaternionf negated = new Quaternionf(-rotation.x, -rotation.y, -rotation.z, -rotation.w);
+        assertSameRotation(rotation, roundTripRotation(rotation));
+        assertSameRotation(rotation, roundTripRotation(negated));
+    }
+
+    @Test
+    void nonUnitQuaternionIsNormalized() {
+        Quaternionf rotation = new Quaternionf().rotateAxis(0.7f, new Vector3f(1, 1, 0).normalize());
+        Quaternionf scaled = new Quaternionf(rotation.x * 3, rotation.y * 3, rotation.z * 3, rotation.w * 3);
+        Quaternionf shrunk = new Quaternionf(rotation.x * 0.01f, rotation.y * 0.01f, rotation.z * 0.01f,
+                rotation.w * 0.01f);
+        assertSameRotation(rotation, roundTripRotation(scaled));
+        assertSameRotation(rotation, roundTripRotation(shrunk));
+        assertEquals(1.0f, roundTripRotation(scaled).lengthSquared(), ROTATION_EPSILON);
+    }
+
+    @Test
+    void rightAngleRotations() {
+        float angle = (float) Math.toRadians(90);
+        assertSameRotation(new Quaternionf().rotateX(angle), roundTripRotation(new Quaternionf().rotateX(angle)));
+        assertSameRotation(new Quaternionf().rotateY(angle), roundTripRotation(new Quaternionf().rotateY(angle)));
+        assertSameRotation(new Quaternionf().rotateZ(angle), roundTripRotation(new Quaternionf().rotateZ(angle)));
+        assertSameRotation(new Quaternionf().rotateX(-angle), roundTripRotation(new Quaternionf().rotateX(-angle)));
+
+        Vector3f v = roundTripRotation(new Quaternionf().rotateZ(angle)).transform(new Vector3f(1, 0, 0));
+        assertTrue(v.equals(new Vector3f(0, 1, 0), ROTATION_EPSILON), "Rotated vector " + v);
+    }
+
+    @Test
+    void snorm16Clamping() {
+        assertEquals(Short.MAX_VALUE, InstanceData.toSnorm16(1.0f));
+        assertEquals(Short.MAX_VALUE, InstanceData.toSnorm16(1.5f));
+        assertEquals(-Short.MAX_VALUE, InstanceData.toSnorm16(-1.0f));
+        assertEquals(-Short.MAX_VALUE, InstanceData.toSnorm16(-1.5f));
+        assertEquals(0, InstanceData.toSnorm16(0.0f));
+
+        assertEquals(1.0f, InstanceData.fromSnorm16(Short.MAX_VALUE));
+        assertEquals(-1.0f, InstanceData.fromSnorm16((short) -Short.MAX_VALUE));
+        // -32768 has no positive counterpart and is clamped to -1
+        assertEquals(-1.0f, InstanceData.fromSnorm16(Short.MIN_VALUE));
+    }
+
+    @Test
+    void zeroLengthQuaternionIsIdentity() {
+        Quaternionf rotation = roundTripRotation(new Quaternionf(0, 0, 0, 0));
+        assertEquals(new Quaternionf(0, 0, 0, 1), rotation);
+    }
+}
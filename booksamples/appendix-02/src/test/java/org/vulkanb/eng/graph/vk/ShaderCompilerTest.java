@@ -0,0 +1,83 @@
+package org.vulkanb.eng.graph.vk;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.lwjgl.util.shaderc.Shaderc;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShaderCompilerTest {
+
+    private static final String VERTEX_SHADER = """
+            #version 450
+            void main() {
+                gl_Position = vec4(0.0, 0.0, 0.0, 1.0);
+            }
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void cleanup() {
+        ShaderCompiler.cleanup();
+    }
+
+    private static byte[] compile() {
+        return ShaderCompiler.compileShader(VERTEX_SHADER, Shaderc.shaderc_glsl_vertex_shader);
+    }
+
+    @Test
+    void compilesAfterCleanupOnWorkerThread() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(ShaderCompiler.isValidSpirv(executor.submit(ShaderCompilerTest::compile).get()));
+            // Compilers released here must not be reused by the worker which created them
+            ShaderCompiler.cleanup();
+            assertTrue(ShaderCompiler.isValidSpirv(executor.submit(ShaderCompilerTest::compile).get()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void corruptCacheIsRecompiled() throws IOException {
+        Path glslPath = tempDir.resolve("shader.glsl");
+        Files.writeString(glslPath, VERTEX_SHADER);
+        Path spvPath = tempDir.resolve("shader.spv");
+        Path cacheDir = tempDir.resolve("cache");
+        ShaderCompiler.compileShaderIfChanged(glslPath.toString(), spvPath.toString(),
+                Shaderc.shaderc_glsl_vertex_shader, Map.of(), cacheDir);
+        byte[] compiled = Files.readAllBytes(spvPath);
+
+        List<Path> cached;
+        try (var files = Files.list(cacheDir)) {
+            cached = files.toList();
+        }
+        assertEquals(1, cached.size());
+        Files.write(cached.get(0), Arrays.copyOf(compiled, compiled.length / 2));
+
+        ShaderCompiler.compileShaderIfChanged(glslPath.toString(), spvPath.toString(),
+                Shaderc.shaderc_glsl_vertex_shader, Map.of(), cacheDir);
+        assertArrayEquals(compiled, Files.readAllBytes(spvPath));
+        assertArrayEquals(compiled, Files.readAllBytes(cached.get(0)));
+    }
+
+    @Test
+    void invalidSpirv() {
+        byte[] compiled = compile();
+        assertTrue(ShaderCompiler.isValidSpirv(compiled));
+        assertFalse(ShaderCompiler.isValidSpirv(new byte[0]));
+        assertFalse(ShaderCompiler.isValidSpirv(Arrays.copyOf(compiled, 16)));
+        assertFalse(ShaderCompiler.isValidSpirv(Arrays.copyOf(compiled, compiled.length - 1)));
+
+        byte[] badMagic = compiled.clone();
+        badMagic[0] ^= 0x7f;
+        assertFalse(ShaderCompiler.isValidSpirv(badMagic));
+    }
+}
@@ -0,0 +1,137 @@
+package org.vulkanb.eng.scene;
+
+import org.joml.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.Math;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Building the tree from scratch, keeping it up to date as items move and querying it. Boxes are spread so that the
+// density, and therefore the number of hits of each query, does not depend on the number of items. Each frame of the
+// update benchmarks moves one percent of the items back and forth, as Scene.getEntityBvh applies queued moves
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class BvhBenchmark {
+
+    private static final float DENSITY = 0.01f;
+    // Beyond the leaf margin, so every move refits, and within it
+    private static final float FAR_MOVE = 0.5f;
+    private static final float MOVED_FRACTION = 0.01f;
+    private static final float NEAR_MOVE = 0.05f;
+    private static final float QUERY_RADIUS = 5.0f;
+
+    private Aabb[] bounds;
+    private Bvh<Integer> bvh;
+    private Aabb[] farBounds;
+    private FrustumIntersection frustumIntersection;
+    private boolean moved;
+    private int[] movedItems;
+    private Aabb[] nearBounds;
+    @Param({"10000", "100000", "1000000"})
+    private int numItems;
+    private Vector3f queryCenter;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        float side = (float) Math.cbrt(numItems / DENSITY);
+        bounds = new Aabb[numItems];
+        for (int i = 0; i < numItems; i++) {
+            float x = random.nextFloat() * side;
+            float y = random.nextFloat() * side;
+            float z = random.nextFloat() * side;
+            bounds[i] = new Aabb().include(x, y, z).include(x + 1, y + 1, z + 1);
+        }
+        bvh = build();
+
+        movedItems = new int[(int) (numItems * MOVED_FRACTION)];
+        farBounds = new Aabb[movedItems.length];
+        nearBounds = new Aabb[movedItems.length];
+        for (int i = 0; i < movedItems.length; i++) {
+            movedItems[i] = random.nextInt(numItems);
+            farBounds[i] = new Aabb(bounds[movedItems[i]]);
+            farBounds[i].getMin().add(FAR_MOVE, 0, 0);
+            farBounds[i].getMax().add(FAR_MOVE, 0, 0);
+            nearBounds[i] = new Aabb(bounds[movedItems[i]]);
+            nearBounds[i].getMin().add(NEAR_MOVE, 0, 0);
+            nearBounds[i].getMax().add(NEAR_MOVE, 0, 0);
+        }
+
+        queryCenter = new Vector3f(side / 2);
+        Matrix4f viewProj = new Matrix4f().perspective((float) Math.toRadians(60), 1.0f, 0.1f, 50.0f)
+                .lookAt(queryCenter.x, queryCenter.y, queryCenter.z, queryCenter.x, queryCenter.y,
+                        queryCenter.z + 1, 0, 1, 0);
+        frustumIntersection = new FrustumIntersection(viewProj);
+    }
+
+    private Bvh<Integer> build() {
+        Bvh<Integer> result = new Bvh<>();
+        for (int i = 0; i < numItems; i++) {
+            result.add(i, bounds[i]);
+        }
+        result.build();
+        return result;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Bvh<Integer> buildTree() {
+        return build();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean moveFar() {
+        moveItems(farBounds);
+        // Amortizes the rebuild once the refits outnumber the items
+        return bvh.rebuildIfDegraded();
+    }
+
+    private void moveItems(Aabb[] movedBounds) {
+        moved = !moved;
+        for (int i = 0; i < movedItems.length; i++) {
+            int item = movedItems[i];
+            bvh.update(item, moved ? movedBounds[i] : bounds[item]);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void moveNear() {
+        moveItems(nearBounds);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void queryFrustum(Blackhole blackhole) {
+        bvh.queryFrustum(frustumIntersection, blackhole::consume);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Bvh.RayHit<Integer> queryRay() {
+        return bvh.queryRay(queryCenter, new Vector3f(1, 0.5f, 0.25f).normalize());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void querySphere(Blackhole blackhole) {
+        bvh.querySphere(queryCenter, QUERY_RADIUS, blackhole::consume);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void reinsert() {
+        // Structural update, the leaves are taken out and inserted again instead of refitted in place
+        for (int item : movedItems) {
+            bvh.remove(item);
+            bvh.insert(item, bounds[item]);
+        }
+        bvh.rebuildIfDegraded();
+    }
+}
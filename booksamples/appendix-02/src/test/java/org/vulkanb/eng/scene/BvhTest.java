@@ -0,0 +1,129 @@
+package org.vulkanb.eng.scene;
+
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BvhTest {
+
+    private static final int NUM_ITEMS = 500;
+    private static final float SIDE = 50.0f;
+
+    private static void assertSphereMatches(Bvh<Integer> bvh, Map<Integer, Aabb> items, Vector3f center, float radius) {
+        Set<Integer> expected = new HashSet<>();
+        items.forEach((item, bounds) -> {
+            if (bounds.testSphere(center, radius)) {
+                expected.add(item);
+            }
+        });
+        Set<Integer> actual = new HashSet<>();
+        bvh.querySphere(center, radius, actual::add);
+        assertEquals(expected, actual);
+    }
+
+    private static Aabb box(float x, float y, float z) {
+        return new Aabb().include(x, y, z).include(x + 1, y + 1, z + 1);
+    }
+
+    private static Aabb randomBox(Random random) {
+        return box(random.nextFloat() * SIDE, random.nextFloat() * SIDE, random.nextFloat() * SIDE);
+    }
+
+    @Test
+    void incrementalChangesMatchBruteForce() {
+        Random random = new Random(0);
+        Bvh<Integer> bvh = new Bvh<>();
+        Map<Integer, Aabb> items = new HashMap<>();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            Aabb bounds = randomBox(random);
+            items.put(i, bounds);
+            bvh.insert(i, bounds);
+        }
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            int item = random.nextInt(NUM_ITEMS);
+            if (i % 10 == 0) {
+                items.remove(item);
+                bvh.remove(item);
+            } else if (i % 2 == 0) {
+                // Within the leaf margin
+                Aabb bounds = items.getOrDefault(item, randomBox(random));
+                Vector3f min = bounds.getMin();
+                bounds = box(min.x + 0.05f, min.y, min.z);
+                items.put(item, bounds);
+                bvh.update(item, bounds);
+            } else {
+                Aabb bounds = randomBox(random);
+                items.put(item, bounds);
+                bvh.update(item, bounds);
+            }
+        }
+        assertEquals(items.size(), bvh.size());
+        for (int i = 0; i < 20; i++) {
+            assertSphereMatches(bvh, items, new Vector3f(random.nextFloat() * SIDE), 5.0f);
+        }
+
+        assertTrue(bvh.rebuildIfDegraded());
+        for (int i = 0; i < 20; i++) {
+            assertSphereMatches(bvh, items, new Vector3f(random.nextFloat() * SIDE), 5.0f);
+        }
+    }
+
+    @Test
+    void queryRayFindsClosest() {
+        Bvh<Integer> bvh = new Bvh<>();
+        for (int i = 0; i < 10; i++) {
+            bvh.insert(i, box(i * 3, 0, 0));
+        }
+        Bvh.RayHit<Integer> hit = bvh.queryRay(new Vector3f(14, 0.5f, 0.5f), new Vector3f(1, 0, 0));
+        assertEquals(5, hit.item());
+        assertEquals(1.0f, hit.distance(), 1e-5f);
+
+        bvh.update(5, box(100, 100, 100));
+        assertEquals(6, bvh.queryRay(new Vector3f(14, 0.5f, 0.5f), new Vector3f(1, 0, 0)).item());
+        bvh.remove(6);
+        assertEquals(7, bvh.queryRay(new Vector3f(14, 0.5f, 0.5f), new Vector3f(1, 0, 0)).item());
+        assertNull(bvh.queryRay(new Vector3f(14, 5, 0.5f), new Vector3f(1, 0, 0)));
+    }
+
+    @Test
+    void rebuildOnlyOnceDegraded() {
+        Bvh<Integer> bvh = new Bvh<>();
+        for (int i = 0; i < 10; i++) {
+            bvh.add(i, box(i * 2, 0, 0));
+        }
+        bvh.build();
+        for (int i = 0; i < 10; i++) {
+            bvh.update(i, box(i * 2, 5, 0));
+        }
+        assertFalse(bvh.rebuildIfDegraded());
+        // Moves inside the leaf margin do not change the tree
+        bvh.update(0, box(0.05f, 5, 0));
+        assertFalse(bvh.rebuildIfDegraded());
+        bvh.update(0, box(0, 10, 0));
+        assertTrue(bvh.rebuildIfDegraded());
+        assertFalse(bvh.rebuildIfDegraded());
+    }
+
+    @Test
+    void removingEveryItemEmptiesTree() {
+        Bvh<Integer> bvh = new Bvh<>();
+        for (int i = 0; i < 10; i++) {
+            bvh.insert(i, box(i, 0, 0));
+        }
+        for (int i = 0; i < 10; i++) {
+            bvh.remove(i);
+        }
+        bvh.remove(0);
+        assertEquals(0, bvh.size());
+        List<Integer> hits = new ArrayList<>();
+        bvh.querySphere(new Vector3f(), 100.0f, hits::add);
+        assertTrue(hits.isEmpty());
+
+        bvh.insert(3, box(0, 0, 0));
+        bvh.querySphere(new Vector3f(), 100.0f, hits::add);
+        assertEquals(List.of(3), hits);
+    }
+}
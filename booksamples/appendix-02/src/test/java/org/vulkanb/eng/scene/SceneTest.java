@@ -0,0 +1,72 @@
+package org.vulkanb.eng.scene;
+
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SceneTest {
+
+    private static List<Entity> queryEntities(Scene scene, float x, float y, float z) {
+        List<Entity> result = new ArrayList<>();
+        scene.getEntityBvh().querySphere(new Vector3f(x, y, z), 0.5f, result::add);
+        return result;
+    }
+
+    @Test
+    void entityBvhFollowsMoves() {
+        Scene scene = new Scene(1920, 1080);
+        Entity entity = new Entity("entity", "model", new Vector3f(0, 0, 0));
+        Entity other = new Entity("other", "model", new Vector3f(10, 0, 0));
+        scene.addEntity(entity);
+        scene.addEntity(other);
+        assertEquals(List.of(entity), queryEntities(scene, 0, 0, 0));
+
+        entity.setPosition(20, 0, 0);
+        assertTrue(queryEntities(scene, 0, 0, 0).isEmpty());
+        assertEquals(List.of(entity), queryEntities(scene, 20, 0, 0));
+
+        // Repeated moves before a query are refitted once
+        for (int i = 0; i < 100; i++) {
+            other.setPosition(10, i, 0);
+        }
+        assertEquals(List.of(other), queryEntities(scene, 10, 99, 0));
+    }
+
+    @Test
+    void entityBvhFollowsModelBounds() {
+        Scene scene = new Scene(1920, 1080);
+        Entity entity = new Entity("entity", "model", new Vector3f(0, 0, 0));
+        scene.addEntity(entity);
+        assertTrue(queryEntities(scene, 0, 4, 0).isEmpty());
+
+        Aabb bounds = new Aabb().include(-1, 0, -1).include(1, 4, 1);
+        ModelData.MeshData meshData = new ModelData.MeshData(null, null, null, null, null, null, 0, bounds);
+        scene.addModelBounds(new ModelData("model", List.of(meshData), List.of()));
+        assertEquals(List.of(entity), queryEntities(scene, 0, 4, 0));
+
+        entity.setScale(0.5f);
+        assertTrue(queryEntities(scene, 0, 4, 0).isEmpty());
+    }
+
+    @Test
+    void removedEntitiesLeaveEntityBvh() {
+        Scene scene = new Scene(1920, 1080);
+        Entity entity = new Entity("entity", "model", new Vector3f(0, 0, 0));
+        Entity other = new Entity("other", "model", new Vector3f(10, 0, 0));
+        scene.addEntity(entity);
+        scene.addEntity(other);
+
+        entity.setPosition(5, 0, 0);
+        scene.removeEntity(entity);
+        assertTrue(queryEntities(scene, 5, 0, 0).isEmpty());
+        // No longer listened to
+        entity.setPosition(10, 0, 0);
+        assertEquals(List.of(other), queryEntities(scene, 10, 0, 0));
+
+        scene.removeAllEntities();
+        assertEquals(0, scene.getEntityBvh().size());
+    }
+}